@@ -0,0 +1,170 @@
+package org.xbrlapi.data.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+
+import org.xbrlapi.utilities.Constants;
+
+/**
+ * Generates a synthetic DTS and instance of a given size for benchmarking.
+ * The DTS comprises a schema declaring the concepts, a label linkbase 
+ * with a standard label for every concept and a presentation linkbase
+ * that arranges the concepts into a tree in which each concept has up to
+ * four children.  The instance reports one fact for every concept.
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class DTSGenerator {
+
+    /**
+     * The target namespace of the generated schema.
+     */
+    public static final String NAMESPACE = "http://xbrlapi.org/benchmark";
+
+    public static final String SCHEMA = "schema.xsd";
+    public static final String LABELS = "labels.xml";
+    public static final String PRESENTATION = "presentation.xml";
+    public static final String INSTANCE = "instance.xml";
+
+    /**
+     * The number of children of each concept in the presentation tree.
+     */
+    public static final int BRANCHING = 4;
+
+    private File directory;
+    private int concepts;
+
+    /**
+     * @param directory The directory to write the documents to.
+     * @param concepts The number of concepts to declare.
+     */
+    public DTSGenerator(File directory, int concepts) {
+        this.directory = directory;
+        this.concepts = concepts;
+    }
+
+    /**
+     * Writes the schema, linkbases and instance to the directory.
+     * @return the URI of the instance, from which the rest of the 
+     * DTS can be discovered.
+     * @throws IOException if the documents cannot be written.
+     */
+    public URI generate() throws IOException {
+        directory.mkdirs();
+        writeSchema();
+        writeLabels();
+        writePresentation();
+        writeInstance();
+        return new File(directory,INSTANCE).toURI();
+    }
+
+    /**
+     * @return the URI of the generated schema.
+     */
+    public URI getSchemaURI() {
+        return new File(directory,SCHEMA).toURI();
+    }
+
+    /**
+     * @param i The concept number.
+     * @return the name of the concept.
+     */
+    public static String getConceptName(int i) {
+        return "c" + i;
+    }
+
+    private PrintWriter open(String name) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(directory,name)),"UTF-8"));
+    }
+
+    private void writeSchema() throws IOException {
+        PrintWriter out = open(SCHEMA);
+        try {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<schema xmlns=\"" + Constants.XMLSchemaNamespace + "\" xmlns:xbrli=\"" + Constants.XBRL21Namespace + "\" xmlns:link=\"" + Constants.XBRL21LinkNamespace + "\" xmlns:xlink=\"" + Constants.XLinkNamespace + "\" targetNamespace=\"" + NAMESPACE + "\" elementFormDefault=\"qualified\">");
+            out.println("  <annotation><appinfo>");
+            out.println("    <link:linkbaseRef xlink:type=\"simple\" xlink:href=\"" + LABELS + "\" xlink:arcrole=\"http://www.w3.org/1999/xlink/properties/linkbase\" xlink:role=\"http://www.xbrl.org/2003/role/labelLinkbaseRef\"/>");
+            out.println("    <link:linkbaseRef xlink:type=\"simple\" xlink:href=\"" + PRESENTATION + "\" xlink:arcrole=\"http://www.w3.org/1999/xlink/properties/linkbase\" xlink:role=\"http://www.xbrl.org/2003/role/presentationLinkbaseRef\"/>");
+            out.println("  </appinfo></annotation>");
+            out.println("  <import namespace=\"" + Constants.XBRL21Namespace + "\" schemaLocation=\"http://www.xbrl.org/2003/xbrl-instance-2003-12-31.xsd\"/>");
+            for (int i=0; i<concepts; i++) {
+                String name = getConceptName(i);
+                out.println("  <element id=\"" + name + "\" name=\"" + name + "\" type=\"xbrli:monetaryItemType\" substitutionGroup=\"xbrli:item\" xbrli:periodType=\"instant\" nillable=\"true\"/>");
+            }
+            out.println("</schema>");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeLinkbaseStart(PrintWriter out) {
+        out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.println("<link:linkbase xmlns:link=\"" + Constants.XBRL21LinkNamespace + "\" xmlns:xlink=\"" + Constants.XLinkNamespace + "\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"" + Constants.XBRL21LinkNamespace + " http://www.xbrl.org/2003/xbrl-linkbase-2003-12-31.xsd\">");
+    }
+
+    private void writeLocator(PrintWriter out, int i) {
+        String name = getConceptName(i);
+        out.println("    <link:loc xlink:type=\"locator\" xlink:href=\"" + SCHEMA + "#" + name + "\" xlink:label=\"" + name + "\"/>");
+    }
+
+    private void writeLabels() throws IOException {
+        PrintWriter out = open(LABELS);
+        try {
+            writeLinkbaseStart(out);
+            out.println("  <link:labelLink xlink:type=\"extended\" xlink:role=\"" + Constants.StandardLinkRole + "\">");
+            for (int i=0; i<concepts; i++) {
+                String name = getConceptName(i);
+                writeLocator(out,i);
+                out.println("    <link:label xlink:type=\"resource\" xlink:label=\"" + name + "_label\" xlink:role=\"" + Constants.StandardLabelRole + "\" xml:lang=\"en\">Concept " + i + "</link:label>");
+                out.println("    <link:labelArc xlink:type=\"arc\" xlink:arcrole=\"" + Constants.LabelArcrole + "\" xlink:from=\"" + name + "\" xlink:to=\"" + name + "_label\"/>");
+            }
+            out.println("  </link:labelLink>");
+            out.println("</link:linkbase>");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writePresentation() throws IOException {
+        PrintWriter out = open(PRESENTATION);
+        try {
+            writeLinkbaseStart(out);
+            out.println("  <link:presentationLink xlink:type=\"extended\" xlink:role=\"" + Constants.StandardLinkRole + "\">");
+            for (int i=0; i<concepts; i++) {
+                writeLocator(out,i);
+            }
+            for (int i=1; i<concepts; i++) {
+                int parent = (i - 1) / BRANCHING;
+                int order = (i - 1) % BRANCHING + 1;
+                out.println("    <link:presentationArc xlink:type=\"arc\" xlink:arcrole=\"" + Constants.PresentationArcrole + "\" xlink:from=\"" + getConceptName(parent) + "\" xlink:to=\"" + getConceptName(i) + "\" order=\"" + order + "\"/>");
+            }
+            out.println("  </link:presentationLink>");
+            out.println("</link:linkbase>");
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeInstance() throws IOException {
+        PrintWriter out = open(INSTANCE);
+        try {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<xbrli:xbrl xmlns:xbrli=\"" + Constants.XBRL21Namespace + "\" xmlns:link=\"" + Constants.XBRL21LinkNamespace + "\" xmlns:xlink=\"" + Constants.XLinkNamespace + "\" xmlns:iso4217=\"http://www.xbrl.org/2003/iso4217\" xmlns:b=\"" + NAMESPACE + "\">");
+            out.println("  <link:schemaRef xlink:type=\"simple\" xlink:href=\"" + SCHEMA + "\"/>");
+            out.println("  <xbrli:context id=\"ctx\"><xbrli:entity><xbrli:identifier scheme=\"" + NAMESPACE + "\">entity</xbrli:identifier></xbrli:entity><xbrli:period><xbrli:instant>2010-12-31</xbrli:instant></xbrli:period></xbrli:context>");
+            out.println("  <xbrli:unit id=\"usd\"><xbrli:measure>iso4217:USD</xbrli:measure></xbrli:unit>");
+            for (int i=0; i<concepts; i++) {
+                String name = getConceptName(i);
+                out.println("  <b:" + name + " contextRef=\"ctx\" unitRef=\"usd\" decimals=\"0\">" + (1000 + i) + "</b:" + name + ">");
+            }
+            out.println("</xbrli:xbrl>");
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.xbrlapi.data.benchmarks;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xbrlapi.Concept;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.LabelResource;
+import org.xbrlapi.Relationship;
+import org.xbrlapi.cache.CacheImpl;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.loader.LoaderImpl;
+import org.xbrlapi.networks.Networks;
+import org.xbrlapi.sax.EntityResolver;
+import org.xbrlapi.sax.EntityResolverImpl;
+import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.xlink.XLinkProcessor;
+import org.xbrlapi.xlink.XLinkProcessorImpl;
+import org.xbrlapi.xlink.handler.XBRLCustomLinkRecogniserImpl;
+import org.xbrlapi.xlink.handler.XBRLXLinkHandlerImpl;
+
+/**
+ * Benchmarks the main data store operations against a store 
+ * holding a synthetic DTS and instance generated by the 
+ * {@link DTSGenerator}.
+ * 
+ * The benchmarks are configured by system properties:
+ * <ul>
+ *  <li>xbrlapi.benchmark.cache: the local document cache, 
+ *  used for the XBRL specification schemas (defaults to a 
+ *  directory in the temporary directory).</li>
+ *  <li>xbrlapi.benchmark.exist.database: the configuration file
+ *  of the embedded eXist database (required for the exist store).</li>
+ *  <li>xbrlapi.benchmark.exist.username, xbrlapi.benchmark.exist.password
+ *  and xbrlapi.benchmark.exist.parent.path: the eXist credentials 
+ *  and the collection holding the data collection.</li>
+ * </ul>
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+
+    /**
+     * The data store implementation: dom or exist.
+     */
+    @Param({"dom", "exist"})
+    public String implementation;
+
+    /**
+     * The number of concepts in the synthetic DTS.
+     */
+    @Param({"100", "1000"})
+    public int concepts;
+
+    private Store store;
+
+    private File directory;
+
+    private URI schemaURI;
+
+    private String schemaIndex;
+
+    private List<String> conceptIndices;
+
+    private int next = 0;
+
+    private long mocks = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        directory = File.createTempFile("xbrlapi-benchmark","");
+        directory.delete();
+        DTSGenerator generator = new DTSGenerator(directory,concepts);
+        URI instanceURI = generator.generate();
+        schemaURI = generator.getSchemaURI();
+
+        File cache = new File(System.getProperty("xbrlapi.benchmark.cache",new File(System.getProperty("java.io.tmpdir"),"xbrlapi-cache").getPath()));
+        store = createStore(cache);
+        createLoader(store,cache).discover(instanceURI);
+
+        schemaIndex = store.getRootFragmentForDocument(schemaURI).getIndex();
+        conceptIndices = new Vector<String>(store.queryForIndices("#roots#[@type='org.xbrlapi.impl.ConceptImpl' and @uri='" + schemaURI + "']"));
+        if (conceptIndices.size() != concepts) throw new XBRLException("The synthetic DTS was not fully loaded.");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.delete();
+        for (File file: directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    private Store createStore(File cache) throws XBRLException {
+        Store result = null;
+        if (implementation.equals("dom")) {
+            result = new org.xbrlapi.data.dom.StoreImpl();
+        } else if (implementation.equals("exist")) {
+            String database = System.getProperty("xbrlapi.benchmark.exist.database");
+            if (database == null) throw new XBRLException("The xbrlapi.benchmark.exist.database property must give the embedded eXist configuration file.");
+            result = new org.xbrlapi.data.exist.embedded.StoreImpl(
+                    database,
+                    System.getProperty("xbrlapi.benchmark.exist.username","admin"),
+                    System.getProperty("xbrlapi.benchmark.exist.password",""),
+                    System.getProperty("xbrlapi.benchmark.exist.parent.path","/db"),
+                    "benchmark" + concepts);
+        } else {
+            throw new XBRLException("Unknown data store implementation: " + implementation);
+        }
+        result.setMatcher(new InStoreMatcherImpl(result,new CacheImpl(cache)));
+        return result;
+    }
+
+    private Loader createLoader(Store target, File cache) throws XBRLException {
+        XBRLXLinkHandlerImpl xlinkHandler = new XBRLXLinkHandlerImpl();
+        XBRLCustomLinkRecogniserImpl clr = new XBRLCustomLinkRecogniserImpl(); 
+        XLinkProcessor xlinkProcessor = new XLinkProcessorImpl(xlinkHandler ,clr);
+        EntityResolver entityResolver = new EntityResolverImpl(cache);
+        Loader loader = new LoaderImpl(target,xlinkProcessor, entityResolver);
+        loader.setEntityResolver(entityResolver);
+        xlinkHandler.setLoader(loader);
+        return loader;
+    }
+
+    /**
+     * @return the index of the next concept, cycling through all of them.
+     */
+    private String nextConcept() {
+        String index = conceptIndices.get(next);
+        next = (next + 1) % conceptIndices.size();
+        return index;
+    }
+
+    @Benchmark
+    public String persist() throws Exception {
+        MockImpl mock = new MockImpl("benchmark" + (mocks++));
+        store.persist(mock);
+        return mock.getIndex();
+    }
+
+    @Benchmark
+    public Fragment getXMLResource() throws Exception {
+        return store.<Fragment>getXMLResource(nextConcept());
+    }
+
+    @Benchmark
+    public List<Concept> queryForXMLResources() throws Exception {
+        return store.<Concept>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.ConceptImpl' and @parentIndex='" + schemaIndex + "']");
+    }
+
+    @Benchmark
+    public List<Concept> getChildFragments() throws Exception {
+        return store.<Concept>getChildFragments("Concept",schemaIndex);
+    }
+
+    @Benchmark
+    public List<LabelResource> getLabels() throws Exception {
+        return store.getLabels(nextConcept());
+    }
+
+    @Benchmark
+    public SortedSet<Relationship> getRelationshipsFrom() throws Exception {
+        return store.getRelationshipsFrom(nextConcept(),Constants.StandardLinkRole,Constants.PresentationArcrole);
+    }
+
+    @Benchmark
+    public Networks getNetworks() throws Exception {
+        return store.getNetworks(Constants.PresentationArcrole);
+    }
+
+}
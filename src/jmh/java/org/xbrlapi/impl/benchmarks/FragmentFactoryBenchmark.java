@@ -0,0 +1,63 @@
+package org.xbrlapi.impl.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Element;
+import org.xbrlapi.XML;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.impl.FragmentFactory;
+import org.xbrlapi.impl.MockImpl;
+
+/**
+ * Compares fragment instantiation through the fragment factory
+ * registry with the reflective instantiation that it replaced, 
+ * where the fragment class was loaded and its constructor looked up
+ * for every fragment.
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FragmentFactoryBenchmark {
+
+    @Param({"org.xbrlapi.impl.MockImpl", "org.xbrlapi.impl.ConceptImpl", "org.xbrlapi.impl.LabelResourceImpl"})
+    public String type;
+
+    private Store store;
+
+    private Element root;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = new StoreImpl();
+        MockImpl mock = new MockImpl("benchmark");
+        mock.setMetaAttribute("type",type);
+        root = mock.getMetadataRootElement();
+    }
+
+    @Benchmark
+    public XML registry() throws Exception {
+        return FragmentFactory.newFragment(store,root);
+    }
+
+    @Benchmark
+    public XML reflection() throws Exception {
+        String className = root.getAttribute("type");
+        Class<?> fragmentClass = Thread.currentThread().getContextClassLoader().loadClass(className);
+        XML xml = (XML) fragmentClass.getConstructor().newInstance();
+        xml.setStore(store);
+        xml.setResource(root);
+        return xml;
+    }
+
+}
@@ -0,0 +1,21 @@
+package org.xbrlapi;
+
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Used to record, in the data store, the next value
+ * of the counter that document identifiers are 
+ * allocated from.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public interface IdCounter extends NonFragmentXML {
+
+    /**
+     * @return the first counter value that has not yet
+     * been reserved for document identifiers.
+     * @throws XBRLException if the value is missing or is not a number.
+     */
+    public long getValue() throws XBRLException;
+
+}
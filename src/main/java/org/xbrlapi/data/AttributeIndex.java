@@ -0,0 +1,407 @@
+package org.xbrlapi.data;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Element;
+
+/**
+ * Hash indexes on selected attributes of the fragment root elements
+ * held by a data store.  For each indexed attribute, the
+ * index maps attribute values to the indices of the fragments with
+ * that value.  The fragment indices for each value are kept in the
+ * order in which the fragments were added to the index, which is the
+ * document order of the fragments in the store.
+ *
+ * The attribute values are recorded when a fragment is added so that
+ * the fragment can be removed from the index even after the attributes
+ * of its root element have been changed.
+ *
+ * The index can answer, and count the results of, simple queries of the 
+ * form #roots#[@a='x' and @b=$y] without the store having to evaluate 
+ * them as XQuery.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public final class AttributeIndex {
+
+    /**
+     * Map from attribute names to maps from attribute values to the
+     * indices of the fragments with that value.
+     */
+    private Map<String,Map<String,Set<String>>> postings = new HashMap<String,Map<String,Set<String>>>();
+
+    /**
+     * Map from fragment indices to the indexed attribute values
+     * recorded when the fragment was added to the index.
+     */
+    private Map<String,Map<String,String>> recordedValues = new HashMap<String,Map<String,String>>();
+
+    /**
+     * @param attributes The names of the fragment root element attributes to index.
+     */
+    public AttributeIndex(String[] attributes) {
+        for (String attribute: attributes) {
+            postings.put(attribute, new HashMap<String,Set<String>>());
+        }
+    }
+
+    /**
+     * @param attribute The attribute name.
+     * @return true if the attribute is indexed and false otherwise.
+     */
+    public boolean isIndexed(String attribute) {
+        return postings.containsKey(attribute);
+    }
+
+    /**
+     * Adds a fragment to the index, replacing any existing entries
+     * for a fragment with the same index.
+     * @param index The fragment index.
+     * @param root The fragment root element.
+     */
+    public void add(String index, Element root) {
+        Map<String,String> values = new HashMap<String,String>();
+        for (String attribute: postings.keySet()) {
+            if (root.hasAttribute(attribute)) values.put(attribute, root.getAttribute(attribute));
+        }
+        add(index, values);
+    }
+
+    /**
+     * Adds a fragment to the index, replacing any existing entries
+     * for a fragment with the same index.
+     * @param index The fragment index.
+     * @param values The map from attribute names to the values of
+     * those attributes for the fragment.  Attributes that the fragment
+     * does not have are omitted from the map and attributes that are
+     * not indexed are ignored.
+     */
+    public void add(String index, Map<String,String> values) {
+        remove(index);
+        Map<String,String> recorded = new HashMap<String,String>();
+        for (String attribute: values.keySet()) {
+            Map<String,Set<String>> map = postings.get(attribute);
+            if (map == null) continue;
+            String value = values.get(attribute);
+            recorded.put(attribute, value);
+            Set<String> indices = map.get(value);
+            if (indices == null) {
+                indices = new LinkedHashSet<String>();
+                map.put(value, indices);
+            }
+            indices.add(index);
+        }
+        recordedValues.put(index, recorded);
+    }
+
+    /**
+     * Removes a fragment from the index using the attribute values
+     * recorded when it was added.  Fragments that are not in the index
+     * are ignored.
+     * @param index The fragment index.
+     */
+    public void remove(String index) {
+        Map<String,String> values = recordedValues.remove(index);
+        if (values == null) return;
+        for (String attribute: values.keySet()) {
+            Map<String,Set<String>> map = postings.get(attribute);
+            String value = values.get(attribute);
+            Set<String> indices = map.get(value);
+            indices.remove(index);
+            if (indices.isEmpty()) map.remove(value);
+        }
+    }
+
+    /**
+     * @param attribute The attribute name, which must be indexed.
+     * @param value The attribute value.
+     * @return the indices, in document order, of the fragments
+     * with the given value for the attribute.
+     */
+    public Set<String> get(String attribute, String value) {
+        Set<String> indices = postings.get(attribute).get(value);
+        if (indices == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(indices);
+    }
+
+    /**
+     * @param index The fragment index.
+     * @param attribute The attribute name, which must be indexed.
+     * @return the value of the attribute for the fragment or null if
+     * the fragment does not have the attribute or is not in the index.
+     */
+    public String getValue(String index, String attribute) {
+        Map<String,String> values = recordedValues.get(index);
+        if (values == null) return null;
+        return values.get(attribute);
+    }
+
+    /**
+     * Matches queries that select fragments using only a predicate on
+     * the fragment root elements.
+     */
+    private static final Pattern INDEXED_QUERY = Pattern.compile("\\s*#roots#\\[(.*)\\]\\s*",Pattern.DOTALL);
+
+    /**
+     * Matches FLWOR expressions that just return the fragment root 
+     * elements selected using a predicate, such as
+     * for $root in #roots#[@a='x'] return $root.
+     */
+    private static final Pattern INDEXED_FLWOR = Pattern.compile("\\s*for\\s+\\$([\\w\\-\\.]+)\\s+in\\s+#roots#\\[(.*)\\]\\s+return\\s+\\$\\1\\s*",Pattern.DOTALL);
+
+    /**
+     * Matches a comparison of a fragment root element attribute to a
+     * string literal or to an external variable.  Literals containing
+     * entity or character references are left for the XQuery processor.
+     */
+    private static final Pattern INDEXED_TERM = Pattern.compile("\\s*@([\\w\\-]+)\\s*=\\s*(?:'([^'&]*)'|\"([^\"&]*)\"|\\$([\\w\\-\\.]+))\\s*");
+
+    /**
+     * Matches the conjunction between comparisons.
+     */
+    private static final Pattern CONJUNCTION = Pattern.compile("and\\s+");
+
+    /**
+     * Answers queries of the form #roots#[@a='x' and @b=$y] from the
+     * attribute indexes when all of the attributes are indexed.
+     * @param query The query, before expansion of the #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param filteringURIs The URIs of the documents that the matching
+     * fragments must come from or the empty set if there is no restriction.
+     * Queries can only be answered subject to a URI filter if the uri
+     * attribute is indexed.
+     * @return the indices of the matching fragments, in document order,
+     * or null if the query cannot be answered from the attribute indexes.
+     */
+    public List<String> getMatches(String query, Map<String,String> parameters, Set<URI> filteringURIs) {
+
+        List<Set<String>> matches = getPostings(query,parameters);
+        if (matches == null) return null;
+
+        Set<String> uris = getFilteringValues(filteringURIs);
+        if (uris == null) return null;
+
+        List<String> result = new Vector<String>();
+        for (String index: getSmallest(matches)) {
+            if (isMatch(index,matches,uris)) result.add(index);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the fragments matching queries that can be answered from 
+     * the attribute indexes without building the list of matching fragments.
+     * Queries that compare a single attribute, without a URI filter, 
+     * are counted without examining the individual fragments.
+     * @param query The query, before expansion of the #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param filteringURIs The URIs of the documents that the matching
+     * fragments must come from or the empty set if there is no restriction.
+     * @return the number of matching fragments or -1 if the query cannot
+     * be answered from the attribute indexes.
+     * @see #getMatches(String, Map, Set)
+     */
+    public long countMatches(String query, Map<String,String> parameters, Set<URI> filteringURIs) {
+
+        List<Set<String>> matches = getPostings(query,parameters);
+        if (matches == null) return -1;
+
+        Set<String> uris = getFilteringValues(filteringURIs);
+        if (uris == null) return -1;
+
+        Set<String> smallest = getSmallest(matches);
+        if (matches.size() == 1 && uris.isEmpty()) return smallest.size();
+
+        long count = 0;
+        for (String index: smallest) {
+            if (isMatch(index,matches,uris)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param query The query, before expansion of the #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * @return the sets of fragment indices matching each of the comparisons
+     * in the query predicate or null if the query cannot be answered
+     * from the attribute indexes.
+     */
+    private List<Set<String>> getPostings(String query, Map<String,String> parameters) {
+
+        String predicate = null;
+        Matcher queryMatcher = INDEXED_QUERY.matcher(query);
+        if (queryMatcher.matches()) {
+            predicate = queryMatcher.group(1);
+        } else {
+            Matcher flworMatcher = INDEXED_FLWOR.matcher(query);
+            if (! flworMatcher.matches()) return null;
+            predicate = flworMatcher.group(2);
+        }
+
+        List<Set<String>> matches = new Vector<Set<String>>();
+        Matcher termMatcher = INDEXED_TERM.matcher(predicate);
+        Matcher conjunctionMatcher = CONJUNCTION.matcher(predicate);
+        int position = 0;
+        while (true) {
+            termMatcher.region(position,predicate.length());
+            if (! termMatcher.lookingAt()) return null;
+            Set<String> indices = getTermMatches(termMatcher,parameters);
+            if (indices == null) return null;
+            matches.add(indices);
+            position = termMatcher.end();
+            if (position == predicate.length()) break;
+            conjunctionMatcher.region(position,predicate.length());
+            if (! conjunctionMatcher.lookingAt()) return null;
+            position = conjunctionMatcher.end();
+        }
+        return matches;
+    }
+
+    /**
+     * @param termMatcher A matcher that has just matched a comparison
+     * of a fragment root element attribute to a string literal or to an 
+     * external variable.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @return the indices of the fragments satisfying the comparison or null
+     * if the attribute is not indexed or the variable has no value.
+     */
+    private Set<String> getTermMatches(Matcher termMatcher, Map<String,String> parameters) {
+        String attribute = termMatcher.group(1);
+        if (! isIndexed(attribute)) return null;
+        String value = termMatcher.group(2);
+        if (value == null) value = termMatcher.group(3);
+        if (value == null) {
+            if (parameters == null) return null;
+            value = parameters.get(termMatcher.group(4));
+            if (value == null) return null;
+        }
+        return get(attribute,value);
+    }
+
+    /**
+     * @param term An expression from a predicate on the fragment root elements.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @return the indices, in document order, of the fragments satisfying
+     * the expression or null if the expression is not a comparison of an 
+     * indexed attribute to a string literal or to an external variable
+     * with a value.
+     */
+    public Set<String> getTermMatches(String term, Map<String,String> parameters) {
+        Matcher termMatcher = INDEXED_TERM.matcher(term);
+        if (! termMatcher.matches()) return null;
+        return getTermMatches(termMatcher,parameters);
+    }
+
+    /**
+     * Splits a predicate on the fragment root elements into the 
+     * expressions that it is the conjunction of.  A fragment only satisfies
+     * the predicate if it satisfies each of those expressions, so any of 
+     * them can be used to narrow down the fragments that can satisfy it.
+     * @param predicate The predicate, without the enclosing square brackets.
+     * @return the expressions that the predicate is the conjunction of or
+     * null if the predicate is a disjunction or depends upon the position
+     * of the fragments, in which case it cannot be split in this way.
+     */
+    public static List<String> getConjuncts(String predicate) {
+        if (predicate.indexOf("position(") >= 0 || predicate.indexOf("last(") >= 0) return null;
+        List<String> conjuncts = new Vector<String>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i=0; i<predicate.length(); i++) {
+            char c = predicate.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}') {
+                depth--;
+            } else if (depth == 0 && isOperator(predicate,i,"or")) {
+                return null;
+            } else if (depth == 0 && isOperator(predicate,i,"and")) {
+                conjuncts.add(predicate.substring(start,i).trim());
+                start = i + 3;
+            }
+        }
+        conjuncts.add(predicate.substring(start).trim());
+        return conjuncts;
+    }
+
+    /**
+     * @param expression The expression.
+     * @param position The position in the expression.
+     * @param operator The name of a boolean operator.
+     * @return true if the operator starts at the position and is separated
+     * from the expressions on either side of it.
+     */
+    private static boolean isOperator(String expression, int position, String operator) {
+        if (! expression.startsWith(operator,position)) return false;
+        if (position == 0) return false;
+        char before = expression.charAt(position - 1);
+        if (! Character.isWhitespace(before) && before != ')' && before != ']') return false;
+        int end = position + operator.length();
+        if (end == expression.length()) return false;
+        char after = expression.charAt(end);
+        return Character.isWhitespace(after) || after == '(';
+    }
+
+    /**
+     * @param filteringURIs The URIs of the documents that the matching
+     * fragments must come from or the empty set if there is no restriction.
+     * @return the set of URI attribute values that matching fragments must have,
+     * the empty set if there is no restriction or null if there is a restriction
+     * but the uri attribute is not indexed.
+     */
+    private Set<String> getFilteringValues(Set<URI> filteringURIs) {
+        if (filteringURIs.isEmpty()) return Collections.emptySet();
+        if (! isIndexed("uri")) return null;
+        Set<String> uris = new HashSet<String>();
+        for (URI uri: filteringURIs) uris.add(uri.toString());
+        return uris;
+    }
+
+    /**
+     * @param matches The sets of fragment indices matching each comparison.
+     * @return the smallest of the sets.
+     */
+    private Set<String> getSmallest(List<Set<String>> matches) {
+        Set<String> smallest = matches.get(0);
+        for (Set<String> indices: matches) {
+            if (indices.size() < smallest.size()) smallest = indices;
+        }
+        return smallest;
+    }
+
+    /**
+     * @param index The fragment index.
+     * @param matches The sets of fragment indices matching each comparison.
+     * @param uris The URI attribute values that matching fragments must have
+     * or the empty set if there is no restriction.
+     * @return true if the fragment satisfies all of the comparisons and
+     * comes from one of the filtering URIs.
+     */
+    private boolean isMatch(String index, List<Set<String>> matches, Set<String> uris) {
+        for (Set<String> indices: matches) {
+            if (! indices.contains(index)) return false;
+        }
+        if (! uris.isEmpty() && ! uris.contains(getValue(index,"uri"))) return false;
+        return true;
+    }
+
+}
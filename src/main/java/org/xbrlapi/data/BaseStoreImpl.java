@@ -1,22 +1,47 @@
 package org.xbrlapi.data;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -56,6 +81,7 @@ import org.xbrlapi.data.resource.Matcher;
 import org.xbrlapi.impl.ArcImpl;
 import org.xbrlapi.impl.FractionItemImpl;
 import org.xbrlapi.impl.FragmentComparator;
+import org.xbrlapi.impl.InstanceImpl;
 import org.xbrlapi.impl.NonNumericItemImpl;
 import org.xbrlapi.impl.RelationshipImpl;
 import org.xbrlapi.impl.RelationshipOrderComparator;
@@ -125,6 +151,7 @@ public abstract class BaseStoreImpl implements Store {
         } catch (Exception e) {
             throw new XBRLException("The XML serialisation system could not be instantiated.",e);
         }
+        idAllocator = new IdAllocator(this,IdAllocator.DEFAULT_BLOCK_SIZE);
     }    
     
     /**
@@ -143,9 +170,11 @@ public abstract class BaseStoreImpl implements Store {
     }    
     
     /**
-     * Namespace bindings map from prefix to namespace.
+     * Namespace bindings map from prefix to namespace.  This is a concurrent
+     * map so that stores can read it while running queries without holding
+     * the store's monitor.
      */
-    protected HashMap<String,String> namespaceBindings = new HashMap<String,String>();    
+    protected Map<String,String> namespaceBindings = new ConcurrentHashMap<String,String>();    
 
     /**
      * @see Store#setNamespaceBinding(String,String)
@@ -163,9 +192,10 @@ public abstract class BaseStoreImpl implements Store {
 
     /**
      * Set of URIs to use when filtering query results to only get matches
-     * to a specific set of documents.
+     * to a specific set of documents.  The set is replaced rather than
+     * modified so that it can be read without holding the store's monitor.
      */
-    private Set<URI> uris = new HashSet<URI>();
+    private volatile Set<URI> uris = new HashSet<URI>();
 
     /**
      * @see Store#setFilteringURIs(Set)
@@ -175,6 +205,13 @@ public abstract class BaseStoreImpl implements Store {
         else this.uris = uris;
     }
     
+    /**
+     * @see Store#view(Set)
+     */
+    public Store view(Set<URI> uris) throws XBRLException {
+        return new StoreViewImpl(this,uris);
+    }
+
     /**
      * @see Store#getFilteringURIs()
      */
@@ -192,7 +229,7 @@ public abstract class BaseStoreImpl implements Store {
     /**
      * @see Store#isFilteringByURIs()
      */
-    public synchronized boolean isFilteringByURIs() {
+    public boolean isFilteringByURIs() {
         return (! this.uris.isEmpty());
     }
     
@@ -200,11 +237,12 @@ public abstract class BaseStoreImpl implements Store {
      * @return an X Query clause that restricts the set of fragments returned by 
      * a query to those from a specific set of URIs.
      */
-    protected synchronized String getURIFilteringPredicate() {
+    protected String getURIFilteringPredicate() {
 
-        if (isFilteringByURIs()) {
+        Set<URI> filteringURIs = this.getFilteringURIs();
+        if (! filteringURIs.isEmpty()) {
             String uriFilter = "0";
-            for (URI uri: this.getFilteringURIs()) {
+            for (URI uri: filteringURIs) {
                 uriFilter = uriFilter + " or @uri='" + uri + "'";
             }
             uriFilter = "[" + uriFilter + "]";
@@ -214,6 +252,40 @@ public abstract class BaseStoreImpl implements Store {
         return "";
     }
 
+    /**
+     * @param parameters The map from external variable names to the values
+     * to bind to them.  This may be null.
+     * @throws XBRLException if a variable name is not a legal XQuery 
+     * variable name or if a value is null.
+     */
+    protected void checkParameters(Map<String,String> parameters) throws XBRLException {
+        if (parameters == null) return;
+        for (String name: parameters.keySet()) {
+            if (name == null || ! name.matches("[A-Za-z_][\\w\\-\\.]*")) 
+                throw new XBRLException(name + " is not a legal name for an external query variable.");
+            if (parameters.get(name) == null) 
+                throw new XBRLException("External query variable " + name + " must not have a null value.");
+        }
+    }
+
+    /**
+     * @param parameters The map from external variable names to the values
+     * to bind to them.  This may be null.
+     * @return the XQuery prolog declaring each of the external variables.
+     * The variables are declared in name order so that the same set of 
+     * variable names always produces the same prolog.
+     * @throws XBRLException if the parameters are not legal.
+     */
+    protected String getExternalVariableDeclarations(Map<String,String> parameters) throws XBRLException {
+        if (parameters == null || parameters.isEmpty()) return "";
+        checkParameters(parameters);
+        String prolog = "";
+        for (String name: new TreeSet<String>(parameters.keySet())) {
+            prolog += "declare variable $" + name + " external; ";
+        }
+        return prolog;
+    }
+
 	/**
 	 * Does nothing.
 	 * @see Store#close()
@@ -252,55 +324,629 @@ public abstract class BaseStoreImpl implements Store {
     }
     
     /**
-     * Default implementation does nothing.
+     * Stores the fragments held in the persistence buffer.
      * @see Store#sync()
      */
     public synchronized void sync() throws XBRLException {
+        flushPersistenceBuffer();
+    }
+
+    /**
+     * The number of buffered fragments that triggers a flush
+     * of the persistence buffer.
+     */
+    private int persistenceBatchSize = 1;
+
+    /**
+     * The fragments waiting to be stored.
+     */
+    transient private List<XML> persistenceBuffer = null;
+
+    /**
+     * True if the persistence buffer may hold fragments.  This lets readers 
+     * find out that there is nothing to flush without taking the store's monitor.
+     */
+    transient private volatile boolean persistencePending = false;
+
+    /**
+     * Default implementation stores the fragments one at a time.
+     * @see Store#persistAll(Collection)
+     */
+    public void persistAll(Collection<? extends XML> xmlResources) throws XBRLException {
+        for (XML xml: xmlResources) {
+            persist(xml);
+        }
+    }
+
+    /**
+     * @see Store#persistBuffered(XML)
+     */
+    public synchronized void persistBuffered(XML xml) throws XBRLException {
+        if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+        if (persistenceBuffer == null) persistenceBuffer = new Vector<XML>();
+        persistenceBuffer.add(xml);
+        persistencePending = true;
+        if (persistenceBuffer.size() >= persistenceBatchSize) {
+            flushPersistenceBuffer();
+        }
+    }
+
+    /**
+     * @see Store#flushPersistenceBuffer()
+     */
+    public void flushPersistenceBuffer() throws XBRLException {
+        if (! persistencePending) return;
+        synchronized (this) {
+            if (persistenceBuffer == null || persistenceBuffer.isEmpty()) {
+                persistencePending = false;
+                return;
+            }
+            List<XML> batch = persistenceBuffer;
+            persistenceBuffer = new Vector<XML>();
+            logger.debug("Storing a batch of " + batch.size() + " fragments.");
+            persistAll(batch);
+            // Readers keep waiting for the monitor until the batch has been stored.
+            persistencePending = false;
+        }
+    }
+
+    /**
+     * Discards the fragments held in the persistence buffer without
+     * storing them.
+     */
+    protected synchronized void clearPersistenceBuffer() {
+        persistenceBuffer = null;
+        persistencePending = false;
+    }
+
+    /**
+     * @see Store#setPersistenceBatchSize(int)
+     */
+    public synchronized void setPersistenceBatchSize(int size) throws XBRLException {
+        if (size < 1) throw new XBRLException("The persistence batch size must be at least 1.");
+        this.persistenceBatchSize = size;
+        if (persistenceBuffer != null && persistenceBuffer.size() >= size) {
+            flushPersistenceBuffer();
+        }
+    }
+
+    /**
+     * @see Store#getPersistenceBatchSize()
+     */
+    public synchronized int getPersistenceBatchSize() {
+        return persistenceBatchSize;
+    }
+
+    /**
+     * The maximum number of fragments to keep in the fragment cache.
+     * The fragment cache is disabled by default.
+     */
+    private int fragmentCacheSize = 0;
+
+    /**
+     * The cache of fragments retrieved from the store, keyed by fragment
+     * index.  The map uses access ordering so that the least recently 
+     * used fragment is evicted first.  The map is also used to guard 
+     * the fragment cache statistics.
+     */
+    transient private Map<String,XML> fragmentCache = createFragmentCache();
+
+    transient private long fragmentCacheHits = 0;
+    transient private long fragmentCacheMisses = 0;
+    transient private long fragmentCacheEvictions = 0;
+
+    /**
+     * Incremented whenever a fragment is uncached or the fragment 
+     * cache is emptied.
+     */
+    transient private long fragmentCacheVersion = 0;
+
+    /**
+     * @return a new, empty fragment cache.
+     */
+    private Map<String,XML> createFragmentCache() {
+        return new LinkedHashMap<String,XML>(16,0.75f,true) {
+            private static final long serialVersionUID = 3409527386521823744L;
+            protected boolean removeEldestEntry(Map.Entry<String,XML> eldest) {
+                if (size() <= fragmentCacheSize) return false;
+                fragmentCacheEvictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Handles object inflation.
+     * @param in The input object stream used to access the object's serialization.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        fragmentCache = createFragmentCache();
+        queryStatistics = new QueryStatistics();
+        try {
+            idAllocator = new IdAllocator(this,IdAllocator.DEFAULT_BLOCK_SIZE);
+        } catch (XBRLException e) {
+            throw new IOException("The document identifier allocator could not be created.", e);
+        }
+    }
+
+    /**
+     * Subclasses call this before retrieving a fragment from the
+     * underlying data representation.
+     * @param index The fragment index.
+     * @return the cached fragment or null if the fragment is not
+     * in the fragment cache.
+     */
+    @SuppressWarnings(value = "unchecked")
+    protected <F extends XML> F getCachedXMLResource(String index) {
+        synchronized (fragmentCache) {
+            if (fragmentCacheSize == 0) return null;
+            XML xml = fragmentCache.get(index);
+            if (xml == null) {
+                fragmentCacheMisses++;
+                return null;
+            }
+            fragmentCacheHits++;
+            return (F) xml;
+        }
+    }
+
+    /**
+     * Subclasses call this after retrieving a fragment from the
+     * underlying data representation.
+     * @param xml The fragment to add to the fragment cache.
+     */
+    protected void cacheXMLResource(XML xml) {
+        synchronized (fragmentCache) {
+            if (fragmentCacheSize == 0) return;
+            fragmentCache.put(xml.getIndex(),xml);
+        }
+    }
+
+    /**
+     * Subclasses that retrieve fragments without holding the store's
+     * monitor get the fragment cache version before retrieving a fragment
+     * and pass it back when caching the fragment.
+     * @return the current fragment cache version.
+     * @see #cacheXMLResource(XML, long)
+     */
+    protected long getFragmentCacheVersion() {
+        synchronized (fragmentCache) {
+            return fragmentCacheVersion;
+        }
+    }
+
+    /**
+     * Caches a fragment only if no fragment has been uncached since the
+     * fragment cache version was obtained, so that a fragment retrieved 
+     * just before it was replaced or removed does not get into the cache.
+     * Subclasses using this method must uncache fragments after they 
+     * have been replaced or removed in the underlying data representation.
+     * @param xml The fragment to add to the fragment cache.
+     * @param version The fragment cache version obtained before 
+     * the fragment was retrieved.
+     */
+    protected void cacheXMLResource(XML xml, long version) {
+        synchronized (fragmentCache) {
+            if (fragmentCacheSize == 0) return;
+            if (version != fragmentCacheVersion) return;
+            fragmentCache.put(xml.getIndex(),xml);
+        }
+    }
+
+    /**
+     * Subclasses call this whenever a fragment is stored or removed.
+     * @param index The index of the fragment to remove from the 
+     * fragment cache.
+     */
+    protected void uncacheXMLResource(String index) {
+        synchronized (fragmentCache) {
+            fragmentCacheVersion++;
+            fragmentCache.remove(index);
+        }
+    }
+
+    /**
+     * Empties the fragment cache.
+     */
+    protected void clearFragmentCache() {
+        synchronized (fragmentCache) {
+            fragmentCacheVersion++;
+            fragmentCache.clear();
+        }
+    }
+
+    /**
+     * @see Store#setFragmentCacheSize(int)
+     */
+    public void setFragmentCacheSize(int size) throws XBRLException {
+        if (size < 0) throw new XBRLException("The fragment cache size must not be negative.");
+        synchronized (fragmentCache) {
+            fragmentCacheSize = size;
+            fragmentCacheVersion++;
+            fragmentCache.clear();
+        }
+    }
+
+    /**
+     * @see Store#getFragmentCacheSize()
+     */
+    public int getFragmentCacheSize() {
+        synchronized (fragmentCache) {
+            return fragmentCacheSize;
+        }
+    }
+
+    /**
+     * @see Store#getFragmentCacheHits()
+     */
+    public long getFragmentCacheHits() {
+        synchronized (fragmentCache) {
+            return fragmentCacheHits;
+        }
+    }
+
+    /**
+     * @see Store#getFragmentCacheMisses()
+     */
+    public long getFragmentCacheMisses() {
+        synchronized (fragmentCache) {
+            return fragmentCacheMisses;
+        }
+    }
+
+    /**
+     * @see Store#getFragmentCacheEvictions()
+     */
+    public long getFragmentCacheEvictions() {
+        synchronized (fragmentCache) {
+            return fragmentCacheEvictions;
+        }
+    }
+
+    /**
+     * The statistics for the queries run by the store.
+     */
+    transient private QueryStatistics queryStatistics = new QueryStatistics();
+
+    /**
+     * @see Store#getQueryStatistics()
+     */
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+
+    /**
+     * Subclasses call this at the start of each query and stop the
+     * returned timer once the query results are available.
+     * @param query The query being run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @return the timer for the query.
+     */
+    protected QueryStatistics.Timer startQuery(String query, Map<String,String> parameters) {
+        return queryStatistics.start(query, parameters);
+    }
+
+    /**
+     * The number of threads in the default executor for asynchronous
+     * queries and the maximum number of tasks that a lookup for several
+     * fragments at once is split into.
+     */
+    private static final int QUERY_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The executor used for asynchronous queries by stores that have
+     * not been given one.  It is created when it is first needed.
+     */
+    private static ExecutorService defaultQueryExecutor = null;
+
+    /**
+     * @return the default executor for asynchronous queries, a fixed pool
+     * with a thread per processor.  Queries beyond that wait in the pool's
+     * queue rather than starting more threads.  Its threads are daemon 
+     * threads so that it does not keep the JVM running.
+     */
+    private static synchronized Executor getDefaultQueryExecutor() {
+        if (defaultQueryExecutor == null) {
+            defaultQueryExecutor = Executors.newFixedThreadPool(QUERY_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "xbrlapi-query-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultQueryExecutor;
+    }
+
+    /**
+     * The executor for asynchronous queries or null to use the default executor.
+     */
+    transient private volatile Executor queryExecutor = null;
+
+    /**
+     * @see Store#setQueryExecutor(Executor)
+     */
+    public void setQueryExecutor(Executor executor) {
+        this.queryExecutor = executor;
+    }
+
+    /**
+     * @see Store#getQueryExecutor()
+     */
+    public Executor getQueryExecutor() {
+        Executor executor = queryExecutor;
+        return (executor == null) ? getDefaultQueryExecutor() : executor;
+    }
+
+    /**
+     * @param task The task to run on the query executor.
+     * @return the future result of the task.  The future completes
+     * exceptionally with whatever the task throws or with the 
+     * RejectedExecutionException if the executor does not accept the task.
+     */
+    protected <T> CompletableFuture<T> supplyAsync(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            getQueryExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.complete(task.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * A lookup of the results for a single fragment.
+     */
+    private interface FragmentLookup<T> {
+        /**
+         * @param index The index of the fragment.
+         * @return the results for the fragment.
+         * @throws Exception if the lookup fails.
+         */
+        public T lookup(String index) throws Exception;
+    }
+
+    /**
+     * Splits the fragments into at most one batch per query thread and
+     * looks up the fragments in each batch, one after another, as a single
+     * task on the query executor.  Large collections of fragments 
+     * therefore do not flood the executor with tasks.
+     * @param indices The indices of the fragments.
+     * @param lookup The lookup to run for each fragment.
+     * @return the future map from fragment index to result, in the order
+     * of the indices, which completes when all of the results are available.
+     */
+    private <T> CompletableFuture<Map<String,T>> supplyAllAsync(Collection<String> indices, final FragmentLookup<T> lookup) {
+        List<String> distinct = new Vector<String>(new LinkedHashSet<String>(indices));
+        int tasks = Math.min(QUERY_THREADS, distinct.size());
+        final List<CompletableFuture<Map<String,T>>> futures = new Vector<CompletableFuture<Map<String,T>>>();
+        for (int task=0; task<tasks; task++) {
+            final List<String> batch = distinct.subList(task * distinct.size() / tasks, (task + 1) * distinct.size() / tasks);
+            futures.add(supplyAsync(new Callable<Map<String,T>>() {
+                public Map<String,T> call() throws Exception {
+                    Map<String,T> results = new LinkedHashMap<String,T>();
+                    for (String index: batch) {
+                        results.put(index, lookup.lookup(index));
+                    }
+                    return results;
+                }
+            }));
+        }
+        CompletableFuture<?>[] all = futures.toArray(new CompletableFuture<?>[futures.size()]);
+        return CompletableFuture.allOf(all).thenApply(new Function<Void,Map<String,T>>() {
+            public Map<String,T> apply(Void ignored) {
+                Map<String,T> results = new LinkedHashMap<String,T>();
+                for (CompletableFuture<Map<String,T>> future: futures) {
+                    results.putAll(future.join());
+                }
+                return results;
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryForXMLResourcesAsync(String)
+     */
+    public <F extends XML> CompletableFuture<List<F>> queryForXMLResourcesAsync(final String query) {
+        return supplyAsync(new Callable<List<F>>() {
+            public List<F> call() throws Exception {
+                return BaseStoreImpl.this.<F>queryForXMLResources(query);
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryForXMLResourcesAsync(String, Map)
+     */
+    public <F extends XML> CompletableFuture<List<F>> queryForXMLResourcesAsync(final String query, final Map<String,String> parameters) {
+        return supplyAsync(new Callable<List<F>>() {
+            public List<F> call() throws Exception {
+                return BaseStoreImpl.this.<F>queryForXMLResources(query, parameters);
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryForIndicesAsync(String)
+     */
+    public CompletableFuture<Set<String>> queryForIndicesAsync(final String query) {
+        return supplyAsync(new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                return queryForIndices(query);
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryForIndicesAsync(String, Map)
+     */
+    public CompletableFuture<Set<String>> queryForIndicesAsync(final String query, final Map<String,String> parameters) {
+        return supplyAsync(new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                return queryForIndices(query, parameters);
+            }
+        });
     }
 
     /**
-     * This implementation generates the an ID for a document being stored
-     * with a prefix that is a random string of characters 
-     * including a-z, A-Z and 0-9.
-     * If, by chance, the random string has already been 
-     * used for another document in the data store, then 
-     * another random string is generated and this repeats until
-     * the random string is unique in the data store.
+     * @see Store#queryForStringsAsync(String)
+     */
+    public CompletableFuture<Set<String>> queryForStringsAsync(final String query) {
+        return supplyAsync(new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                return queryForStrings(query);
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryForStringsAsync(String, Map)
+     */
+    public CompletableFuture<Set<String>> queryForStringsAsync(final String query, final Map<String,String> parameters) {
+        return supplyAsync(new Callable<Set<String>>() {
+            public Set<String> call() throws Exception {
+                return queryForStrings(query, parameters);
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryCountAsync(String)
+     */
+    public CompletableFuture<Long> queryCountAsync(final String query) {
+        return supplyAsync(new Callable<Long>() {
+            public Long call() throws Exception {
+                return queryCount(query);
+            }
+        });
+    }
+
+    /**
+     * @see Store#queryCountAsync(String, Map)
+     */
+    public CompletableFuture<Long> queryCountAsync(final String query, final Map<String,String> parameters) {
+        return supplyAsync(new Callable<Long>() {
+            public Long call() throws Exception {
+                return queryCount(query, parameters);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getXMLResourceAsync(String)
+     */
+    public <F extends XML> CompletableFuture<F> getXMLResourceAsync(final String index) {
+        return supplyAsync(new Callable<F>() {
+            public F call() throws Exception {
+                return BaseStoreImpl.this.<F>getXMLResource(index);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getLabelsAsync(String)
+     */
+    public CompletableFuture<List<LabelResource>> getLabelsAsync(final String fragment) {
+        return supplyAsync(new Callable<List<LabelResource>>() {
+            public List<LabelResource> call() throws Exception {
+                return getLabels(fragment);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getLabelsAsync(String, String, String, String)
+     */
+    public CompletableFuture<List<LabelResource>> getLabelsAsync(final String fragment, final String linkRole, final String resourceRole, final String language) {
+        return supplyAsync(new Callable<List<LabelResource>>() {
+            public List<LabelResource> call() throws Exception {
+                return getLabels(fragment, linkRole, resourceRole, language);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getLabelsAsync(Collection)
+     */
+    public CompletableFuture<Map<String,List<LabelResource>>> getLabelsAsync(Collection<String> fragments) {
+        return supplyAllAsync(fragments, new FragmentLookup<List<LabelResource>>() {
+            public List<LabelResource> lookup(String fragment) throws Exception {
+                return getLabels(fragment);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getReferencesAsync(String)
+     */
+    public CompletableFuture<List<ReferenceResource>> getReferencesAsync(final String fragment) {
+        return supplyAsync(new Callable<List<ReferenceResource>>() {
+            public List<ReferenceResource> call() throws Exception {
+                return getReferences(fragment);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getReferencesAsync(Collection)
+     */
+    public CompletableFuture<Map<String,List<ReferenceResource>>> getReferencesAsync(Collection<String> fragments) {
+        return supplyAllAsync(fragments, new FragmentLookup<List<ReferenceResource>>() {
+            public List<ReferenceResource> lookup(String fragment) throws Exception {
+                return getReferences(fragment);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getRelationshipsFromAsync(String, String, String)
+     */
+    public CompletableFuture<SortedSet<Relationship>> getRelationshipsFromAsync(final String sourceIndex, final String linkRole, final String arcrole) {
+        return supplyAsync(new Callable<SortedSet<Relationship>>() {
+            public SortedSet<Relationship> call() throws Exception {
+                return getRelationshipsFrom(sourceIndex, linkRole, arcrole);
+            }
+        });
+    }
+
+    /**
+     * @see Store#getRelationshipsFromAsync(Collection, String, String)
+     */
+    public CompletableFuture<Map<String,SortedSet<Relationship>>> getRelationshipsFromAsync(Collection<String> sourceIndices, final String linkRole, final String arcrole) {
+        return supplyAllAsync(sourceIndices, new FragmentLookup<SortedSet<Relationship>>() {
+            public SortedSet<Relationship> lookup(String sourceIndex) throws Exception {
+                return getRelationshipsFrom(sourceIndex, linkRole, arcrole);
+            }
+        });
+    }
+
+    /**
+     * The allocator of document identifiers.
+     */
+    transient private IdAllocator idAllocator = null;
+
+    /**
+     * This implementation allocates document IDs from blocks of
+     * IDs that are reserved from a counter persisted in the data store
+     * so that IDs remain unique across restarts without the store 
+     * being checked for each new ID.
      * @see Store#getId(String)
      */    
     public String getId(String input) throws XBRLException {
-        
-        // The document is not in the data store so generate a new document ID.
-        String randomString = random();
-        while (this.hasXMLResource(randomString + "_1") || this.hasXMLResource(randomString)) {
-            randomString = random();
-        }
-        return randomString;
-    }
-    
-    /**
-     * Generate a random string.
-     * @return a randomly generated string consisting of digits and
-     * a-z or A-Z only.
-     */
-    private String random() {
-        String random = "";
-        for (int i=0; i<6; i++) {
-            int code = (new Long(Math.round(Math.random()*61))).intValue();
-            code = code + 48;
-            if (code < 58) {
-                random = random + new Character((char)code).toString();
-            } else {
-                code = code + 7;
-                if (code < 91) {
-                    random = random + new Character((char)code).toString();
-                } else {
-                    code = code + 6;
-                    random = random + new Character((char)code).toString();
-                }
-            }
-        }
-        return random;
+        return idAllocator.next();
     }
     
     /**
@@ -526,7 +1172,7 @@ public abstract class BaseStoreImpl implements Store {
      * @see Store#getDocumentAsDOM(URI)
      */
     public Element getDocumentAsDOM(URI uri) throws XBRLException {
-    	return getSubtree(this.getRootFragmentForDocument(uri));
+    	return assembleDocument(uri,false);
     }
 	
 	/**
@@ -540,15 +1186,101 @@ public abstract class BaseStoreImpl implements Store {
      * the supplied URI.
      */
     private Element getAnnotatedDocumentAsDOM(URI uri) throws XBRLException {
-        URI matchURI = getMatcher().getMatch(uri);
-        List<Fragment> fragments = queryForXMLResources("#roots#[@uri='" + matchURI + "' and @parentIndex='']");
-        if (fragments.size() > 1) throw new XBRLException("More than one document was found in the data store.");
-        if (fragments.size() == 0) throw new XBRLException("No documents were found in the data store.");
-        Fragment fragment = fragments.get(0);
-        Element document = this.getAnnotatedSubtree(fragment);
-        document.setAttributeNS(Constants.CompNamespace.toString(),Constants.CompPrefix + ":index",fragment.getIndex());
+        return assembleDocument(getMatcher().getMatch(uri),true);
+    }
+
+    /**
+     * Reconstructs a document from its fragments using a single query
+     * to retrieve all of the fragments in the document.  The fragments 
+     * are grouped by their parent fragment in memory and then 
+     * assembled into the document in one pass from the root fragment down.
+     * @param uri The URI of the document in the data store.
+     * @param annotate true if each fragment is to be annotated with its 
+     * index and false otherwise.
+     * @return the root element of the document.
+     * @throws XBRLException if the store does not contain exactly one
+     * root fragment for the document or the document cannot be assembled.
+     */
+    private Element assembleDocument(URI uri, boolean annotate) throws XBRLException {
+
+        Map<String,List<Fragment>> children = new HashMap<String,List<Fragment>>();
+        Fragment root = getDocumentFragments(uri,children);
+
+        if (storeDOM == null) {
+            storeDOM = (new XMLDOMBuilder()).newDocument();
+        }
+
+        Element document = assembleSubtree(root,children,annotate);
+        if (annotate) {
+            document.setAttributeNS(Constants.CompNamespace.toString(),Constants.CompPrefix + ":index",root.getIndex());
+        }
         return document;
     }
+
+    /**
+     * Retrieves all of the fragments in a document using a single query
+     * and groups them by their parent fragment.
+     * @param uri The URI of the document in the data store.
+     * @param children The map to populate, from fragment indices to the 
+     * child fragments sorted into insertion order.
+     * @return the root fragment of the document.
+     * @throws XBRLException if the store does not contain exactly one
+     * root fragment for the document.
+     */
+    private Fragment getDocumentFragments(URI uri, Map<String,List<Fragment>> children) throws XBRLException {
+
+        List<Fragment> fragments = this.<Fragment>queryForXMLResources("#roots#[@uri='" + uri + "']");
+
+        Fragment root = null;
+        for (Fragment fragment: fragments) {
+            String parentIndex = fragment.getParentIndex();
+            if (parentIndex == null || parentIndex.equals("")) {
+                if (root != null) throw new XBRLException("More than one document was found in the data store.");
+                root = fragment;
+                continue;
+            }
+            List<Fragment> siblings = children.get(parentIndex);
+            if (siblings == null) {
+                siblings = new Vector<Fragment>();
+                children.put(parentIndex,siblings);
+            }
+            siblings.add(fragment);
+        }
+        if (root == null) throw new XBRLException("No documents were found in the data store.");
+
+        Comparator<Fragment> comparator = new FragmentComparator();
+        for (List<Fragment> siblings: children.values()) {
+            Collections.sort(siblings,comparator);
+        }
+        return root;
+    }
+
+    /**
+     * @param fragment The fragment at the root of the subtree.
+     * @param children The map from fragment indices to the child fragments,
+     * sorted into insertion order.
+     * @param annotate true if child fragments are to be annotated with their index.
+     * @return the root element of the subtree headed by the fragment.
+     * @throws XBRLException if the subtree cannot be assembled.
+     */
+    private Element assembleSubtree(Fragment fragment, Map<String,List<Fragment>> children, boolean annotate) throws XBRLException {
+        Element d = null;
+        try {
+            d = (Element) storeDOM.importNode(fragment.getDataRootElement(), true);
+        } catch (Exception e) {
+            throw new XBRLException("The data could not be plugged into the DOM for fragment " + fragment.getIndex(),e);
+        }
+        List<Fragment> childFragments = children.get(fragment.getIndex());
+        if (childFragments == null) return d;
+        for (Fragment childFragment: childFragments) {
+            Element child = assembleSubtree(childFragment,children,annotate);
+            if (annotate) {
+                child.setAttributeNS(Constants.CompNamespace.toString(),Constants.CompPrefix + ":index",childFragment.getIndex());
+            }
+            childFragment.getParentElement(d).appendChild(child);
+        }
+        return d;
+    }
     
 	/**
 	 * @see Store#getSubtree(Fragment)
@@ -625,64 +1357,6 @@ public abstract class BaseStoreImpl implements Store {
     	
     }	
 
-	/**
-	 * Returns the root element of the annotated subtree starting with the
-	 * fragment with the specified index.  All subtrees for a given store
-	 * instance are produced from the one XML DOM and so can be appended
-	 * to eachother as required.
-	 * @param f The fragment at the root of the subtree.
-	 * @return the root element of the subtree headed by the fragment
-	 * with the specified index.
-	 * @throws XBRLException if the subtree cannot be constructed.
-	 */
-	private Element getAnnotatedSubtree(Fragment f) throws XBRLException {
-		
-    	//logger.debug((new Date()) + ":Getting fragment " + f.getIndex());
-    	
-		// Make sure that the DOM is initialised.
-		if (storeDOM == null) {
-			storeDOM = (new XMLDOMBuilder()).newDocument();
-		}
-
-		// Get the DOM representation of the fragment
-		Element d = (Element) storeDOM.importNode(f.getDataRootElement(), true);
-		
-		// Get the child fragment IDs
-		List<Fragment> fs = this.queryForXMLResources("/"+ Constants.XBRLAPIPrefix+ ":" + "fragment[@parentIndex='" + f.getIndex() + "']");
-		
-		// With no children, just return the fragment
-		if (fs.size() == 0) {
-			return d;
-		}
-
-		// Sort the child fragments into insertion order
-		TreeSet<Fragment> fragments = new TreeSet<Fragment>(new FragmentComparator());
-		for (int i=0; i<fs.size(); i++) {
-    		fragments.add(fs.get(i));
-    	}
-    	
-    	// Iterate child fragments in insertion order, inserting them
-    	Iterator<Fragment> iterator = fragments.iterator();
-    	while (iterator.hasNext()) {
-    		
-    		// Get child fragment
-    		Fragment childFragment = iterator.next();
-
-    		// Get XML DOM for child fragment using recursion
-    		Element child = getAnnotatedSubtree(childFragment);
-	    	child.setAttributeNS(Constants.CompNamespace.toString(),Constants.CompPrefix + ":index",childFragment.getIndex());
-
-    		// Get parent element of child fragment in current fragment
-    		Element parentElement = childFragment.getParentElement(d);
-
-    		// Do the fragment insertion
-            parentElement.appendChild(child);
-    		
-    	}
-		return d;
-	}
-	
-	
     /**
      * @see Store#getStoreAsDOM()
      */
@@ -781,30 +1455,138 @@ public abstract class BaseStoreImpl implements Store {
      * @see Store#saveDocuments(File, String)
 	 */
 	public void saveDocuments(File destination, String uriPrefix) throws XBRLException {
+	    saveDocuments(destination, uriPrefix, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Documents are streamed to their files, without being assembled
+	 * as DOMs, by a fixed number of worker threads.  The queue of 
+	 * documents waiting to be written is bounded so that, when the
+	 * workers fall behind, the calling thread writes documents itself.
+     * @see Store#saveDocuments(File, String, int)
+	 */
+	public void saveDocuments(File destination, String uriPrefix, int threads) throws XBRLException {
 		
 		if (! destination.exists()) throw new XBRLException("The specified directory does not exist.");
 		
 		if (! destination.isDirectory()) throw new XBRLException("A directory rather than a file must be specified.");
+
+		if (threads < 1) throw new XBRLException("At least one thread must be used to save the documents.");
 		
-		Set<URI> uris = getDocumentURIs();
-		Iterator<URI> iterator = uris.iterator();
-		while (iterator.hasNext()) {			
-			URI uri = iterator.next();
-			if (uri.toString().startsWith(uriPrefix)) {
-				Cache cache = new CacheImpl(destination);
-				File file = cache.getCacheFile(uri);
-				Element e = getDocumentAsDOM(uri);
-				serialize(e,file);
-			}
+		Cache cache = new CacheImpl(destination);
+		ExecutorService executor = new ThreadPoolExecutor(
+		        threads, threads, 0L, TimeUnit.MILLISECONDS, 
+		        new ArrayBlockingQueue<Runnable>(threads * 2),
+		        new ThreadPoolExecutor.CallerRunsPolicy());
+		List<Future<Object>> futures = new Vector<Future<Object>>();
+		try {
+		    for (final URI uri: getDocumentURIs()) {
+		        if (uri.toString().startsWith(uriPrefix)) {
+		            final File file = cache.getCacheFile(uri);
+		            futures.add(executor.submit(new Callable<Object>() {
+		                public Object call() throws Exception {
+		                    saveDocument(uri,file);
+		                    return null;
+		                }
+		            }));
+		        }
+		    }
+		    for (Future<Object> future: futures) {
+		        try {
+		            future.get();
+		        } catch (ExecutionException e) {
+		            Throwable cause = e.getCause();
+		            if (cause instanceof XBRLException) throw (XBRLException) cause;
+		            throw new XBRLException("A document could not be saved.",cause);
+		        } catch (InterruptedException e) {
+		            Thread.currentThread().interrupt();
+		            throw new XBRLException("Saving the documents was interrupted.",e);
+		        }
+		    }
+		} finally {
+		    executor.shutdownNow();
 		}
 		
 	}
+
+	/**
+	 * Streams a single document to a file.
+	 * @param uri The URI of the document.
+	 * @param file The file to write the document to.
+	 * @throws XBRLException if the document cannot be written.
+	 */
+	private void saveDocument(URI uri, File file) throws XBRLException {
+	    File parentFile = file.getParentFile();
+	    if (parentFile != null) parentFile.mkdirs();
+	    OutputStream stream = null;
+	    try {
+	        stream = new BufferedOutputStream(new FileOutputStream(file));
+	        XMLStreamWriter writer = DocumentWriter.createWriter(stream);
+	        writer.writeStartDocument("UTF-8","1.0");
+	        writeDocument(uri,writer);
+	        writer.writeEndDocument();
+	        writer.close();
+	    } catch (IOException e) {
+	        throw new XBRLException("The document " + uri + " could not be saved to " + file,e);
+	    } catch (XMLStreamException e) {
+	        throw new XBRLException("The document " + uri + " could not be saved to " + file,e);
+	    } finally {
+	        close(stream);
+	    }
+	}
+
+	/**
+	 * Streams a document, reconstructed from its fragments, to an XML writer.
+	 * @param uri The URI of the document.
+	 * @param writer The writer to write the document to.
+	 * @throws XBRLException if the document cannot be written.
+	 */
+	private void writeDocument(URI uri, XMLStreamWriter writer) throws XBRLException {
+	    Map<String,List<Fragment>> children = new HashMap<String,List<Fragment>>();
+	    Fragment root = getDocumentFragments(uri,children);
+	    new DocumentWriter(writer,children).write(root);
+	}
+
+	/**
+	 * @param stream The stream to close, which can be null.
+	 * @throws XBRLException if the stream cannot be closed.
+	 */
+	private void close(OutputStream stream) throws XBRLException {
+	    if (stream == null) return;
+	    try {
+	        stream.close();
+	    } catch (IOException e) {
+	        throw new XBRLException("The output stream could not be closed.",e);
+	    }
+	}
 	
 	/**
+	 * The documents are streamed into the file one at a time 
+	 * rather than being assembled into a single DOM.
 	 * @see Store#saveStoreAsSingleDocument(File)
 	 */
 	public void saveStoreAsSingleDocument(File file) throws XBRLException {
-		serialize(getStoreAsDOM().getDocumentElement(),file);
+	    File parentFile = file.getParentFile();
+	    if (parentFile != null) parentFile.mkdirs();
+	    OutputStream stream = null;
+	    try {
+	        stream = new BufferedOutputStream(new FileOutputStream(file));
+	        XMLStreamWriter writer = DocumentWriter.createWriter(stream);
+	        writer.writeStartDocument("UTF-8","1.0");
+	        writer.writeStartElement(Constants.XBRLAPIPrefix,"dts",Constants.XBRLAPINamespace.toString());
+	        for (URI uri: getDocumentURIs()) {
+	            writeDocument(uri,writer);
+	        }
+	        writer.writeEndElement();
+	        writer.writeEndDocument();
+	        writer.close();
+	    } catch (IOException e) {
+	        throw new XBRLException("The data store could not be saved to " + file,e);
+	    } catch (XMLStreamException e) {
+	        throw new XBRLException("The data store could not be saved to " + file,e);
+	    } finally {
+	        close(stream);
+	    }
 	}
     
     /**
@@ -845,14 +1627,27 @@ public abstract class BaseStoreImpl implements Store {
      * @see Store#getChildFragments(String, String)
      */
     public <F extends Fragment> List<F> getChildFragments(String interfaceName, String parentIndex) throws XBRLException {
-    	return this.<F>queryForXMLResources("#roots#[@type='org.xbrlapi.impl." + interfaceName + "Impl' and @parentIndex='" + parentIndex + "']");
+        return this.<F>getChildFragmentsOfType("org.xbrlapi.impl." + interfaceName + "Impl", parentIndex);
     }
     
     /**
      * @see Store#getChildFragments(Class, String)
      */
     public <F extends Fragment> List<F> getChildFragments(Class<?> childClass, String parentIndex) throws XBRLException {
-        return this.<F>queryForXMLResources("#roots#[@type='" + childClass.getName() + "' and @parentIndex='" + parentIndex + "']");
+        return this.<F>getChildFragmentsOfType(childClass.getName(), parentIndex);
+    }
+    
+    /**
+     * @param type The full name of the fragment class.
+     * @param parentIndex The index of the parent fragment.
+     * @return the list of child fragments of the given type.
+     * @throws XBRLException
+     */
+    private <F extends Fragment> List<F> getChildFragmentsOfType(String type, String parentIndex) throws XBRLException {
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("type",type);
+        parameters.put("parentIndex",parentIndex);
+        return this.<F>queryForXMLResources("#roots#[@type=$type and @parentIndex=$parentIndex]",parameters);
     }
 
     /**
@@ -863,16 +1658,17 @@ public abstract class BaseStoreImpl implements Store {
         Networks networks = new NetworksImpl(this);
 
         if (this.isPersistingRelationships()) {
-            Analyser analyser = new AllAnalyserImpl(this);
-            List<Relationship> relationships = analyser.getAllRelationships();
-            networks.addRelationships(relationships);
+            Iterator<Relationship> relationships = this.<Relationship>queryForXMLResourceIterator("#roots#[@type='" + RelationshipImpl.class.getName() + "']");
+            while (relationships.hasNext()) {
+                networks.addRelationship(relationships.next());
+            }
             return networks;
         }
         
-        // First get the set of arcs using the arc role
-        Set<String> arcIndices = getArcIndices();
-        for (String index: arcIndices) {
-            Arc arc = this.getXMLResource(index);
+        // Work through the arcs one at a time
+        Iterator<Arc> arcs = this.<Arc>queryForXMLResourceIterator("#roots#[@type='" + ArcImpl.class.getName() + "']");
+        while (arcs.hasNext()) {
+            Arc arc = arcs.next();
             List<ArcEnd> sources = arc.getSourceFragments();
             List<ArcEnd> targets = arc.getTargetFragments();
             for (ArcEnd source: sources) {
@@ -991,13 +1787,25 @@ public abstract class BaseStoreImpl implements Store {
     public List<LabelResource> getLabels(String fragment, String linkRole, String resourceRole, String language) throws XBRLException {
 
         if (this.isPersistingRelationships()) {
-            String query = "#roots#[@label and @type='" + RelationshipImpl.class.getName() + "' and @sourceIndex='" + fragment + "'";
-            if (linkRole != null) query += " and @linkRole='" + linkRole + "'"; 
-            if (resourceRole != null) query += " and @targetRole='" + resourceRole + "'"; 
-            if (language != null) query += " and @targetLanguage='" + language + "'"; 
+            Map<String,String> parameters = new HashMap<String,String>();
+            parameters.put("type",RelationshipImpl.class.getName());
+            parameters.put("sourceIndex",fragment);
+            String query = "#roots#[@label and @type=$type and @sourceIndex=$sourceIndex";
+            if (linkRole != null) {
+                query += " and @linkRole=$linkRole";
+                parameters.put("linkRole",linkRole);
+            }
+            if (resourceRole != null) {
+                query += " and @targetRole=$targetRole";
+                parameters.put("targetRole",resourceRole);
+            }
+            if (language != null) {
+                query += " and @targetLanguage=$targetLanguage";
+                parameters.put("targetLanguage",language);
+            }
             query += "]";
             
-            List<Relationship> relationships = this.<Relationship>queryForXMLResources(query);
+            List<Relationship> relationships = this.<Relationship>queryForXMLResources(query,parameters);
             List<LabelResource> labels = new Vector<LabelResource>();
             for (Relationship relationship: relationships) {
                 labels.add(relationship.<LabelResource>getTarget());
@@ -1206,15 +2014,6 @@ public abstract class BaseStoreImpl implements Store {
         return indices;
     }
 
-    /**
-     * @return the list of indices of arcs in the data store.
-     * @throws XBRLException
-     */
-    private Set<String> getArcIndices() throws XBRLException {
-        String query = "for $root in #roots#[@type='"+ArcImpl.class.getName()+"'] return $root/@index";
-        return this.queryForStrings(query);
-    }    
-
     /**
      * @see Store#getFragmentsFromDocument(URI, String)
      */
@@ -1276,12 +2075,57 @@ public abstract class BaseStoreImpl implements Store {
         return result;
     }    
 
+    /**
+     * This implementation wraps the query in an XQuery subsequence, 
+     * with an order by clause if a sort key is given.
+     * @see Store#queryForXMLResources(String, Map, String, int, int)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, String sortKey, int offset, int limit) throws XBRLException {
+        checkPage(sortKey,offset,limit);
+        if (limit == 0) return new Vector<F>();
+        String sequence = "(" + query + ")";
+        if (sortKey != null) {
+            sequence = "(for $fragment in " + sequence + " order by string($fragment/@" + sortKey + "), string($fragment/@index) return $fragment)";
+        }
+        return this.<F>queryForXMLResources("subsequence(" + sequence + "," + (offset + 1) + "," + limit + ")",parameters);
+    }
+
+    /**
+     * @param sortKey The name of the attribute to sort by or null.
+     * @param offset The number of matches to skip.
+     * @param limit The maximum number of matches to return.
+     * @throws XBRLException if the sort key is not a legal attribute name
+     * or if the offset or limit is negative.
+     */
+    protected void checkPage(String sortKey, int offset, int limit) throws XBRLException {
+        if (sortKey != null && ! sortKey.matches("[A-Za-z_][\\w\\-\\.]*"))
+            throw new XBRLException(sortKey + " is not a legal attribute name to sort by.");
+        if (offset < 0) throw new XBRLException("The offset must not be negative.");
+        if (limit < 0) throw new XBRLException("The limit must not be negative.");
+    }
+
+    /**
+     * @see Store#queryForXMLResourceIterator(String)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query) throws XBRLException {
+        return this.<F>queryForXMLResourceIterator(query,null);
+    }
+
     /**
      * @see Store#getFacts()
      */
     public List<Fact> getFacts() throws XBRLException {
-    	List<Instance> instances = this.<Instance>getXMLResources("Instance");
-    	return getFactsFromInstances(instances);
+        List<Fact> facts = new Vector<Fact>();
+        Map<String,String> parameters = new HashMap<String,String>();
+        Iterator<Instance> instances = this.<Instance>queryForXMLResourceIterator("#roots#[@type='" + InstanceImpl.class.getName() + "']");
+        while (instances.hasNext()) {
+            parameters.put("parentIndex",instances.next().getIndex());
+            Iterator<Fact> iterator = this.<Fact>queryForXMLResourceIterator("#roots#[@parentIndex=$parentIndex and @fact]",parameters);
+            while (iterator.hasNext()) {
+                facts.add(iterator.next());
+            }
+        }
+        return facts;
     }
 
     /**
@@ -2209,6 +3053,17 @@ public abstract class BaseStoreImpl implements Store {
      */
     public synchronized void stopLoading(Loader loader) {
         loadingStatus--;
+        if (loadingStatus <= 0) notifyAll();
+    }
+
+    /**
+     * @see Store#awaitLoadingCompletion()
+     */
+    public synchronized void awaitLoadingCompletion() throws InterruptedException {
+        while (loadingStatus > 0) {
+            logger.debug("Still doing some loading into the store ... ");
+            wait();
+        }
     }
     
     /**
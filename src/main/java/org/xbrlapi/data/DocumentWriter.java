@@ -0,0 +1,190 @@
+package org.xbrlapi.data;
+
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Streams documents, reconstructed from their fragments, to an XML
+ * stream writer without assembling the document as a DOM.  
+ * The data of each fragment is written out directly and the child 
+ * fragments are written out, in insertion order, as the last content
+ * of the element in the parent fragment that contains them.
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+final class DocumentWriter {
+
+    private static final String XMLNS_NAMESPACE = "http://www.w3.org/2000/xmlns/";
+
+    private final XMLStreamWriter writer;
+
+    private final Map<String,List<Fragment>> children;
+
+    /**
+     * @param writer The XML stream writer to write the document to.
+     * @param children The map from fragment indices to the child fragments
+     * of the document, sorted into insertion order.
+     */
+    DocumentWriter(XMLStreamWriter writer, Map<String,List<Fragment>> children) {
+        this.writer = writer;
+        this.children = children;
+    }
+
+    /**
+     * @param stream The output stream to write to.
+     * @return a namespace repairing XML stream writer that writes 
+     * UTF-8 encoded XML to the output stream.
+     * @throws XBRLException if the writer cannot be created.
+     */
+    static XMLStreamWriter createWriter(OutputStream stream) throws XBRLException {
+        try {
+            XMLOutputFactory factory = XMLOutputFactory.newInstance();
+            factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+            return factory.createXMLStreamWriter(stream,"UTF-8");
+        } catch (XMLStreamException e) {
+            throw new XBRLException("The XML stream writer could not be created.",e);
+        }
+    }
+
+    /**
+     * Writes out the subtree headed by the fragment.
+     * @param fragment The fragment at the root of the subtree.
+     * @throws XBRLException if the subtree cannot be written.
+     */
+    void write(Fragment fragment) throws XBRLException {
+
+        Element data = fragment.getDataRootElement();
+
+        Map<Element,List<Fragment>> attachments = new IdentityHashMap<Element,List<Fragment>>();
+        List<Fragment> childFragments = children.get(fragment.getIndex());
+        if (childFragments != null) {
+            for (Fragment child: childFragments) {
+                Element parentElement = child.getParentElement(data);
+                List<Fragment> attached = attachments.get(parentElement);
+                if (attached == null) {
+                    attached = new Vector<Fragment>();
+                    attachments.put(parentElement,attached);
+                }
+                attached.add(child);
+            }
+        }
+
+        try {
+            write(data,attachments);
+        } catch (XMLStreamException e) {
+            throw new XBRLException("Fragment " + fragment.getIndex() + " could not be written.",e);
+        }
+    }
+
+    /**
+     * @param element The element to write out.
+     * @param attachments The map from elements to the child fragments 
+     * that are to be written out at the end of their content.
+     * @throws XMLStreamException if the element cannot be written.
+     * @throws XBRLException if a child fragment cannot be written.
+     */
+    private void write(Element element, Map<Element,List<Fragment>> attachments) throws XMLStreamException, XBRLException {
+
+        writer.writeStartElement(valueOf(element.getPrefix()),getLocalName(element),valueOf(element.getNamespaceURI()));
+
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i=0; i<attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (XMLNS_NAMESPACE.equals(attribute.getNamespaceURI()) || attribute.getName().equals("xmlns") || attribute.getName().startsWith("xmlns:")) {
+                if (attribute.getName().equals("xmlns")) {
+                    writer.writeDefaultNamespace(attribute.getValue());
+                } else {
+                    writer.writeNamespace(getLocalName(attribute),attribute.getValue());
+                }
+            } else if (attribute.getNamespaceURI() == null) {
+                writer.writeAttribute(getLocalName(attribute),attribute.getValue());
+            } else {
+                writer.writeAttribute(valueOf(attribute.getPrefix()),attribute.getNamespaceURI(),getLocalName(attribute),attribute.getValue());
+            }
+        }
+
+        write(element.getFirstChild(),attachments);
+
+        List<Fragment> attached = attachments.get(element);
+        if (attached != null) {
+            for (Fragment child: attached) {
+                write(child);
+            }
+        }
+
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes out a node and its following siblings.
+     * @param node The first node to write out.
+     * @param attachments The map from elements to the child fragments 
+     * that are to be written out at the end of their content.
+     * @throws XMLStreamException if a node cannot be written.
+     * @throws XBRLException if a child fragment cannot be written.
+     */
+    private void write(Node node, Map<Element,List<Fragment>> attachments) throws XMLStreamException, XBRLException {
+        for (; node != null; node = node.getNextSibling()) {
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                write((Element) node,attachments);
+                break;
+            case Node.TEXT_NODE:
+                writer.writeCharacters(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                writer.writeCData(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                writer.writeComment(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                ProcessingInstruction instruction = (ProcessingInstruction) node;
+                writer.writeProcessingInstruction(instruction.getTarget(),instruction.getData());
+                break;
+            case Node.ENTITY_REFERENCE_NODE:
+                write(node.getFirstChild(),attachments);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param node The element or attribute.
+     * @return the local name of the node, falling back to the node name
+     * for nodes created without namespace support.
+     */
+    private static String getLocalName(Node node) {
+        String name = node.getLocalName();
+        if (name != null) return name;
+        name = node.getNodeName();
+        int colon = name.indexOf(':');
+        return (colon < 0) ? name : name.substring(colon + 1);
+    }
+
+    /**
+     * @param value The prefix or namespace.
+     * @return the value or the empty string if it is null.
+     */
+    private static String valueOf(String value) {
+        return (value == null) ? "" : value;
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.xbrlapi.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.IdCounter;
+import org.xbrlapi.impl.IdCounterImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Allocates document identifiers from blocks of counter values
+ * that are reserved from a counter persisted in the data store.
+ * 
+ * Identifiers are handed out from the current block without 
+ * synchronisation or store access.  Only when a block is used up
+ * is the store consulted, to read the counter and to persist it,
+ * advanced by the block size, before any identifier in the new 
+ * block is handed out.  Values left in a block when the store 
+ * is closed are never reused so identifiers remain unique
+ * across restarts.
+ * 
+ * Identifiers are the counter values in base 36, padded 
+ * to eight characters, so they cannot clash with the
+ * six character random identifiers generated by earlier
+ * versions of the data stores.
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+final class IdAllocator {
+
+    private static final Logger logger = Logger.getLogger(IdAllocator.class);
+
+    /**
+     * The index of the counter XML resource in the data store.
+     */
+    public static final String COUNTER_INDEX = "idcounter";
+
+    /**
+     * The default number of identifiers reserved at a time.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    /**
+     * The length of the generated identifiers.
+     */
+    private static final int ID_LENGTH = 8;
+
+    /**
+     * A block of reserved counter values.
+     */
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private final Store store;
+
+    private final int blockSize;
+
+    /**
+     * The block that identifiers are currently being allocated from.
+     * It starts out empty so that the first allocation reserves a block.
+     */
+    private volatile Block block = new Block(0,0);
+
+    /**
+     * @param store The data store that the counter is persisted in.
+     * @param blockSize The number of identifiers to reserve at a time.
+     * @throws XBRLException if the store is null or the block size is not positive.
+     */
+    IdAllocator(Store store, int blockSize) throws XBRLException {
+        if (store == null) throw new XBRLException("The data store must not be null.");
+        if (blockSize < 1) throw new XBRLException("The block size must be positive.");
+        this.store = store;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the next unused document identifier.
+     * @throws XBRLException if a new block of identifiers cannot be reserved.
+     */
+    String next() throws XBRLException {
+        while (true) {
+            Block current = block;
+            long value = current.next.getAndIncrement();
+            if (value < current.end) return format(value);
+            reserve(current);
+        }
+    }
+
+    /**
+     * Reserves a new block of identifiers unless another thread 
+     * has already replaced the exhausted block.  The store's monitor
+     * is used as the lock, rather than the allocator's, because 
+     * identifiers are also requested from within synchronized 
+     * store methods.
+     * @param exhausted The block that has been used up.
+     * @throws XBRLException if the counter cannot be read or persisted.
+     */
+    private void reserve(Block exhausted) throws XBRLException {
+        synchronized (store) {
+            if (block != exhausted) return;
+            long start = 0;
+            if (store.hasXMLResource(COUNTER_INDEX)) {
+                IdCounter counter = store.<IdCounter>getXMLResource(COUNTER_INDEX);
+                start = counter.getValue();
+            }
+            long end = start + blockSize;
+            store.persist(new IdCounterImpl(COUNTER_INDEX,end));
+            logger.debug("Reserved document identifiers " + start + " to " + (end - 1));
+            block = new Block(start,end);
+        }
+    }
+
+    /**
+     * @param value The counter value.
+     * @return the identifier for the counter value.
+     */
+    private static String format(long value) {
+        String id = Long.toString(value,Character.MAX_RADIX);
+        StringBuffer result = new StringBuffer(ID_LENGTH);
+        for (int i=id.length(); i<ID_LENGTH; i++) result.append('0');
+        return result.append(id).toString();
+    }
+
+}
@@ -0,0 +1,477 @@
+package org.xbrlapi.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Gathers statistics about the queries run by a data store.
+ * Queries are grouped by shape, which is the query with its string
+ * and numeric literals replaced by question marks and its whitespace 
+ * collapsed, so that queries built from the same template with 
+ * different fragment indices or URIs are grouped together.
+ * 
+ * For each shape, the number of calls, the total and maximum time taken, 
+ * the total number of results and a histogram of the time taken are
+ * recorded.  The histogram buckets double in width, starting with 
+ * queries taking less than one millisecond.
+ * 
+ * Queries that take at least the slow query threshold are logged, 
+ * at the WARN level, to the org.xbrlapi.data.QueryStatistics.slow 
+ * logger.  The initial threshold is taken from the 
+ * xbrlapi.slow.query.threshold system property, in milliseconds, and 
+ * slow queries are not logged if the property is not set.
+ * 
+ * Recording can be suspended for the queries started by a thread so that
+ * tools that run queries of their own, such as index advisors, do not
+ * distort the statistics.
+ * 
+ * The statistics can be published as a JMX MBean using the register method.
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class QueryStatistics implements QueryStatisticsMBean {
+
+    private static final Logger logger = Logger.getLogger(QueryStatistics.class);
+
+    private static final Logger slowQueryLogger = Logger.getLogger(QueryStatistics.class.getName() + ".slow");
+
+    /**
+     * The system property used to set the initial slow query threshold.
+     */
+    public static final String SLOW_QUERY_THRESHOLD_PROPERTY = "xbrlapi.slow.query.threshold";
+
+    /**
+     * The number of buckets in the latency histograms.
+     */
+    public static final int BUCKETS = 20;
+
+    /**
+     * The statistics for a single query shape.
+     */
+    public static final class ShapeStatistics {
+
+        private final String shape;
+        private final String example;
+        private final Map<String,String> exampleParameters;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong results = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private ShapeStatistics(String shape, String example, Map<String,String> exampleParameters) {
+            this.shape = shape;
+            this.example = example;
+            this.exampleParameters = (exampleParameters == null) ? null : Collections.unmodifiableMap(new HashMap<String,String>(exampleParameters));
+        }
+
+        private void record(long nanos, long resultCount) {
+            calls.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            results.addAndGet(resultCount);
+            long max = maxNanos.get();
+            while (nanos > max && ! maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            histogram.incrementAndGet(getBucket(nanos));
+        }
+
+        /**
+         * @return the query shape.
+         */
+        public String getShape() {
+            return shape;
+        }
+
+        /**
+         * @return the first query with this shape that was run, 
+         * including its literals.
+         */
+        public String getExample() {
+            return example;
+        }
+
+        /**
+         * @return the values bound to the external variables of the
+         * example query or null if it did not use external variables.
+         */
+        public Map<String,String> getExampleParameters() {
+            return exampleParameters;
+        }
+
+        /**
+         * @return the number of queries with this shape.
+         */
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * @return the total time, in nanoseconds, taken by queries with this shape.
+         */
+        public long getTotalTime() {
+            return totalNanos.get();
+        }
+
+        /**
+         * @return the longest time, in nanoseconds, taken by a query with this shape.
+         */
+        public long getMaximumTime() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return the total number of results returned by queries with this shape.
+         */
+        public long getResults() {
+            return results.get();
+        }
+
+        /**
+         * @param bucket The histogram bucket.  Bucket 0 counts queries
+         * taking less than one millisecond and bucket i counts queries
+         * taking at least 2^(i-1) and less than 2^i milliseconds.  The 
+         * last bucket also counts all slower queries.
+         * @return the number of queries in the bucket.
+         */
+        public long getHistogramCount(int bucket) {
+            return histogram.get(bucket);
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            long count = getCalls();
+            StringBuffer buffer = new StringBuffer();
+            buffer.append("calls=").append(count);
+            buffer.append(" total=").append(getTotalTime() / 1000000).append("ms");
+            buffer.append(" mean=").append(count == 0 ? 0 : getTotalTime() / count / 1000).append("us");
+            buffer.append(" max=").append(getMaximumTime() / 1000).append("us");
+            buffer.append(" results=").append(getResults());
+            buffer.append(" histogram=[");
+            int last = BUCKETS - 1;
+            while (last > 0 && histogram.get(last) == 0) last--;
+            for (int i=0; i<=last; i++) {
+                if (i > 0) buffer.append(",");
+                buffer.append(histogram.get(i));
+            }
+            buffer.append("] ").append(shape);
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Measures the time taken by one query.
+     */
+    public final class Timer {
+
+        private final String query;
+        private final Map<String,String> parameters;
+        private final long start;
+
+        /**
+         * True if the query is to be recorded when the timer is stopped.
+         */
+        private final boolean recording;
+
+        private Timer(String query, Map<String,String> parameters, boolean recording) {
+            this.query = query;
+            this.parameters = parameters;
+            this.recording = recording;
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Records the query with the number of results in the collection.
+         * @param results The query results.
+         * @return the query results.
+         */
+        public <T extends Collection<?>> T stop(T results) {
+            if (recording) record(query, parameters, System.nanoTime() - start, results.size());
+            return results;
+        }
+
+        /**
+         * Records the query with the given number of results.
+         * @param results The number of query results.
+         * @return the number of query results.
+         */
+        public long stop(long results) {
+            if (recording) record(query, parameters, System.nanoTime() - start, results);
+            return results;
+        }
+    }
+
+    /**
+     * The map from query shapes to their statistics.
+     */
+    private final ConcurrentHashMap<String,ShapeStatistics> shapes = new ConcurrentHashMap<String,ShapeStatistics>();
+
+    private volatile long slowQueryThreshold = -1;
+
+    /**
+     * The number of times that each thread has suspended recording
+     * without resuming it.  Threads that have not suspended recording
+     * have no value.
+     */
+    private final ThreadLocal<Integer> suspensions = new ThreadLocal<Integer>();
+
+    /**
+     * The name that the statistics are registered with as an MBean
+     * or null if they are not registered.
+     */
+    private ObjectName name = null;
+
+    public QueryStatistics() {
+        super();
+        String threshold = System.getProperty(SLOW_QUERY_THRESHOLD_PROPERTY);
+        if (threshold != null) {
+            try {
+                slowQueryThreshold = Long.parseLong(threshold.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("The slow query threshold " + threshold + " is not a number.");
+            }
+        }
+    }
+
+    /**
+     * @param query The query that is about to be run.
+     * @return the timer to stop when the query results are available.
+     */
+    public Timer start(String query) {
+        return start(query, null);
+    }
+
+    /**
+     * @param query The query that is about to be run.
+     * @param parameters The values bound to the external variables of the
+     * query.  This can be null if the query does not use external variables.
+     * @return the timer to stop when the query results are available.
+     */
+    public Timer start(String query, Map<String,String> parameters) {
+        return new Timer(query, parameters, suspensions.get() == null);
+    }
+
+    /**
+     * Stops recording the queries that the current thread starts until
+     * recording is resumed.  The queries started by other threads are 
+     * still recorded.  Calls must be followed by a call to 
+     * {@link #resume()} in a finally block.
+     */
+    public void suspend() {
+        Integer count = suspensions.get();
+        suspensions.set((count == null) ? 1 : count + 1);
+    }
+
+    /**
+     * Resumes recording the queries that the current thread starts
+     * once each call to {@link #suspend()} has been matched.
+     */
+    public void resume() {
+        Integer count = suspensions.get();
+        if (count == null || count <= 1) suspensions.remove();
+        else suspensions.set(count - 1);
+    }
+
+    /**
+     * @param query The query.
+     * @param parameters The values bound to the external variables of the query or null.
+     * @param nanos The time taken by the query in nanoseconds.
+     * @param results The number of query results.
+     */
+    private void record(String query, Map<String,String> parameters, long nanos, long results) {
+        String shape = getShape(query);
+        ShapeStatistics statistics = shapes.get(shape);
+        if (statistics == null) {
+            ShapeStatistics created = new ShapeStatistics(shape, query, parameters);
+            ShapeStatistics existing = shapes.putIfAbsent(shape, created);
+            statistics = (existing == null) ? created : existing;
+        }
+        statistics.record(nanos, results);
+
+        long threshold = slowQueryThreshold;
+        if (threshold >= 0 && nanos >= threshold * 1000000) {
+            slowQueryLogger.warn((nanos / 1000000) + "ms, " + results + " results: " + query);
+        }
+    }
+
+    /**
+     * @param nanos The time taken by a query in nanoseconds.
+     * @return the histogram bucket for the query.
+     */
+    private static int getBucket(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (millis > 0 && bucket < BUCKETS - 1) {
+            millis >>= 1;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @param query The query.
+     * @return the shape of the query, with string and numeric literals
+     * replaced by question marks and runs of whitespace replaced by 
+     * a single space.
+     */
+    public static String getShape(String query) {
+        StringBuffer shape = new StringBuffer(query.length());
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = query.indexOf(c, i + 1);
+                // Doubled quotes escape the quote character inside a literal.
+                while (end >= 0 && end + 1 < length && query.charAt(end + 1) == c) {
+                    end = query.indexOf(c, end + 2);
+                }
+                shape.append(c).append('?').append(c);
+                i = (end < 0) ? length : end + 1;
+            } else if (Character.isDigit(c) && (shape.length() == 0 || ! isNameCharacter(shape.charAt(shape.length() - 1)))) {
+                while (i < length && (Character.isDigit(query.charAt(i)) || query.charAt(i) == '.')) i++;
+                shape.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(query.charAt(i))) i++;
+                if (shape.length() > 0 && i < length) shape.append(' ');
+            } else {
+                shape.append(c);
+                i++;
+            }
+        }
+        return shape.toString();
+    }
+
+    /**
+     * @param c The character.
+     * @return true if the character can be part of a name.
+     */
+    private static boolean isNameCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '$' || c == ':';
+    }
+
+    /**
+     * @return the statistics for each query shape, keyed by shape.
+     */
+    public Map<String,ShapeStatistics> getShapes() {
+        return Collections.unmodifiableMap(new HashMap<String,ShapeStatistics>(shapes));
+    }
+
+    /**
+     * @see QueryStatisticsMBean#getQueryCount()
+     */
+    public long getQueryCount() {
+        long count = 0;
+        for (ShapeStatistics statistics: shapes.values()) count += statistics.getCalls();
+        return count;
+    }
+
+    /**
+     * @see QueryStatisticsMBean#getTotalQueryTime()
+     */
+    public long getTotalQueryTime() {
+        long nanos = 0;
+        for (ShapeStatistics statistics: shapes.values()) nanos += statistics.getTotalTime();
+        return nanos / 1000000;
+    }
+
+    /**
+     * @see QueryStatisticsMBean#getShapeCount()
+     */
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    /**
+     * @see QueryStatisticsMBean#getSlowQueryThreshold()
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * @see QueryStatisticsMBean#setSlowQueryThreshold(long)
+     */
+    public void setSlowQueryThreshold(long milliseconds) {
+        slowQueryThreshold = milliseconds;
+    }
+
+    /**
+     * @see QueryStatisticsMBean#getSummaries()
+     */
+    public String[] getSummaries() {
+        List<ShapeStatistics> list = new Vector<ShapeStatistics>(shapes.values());
+        Collections.sort(list, new Comparator<ShapeStatistics>() {
+            public int compare(ShapeStatistics first, ShapeStatistics second) {
+                long difference = second.getTotalTime() - first.getTotalTime();
+                if (difference != 0) return (difference > 0) ? 1 : -1;
+                return first.getShape().compareTo(second.getShape());
+            }
+        });
+        String[] summaries = new String[list.size()];
+        for (int i=0; i<summaries.length; i++) {
+            summaries[i] = list.get(i).toString();
+        }
+        return summaries;
+    }
+
+    /**
+     * @see QueryStatisticsMBean#reset()
+     */
+    public void reset() {
+        shapes.clear();
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server, replacing
+     * any earlier registration of these statistics, under the object
+     * name org.xbrlapi:type=QueryStatistics,name=[name].
+     * @param name The name to distinguish these statistics from those of 
+     * other data stores.
+     * @throws XBRLException if the statistics cannot be registered.
+     */
+    public synchronized void register(String name) throws XBRLException {
+        unregister();
+        try {
+            ObjectName objectName = new ObjectName("org.xbrlapi:type=QueryStatistics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (Exception e) {
+            throw new XBRLException("The query statistics could not be registered as " + name, e);
+        }
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server if they have
+     * been registered.
+     * @throws XBRLException if the statistics cannot be unregistered.
+     */
+    public synchronized void unregister() throws XBRLException {
+        if (name == null) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            name = null;
+        } catch (Exception e) {
+            throw new XBRLException("The query statistics could not be unregistered.", e);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.xbrlapi.data;
+
+/**
+ * The JMX management interface for the query statistics 
+ * gathered by a data store.
+ * @see QueryStatistics
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public interface QueryStatisticsMBean {
+
+    /**
+     * @return the number of queries run since the statistics were last reset.
+     */
+    public long getQueryCount();
+
+    /**
+     * @return the total time, in milliseconds, spent running queries
+     * since the statistics were last reset.
+     */
+    public long getTotalQueryTime();
+
+    /**
+     * @return the number of distinct query shapes that have been run.
+     */
+    public int getShapeCount();
+
+    /**
+     * @return the threshold, in milliseconds, at or above which queries
+     * are written to the slow query log or a negative value if slow 
+     * queries are not logged.
+     */
+    public long getSlowQueryThreshold();
+
+    /**
+     * @param milliseconds The threshold, in milliseconds, at or above which 
+     * queries are written to the slow query log.  Use a negative
+     * value to stop logging slow queries.
+     */
+    public void setSlowQueryThreshold(long milliseconds);
+
+    /**
+     * @return a summary of the statistics for each query shape, with 
+     * the shapes that have taken the most time in total listed first.
+     */
+    public String[] getSummaries();
+
+    /**
+     * Discards all of the statistics gathered so far.
+     */
+    public void reset();
+
+}
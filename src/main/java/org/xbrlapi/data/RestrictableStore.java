@@ -0,0 +1,91 @@
+package org.xbrlapi.data;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xbrlapi.XML;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Data stores that can run queries with the #roots# marker selecting
+ * a given set of fragments, identified by their indices, rather than
+ * all of the fragments in the data store.  The data store looks the
+ * fragments up by their indices so the cost of the restriction depends
+ * upon the number of fragments in the set rather than upon the number
+ * of documents that they come from.  The URIs that the data store is
+ * filtering by do not apply to these queries and they use the namespace
+ * bindings that they are given, so the queries do not depend upon or
+ * change the state of the data store.
+ *
+ * Store views use these queries to run their own queries against
+ * just the fragments in the view, with the view's namespace bindings.
+ *
+ * @see Store#view(Set)
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public interface RestrictableStore extends Store {
+
+    /**
+     * @param uris The URIs of the documents.
+     * @return the indices of the fragments in the documents, whatever URIs
+     * the data store is filtering by, in document order within each document.
+     * @throws XBRLException if the fragments cannot be identified.
+     */
+    public Set<String> getFragmentIndicesFromDocuments(Set<URI> uris) throws XBRLException;
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker selects.
+     * @param namespaceBindings The namespace bindings, from prefix to namespace,
+     * to use in the query in place of the data store's own namespace bindings.
+     * @return the list of matching XML resources.
+     * @throws XBRLException if the query cannot be executed.
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> namespaceBindings) throws XBRLException;
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker selects.
+     * @param namespaceBindings The namespace bindings, from prefix to namespace,
+     * to use in the query in place of the data store's own namespace bindings.
+     * @return the indices of the matching fragments.
+     * @throws XBRLException if the query cannot be executed.
+     * @see Store#queryForIndices(String, Map)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> namespaceBindings) throws XBRLException;
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker selects.
+     * @param namespaceBindings The namespace bindings, from prefix to namespace,
+     * to use in the query in place of the data store's own namespace bindings.
+     * @return the number of query results.
+     * @throws XBRLException if the query cannot be executed.
+     * @see Store#queryCount(String, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> namespaceBindings) throws XBRLException;
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker selects.
+     * @param namespaceBindings The namespace bindings, from prefix to namespace,
+     * to use in the query in place of the data store's own namespace bindings.
+     * @return the set of strings that match the query.
+     * @throws XBRLException if the query cannot be executed.
+     * @see Store#queryForStrings(String, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> namespaceBindings) throws XBRLException;
+
+}
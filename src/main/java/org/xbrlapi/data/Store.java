@@ -5,10 +5,13 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -50,6 +53,14 @@ import org.xbrlapi.utilities.XBRLException;
  * steps would be taken if XML data binding to Java objects were
  * being used to handle the underlying data.
  *
+ * Data stores are used by several threads at once.  Queries and the
+ * retrieval of fragments can run at the same time as each other and 
+ * as changes to the data store.  Each change is atomic, so a query
+ * sees the store either before or after a fragment is stored or removed
+ * and never part of a fragment.  Implementations decide how to do this,
+ * for example with a read-write lock that lets queries run together,
+ * rather than being required to synchronize each method.
+ *
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
 
@@ -57,23 +68,102 @@ public interface Store extends Serializable {
 
 	/**
 	 * Close the data store.
-	 * This method must be synchronized.
+	 * Implementations must be safe to call while other threads are
+	 * using the data store.
 	 * Throws XBRLException if the data store cannot be closed. 
 	 */
 	public void close() throws XBRLException;
 
 	/**
 	 * Store a fragment.
-	 * Implementations of this method must always be synchronized. 
+	 * Implementations must be safe to call from several threads at once
+	 * and queries running at the same time must not see a partly stored
+	 * fragment.  They need not stop other threads from querying the store
+	 * while the fragment is stored.
 	 * @param xml The fragment to be added to the store.
 	 * @throws XBRLException if the fragment cannot be added to the store.
 	 */
     public void persist(XML xml) throws XBRLException;    
 
+    /**
+     * Store a collection of fragments.  Stores that support it write
+     * the whole collection to the underlying database in a single
+     * operation.
+     * @param xmlResources The fragments to be added to the store.
+     * @throws XBRLException if the fragments cannot be added to the store.
+     */
+    public void persistAll(Collection<? extends XML> xmlResources) throws XBRLException;
+
+    /**
+     * Store a fragment, possibly holding it in a buffer until enough
+     * fragments have been buffered to make up a batch.  Buffered 
+     * fragments are stored before the store is read or synced so 
+     * they are always visible to queries.  Stores with no per-operation
+     * overhead store the fragment immediately.
+     * @param xml The fragment to be added to the store.
+     * @throws XBRLException if the fragment cannot be added to the store.
+     * @see Store#setPersistenceBatchSize(int)
+     */
+    public void persistBuffered(XML xml) throws XBRLException;
+
+    /**
+     * Store all of the fragments held in the persistence buffer.
+     * @throws XBRLException if the fragments cannot be added to the store.
+     */
+    public void flushPersistenceBuffer() throws XBRLException;
+
+    /**
+     * @param size The number of buffered fragments that triggers
+     * the storage of the buffered fragments as a single batch.  A size
+     * of 1 stores each fragment as soon as it is buffered.
+     * @throws XBRLException if the size is less than 1 or if fragments
+     * buffered before the size is changed cannot be stored.
+     */
+    public void setPersistenceBatchSize(int size) throws XBRLException;
+
+    /**
+     * @return the number of buffered fragments that triggers
+     * the storage of the buffered fragments as a single batch.
+     */
+    public int getPersistenceBatchSize();
+
+    /**
+     * @param size The maximum number of fragments to keep in the 
+     * fragment cache.  Fragments retrieved from the store are cached 
+     * so that repeated requests for the same fragment do not need to
+     * retrieve and parse it again.  The least recently used fragment 
+     * is evicted when the cache is full.  Set this to zero to disable 
+     * the cache.  Changing the size empties the cache.
+     * @throws XBRLException if the size is negative.
+     */
+    public void setFragmentCacheSize(int size) throws XBRLException;
+
+    /**
+     * @return the maximum number of fragments to keep in the fragment cache.
+     */
+    public int getFragmentCacheSize();
+
+    /**
+     * @return the number of fragment retrievals that were satisfied
+     * from the fragment cache.
+     */
+    public long getFragmentCacheHits();
+
+    /**
+     * @return the number of fragment retrievals that could not be 
+     * satisfied from the fragment cache while it was enabled.
+     */
+    public long getFragmentCacheMisses();
+
+    /**
+     * @return the number of fragments evicted from the fragment cache
+     * to make room for other fragments.
+     */
+    public long getFragmentCacheEvictions();
+
     /**
      * Test if a store contains a specific fragment, as identified by
      * its index.
-     * Implementations of this method must be synchronized.
      * @param index The index of the fragment to test for.
      * @return true iff the store contains a fragment with the specified 
      * fragment index.
@@ -83,7 +173,6 @@ public interface Store extends Serializable {
     
     /**
      * Retrieves an XML Resource from a data store.
-     * Implementations of this method must be synchronized.
      * @param index The index of the XML resource.
      * @return The XML resource corresponding to the specified index.
      * @throws XBRLException if the XML resource cannot be retrieved.
@@ -94,7 +183,9 @@ public interface Store extends Serializable {
 	 * Remove a fragment from the underlying data structure.
 	 * If a fragment with the same ID does not already exist in the 
 	 * data store then no action is required.
-     * Implementations of this method must be synchronized.
+     * Implementations must be safe to call from several threads at once
+     * and queries running at the same time see the store either with or
+     * without the whole fragment.
 	 * @param index The index of the fragment to be removed from the DTS store.
 	 * @throws XBRLException if the fragment cannot be removed from the store.
 	 */
@@ -152,7 +243,6 @@ public interface Store extends Serializable {
 
 	/**
 	 * Run a query against the collection of all fragments in the store.
-     * Implementations of this method must be synchronized.
 	 * @param query The XQuery query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -166,7 +256,6 @@ public interface Store extends Serializable {
 	
 	/**
      * Run a query against the collection of all fragments in the store.
-     * Implementations of this method must be synchronized.
      * @param query The XQuery query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -181,7 +270,7 @@ public interface Store extends Serializable {
     public Set<String> queryForIndices(String query) throws XBRLException;
     
     /**
-     * This method must be synchronised
+     * Count the results of a query.
      * @param query The XQuery to run.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -194,7 +283,6 @@ public interface Store extends Serializable {
     
     /**
      * Run a query that is required to return a sequence of strings.
-     * Implementations of this method must be synchronized.
      * @param query The XQuery query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -208,7 +296,6 @@ public interface Store extends Serializable {
     
     /**
      * Run a query that is required to return a single string.
-     * Implementations of this method must be synchronized.
      * @param query The XQuery query to run against the set of fragments.
      * Any occurrences of the string #roots# in a query will be deemed to 
      * be a marker for the root elements of the fragments in an XML database collection 
@@ -221,6 +308,198 @@ public interface Store extends Serializable {
      */
     public String queryForString(String query) throws XBRLException;
 
+    /**
+     * Run a query against the collection of all fragments in the store,
+     * binding the supplied values to external variables of the query.
+     * Queries written this way have the same text regardless of the values
+     * being searched for so the compiled form of the query can be reused.
+     * @param query The XQuery query to run against the set of fragments.
+     * Any occurrences of the string #roots# in a query will be deemed to 
+     * be a marker for the root elements of the fragments in an XML database collection 
+     * and it will be substituted with the necessary
+     * expression to identify those roots in the data store.
+     * The external variables are referenced in the query as <code>$name</code>
+     * and do not need to be declared in the query.
+     * @param parameters The map from external variable names (without the leading
+     * $ sign) to the string values to bind to those variables.  This can be null 
+     * if the query does not use external variables.
+     * @return a list of matching fragments or the empty list if no matching fragments
+     * exist.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters) throws XBRLException;
+
+    /**
+     * Run a query against the collection of all fragments in the store
+     * and return one page of the matching fragments.  The paging is done 
+     * by the underlying database so only the fragments in the requested 
+     * page are retrieved.
+     * @param query The XQuery query to run against the set of fragments.
+     * The query must return fragment root elements.
+     * @param parameters The map from external variable names (without the leading
+     * $ sign) to the string values to bind to those variables.  This can be null 
+     * if the query does not use external variables.
+     * @param sortKey The name of the fragment root element attribute to sort the
+     * matching fragments by (eg: index or uri).  Fragments with equal values, or 
+     * without the attribute, are ordered by their index so the ordering is stable
+     * from one page to the next.  If this is null, the fragments are returned
+     * in the order in which the query returns them.
+     * @param offset The number of matching fragments to skip before the page starts.
+     * @param limit The maximum number of fragments to return.
+     * @return the list of fragments in the requested page, which will be 
+     * empty if the offset is beyond the last matching fragment.
+     * @throws XBRLException if the query cannot be executed, if the sort key is not
+     * a valid attribute name or if the offset or limit is negative.
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, String sortKey, int offset, int limit) throws XBRLException;
+
+    /**
+     * Run a query against the collection of all fragments in the store,
+     * returning an iterator that only retrieves each matching fragment
+     * from the store as it is requested.  This avoids building every
+     * matching fragment up front when the caller processes the matches
+     * one at a time or stops once it has found what it needs.
+     * @param query The XQuery query to run against the set of fragments.
+     * @return an iterator over the matching fragments, in the same order
+     * as they would be returned by queryForXMLResources.  The iterator throws
+     * a NoSuchElementException if a fragment cannot be retrieved.
+     * @throws XBRLException if the query cannot be executed.
+     * @see Store#queryForXMLResources(String)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query) throws XBRLException;
+
+    /**
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names (without the leading
+     * $ sign) to the string values to bind to those variables.  This can be null 
+     * if the query does not use external variables.
+     * @return an iterator over the matching fragments.
+     * @throws XBRLException if the query cannot be executed.
+     * @see Store#queryForXMLResourceIterator(String)
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query, Map<String,String> parameters) throws XBRLException;
+
+    /**
+     * Run a query that returns XML resource metadata root elements, 
+     * binding the supplied values to external variables of the query.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return a set of the indices of XML resources matching the query.
+     * @throws XBRLException if the query cannot be executed.
+     * @see #queryForXMLResources(String, Map)
+     * @see #queryForIndices(String)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters) throws XBRLException;
+
+    /**
+     * Run a query that is required to return a sequence of strings, 
+     * binding the supplied values to external variables of the query.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return a list of strings, each of which is a query result.
+     * @throws XBRLException if the query cannot be executed or if the
+     * query results are not strings.
+     * @see #queryForXMLResources(String, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters) throws XBRLException;
+
+    /**
+     * Count the results of a query, binding the supplied values 
+     * to external variables of the query.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return a count of the number of results returned by the query.
+     * @throws XBRLException if the query cannot be executed.
+     * @see #queryForXMLResources(String, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters) throws XBRLException;
+
+    /**
+     * Runs {@link #queryForXMLResources(String)} on the query executor.
+     * Failures, including XBRLExceptions, complete the future exceptionally.
+     * @param query The XQuery query to run against the set of fragments.
+     * @return the future list of matching fragments.
+     * @see #setQueryExecutor(Executor)
+     */
+    public <F extends XML> CompletableFuture<List<F>> queryForXMLResourcesAsync(String query);
+
+    /**
+     * Runs {@link #queryForXMLResources(String, Map)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return the future list of matching fragments.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public <F extends XML> CompletableFuture<List<F>> queryForXMLResourcesAsync(String query, Map<String,String> parameters);
+
+    /**
+     * Runs {@link #queryForIndices(String)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @return the future set of indices of the matching fragments.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<Set<String>> queryForIndicesAsync(String query);
+
+    /**
+     * Runs {@link #queryForIndices(String, Map)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return the future set of indices of the matching fragments.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<Set<String>> queryForIndicesAsync(String query, Map<String,String> parameters);
+
+    /**
+     * Runs {@link #queryForStrings(String)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @return the future set of strings returned by the query.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<Set<String>> queryForStringsAsync(String query);
+
+    /**
+     * Runs {@link #queryForStrings(String, Map)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return the future set of strings returned by the query.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<Set<String>> queryForStringsAsync(String query, Map<String,String> parameters);
+
+    /**
+     * Runs {@link #queryCount(String)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @return the future count of the query results.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<Long> queryCountAsync(String query);
+
+    /**
+     * Runs {@link #queryCount(String, Map)} on the query executor.
+     * @param query The XQuery query to run against the set of fragments.
+     * @param parameters The map from external variable names to their values.
+     * @return the future count of the query results.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<Long> queryCountAsync(String query, Map<String,String> parameters);
+
+    /**
+     * @param executor The executor to run asynchronous queries on or null 
+     * to use the default executor, a shared, fixed pool of daemon threads
+     * with one thread per processor.  Each asynchronous query occupies one
+     * task while it runs, so
+     * an executor that starts a virtual thread per task suits stores whose 
+     * queries spend most of their time waiting on a database.
+     */
+    public void setQueryExecutor(Executor executor);
+
+    /**
+     * @return the executor that asynchronous queries are run on.
+     */
+    public Executor getQueryExecutor();
+
     /**
      * Serialize the specified XML DOM to the specified destination.
      * @param what the root element of the DOM to be serialised.
@@ -290,11 +569,28 @@ public interface Store extends Serializable {
 	 * be saved to the local file system.
 	 */
 	public void saveDocuments(File destination, String uriPrefix) throws XBRLException;
+
+	/**
+	 * Serializes those documents in the data store with a URI that
+	 * begins with the specified URI prefix, in the same manner as the
+	 * other saveDocuments methods, using the specified number of 
+	 * threads to write the documents.
+	 * @param destination The folder in which the directory structure and
+	 * the documents in the data store are to be saved.
+	 * @param uriPrefix All documents in the data store with a URI that begins 
+	 * with the string specified by uriPrefix will be saved to the local
+	 * file system.
+	 * @param threads The number of threads to use.
+	 * @throws XBRLException If the root folder does not exist or 
+	 * is not a directory, if the number of threads is less than one
+	 * or if the documents in the store cannot be saved to the local 
+	 * file system.
+	 */
+	public void saveDocuments(File destination, String uriPrefix, int threads) throws XBRLException;
 	
 	/**
-	 * Creates a single DOM structure from all documents in the 
-	 * data store and saves this single XML structure in the
-	 * specified file.
+	 * Saves all documents in the data store as a single XML 
+	 * structure in the specified file.
 	 * @param file The file to save the Store content to.
 	 * @throws XBRLException if the documents in the store cannot be
 	 * saved to the single file.
@@ -624,7 +920,8 @@ public interface Store extends Serializable {
     
     /**
      * Close and then delete the data store.
-     * This method must be synchronized.
+     * Implementations must be safe to call while other threads are
+     * using the data store, as for {@link #close()}.
      * @throws XBRLException if the data store cannot be deleted.
      */
     public void delete() throws XBRLException;    
@@ -712,12 +1009,37 @@ public interface Store extends Serializable {
      */
     public Set<URI> getReferencedDocuments(URI uri) throws XBRLException;    
     
+    /**
+     * @return the statistics for the queries run by the data store,
+     * grouped by query shape.  The statistics can be published using JMX
+     * and can be used to log slow queries.
+     */
+    public QueryStatistics getQueryStatistics();
+
     /**
      * @param uris The set of URIs to restrict query results to coming from.
      * The set of URIs is set to the empty set if this parameter is null.
+     * @see #view(Set)
      */
     public void setFilteringURIs(Set<URI> uris);
 
+    /**
+     * Creates a read-only view of the documents in the data store with
+     * the given URIs.  Unlike URI filtering, the view does not change
+     * the state of this data store and it does not depend upon the
+     * URIs that this data store is filtering by, so several views can 
+     * be used at once from different threads.  The view is made up of 
+     * the fragments in the documents when it is created and it starts 
+     * with the namespace bindings of this data store.  Namespace bindings
+     * set on the view do not change those of this data store.
+     * @param uris The URIs of the documents to include in the view.
+     * @return the view of the documents.
+     * @throws XBRLException if the view cannot be created, including if
+     * this data store does not support queries restricted to a set of fragments.
+     * @see RestrictableStore
+     */
+    public Store view(Set<URI> uris) throws XBRLException;
+
     /**
      * @return the set of URIs to filter query results.  Empty set
      * if no URIs are being used to filter query results.
@@ -1255,6 +1577,80 @@ public interface Store extends Serializable {
      * @throws XBRLException
      */
     public List<ReferenceResource> getReferencesWithResourceRole(String fragment, String resourceRole) throws XBRLException;    
+
+    /**
+     * Runs {@link #getXMLResource(String)} on the query executor.
+     * @param index The index of the fragment.
+     * @return the future fragment, which is null if the fragment is not in the store.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public <F extends XML> CompletableFuture<F> getXMLResourceAsync(String index);
+
+    /**
+     * Runs {@link #getLabels(String)} on the query executor.
+     * @param fragment the index of the fragment that we are getting labels for
+     * @return the future list of labels for the fragment.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<List<LabelResource>> getLabelsAsync(String fragment);
+
+    /**
+     * Runs {@link #getLabels(String,String,String,String)} on the query executor.
+     * @param fragment the index of the fragment that we are getting labels for
+     * @param linkRole The required extended link role or null if not used.
+     * @param resourceRole The required resource role or null if not used.
+     * @param language The required language code or null if not used.
+     * @return the future list of matching labels.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<List<LabelResource>> getLabelsAsync(String fragment, String linkRole, String resourceRole, String language);
+
+    /**
+     * Gets the labels of several fragments at once.  The fragments are split
+     * into at most one batch per processor and each batch is looked up as
+     * a single task on the query executor.
+     * @param fragments The indices of the fragments to get labels for.
+     * @return the future map from each fragment index to its labels.  The
+     * future fails if the lookup fails for any of the fragments.
+     */
+    public CompletableFuture<Map<String,List<LabelResource>>> getLabelsAsync(Collection<String> fragments);
+
+    /**
+     * Runs {@link #getReferences(String)} on the query executor.
+     * @param fragment the index of the fragment that we are getting references for
+     * @return the future list of references for the fragment.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<List<ReferenceResource>> getReferencesAsync(String fragment);
+
+    /**
+     * Gets the references of several fragments at once.
+     * @param fragments The indices of the fragments to get references for.
+     * @return the future map from each fragment index to its references.
+     * @see #getLabelsAsync(Collection)
+     */
+    public CompletableFuture<Map<String,List<ReferenceResource>>> getReferencesAsync(Collection<String> fragments);
+
+    /**
+     * Runs {@link #getRelationshipsFrom(String,String,String)} on the query executor.
+     * @param sourceIndex The source fragment index
+     * @param linkRole The XLink link role
+     * @param arcrole The XLink arcrole
+     * @return the future sorted set of active relationships from the source fragment.
+     * @see #queryForXMLResourcesAsync(String)
+     */
+    public CompletableFuture<SortedSet<Relationship>> getRelationshipsFromAsync(String sourceIndex, String linkRole, String arcrole);
+
+    /**
+     * Gets the relationships from several fragments at once.
+     * @param sourceIndices The source fragment indices
+     * @param linkRole The XLink link role
+     * @param arcrole The XLink arcrole
+     * @return the future map from each source fragment index to its 
+     * active relationships with the given link role and arcrole.
+     * @see #getLabelsAsync(Collection)
+     */
+    public CompletableFuture<Map<String,SortedSet<Relationship>>> getRelationshipsFromAsync(Collection<String> sourceIndices, String linkRole, String arcrole);
     
     /**
      * @return a list of the URIs of documents that are discoverable given the 
@@ -1306,6 +1702,12 @@ public interface Store extends Serializable {
      */
     public boolean isLoading();    
 
+    /**
+     * Blocks until no loader is using this store for data loading.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void awaitLoadingCompletion() throws InterruptedException;
+
     /**
      * @param namespace The target namespace of the schema with the desired content.
      * @param name The name given to the schema component.
@@ -0,0 +1,311 @@
+package org.xbrlapi.data;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.xbrlapi.XML;
+import org.xbrlapi.impl.FragmentFactory;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * A read-only view of the documents with a given set of URIs
+ * in another data store.  Nothing is copied when the view is created.
+ * Instead the view records the indices of the fragments in those
+ * documents and runs its queries against the underlying data store
+ * with the #roots# marker selecting just those fragments.  The 
+ * underlying data store looks the fragments up by their indices so 
+ * the view does not change the state of the underlying data store 
+ * and its queries do not depend upon the URIs that the underlying 
+ * data store is filtering by.  Any number of views can be queried 
+ * from different threads at the same time.
+ *
+ * The view is made up of the fragments in its documents when it is
+ * created.  Fragments that are added to the underlying store later
+ * are not in the view and fragments that are removed from the
+ * underlying store later are no longer returned by the view's queries.
+ *
+ * The view starts with the namespace bindings of the underlying 
+ * data store.  Namespace bindings set on the view are only used
+ * by the view's queries.
+ *
+ * Fragments retrieved from the view belong to the view so queries
+ * that they run are also restricted to the documents in the view.
+ *
+ * @see Store#view(Set)
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StoreViewImpl extends BaseStoreImpl implements Store {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -5207180347745906093L;
+
+    private static final Logger logger = Logger.getLogger(StoreViewImpl.class);
+
+    /**
+     * The data store that the view is a view of.
+     */
+    private RestrictableStore store = null;
+
+    /**
+     * The URIs of the documents in the view.
+     */
+    private Set<URI> uris = null;
+
+    /**
+     * The indices of the fragments in the view.
+     */
+    private Set<String> indices = null;
+
+    /**
+     * @param store The data store to create the view of.
+     * @param uris The URIs of the documents to include in the view.
+     * @throws XBRLException if the store or the set of URIs is null, if
+     * the store does not support queries restricted to a set of fragments
+     * or if the fragments of the documents cannot be identified.
+     */
+    public StoreViewImpl(Store store, Set<URI> uris) throws XBRLException {
+        super();
+        if (store == null) throw new XBRLException("The data store must not be null.");
+        if (uris == null) throw new XBRLException("The set of document URIs must not be null.");
+        if (! (store instanceof RestrictableStore)) {
+            throw new XBRLException("Views cannot be made of " + store + " because it does not support queries restricted to a set of fragments.");
+        }
+        this.store = (RestrictableStore) store;
+        this.uris = Collections.unmodifiableSet(new HashSet<URI>(uris));
+
+        setMatcher(store.getMatcher());
+        if (store instanceof BaseStoreImpl) {
+            namespaceBindings.putAll(((BaseStoreImpl) store).namespaceBindings);
+        }
+
+        this.indices = Collections.unmodifiableSet(this.store.getFragmentIndicesFromDocuments(this.uris));
+        logger.debug("Created a view of " + this.uris.size() + " documents containing " + indices.size() + " fragments.");
+    }
+
+    /**
+     * @return the URIs of the documents in the view.
+     */
+    public Set<URI> getViewURIs() {
+        return uris;
+    }
+
+    /**
+     * @param xml An XML resource retrieved from the underlying store.
+     * @return the same XML resource, belonging to this view, or null
+     * if the XML resource is null or it is not in the view.
+     * @throws XBRLException
+     */
+    @SuppressWarnings(value = "unchecked")
+    private <F extends XML> F adopt(XML xml) throws XBRLException {
+        if (xml == null) return null;
+        if (! indices.contains(xml.getIndex())) return null;
+        return FragmentFactory.<F>newFragment(this, xml.getMetadataRootElement());
+    }
+
+    /**
+     * @param xmlResources XML resources retrieved from the underlying store.
+     * @return the XML resources that are in the view, belonging to the view.
+     * @throws XBRLException
+     */
+    private <F extends XML> List<F> adoptAll(List<? extends XML> xmlResources) throws XBRLException {
+        List<F> result = new Vector<F>();
+        for (XML xml: xmlResources) {
+            F adopted = this.<F>adopt(xml);
+            if (adopted != null) result.add(adopted);
+        }
+        return result;
+    }
+
+    /**
+     * Closing a view does not close the underlying data store.
+     * @see Store#close()
+     */
+    public void close() throws XBRLException {
+        ;
+    }
+
+    /**
+     * Deleting a view does not delete anything from the underlying data store.
+     * @see Store#delete()
+     */
+    public void delete() throws XBRLException {
+        ;
+    }
+
+    /**
+     * @return the number of fragments in the view when it was created.
+     * @see Store#getSize()
+     */
+    public int getSize() throws XBRLException {
+        return indices.size();
+    }
+
+    /**
+     * @throws XBRLException because views are read-only.
+     * @see Store#persist(XML)
+     */
+    public void persist(XML xml) throws XBRLException {
+        throw new XBRLException("Data store views are read-only.");
+    }
+
+    /**
+     * @throws XBRLException because views are read-only.
+     * @see Store#persistAll(Collection)
+     */
+    public void persistAll(Collection<? extends XML> xmlResources) throws XBRLException {
+        throw new XBRLException("Data store views are read-only.");
+    }
+
+    /**
+     * @throws XBRLException because views are read-only.
+     * @see Store#remove(String)
+     */
+    public void remove(String index) throws XBRLException {
+        throw new XBRLException("Data store views are read-only.");
+    }
+
+    /**
+     * @see Store#hasXMLResource(String)
+     */
+    public boolean hasXMLResource(String index) throws XBRLException {
+        if (! indices.contains(index)) return false;
+        return store.hasXMLResource(index);
+    }
+
+    /**
+     * @see Store#getXMLResource(String)
+     */
+    public <F extends XML> F getXMLResource(String index) throws XBRLException {
+        if (! indices.contains(index)) {
+            throw new XBRLException("Index " + index + " does not map to a fragment in the view.");
+        }
+        return this.<F>adopt(store.getXMLResource(index));
+    }
+
+    /**
+     * @see Store#getStoreAsDOM()
+     */
+    public Document getStoreAsDOM() throws XBRLException {
+        throw new XBRLException("Data store views cannot be serialised as a DOM.");
+    }
+
+    /**
+     * @see Store#queryForXMLResources(String)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        return this.<F>queryForXMLResources(query, null);
+    }
+
+    /**
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters) throws XBRLException {
+        if (indices.isEmpty()) return new Vector<F>();
+        return this.<F>adoptAll(store.<XML>queryForXMLResources(query, parameters, indices, namespaceBindings));
+    }
+
+    /**
+     * The matching fragments are sorted and paged by the view.
+     * @see Store#queryForXMLResources(String, Map, String, int, int)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, final String sortKey, int offset, int limit) throws XBRLException {
+        checkPage(sortKey, offset, limit);
+        List<F> matches = this.<F>queryForXMLResources(query, parameters);
+        if (sortKey != null) {
+            Collections.sort(matches, new Comparator<F>() {
+                public int compare(F first, F second) {
+                    String firstKey = first.getMetaAttribute(sortKey);
+                    String secondKey = second.getMetaAttribute(sortKey);
+                    int result = ((firstKey == null) ? "" : firstKey).compareTo((secondKey == null) ? "" : secondKey);
+                    if (result != 0) return result;
+                    return first.getIndex().compareTo(second.getIndex());
+                }
+            });
+        }
+        List<F> page = new Vector<F>();
+        for (int i=offset; i<matches.size() && i-offset<limit; i++) {
+            page.add(matches.get(i));
+        }
+        return page;
+    }
+
+    /**
+     * @see Store#queryForXMLResourceIterator(String)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query) throws XBRLException {
+        return this.<F>queryForXMLResourceIterator(query, null);
+    }
+
+    /**
+     * The matching fragments are all retrieved when the query is run.
+     * @see Store#queryForXMLResourceIterator(String, Map)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query, Map<String,String> parameters) throws XBRLException {
+        return this.<F>queryForXMLResources(query, parameters).iterator();
+    }
+
+    /**
+     * @see Store#queryForIndices(String)
+     */
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        return queryForIndices(query, null);
+    }
+
+    /**
+     * @see Store#queryForIndices(String, Map)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters) throws XBRLException {
+        if (indices.isEmpty()) return new HashSet<String>();
+        return store.queryForIndices(query, parameters, indices, namespaceBindings);
+    }
+
+    /**
+     * @see Store#queryCount(String)
+     */
+    public long queryCount(String query) throws XBRLException {
+        return queryCount(query, null);
+    }
+
+    /**
+     * @see Store#queryCount(String, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters) throws XBRLException {
+        if (indices.isEmpty()) return 0;
+        return store.queryCount(query, parameters, indices, namespaceBindings);
+    }
+
+    /**
+     * @see Store#queryForStrings(String)
+     */
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        return queryForStrings(query, null);
+    }
+
+    /**
+     * @see Store#queryForStrings(String, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters) throws XBRLException {
+        if (indices.isEmpty()) return new HashSet<String>();
+        return store.queryForStrings(query, parameters, indices, namespaceBindings);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "View of " + uris.size() + " documents";
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.xbrlapi.data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.xbrlapi.XML;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * This iterator iterates over the XML resources identified by
+ * a sequence of indices, retrieving each XML resource from the
+ * data store only when it is requested.  Callers that stop iterating
+ * early never pay for the retrieval of the remaining XML resources.
+ * XML resources that have been removed from the data store since the 
+ * indices were obtained are skipped.
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ */
+public class XMLResourceIterator<F extends XML> implements Iterator<F> {
+
+    // The store containing the XML resources
+    private Store store = null;
+
+    // The indices of the XML resources still to be retrieved
+    private Iterator<String> indices = null;
+
+    // The next XML resource to return or null if it has not been retrieved yet
+    private F next = null;
+
+    /**
+     * @param store The data store containing the XML resources.
+     * @param indices The indices of the XML resources to iterate over,
+     * in the order in which they are to be returned.
+     * @throws XBRLException if either parameter is null.
+     */
+    public XMLResourceIterator(Store store, Iterable<String> indices) throws XBRLException {
+        if (store == null) throw new XBRLException("The store must not be null.");
+        if (indices == null) throw new XBRLException("The indices must not be null.");
+        this.store = store;
+        this.indices = indices.iterator();
+    }
+
+    /**
+     * @see Iterator#hasNext()
+     */
+    public boolean hasNext() {
+        while (next == null && indices.hasNext()) {
+            String index = indices.next();
+            try {
+                next = store.<F>getXMLResource(index);
+            } catch (XBRLException e) {
+                if (isRemoved(index)) continue;
+                NoSuchElementException failure = new NoSuchElementException("XML resource " + index + " could not be retrieved from the data store.");
+                failure.initCause(e);
+                throw failure;
+            }
+        }
+        return next != null;
+    }
+
+    /**
+     * @param index The index of an XML resource that could not be retrieved.
+     * @return true if the XML resource is no longer in the data store.
+     */
+    private boolean isRemoved(String index) {
+        try {
+            return ! store.hasXMLResource(index);
+        } catch (XBRLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @see Iterator#next()
+     */
+    public F next() throws NoSuchElementException {
+        if (! hasNext()) throw new NoSuchElementException("There are no more XML resources.");
+        F xml = next;
+        next = null;
+        return xml;
+    }
+
+    /**
+     * This method is not supported by this implementation.
+     * @see Iterator#remove()
+     */
+    public void remove() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("The remove operation is not supported by this iterator implementation.");
+    }
+
+}
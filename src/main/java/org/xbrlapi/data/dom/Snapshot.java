@@ -0,0 +1,434 @@
+package org.xbrlapi.data.dom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.utilities.XMLDOMBuilder;
+
+/**
+ * Reads and writes snapshots of the fragments in an XML DOM data store
+ * using a compact binary format.
+ *
+ * A snapshot starts with a header and ends with a trailer that gives
+ * the position of the block table.  In between are blocks of fragments,
+ * each of which has its own table of interned strings, a fragment table
+ * giving the index of each fragment and the offset of its encoding in the
+ * block, and the encoded fragments.  Blocks are written one at a time
+ * so writing a snapshot only needs memory for one block.  Blocks can be
+ * decoded independently of each other so snapshots are read in parallel.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+final class Snapshot {
+
+    private static final Logger logger = Logger.getLogger(Snapshot.class);
+
+    /**
+     * Identifies the file as a snapshot.
+     */
+    private static final int MAGIC = 0x58424150;
+
+    /**
+     * The version of the snapshot format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the encoded fragments, in bytes, at which a block
+     * is written out and a new block started.
+     */
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    /**
+     * The length, in bytes, of the header and of the trailer.
+     */
+    private static final int HEADER_LENGTH = 8;
+    private static final int TRAILER_LENGTH = 12;
+
+    /**
+     * The node type codes.
+     */
+    private static final byte END = 0;
+    private static final byte ELEMENT = 1;
+    private static final byte TEXT = 2;
+    private static final byte CDATA = 3;
+    private static final byte COMMENT = 4;
+    private static final byte PROCESSING_INSTRUCTION = 5;
+
+    private Snapshot() {
+        ;
+    }
+
+    /**
+     * A block of fragments being encoded.
+     */
+    private static class BlockWriter {
+
+        private Map<String,Integer> ids = new HashMap<String,Integer>();
+        private List<String> strings = new Vector<String>();
+        private List<String> indices = new Vector<String>();
+        private List<Integer> offsets = new Vector<Integer>();
+        private ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(body);
+
+        /**
+         * @param string The string to intern.
+         * @return the identifier of the string in the block's string
+         * table, with 0 standing for null.
+         */
+        private int id(String string) {
+            if (string == null) return 0;
+            Integer id = ids.get(string);
+            if (id == null) {
+                strings.add(string);
+                id = strings.size();
+                ids.put(string, id);
+            }
+            return id;
+        }
+
+        /**
+         * @param index The fragment index.
+         * @param fragment The fragment root element.
+         * @throws IOException
+         */
+        private void add(String index, Element fragment) throws IOException {
+            indices.add(index);
+            offsets.add(body.size());
+            encode(fragment);
+        }
+
+        /**
+         * @param node The node to encode, along with its descendants.
+         * Entity references and other node types that do not occur in
+         * the data store are skipped.
+         * @throws IOException
+         */
+        private void encode(Node node) throws IOException {
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                out.writeByte(ELEMENT);
+                out.writeInt(id(node.getNamespaceURI()));
+                out.writeInt(id(node.getNodeName()));
+                NamedNodeMap attributes = node.getAttributes();
+                out.writeInt(attributes.getLength());
+                for (int i=0; i<attributes.getLength(); i++) {
+                    Attr attribute = (Attr) attributes.item(i);
+                    out.writeInt(id(attribute.getNamespaceURI()));
+                    out.writeInt(id(attribute.getName()));
+                    out.writeInt(id(attribute.getValue()));
+                }
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    encode(child);
+                }
+                out.writeByte(END);
+                break;
+            case Node.TEXT_NODE:
+                out.writeByte(TEXT);
+                out.writeInt(id(node.getNodeValue()));
+                break;
+            case Node.CDATA_SECTION_NODE:
+                out.writeByte(CDATA);
+                out.writeInt(id(node.getNodeValue()));
+                break;
+            case Node.COMMENT_NODE:
+                out.writeByte(COMMENT);
+                out.writeInt(id(node.getNodeValue()));
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                out.writeByte(PROCESSING_INSTRUCTION);
+                out.writeInt(id(((ProcessingInstruction) node).getTarget()));
+                out.writeInt(id(((ProcessingInstruction) node).getData()));
+                break;
+            default:
+                break;
+            }
+        }
+
+        /**
+         * @return true if the encoded fragments fill the block.
+         */
+        private boolean isFull() {
+            return body.size() >= BLOCK_SIZE;
+        }
+
+        /**
+         * @return true if the block contains no fragments.
+         */
+        private boolean isEmpty() {
+            return indices.isEmpty();
+        }
+
+        /**
+         * @param stream The stream to write the block to.
+         * @return the number of bytes written.
+         * @throws IOException
+         */
+        private int writeTo(OutputStream stream) throws IOException {
+            DataOutputStream destination = new DataOutputStream(stream);
+            destination.writeInt(strings.size());
+            for (String string: strings) {
+                writeString(destination, string);
+            }
+            destination.writeInt(indices.size());
+            for (int i=0; i<indices.size(); i++) {
+                writeString(destination, indices.get(i));
+                destination.writeInt(offsets.get(i));
+            }
+            out.flush();
+            destination.writeInt(body.size());
+            body.writeTo(destination);
+            destination.flush();
+            return destination.size();
+        }
+    }
+
+    /**
+     * @param out The stream to write to.
+     * @param string The string to write, prefixed by its length in bytes.
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in The stream to read from.
+     * @return the length-prefixed string read from the stream.
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes,"UTF-8");
+    }
+
+    /**
+     * Writes a snapshot of the fragments that are children of the
+     * given data store root element.  The destination stream is not closed.
+     * @param root The root element of the data store DOM.
+     * @param destination The stream to write the snapshot to.
+     * @throws XBRLException if the snapshot cannot be written.
+     */
+    static void write(Element root, OutputStream destination) throws XBRLException {
+        try {
+            DataOutputStream out = new DataOutputStream(destination);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+
+            long position = HEADER_LENGTH;
+            List<Long> blockOffsets = new Vector<Long>();
+            List<Integer> blockLengths = new Vector<Integer>();
+            BlockWriter block = new BlockWriter();
+            for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node.getNodeType() != Node.ELEMENT_NODE) continue;
+                Element fragment = (Element) node;
+                if (! fragment.hasAttribute("index")) continue;
+                block.add(fragment.getAttribute("index"), fragment);
+                if (block.isFull()) {
+                    blockOffsets.add(position);
+                    int length = block.writeTo(out);
+                    blockLengths.add(length);
+                    position += length;
+                    block = new BlockWriter();
+                }
+            }
+            if (! block.isEmpty()) {
+                blockOffsets.add(position);
+                int length = block.writeTo(out);
+                blockLengths.add(length);
+                position += length;
+            }
+
+            out.writeInt(blockOffsets.size());
+            for (int i=0; i<blockOffsets.size(); i++) {
+                out.writeLong(blockOffsets.get(i));
+                out.writeInt(blockLengths.get(i));
+            }
+            out.writeLong(position);
+            out.writeInt(MAGIC);
+            out.flush();
+            logger.debug("Wrote a snapshot with " + blockOffsets.size() + " blocks.");
+        } catch (IOException e) {
+            throw new XBRLException("The data store snapshot could not be written.",e);
+        }
+    }
+
+    /**
+     * Reads a snapshot, decoding its blocks in parallel.
+     * @param source The snapshot file.
+     * @param threads The number of threads to use to decode the blocks.
+     * @return the map from fragment indices to fragment root elements, in
+     * the order in which the fragments were written.  The elements do not
+     * have a parent node and belong to documents created while decoding.
+     * @throws XBRLException if the snapshot cannot be read.
+     */
+    static Map<String,Element> read(File source, int threads) throws XBRLException {
+
+        if (threads < 1) throw new XBRLException("At least one thread is needed to read a snapshot.");
+
+        RandomAccessFile file = null;
+        ExecutorService executor = null;
+        try {
+            file = new RandomAccessFile(source,"r");
+            long length = file.length();
+            if (length < HEADER_LENGTH + TRAILER_LENGTH + 4) throw new XBRLException(source + " is not a data store snapshot.");
+            if (file.readInt() != MAGIC) throw new XBRLException(source + " is not a data store snapshot.");
+            int version = file.readInt();
+            if (version != VERSION) throw new XBRLException("Version " + version + " data store snapshots are not supported.");
+            file.seek(length - TRAILER_LENGTH);
+            long tableOffset = file.readLong();
+            if (file.readInt() != MAGIC) throw new XBRLException("The data store snapshot " + source + " is incomplete.");
+
+            file.seek(tableOffset);
+            int blockCount = file.readInt();
+            final FileChannel channel = file.getChannel();
+            executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(blockCount, 1)));
+            List<Future<Map<String,Element>>> blocks = new Vector<Future<Map<String,Element>>>();
+            for (int i=0; i<blockCount; i++) {
+                final long offset = file.readLong();
+                final int size = file.readInt();
+                blocks.add(executor.submit(new Callable<Map<String,Element>>() {
+                    public Map<String,Element> call() throws Exception {
+                        ByteBuffer buffer = ByteBuffer.allocate(size);
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                                throw new XBRLException("The data store snapshot ends part way through a block.");
+                            }
+                        }
+                        return decode(buffer.array());
+                    }
+                }));
+            }
+
+            Map<String,Element> fragments = new LinkedHashMap<String,Element>();
+            for (Future<Map<String,Element>> block: blocks) {
+                fragments.putAll(block.get());
+            }
+            logger.debug("Read a snapshot with " + blockCount + " blocks.");
+            return fragments;
+
+        } catch (IOException e) {
+            throw new XBRLException("The data store snapshot " + source + " could not be read.",e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XBRLException("Interrupted while reading the data store snapshot " + source,e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XBRLException) throw (XBRLException) e.getCause();
+            throw new XBRLException("The data store snapshot " + source + " could not be decoded.",e.getCause());
+        } finally {
+            if (executor != null) executor.shutdownNow();
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    logger.warn("The data store snapshot " + source + " could not be closed.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @param bytes The encoded block.
+     * @return the map from fragment indices to fragment root elements
+     * for the fragments in the block.
+     * @throws IOException if the block cannot be decoded.
+     * @throws XBRLException if a DOM document cannot be created.
+     */
+    private static Map<String,Element> decode(byte[] bytes) throws IOException, XBRLException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String[] strings = new String[in.readInt() + 1];
+        for (int i=1; i<strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        int count = in.readInt();
+        String[] indices = new String[count];
+        for (int i=0; i<count; i++) {
+            indices[i] = readString(in);
+            in.readInt();
+        }
+        in.readInt();
+
+        Document document = (new XMLDOMBuilder()).newDocument();
+        Map<String,Element> fragments = new LinkedHashMap<String,Element>();
+        for (int i=0; i<count; i++) {
+            if (in.readByte() != ELEMENT) throw new IOException("Fragment " + indices[i] + " does not start with an element.");
+            fragments.put(indices[i], decodeElement(in, document, strings));
+        }
+        return fragments;
+    }
+
+    /**
+     * @param in The stream to read the element from, positioned after
+     * the element node type code.
+     * @param document The document to create the element in.
+     * @param strings The block's string table.
+     * @return the decoded element, including its descendants.
+     * @throws IOException
+     */
+    private static Element decodeElement(DataInputStream in, Document document, String[] strings) throws IOException {
+        Element element = document.createElementNS(strings[in.readInt()], strings[in.readInt()]);
+        int attributes = in.readInt();
+        for (int i=0; i<attributes; i++) {
+            String namespace = strings[in.readInt()];
+            String name = strings[in.readInt()];
+            element.setAttributeNS(namespace, name, strings[in.readInt()]);
+        }
+        while (true) {
+            byte type = in.readByte();
+            switch (type) {
+            case END:
+                return element;
+            case ELEMENT:
+                element.appendChild(decodeElement(in, document, strings));
+                break;
+            case TEXT:
+                element.appendChild(document.createTextNode(strings[in.readInt()]));
+                break;
+            case CDATA:
+                element.appendChild(document.createCDATASection(strings[in.readInt()]));
+                break;
+            case COMMENT:
+                element.appendChild(document.createComment(strings[in.readInt()]));
+                break;
+            case PROCESSING_INSTRUCTION:
+                String target = strings[in.readInt()];
+                element.appendChild(document.createProcessingInstruction(target, strings[in.readInt()]));
+                break;
+            default:
+                throw new IOException("Unknown node type " + type + " in the data store snapshot.");
+            }
+        }
+    }
+
+}
@@ -4,17 +4,32 @@ package org.xbrlapi.data.dom;
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+
+import net.sf.saxon.s9api.DocumentBuilder;
 import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XQueryCompiler;
 import net.sf.saxon.s9api.XQueryEvaluator;
@@ -31,14 +46,18 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xbrlapi.XML;
+import org.xbrlapi.data.AttributeIndex;
 import org.xbrlapi.data.BaseStoreImpl;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.data.RestrictableStore;
 import org.xbrlapi.data.Store;
+import org.xbrlapi.data.XMLResourceIterator;
 import org.xbrlapi.impl.FragmentFactory;
 import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
 import org.xbrlapi.utilities.XMLDOMBuilder;
 
-public class StoreImpl extends BaseStoreImpl implements Store {
+public class StoreImpl extends BaseStoreImpl implements RestrictableStore {
 
 	/**
      * 
@@ -52,7 +71,27 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 */
 	transient private Map<String,Element> fragmentMap;
 	transient private Map<Element,String> indexMap;
+
+	/**
+	 * The fragment root element attributes that are indexed to
+	 * answer simple queries without using Saxon.
+	 */
+	private static final String[] INDEXED_ATTRIBUTES = {
+	    "type", "parentIndex", "uri", "sourceIndex", "targetIndex", "arcRole", "linkRole"
+	};
+
+	/**
+	 * The indexes on the fragment root element attributes.
+	 */
+	transient private AttributeIndex attributeIndex;
 	
+	/**
+	 * The lock that allows queries and fragment retrieval to run 
+	 * concurrently while giving exclusive access to operations that
+	 * change the content of the store.
+	 */
+	transient private ReentrantReadWriteLock lock;
+
 	/**
 	 * XML DOM used to build the fragments in the store.
 	 */
@@ -77,8 +116,18 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	}
 	
 	private void initialize() {
+	    lock = new ReentrantReadWriteLock();
+	    saxonLock = new Object();
 	    fragmentMap = new HashMap<String,Element>();
 	    indexMap = new HashMap<Element,String>();
+	    attributeIndex = new AttributeIndex(INDEXED_ATTRIBUTES);
+	    queryPlans = new LinkedHashMap<String,XQueryExecutable>(16,0.75f,true) {
+            private static final long serialVersionUID = -1437469012617434520L;
+            protected boolean removeEldestEntry(Map.Entry<String,XQueryExecutable> eldest) {
+                return size() > queryPlanCacheSize;
+            }
+        };
+        wrappedDOM = null;
 	}
 
 	/**
@@ -87,12 +136,15 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @throws IOException
 	 */
 	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-	    out.defaultWriteObject( );
+	    lock.readLock().lock();
 	    try {
+	        out.defaultWriteObject( );
 	        String xml = serialize(dom.getDocumentElement());
 	        out.writeObject(xml);
 	    } catch (XBRLException e) {
 	        throw new IOException("Could not convert the store content to a string representation of the XML.",e);
+	    } finally {
+	        lock.readLock().unlock();
 	    }
 	}
 	 
@@ -118,6 +170,7 @@ public class StoreImpl extends BaseStoreImpl implements Store {
                     if (element.hasAttribute("index")) {
                         fragmentMap.put(element.getAttribute("index"),element);
                         indexMap.put(element,element.getAttribute("index"));
+                        attributeIndex.add(element.getAttribute("index"),element);
                     }
                 }
             }
@@ -127,6 +180,89 @@ public class StoreImpl extends BaseStoreImpl implements Store {
         }
     }
 	
+    /**
+     * Writes a snapshot of the fragments in the store using a compact
+     * binary format that is much faster to save and restore than Java 
+     * serialization.  The snapshot contains the fragments only; the 
+     * matcher, namespace bindings and other settings of the store are 
+     * not included.  The destination stream is not closed.
+     * @param destination The stream to write the snapshot to.
+     * @throws XBRLException if the snapshot cannot be written.
+     */
+    public void writeSnapshot(OutputStream destination) throws XBRLException {
+        lock.readLock().lock();
+        try {
+            Snapshot.write(dom.getDocumentElement(),destination);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param destination The file to write the snapshot to.
+     * @throws XBRLException if the snapshot cannot be written.
+     * @see #writeSnapshot(OutputStream)
+     */
+    public void writeSnapshot(File destination) throws XBRLException {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(destination));
+            writeSnapshot(out);
+        } catch (IOException e) {
+            throw new XBRLException("The snapshot file " + destination + " could not be created.",e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    throw new XBRLException("The snapshot file " + destination + " could not be closed.",e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a data store from a snapshot, using all of the available
+     * processors to decode it.
+     * @param source The snapshot file.
+     * @return the data store containing the fragments in the snapshot.
+     * @throws XBRLException if the snapshot cannot be read.
+     * @see #writeSnapshot(OutputStream)
+     */
+    public static StoreImpl readSnapshot(File source) throws XBRLException {
+        return readSnapshot(source,Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param source The snapshot file.
+     * @param threads The number of threads to use to decode the snapshot.
+     * @return the data store containing the fragments in the snapshot.
+     * @throws XBRLException if the snapshot cannot be read.
+     * @see #writeSnapshot(OutputStream)
+     */
+    public static StoreImpl readSnapshot(File source, int threads) throws XBRLException {
+        Map<String,Element> fragments = Snapshot.read(source,threads);
+        StoreImpl store = new StoreImpl();
+        store.lock.writeLock().lock();
+        try {
+            Element root = store.dom.getDocumentElement();
+            for (String index: fragments.keySet()) {
+                Element element = fragments.get(index);
+                Node adopted = store.dom.adoptNode(element);
+                if (adopted == null) adopted = store.dom.importNode(element,true);
+                element = (Element) adopted;
+                root.appendChild(element);
+                store.fragmentMap.put(index,element);
+                store.indexMap.put(element,index);
+                store.attributeIndex.add(index,element);
+            }
+            store.discardWrappedDOM();
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+        return store;
+    }
+
 	/**
 	 * @see Store#close()
 	 */
@@ -146,59 +282,93 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     /**
      * @see Store#persist(XML)
      */
-    public synchronized int getSize() throws XBRLException {
-        return fragmentMap.size();
+    public int getSize() throws XBRLException {
+        lock.readLock().lock();
+        try {
+            return fragmentMap.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 	
 	/**
 	 * @see Store#persist(XML)
 	 */
-	public synchronized void persist(XML xml) throws XBRLException {
-		
-	    logger.debug("Storing " + xml.getType() + " " + xml.getIndex());
-		
-		// Get the fragment index to delete existing fragments with the same index.
-		String index = xml.getIndex();
-		if (hasXMLResource(index)) {
-		    this.remove(index);
-        }
-
-		// TODO Eliminate this importNode call.
-		Element element = null;
-		if (xml.getBuilder() != null) {
-	        element = (Element) dom.importNode(xml.getBuilder().getMetadata(),true);
-		} else {
-		    element = (Element) dom.importNode(xml.getMetadataRootElement(),true);
-		}
-        dom.getDocumentElement().appendChild(element);
-        fragmentMap.put(index, element);
-        indexMap.put(element, index);
-        
-        // Finalise the fragment, ready for use
-        if (xml.getStore() == null) xml.setStore(this);
-        xml.setResource(element);
-        
-	}
+	public void persist(XML xml) throws XBRLException {
+        lock.writeLock().lock();
+        try {
+            logger.debug("Storing " + xml.getType() + " " + xml.getIndex());
+
+            // Get the fragment index to delete existing fragments with the same index.
+            String index = xml.getIndex();
+            uncacheXMLResource(index);
+            if (hasXMLResource(index)) {
+                this.remove(index);
+            }
+
+            // TODO Eliminate this importNode call.
+            Element element = null;
+            if (xml.getBuilder() != null) {
+                element = (Element) dom.importNode(xml.getBuilder().getMetadata(),true);
+            } else {
+                element = (Element) dom.importNode(xml.getMetadataRootElement(),true);
+            }
+            dom.getDocumentElement().appendChild(element);
+            discardWrappedDOM();
+            fragmentMap.put(index, element);
+            indexMap.put(element, index);
+            attributeIndex.add(index, element);
+
+            // Finalise the fragment, ready for use
+            if (xml.getStore() == null) xml.setStore(this);
+            xml.setResource(element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The in-memory store has no per-operation overhead so fragments
+     * are stored immediately rather than being buffered.
+     * @see Store#persistBuffered(XML)
+     */
+    public void persistBuffered(XML xml) throws XBRLException {
+        if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+        persist(xml);
+    }
 
 	/**
 	 * @see Store#hasXMLResource(String)
 	 */
-	public synchronized boolean hasXMLResource(String index) throws XBRLException {
-		if (fragmentMap.containsKey(index)) return true;
-		return false;
-	}
+	public boolean hasXMLResource(String index) throws XBRLException {
+        lock.readLock().lock();
+        try {
+            if (fragmentMap.containsKey(index)) return true;
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
 	/**
 	 * @see Store#getXMLResource(String)
 	 */
-	public synchronized <F extends XML> F getXMLResource(String index) throws XBRLException {
-
-		Element root = fragmentMap.get(index);
-		if (root == null) {
-			throw new XBRLException("Index " + index + " does not map to a fragment in the store.");
-		}
-		return FragmentFactory.<F>newFragment(this, root);
-	}
+	public <F extends XML> F getXMLResource(String index) throws XBRLException {
+        lock.readLock().lock();
+        try {
+            F xml = this.<F>getCachedXMLResource(index);
+            if (xml != null) return xml;
+            Element root = fragmentMap.get(index);
+            if (root == null) {
+                throw new XBRLException("Index " + index + " does not map to a fragment in the store.");
+            }
+            xml = FragmentFactory.<F>newFragment(this, root);
+            cacheXMLResource(xml);
+            return xml;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
 
 
@@ -210,15 +380,22 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @throws XBRLException
 	 *             if the fragment exists but cannot be removed from the store.
 	 */
-	public synchronized void remove(String index) throws XBRLException {
-    	
-        if (! hasXMLResource(index)) return;
-
-        Element d = fragmentMap.get(index);
-        fragmentMap.remove(index);
-        indexMap.remove(d);
-        d.getParentNode().removeChild(d);
-	}
+	public void remove(String index) throws XBRLException {
+        lock.writeLock().lock();
+        try {
+            uncacheXMLResource(index);
+            if (! hasXMLResource(index)) return;
+
+            Element d = fragmentMap.get(index);
+            fragmentMap.remove(index);
+            indexMap.remove(d);
+            attributeIndex.remove(index);
+            d.getParentNode().removeChild(d);
+            discardWrappedDOM();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
     /**
      * Get the actual DOM that is used to hold the data store.
@@ -235,19 +412,122 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 
 
 
+    /**
+     * Guards the Saxon processor and compiler, the query plan cache
+     * and the creation of the wrapped DOM, none of which can be shared
+     * by concurrent queries without synchronization.  Code holding this lock must not try to acquire
+     * the store's read/write lock.
+     */
+    transient private Object saxonLock;
+
     transient private XQueryCompiler compiler;
 
     transient private Processor processor;
 
     /**
-     * Contains the logic common to queries that return fragments and
-     * queries that return fragment indices.
-     * @param query The query to run.
-     * @return The query results as an iterable sequence.
-     * @throws XBRLException
+     * The maximum number of compiled queries to retain in the query plan cache.
+     */
+    private int queryPlanCacheSize = 1000;
+
+    /**
+     * The cache of compiled queries, keyed by the expanded query text
+     * and the namespace bindings in effect when the query was compiled.
+     * The map uses access ordering so that the least recently used
+     * query plan is evicted first.
+     */
+    transient private Map<String,XQueryExecutable> queryPlans;
+    
+    transient private long queryPlanCacheHits = 0;
+    transient private long queryPlanCacheMisses = 0;
+
+    /**
+     * The Saxon wrapper around the live store DOM that queries are
+     * evaluated against.  Wrapping does not copy the DOM so the wrapper 
+     * is cheap to create.  It is discarded whenever a fragment is persisted 
+     * or removed and recreated by the next query that Saxon has to evaluate.
+     * Queries only read the DOM through the wrapper while holding the read 
+     * lock so they never overlap with a change to the store content.
      */
-    private XdmValue runQuery(String query) throws XBRLException {
+    transient private volatile XdmNode wrappedDOM = null;
 
+    /**
+     * @return the number of queries that were run using a query plan 
+     * from the query plan cache.
+     */
+    public long getQueryPlanCacheHits() {
+        synchronized (saxonLock) {
+            return queryPlanCacheHits;
+        }
+    }
+
+    /**
+     * @return the number of queries that had to be compiled because 
+     * their query plan was not in the query plan cache.
+     */
+    public long getQueryPlanCacheMisses() {
+        synchronized (saxonLock) {
+            return queryPlanCacheMisses;
+        }
+    }
+    
+    /**
+     * @return the maximum number of compiled queries retained in the 
+     * query plan cache.
+     */
+    public int getQueryPlanCacheSize() {
+        synchronized (saxonLock) {
+            return queryPlanCacheSize;
+        }
+    }
+
+    /**
+     * @param size The maximum number of compiled queries to retain in 
+     * the query plan cache.  Set this to zero to disable query plan caching.
+     * @throws XBRLException if the size is negative.
+     */
+    public void setQueryPlanCacheSize(int size) throws XBRLException {
+        if (size < 0) throw new XBRLException("The query plan cache size must not be negative.");
+        synchronized (saxonLock) {
+            this.queryPlanCacheSize = size;
+            queryPlans.clear();
+        }
+    }
+
+    /**
+     * @param query The query, after expansion of the #roots# marker.
+     * @param namespaceBindings The namespace bindings, from prefix to 
+     * namespace, to compile the query with.
+     * @return the compiled query, from the query plan cache if it has
+     * already been compiled using the same namespace bindings.
+     * @throws SaxonApiException if the query cannot be compiled.
+     */
+    private XQueryExecutable getQueryPlan(String query, Map<String,String> namespaceBindings) throws SaxonApiException {
+
+        Map<String,String> bindings = new TreeMap<String,String>(namespaceBindings);
+        String key = query + "\n" + bindings.toString();
+        synchronized (saxonLock) {
+            XQueryExecutable executable = queryPlans.get(key);
+            if (executable != null) {
+                queryPlanCacheHits++;
+                return executable;
+            }
+    
+            queryPlanCacheMisses++;
+            logger.debug("Compiling " + query);
+            XQueryCompiler compiler = getCompiler();
+            for (String prefix: bindings.keySet()) 
+                compiler.declareNamespace(prefix,bindings.get(prefix));
+            executable = compiler.compile(query);
+            if (queryPlanCacheSize > 0) queryPlans.put(key,executable);
+            return executable;
+        }
+    }
+
+    /**
+     * @return the XQuery compiler, with the standard namespace
+     * prefixes declared.  The caller must hold the Saxon lock.
+     */
+    private XQueryCompiler getCompiler() {
         if (processor == null) {
             processor = new Processor(false);
         }
@@ -261,37 +541,304 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             compiler.declareNamespace(Constants.XMLPrefix,Constants.XMLNamespace.toString());
             compiler.declareNamespace(Constants.XMLSchemaPrefix,Constants.XMLSchemaNamespace.toString());
         }
-        
-        String roots = "/" + StoreImpl.ROOT_NAME + "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
+        return compiler;
+    }
 
+    /**
+     * Discards the Saxon wrapper around the store DOM after a change
+     * to the store content.  The caller must hold the write lock.
+     */
+    private void discardWrappedDOM() {
+        wrappedDOM = null;
+    }
+
+    /**
+     * @return the Saxon wrapper around the store DOM, creating it if
+     * the store has changed since it was last created.  The caller 
+     * must hold the read or write lock.
+     */
+    private XdmNode getWrappedDOM() {
+        XdmNode wrapper = wrappedDOM;
+        if (wrapper != null) return wrapper;
+        synchronized (saxonLock) {
+            if (wrappedDOM == null) {
+                getCompiler();
+                wrappedDOM = processor.newDocumentBuilder().wrap(dom);
+            }
+            return wrappedDOM;
+        }
+    }
+
+    /**
+     * The name of the external variable that the #roots# marker is replaced
+     * by in queries that are restricted to a given set of fragments.
+     */
+    private static final String ROOTS_VARIABLE = "xbrlapi_roots";
+
+    /**
+     * Acquires the read lock for a query and answers the query from 
+     * the attribute indexes if it can be.  Queries that Saxon has to 
+     * evaluate are evaluated against the wrapped DOM under the same
+     * read lock so any number of them can run at once.  The caller 
+     * must release the read lock once it has finished with the query results.
+     * @param query The query, before expansion of the #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param indexable True if the query can be answered from the
+     * attribute indexes when all of its attributes are indexed.
+     * @return the indices of the matching fragments if the query has
+     * been answered from the attribute indexes and null otherwise.
+     * @throws XBRLException if the parameters are not valid.
+     */
+    private List<String> lockForQuery(String query, Map<String,String> parameters, Set<String> roots, boolean indexable) throws XBRLException {
+        lock.readLock().lock();
         try {
-            for (String prefix: this.namespaceBindings.keySet()) 
-                compiler.declareNamespace(prefix,this.namespaceBindings.get(prefix));
-            XQueryExecutable executable = compiler.compile(query);
+            return indexable ? getIndexedQueryResult(query,parameters,roots) : null;
+        } catch (XBRLException e) {
+            lock.readLock().unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Contains the logic common to queries that return fragments and
+     * queries that return fragment indices.  The caller must have 
+     * acquired the read lock using {@link #lockForQuery(String, Map, Set, boolean)}.
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return The query results as an iterable sequence.
+     * @throws XBRLException
+     */
+    private XdmValue runQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+
+        String prolog = getExternalVariableDeclarations(parameters);
+        if (roots == null) {
+            query = prolog + query.replaceAll("#roots#","/" + StoreImpl.ROOT_NAME + "/*" + this.getURIFilteringPredicate());
+        } else {
+            query = prolog + "declare variable $" + ROOTS_VARIABLE + " external; " + query.replaceAll("#roots#","\\$" + ROOTS_VARIABLE);
+        }
+
+        try {
+            XQueryExecutable executable = getQueryPlan(query,bindings);
             XQueryEvaluator evaluator = executable.load();
-            XdmNode xdmNode = processor.newDocumentBuilder().wrap(dom);
-            evaluator.setContextItem(xdmNode);
+            if (parameters != null) {
+                for (String name: parameters.keySet()) {
+                    evaluator.setExternalVariable(new QName(name),new XdmAtomicValue(parameters.get(name)));
+                }
+            }
+            if (roots != null) {
+                evaluator.setExternalVariable(new QName(ROOTS_VARIABLE),getWrappedRoots(roots));
+            }
+            evaluator.setContextItem(getWrappedDOM());
             return evaluator.evaluate();
         } catch (SaxonApiException e) {
             throw new XBRLException("Saxon failed to execute " + query,e);
         }
     }
-    
 
+    /**
+     * @param roots The indices of fragments.
+     * @return the Saxon wrappers around the root elements of the fragments
+     * that are in the store, in the order of the indices.  Each fragment 
+     * is looked up by its index so the whole DOM is not traversed.  The 
+     * caller must hold the read or write lock.
+     */
+    private XdmValue getWrappedRoots(Set<String> roots) {
+        DocumentBuilder builder = null;
+        synchronized (saxonLock) {
+            getCompiler();
+            builder = processor.newDocumentBuilder();
+        }
+        List<XdmNode> nodes = new Vector<XdmNode>();
+        for (String index: roots) {
+            Element root = fragmentMap.get(index);
+            if (root != null) nodes.add(builder.wrap(root));
+        }
+        return new XdmValue(nodes);
+    }
     
+    /**
+     * Answers queries of the form #roots#[@a='x' and @b=$y] from the
+     * attribute indexes when all of the attributes are indexed.
+     * @param query The query, before expansion of the #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @return the indices of the matching fragments, in document order, 
+     * or null if the query cannot be answered from the attribute indexes.
+     * @throws XBRLException if the parameters are not valid.
+     * @see AttributeIndex#getMatches(String, Map, Set)
+     */
+    private List<String> getIndexedQueryResult(String query, Map<String,String> parameters, Set<String> roots) throws XBRLException {
+        checkParameters(parameters);
+        List<String> result = null;
+        if (roots == null) {
+            result = attributeIndex.getMatches(query,parameters,getFilteringURIs());
+        } else {
+            result = attributeIndex.getMatches(query,parameters,new HashSet<URI>());
+            if (result != null) result.retainAll(roots);
+        }
+        if (result != null) logger.debug("Used the attribute indexes to answer " + query);
+        return result;
+    }
+
+    /**
+     * @see RestrictableStore#getFragmentIndicesFromDocuments(Set)
+     */
+    public Set<String> getFragmentIndicesFromDocuments(Set<URI> uris) throws XBRLException {
+        lock.readLock().lock();
+        try {
+            Set<String> indices = new LinkedHashSet<String>();
+            for (URI uri: uris) {
+                indices.addAll(attributeIndex.get("uri",uri.toString()));
+            }
+            return indices;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
 	 * Run a query against the collection of all fragments in the store.
 	 * @param query The XPath query to run.
 	 * @return a resource set that contains data for each matching fragment.
 	 * @throws XBRLException if the query cannot be executed.
 	 */
+	public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+	    return this.<F>queryForXMLResources(query,null);
+	}
+
+    /**
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters) throws XBRLException {
+        return this.<F>runXMLResourceQuery(query,parameters,null,namespaceBindings);
+    }
+
+    /**
+     * @see RestrictableStore#queryForXMLResources(String, Map, Set, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return this.<F>runXMLResourceQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the matching fragments, in document order.
+     * @throws XBRLException if the query cannot be executed.
+     */
     @SuppressWarnings(value = "unchecked")
-	public synchronized <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
-        
+    private <F extends XML> List<F> runXMLResourceQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        List<String> indexed = lockForQuery(query,parameters,roots,true);
+        try {
+            List<F> fragments = new Vector<F>();
+            for (String index: getMatchingIndices(query,parameters,roots,bindings,indexed)) {
+                fragments.add((F) getXMLResource(index));
+            }
+            return timer.stop(fragments);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The page is taken from the ordered list of matching fragment indices
+     * so only the fragments in the page are retrieved.  Queries that can
+     * be answered from the attribute indexes do not involve Saxon at all.
+     * @see Store#queryForXMLResources(String, Map, String, int, int)
+     */
+    @SuppressWarnings(value = "unchecked")
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, String sortKey, int offset, int limit) throws XBRLException {
+        checkPage(sortKey,offset,limit);
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        List<String> indexed = lockForQuery(query,parameters,null,true);
+        try {
+            List<String> matches = getMatchingIndices(query,parameters,null,namespaceBindings,indexed);
+            if (sortKey != null) {
+                final Map<String,String> keys = new HashMap<String,String>();
+                for (String index: matches) {
+                    keys.put(index,fragmentMap.get(index).getAttribute(sortKey));
+                }
+                Collections.sort(matches,new Comparator<String>() {
+                    public int compare(String first, String second) {
+                        int result = keys.get(first).compareTo(keys.get(second));
+                        if (result != 0) return result;
+                        return first.compareTo(second);
+                    }
+                });
+            }
+            List<F> fragments = new Vector<F>();
+            for (int i=offset; i<matches.size() && i-offset<limit; i++) {
+                fragments.add((F) getXMLResource(matches.get(i)));
+            }
+            return timer.stop(fragments);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The query is run straight away but the matching fragments are only
+     * retrieved as they are requested from the iterator.
+     * @see Store#queryForXMLResourceIterator(String, Map)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query, Map<String,String> parameters) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        List<String> indexed = lockForQuery(query,parameters,null,true);
+        try {
+            return new XMLResourceIterator<F>(this,timer.stop(getMatchingIndices(query,parameters,null,namespaceBindings,indexed)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The caller must have acquired the read lock using 
+     * {@link #lockForQuery(String, Map, Set, boolean)}.
+     * @param query The query identifying the fragments.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @param indexed The result of the query from the attribute indexes
+     * or null if the query could not be answered from them.
+     * @return the indices of the fragments matching the query, in document order.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private List<String> getMatchingIndices(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings, List<String> indexed) throws XBRLException {
+
+        if (indexed != null) return indexed;
+
         query = "for $attr in "+ query + "/@index return string($attr)";
-        XdmValue result = runQuery(query);
-        List<F> fragments = new Vector<F>();
+        XdmValue result = runQuery(query,parameters,roots,bindings);
+        List<String> matches = new Vector<String>();
         for (XdmItem item: result) {
             String index = "";
             if (item.isAtomicValue()) {
@@ -300,52 +847,172 @@ public class StoreImpl extends BaseStoreImpl implements Store {
                 index = ((XdmNode)item).getStringValue();
             }
             if (this.fragmentMap.containsKey(index)) {
-                fragments.add((F) getXMLResource(index));
+                matches.add(index);
             }
         }
-	    return fragments;
-	}
+        return matches;
+    }
     
     /**
      * @see Store#queryCount(String)
      */
-    public synchronized long queryCount(String query) throws XBRLException {
-        XdmValue result = runQuery(query);
-        long count = 0;
-        for (XdmItem item: result) {
-            count++;
-        }
-        return count;
+    public long queryCount(String query) throws XBRLException {
+        return queryCount(query,null);
+    }
+
+    /**
+     * @see Store#queryCount(String, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters) throws XBRLException {
+        return runCountQuery(query,parameters,null,namespaceBindings);
     }    
+
+    /**
+     * @see RestrictableStore#queryCount(String, Map, Set, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return runCountQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the number of query results.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private long runCountQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        lock.readLock().lock();
+        try {
+            checkParameters(parameters);
+            if (roots == null) {
+                long count = attributeIndex.countMatches(query,parameters,getFilteringURIs());
+                if (count >= 0) {
+                    logger.debug("Used the attribute indexes to count " + query);
+                    return timer.stop(count);
+                }
+            } else {
+                List<String> matches = getIndexedQueryResult(query,parameters,roots);
+                if (matches != null) return timer.stop((long) matches.size());
+            }
+            XdmValue result = runQuery("count(" + query + ")",parameters,roots,bindings);
+            return timer.stop(Long.parseLong(result.itemAt(0).getStringValue()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
     
     /**
      * @see Store#queryForIndices(String)
      */
-    public synchronized Set<String> queryForIndices(String query) throws XBRLException {
-        
-        query = query + "/@index";
-        XdmValue result = runQuery(query);
-        Set<String> indices = new HashSet<String>();
-        for (XdmItem item: result) {
-            indices.add(item.getStringValue());
-        }
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        return queryForIndices(query,null);
+    }
 
-        return indices;
+    /**
+     * @see Store#queryForIndices(String, Map)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters) throws XBRLException {
+        return runIndexQuery(query,parameters,null,namespaceBindings);
+    }
+
+    /**
+     * @see RestrictableStore#queryForIndices(String, Map, Set, Map)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return runIndexQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the indices of the matching fragments.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private Set<String> runIndexQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        List<String> matches = lockForQuery(query,parameters,roots,true);
+        try {
+            if (matches != null) return timer.stop(new HashSet<String>(matches));
+
+            query = query + "/@index";
+            XdmValue result = runQuery(query,parameters,roots,bindings);
+            Set<String> indices = new HashSet<String>();
+            for (XdmItem item: result) {
+                indices.add(item.getStringValue());
+            }
+
+            return timer.stop(indices);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
     /**
      * @see Store#queryForStrings(String)
      */
-    public synchronized Set<String> queryForStrings(String query) throws XBRLException {
-                
-        XdmValue result = runQuery(query);
-        Set<String> strings = new TreeSet<String>();
-        for (XdmItem item: result) {
-            strings.add(item.getStringValue());
-        }
-        return strings;
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        return queryForStrings(query,null);
+    }
 
+    /**
+     * @see Store#queryForStrings(String, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters) throws XBRLException {
+        return runStringQuery(query,parameters,null,namespaceBindings);
     }    
+
+    /**
+     * @see RestrictableStore#queryForStrings(String, Map, Set, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return runStringQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the set of strings that match the query.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private Set<String> runStringQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        lockForQuery(query,parameters,roots,false);
+        try {
+            XdmValue result = runQuery(query,parameters,roots,bindings);
+            Set<String> strings = new TreeSet<String>();
+            for (XdmItem item: result) {
+                strings.add(item.getStringValue());
+            }
+            return timer.stop(strings);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 	
 	/**
 	 * Get the index of the fragment containing the node matched by the query.
@@ -0,0 +1,421 @@
+package org.xbrlapi.data.exist;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Recommends eXist range indexes for the queries that have been run
+ * against a data store.
+ *
+ * The advisor works from the query shapes recorded by the
+ * store's {@link QueryStatistics}.  Each attribute that a query
+ * tests or returns is traced back, through the variable bindings
+ * in the query, to its location relative to the fragment root
+ * element.  Attributes with a fully known location are recommended
+ * for a path index and the others for a qname index.  Recommendations
+ * are ranked by the total time spent in the queries that use them.
+ *
+ * The recommended collection.xconf is the store's current index
+ * configuration with the recommended indexes added.  Applying it
+ * reindexes the data collection in place and reports the time taken
+ * by an example of each query shape before and after the reindexing.
+ * The examples are run through the store's query methods, as they were
+ * when they were recorded, but they are not recorded again so they do
+ * not change later recommendations.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class IndexAdvisor {
+
+    protected static Logger logger = Logger.getLogger(IndexAdvisor.class);
+
+    /**
+     * The number of times that each query is run when timing it.
+     * The fastest run is reported.
+     */
+    private static final int REPETITIONS = 3;
+
+    private static final String FRAGMENT_PATH = "/" + Constants.XBRLAPIPrefix + ":fragment";
+
+    private static final String DATA_STEP = Constants.XBRLAPIPrefix + ":data";
+
+    private static final String STEPS = "((?:/(?:[\\w.:-]+|\\*))*)";
+
+    /**
+     * Matches for and let clauses, capturing the variable name,
+     * the context that the variable is bound relative to and the
+     * path steps from that context.
+     */
+    private static final Pattern BINDING = Pattern.compile("(?:for|let)\\s+\\$([\\w.-]+)\\s+(?:in|:=)\\s*(#roots#|\\$[\\w.-]+)" + STEPS);
+
+    /**
+     * Matches attribute steps and predicates following a path from
+     * the fragment roots or from a variable.
+     */
+    private static final Pattern CONTEXT = Pattern.compile("(#roots#|\\$[\\w.-]+)" + STEPS + "(/@[\\w.:-]+|\\[)");
+
+    /**
+     * Matches attributes in a predicate, relative to the predicate context.
+     */
+    private static final Pattern RELATIVE = Pattern.compile("(?<![\\w.:$@/*-])((?:(?:[\\w.:-]+|\\*)/)*)@([\\w.:-]+)");
+
+    private static final Pattern CREATE = Pattern.compile("<create\\s+((?:path|qname)=\"[^\"]*\")");
+
+    private static final Pattern PREFIX = Pattern.compile("([\\w.-]+):");
+
+    /**
+     * The namespaces bound by the eXist stores, keyed by prefix.
+     */
+    private static final Map<String,String> NAMESPACES = new HashMap<String,String>();
+    static {
+        NAMESPACES.put(Constants.XLinkPrefix, Constants.XLinkNamespace);
+        NAMESPACES.put(Constants.XMLSchemaPrefix, Constants.XMLSchemaNamespace);
+        NAMESPACES.put(Constants.XBRL21Prefix, Constants.XBRL21Namespace);
+        NAMESPACES.put(Constants.XBRL21LinkPrefix, Constants.XBRL21LinkNamespace);
+        NAMESPACES.put(Constants.XBRLAPIPrefix, Constants.XBRLAPINamespace);
+        NAMESPACES.put(Constants.XBRLAPILanguagesPrefix, Constants.XBRLAPILanguagesNamespace);
+    }
+
+    /**
+     * The time taken by an example of a query shape before and
+     * after the index configuration was applied.
+     */
+    public static final class Timing {
+
+        private final String query;
+        private final long before;
+        private final long after;
+
+        private Timing(String query, long before, long after) {
+            this.query = query;
+            this.before = before;
+            this.after = after;
+        }
+
+        /**
+         * @return the query that was timed.
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the time, in nanoseconds, taken by the query before reindexing.
+         */
+        public long getBefore() {
+            return before;
+        }
+
+        /**
+         * @return the time, in nanoseconds, taken by the query after reindexing.
+         */
+        public long getAfter() {
+            return after;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            return "before=" + (before / 1000) + "us after=" + (after / 1000) + "us " + query;
+        }
+    }
+
+    private IndexedStore store;
+
+    /**
+     * @param store The data store to advise on.
+     * @throws XBRLException if the store is null.
+     */
+    public IndexAdvisor(IndexedStore store) throws XBRLException {
+        super();
+        if (store == null) throw new XBRLException("The data store must not be null.");
+        this.store = store;
+    }
+
+    /**
+     * @param query The query or query shape.
+     * @return the indexes that would support the query, each expressed
+     * as the path or qname attribute of an eXist range index create element.
+     */
+    public static Set<String> getIndexes(String query) {
+
+        Set<String> indexes = new TreeSet<String>();
+
+        Map<String,List<String>> variables = new HashMap<String,List<String>>();
+        Matcher binding = BINDING.matcher(query);
+        while (binding.find()) {
+            List<String> path = resolve(variables, binding.group(2), binding.group(3));
+            if (path != null) variables.put("$" + binding.group(1), path);
+        }
+
+        Matcher context = CONTEXT.matcher(query);
+        while (context.find()) {
+            List<String> path = resolve(variables, context.group(1), context.group(2));
+            String end = context.group(3);
+            if (end.equals("[")) {
+                if (path == null) continue;
+                Matcher relative = RELATIVE.matcher(getPredicate(query, context.end()));
+                while (relative.find()) {
+                    List<String> steps = new Vector<String>(path);
+                    addSteps(steps, relative.group(1));
+                    indexes.add(getIndex(steps, relative.group(2)));
+                }
+            } else {
+                indexes.add(getIndex(path, end.substring(2)));
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * @param variables The paths of the variables bound so far.
+     * @param base The #roots# marker or a variable.
+     * @param steps The path steps from the base.
+     * @return the path steps from the fragment root element or null
+     * if the base is a variable that is not bound to a known path.
+     */
+    private static List<String> resolve(Map<String,List<String>> variables, String base, String steps) {
+        List<String> path = null;
+        if (base.equals("#roots#")) {
+            path = new Vector<String>();
+        } else if (variables.containsKey(base)) {
+            path = new Vector<String>(variables.get(base));
+        } else {
+            return null;
+        }
+        addSteps(path, steps);
+        return path;
+    }
+
+    /**
+     * @param path The path to add the steps to.
+     * @param steps The slash separated steps.
+     */
+    private static void addSteps(List<String> path, String steps) {
+        for (String step: steps.split("/")) {
+            if (step.length() > 0) path.add(step);
+        }
+    }
+
+    /**
+     * @param query The query.
+     * @param start The index of the first character in the predicate.
+     * @return the content of the predicate.
+     */
+    private static String getPredicate(String query, int start) {
+        int depth = 1;
+        for (int i=start; i<query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '[') depth++;
+            else if (c == ']' && --depth == 0) return query.substring(start, i);
+        }
+        return query.substring(start);
+    }
+
+    /**
+     * @param path The path steps from the fragment root element to
+     * the element with the attribute or null if they are not known.
+     * @param attribute The attribute name.
+     * @return the index for the attribute.
+     */
+    private static String getIndex(List<String> path, String attribute) {
+        if (path == null) return "qname=\"@" + attribute + "\"";
+        List<String> steps = new Vector<String>(path);
+        // The only element child of a fragment root that is queried is the data element.
+        if (steps.size() > 0 && steps.get(0).equals("*")) steps.set(0, DATA_STEP);
+        StringBuffer index = new StringBuffer("path=\"").append(FRAGMENT_PATH);
+        for (String step: steps) {
+            if (step.equals("*") || step.startsWith(".")) return "qname=\"@" + attribute + "\"";
+            index.append("/").append(step);
+        }
+        return index.append("/@").append(attribute).append("\"").toString();
+    }
+
+    /**
+     * @param configuration The index configuration.
+     * @return the indexes created by the configuration.
+     */
+    private static Set<String> getConfiguredIndexes(String configuration) {
+        Set<String> indexes = new HashSet<String>();
+        Matcher matcher = CREATE.matcher(configuration);
+        while (matcher.find()) indexes.add(matcher.group(1));
+        return indexes;
+    }
+
+    /**
+     * @param index The index.
+     * @param configured The indexes that are already configured.
+     * @return true if the index, or a qname index on the same attribute,
+     * is already configured.
+     */
+    private static boolean isConfigured(String index, Set<String> configured) {
+        if (configured.contains(index)) return true;
+        int at = index.lastIndexOf("/@");
+        if (at < 0) return false;
+        return configured.contains("qname=\"" + index.substring(at + 1));
+    }
+
+    /**
+     * @return the current index configuration of the store.
+     * @throws XBRLException if the store has no index configuration.
+     */
+    private String getConfiguration() throws XBRLException {
+        String configuration = store.getIndexConfiguration();
+        if (configuration == null) throw new XBRLException("The data store has no index configuration.");
+        return configuration;
+    }
+
+    /**
+     * @return the indexes that are not yet configured but that would
+     * support the queries run against the data store, mapped to the
+     * total time, in nanoseconds, spent running those queries and
+     * ordered from the most to the least time.
+     * @throws XBRLException
+     */
+    public Map<String,Long> getRecommendations() throws XBRLException {
+
+        Set<String> configured = getConfiguredIndexes(getConfiguration());
+
+        final Map<String,Long> weights = new HashMap<String,Long>();
+        for (QueryStatistics.ShapeStatistics statistics: store.getQueryStatistics().getShapes().values()) {
+            for (String index: getIndexes(statistics.getShape())) {
+                if (isConfigured(index, configured)) continue;
+                Long weight = weights.get(index);
+                weights.put(index, ((weight == null) ? 0 : weight) + statistics.getTotalTime());
+            }
+        }
+
+        List<String> indexes = new Vector<String>(weights.keySet());
+        Collections.sort(indexes, new Comparator<String>() {
+            public int compare(String first, String second) {
+                int result = weights.get(second).compareTo(weights.get(first));
+                return (result != 0) ? result : first.compareTo(second);
+            }
+        });
+
+        Map<String,Long> recommendations = new LinkedHashMap<String,Long>();
+        for (String index: indexes) recommendations.put(index, weights.get(index));
+        return recommendations;
+    }
+
+    /**
+     * @return the store's current collection.xconf with the recommended
+     * indexes added.
+     * @throws XBRLException
+     */
+    public String getRecommendedConfiguration() throws XBRLException {
+
+        String configuration = getConfiguration();
+        Set<String> recommendations = getRecommendations().keySet();
+        if (recommendations.isEmpty()) return configuration;
+
+        StringBuffer declarations = new StringBuffer();
+        StringBuffer creates = new StringBuffer("\n  <!-- Recommended by the index advisor for the observed queries -->\n");
+        Set<String> declared = new HashSet<String>();
+        for (String index: recommendations) {
+            boolean declarable = true;
+            Matcher prefixes = PREFIX.matcher(index.substring(index.indexOf('"')));
+            while (prefixes.find()) {
+                String prefix = prefixes.group(1);
+                if (declared.contains(prefix) || configuration.contains("xmlns:" + prefix + "=")) continue;
+                if (! NAMESPACES.containsKey(prefix)) {
+                    declarable = false;
+                    break;
+                }
+                declarations.append("\n  xmlns:").append(prefix).append("=\"").append(NAMESPACES.get(prefix)).append("\"");
+                declared.add(prefix);
+            }
+            if (! declarable) {
+                logger.warn("The namespace of a prefix in index " + index + " is not known so the index is not recommended.");
+                continue;
+            }
+            creates.append("  <create ").append(index).append(" type=\"xs:string\" />\n");
+        }
+
+        int start = configuration.indexOf("<index") + "<index".length();
+        int end = configuration.lastIndexOf("</index>");
+        if (start < "<index".length() || end < start) throw new XBRLException("The index configuration has no index element.");
+        return configuration.substring(0, start) + declarations + configuration.substring(start, end) + creates + "\n" + configuration.substring(end);
+    }
+
+    /**
+     * Applies the recommended index configuration, reindexing the
+     * data collection in place.
+     * @return the time taken by an example of each observed query
+     * shape before and after reindexing, from the slowest query before
+     * reindexing to the fastest.
+     * @throws XBRLException
+     */
+    public List<Timing> apply() throws XBRLException {
+
+        String configuration = getRecommendedConfiguration();
+
+        List<String> queries = new Vector<String>();
+        List<Map<String,String>> parameters = new Vector<Map<String,String>>();
+        for (QueryStatistics.ShapeStatistics statistics: store.getQueryStatistics().getShapes().values()) {
+            queries.add(statistics.getExample());
+            parameters.add(statistics.getExampleParameters());
+        }
+
+        long[] before = time(queries, parameters);
+        store.setIndexConfiguration(configuration);
+        long[] after = time(queries, parameters);
+
+        List<Timing> timings = new Vector<Timing>();
+        for (int i=0; i<queries.size(); i++) {
+            timings.add(new Timing(queries.get(i), before[i], after[i]));
+        }
+        Collections.sort(timings, new Comparator<Timing>() {
+            public int compare(Timing first, Timing second) {
+                return (first.getBefore() < second.getBefore()) ? 1 : ((first.getBefore() == second.getBefore()) ? 0 : -1);
+            }
+        });
+        for (Timing timing: timings) logger.info(timing);
+        return timings;
+    }
+
+    /**
+     * @param queries The queries to time.
+     * @param parameters The values to bind to the external variables of 
+     * each query, which are null for queries without external variables.
+     * @return the fastest time, in nanoseconds, taken by each query to 
+     * retrieve its matching fragments.
+     * @throws XBRLException
+     */
+    private long[] time(List<String> queries, List<Map<String,String>> parameters) throws XBRLException {
+        QueryStatistics statistics = store.getQueryStatistics();
+        long[] times = new long[queries.size()];
+        statistics.suspend();
+        try {
+            for (int i=0; i<queries.size(); i++) {
+                times[i] = Long.MAX_VALUE;
+                for (int j=0; j<REPETITIONS; j++) {
+                    long start = System.nanoTime();
+                    store.queryForXMLResources(queries.get(i), parameters.get(i));
+                    times[i] = Math.min(times[i], System.nanoTime() - start);
+                }
+            }
+        } finally {
+            statistics.resume();
+        }
+        return times;
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.xbrlapi.data.exist;
+
+import org.xbrlapi.data.Store;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Data stores whose index configuration can be read and replaced.
+ * 
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+public interface IndexedStore extends Store {
+
+    /**
+     * @return the collection.xconf index configuration of the 
+     * data collection or null if there is none.
+     * @throws XBRLException
+     */
+    public String getIndexConfiguration() throws XBRLException;
+
+    /**
+     * Replaces the index configuration of the data collection 
+     * and reindexes the data collection in place.
+     * @param configuration The collection.xconf index configuration.
+     * @throws XBRLException if the configuration cannot be stored or
+     * the data collection cannot be reindexed.
+     */
+    public void setIndexConfiguration(String configuration) throws XBRLException;
+
+}
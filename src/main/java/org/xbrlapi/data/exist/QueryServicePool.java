@@ -0,0 +1,292 @@
+package org.xbrlapi.data.exist;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.utilities.XBRLException;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.XQueryService;
+
+/**
+ * A pool of handles on a data collection, each with its own XQuery
+ * service, so that several threads can query the collection at once.
+ * A handle is checked out by one thread at a time and must be checked
+ * back in when the thread has finished with the results of its queries.
+ *
+ * The handles are opened as they are needed, up to the size of the pool.
+ * Each handle has the standard namespace prefixes bound when it is opened
+ * and rebinds the data store's own namespace bindings only when they
+ * have changed since it was last used.  Queries can also be run with
+ * other namespace bindings, such as those of a view of the data store.
+ *
+ * A handle always goes back to the pool that it was checked out of.
+ * Handles that go back to a closed pool are closed.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public abstract class QueryServicePool {
+
+    private static final Logger logger = Logger.getLogger(QueryServicePool.class);
+
+    /**
+     * The default maximum number of handles in a pool.
+     */
+    public static final int DEFAULT_SIZE = 8;
+
+    /**
+     * The time, in milliseconds, that a thread waits for a handle to
+     * be checked in before checking whether it can open a new one.
+     */
+    private static final long WAIT = 100;
+
+    /**
+     * A collection and its XQuery service.
+     */
+    public final class Handle {
+
+        private final Collection collection;
+        private final XQueryService service;
+
+        /**
+         * The version of the namespace bindings that are bound
+         * in the XQuery service.
+         */
+        private int version = -1;
+
+        private Handle(Collection collection) throws XBRLException {
+            this.collection = collection;
+            try {
+                service = (XQueryService) collection.getService("XQueryService","1.0");
+            } catch (XMLDBException e) {
+                throw new XBRLException("The XPath services could not be initialised.",e);
+            }
+        }
+
+        /**
+         * @return the data collection.
+         */
+        public Collection getCollection() {
+            return collection;
+        }
+
+        /**
+         * @return the pool that the handle belongs to.
+         */
+        public QueryServicePool getPool() {
+            return QueryServicePool.this;
+        }
+
+        /**
+         * @param query The query to run, with the #roots# marker already replaced.
+         * @param parameters The values of the external variables used in the query.
+         * This can be null if the query does not use external variables.
+         * @return the query results.
+         * @throws XBRLException if the query cannot be executed.
+         */
+        public ResourceSet query(String query, Map<String,String> parameters) throws XBRLException {
+            return query(query, parameters, null);
+        }
+
+        /**
+         * @param query The query to run, with the #roots# marker already replaced.
+         * @param parameters The values of the external variables used in the query.
+         * This can be null if the query does not use external variables.
+         * @param bindings The namespace bindings, from prefix to namespace, to
+         * use for this query only or null to use the data store's namespace bindings.
+         * @return the query results.
+         * @throws XBRLException if the query cannot be executed.
+         */
+        public ResourceSet query(String query, Map<String,String> parameters, Map<String,String> bindings) throws XBRLException {
+            try {
+                if (bindings != null) {
+                    bind(bindings);
+                    // The data store's own bindings are restored by the next query that uses them.
+                    version = -1;
+                } else {
+                    int current = QueryServicePool.this.version.get();
+                    if (version != current) {
+                        bind(namespaceBindings);
+                        version = current;
+                    }
+                }
+                if (parameters != null) {
+                    for (String name: parameters.keySet())
+                        service.declareVariable(name,parameters.get(name));
+                }
+                try {
+                    return service.query(query);
+                } finally {
+                    if (parameters != null) service.clearVariables();
+                }
+            } catch (XMLDBException e) {
+                throw new XBRLException("The query service failed to execute " + query, e);
+            }
+        }
+
+        /**
+         * Replaces the namespace bindings of the XQuery service.
+         * @param bindings The namespace bindings, from prefix to namespace,
+         * to bind along with the standard namespace prefixes.
+         * @throws XMLDBException if the namespaces cannot be bound.
+         */
+        private void bind(Map<String,String> bindings) throws XMLDBException {
+            service.clearNamespaces();
+            service.setNamespace(Constants.XLinkPrefix, Constants.XLinkNamespace.toString());
+            service.setNamespace(Constants.XMLSchemaPrefix, Constants.XMLSchemaNamespace.toString());
+            service.setNamespace(Constants.XBRL21Prefix, Constants.XBRL21Namespace.toString());
+            service.setNamespace(Constants.XBRL21LinkPrefix, Constants.XBRL21LinkNamespace.toString());
+            service.setNamespace(Constants.XBRLAPIPrefix, Constants.XBRLAPINamespace.toString());
+            service.setNamespace(Constants.XBRLAPILanguagesPrefix, Constants.XBRLAPILanguagesNamespace.toString());
+            for (String prefix: bindings.keySet())
+                service.setNamespace(prefix,bindings.get(prefix));
+        }
+    }
+
+    private final int size;
+
+    private final ArrayBlockingQueue<Handle> idle;
+
+    /**
+     * The number of handles that have been opened.
+     */
+    private final AtomicInteger opened = new AtomicInteger(0);
+
+    /**
+     * The version of the namespace bindings, incremented
+     * whenever they change.
+     */
+    private final AtomicInteger version = new AtomicInteger(0);
+
+    private final Map<String,String> namespaceBindings;
+
+    /**
+     * True once the pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * @param size The maximum number of handles.
+     * @param namespaceBindings The data store's namespace bindings, from prefix
+     * to namespace.  The map must be safe to read while it is being modified.
+     * @throws XBRLException if the size is not positive.
+     */
+    public QueryServicePool(int size, Map<String,String> namespaceBindings) throws XBRLException {
+        if (size < 1) throw new XBRLException("The query service pool must hold at least one handle.");
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<Handle>(size);
+        this.namespaceBindings = namespaceBindings;
+    }
+
+    /**
+     * @return a new handle on the data collection.
+     * @throws XBRLException if the collection cannot be opened.
+     */
+    protected abstract Collection openCollection() throws XBRLException;
+
+    /**
+     * @return the maximum number of handles in the pool.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Checks out an idle handle, opening a new one if all are in use
+     * and the pool is not full, or otherwise waiting for one to
+     * be checked in.
+     * @return the handle.
+     * @throws XBRLException if a handle cannot be opened or the
+     * thread is interrupted while waiting.
+     */
+    public Handle checkOut() throws XBRLException {
+        try {
+            while (true) {
+                Handle handle = idle.poll();
+                if (handle != null) return handle;
+                if (opened.incrementAndGet() <= size) {
+                    try {
+                        return new Handle(openCollection());
+                    } catch (XBRLException e) {
+                        opened.decrementAndGet();
+                        throw e;
+                    }
+                }
+                opened.decrementAndGet();
+                // Handles that are closed rather than checked in make room for new ones.
+                handle = idle.poll(WAIT, TimeUnit.MILLISECONDS);
+                if (handle != null) return handle;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XBRLException("The thread was interrupted while waiting for a query service.", e);
+        }
+    }
+
+    /**
+     * Returns a handle to the pool that it was checked out of,
+     * closing it if that pool has been closed or is full.
+     * @param handle The handle to return to the pool.
+     */
+    public void checkIn(Handle handle) {
+        if (handle == null) return;
+        QueryServicePool pool = handle.getPool();
+        if (pool != this) {
+            pool.checkIn(handle);
+            return;
+        }
+        if (closed || ! idle.offer(handle)) {
+            discard(handle);
+            return;
+        }
+        // The pool may have been closed while the handle was being checked in.
+        if (closed) closeIdle();
+    }
+
+    /**
+     * Closes a handle that is not going back to the pool.
+     * @param handle The handle to close.
+     */
+    private void discard(Handle handle) {
+        try {
+            handle.getCollection().close();
+        } catch (XMLDBException e) {
+            logger.warn("A pooled collection could not be closed.");
+        }
+        opened.decrementAndGet();
+    }
+
+    /**
+     * Makes each handle rebind the data store's namespace
+     * bindings before its next query.
+     */
+    public void rebind() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Closes the idle handles.  Handles that are checked out
+     * are closed when they are checked back in.
+     */
+    public void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    /**
+     * Closes the idle handles.
+     */
+    private void closeIdle() {
+        Handle handle = idle.poll();
+        while (handle != null) {
+            discard(handle);
+            handle = idle.poll();
+        }
+    }
+
+}
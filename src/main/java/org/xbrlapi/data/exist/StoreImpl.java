@@ -5,20 +5,26 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
-import org.xmldb.api.modules.XQueryService;
+import org.exist.xmldb.IndexQueryService;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xbrlapi.XML;
 import org.xbrlapi.data.BaseStoreImpl;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.data.RestrictableStore;
 import org.xbrlapi.data.Store;
 import org.xbrlapi.impl.FragmentFactory;
 import org.xbrlapi.utilities.Constants;
@@ -39,7 +45,7 @@ import org.xmldb.api.modules.XMLResource;
  * 
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
-public class StoreImpl extends BaseStoreImpl implements Store {
+public class StoreImpl extends BaseStoreImpl implements IndexedStore, RestrictableStore {
 
     private static final long serialVersionUID = 3164980656484788937L;
 
@@ -65,9 +71,28 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	transient private CollectionManagementService manager;
 
 	/**
-	 * The XQuery service for the data collection.
+	 * The default number of fragments to store in each batch.
 	 */
-    transient private XQueryService xqueryService;
+	private static final int PERSISTENCE_BATCH_SIZE = 500;
+
+	/**
+	 * The default number of fragments to keep in the fragment cache.
+	 */
+	private static final int FRAGMENT_CACHE_SIZE = 1000;
+
+	/**
+	 * The query used to store a batch of fragments in one round trip to
+	 * the database.  The batch is bound to the $batch variable as a string 
+	 * containing a batch element with the serialized fragments as its children.
+	 * Each fragment replaces any existing resource with the same index.
+	 */
+	private static final String BATCH_STORE_QUERY = 
+	    "for $fragment in util:parse($batch)/*/* return xmldb:store($collection, string($fragment/@index), $fragment)";
+
+	/**
+	 * The pool of XQuery services used to query the data collection.
+	 */
+    transient private volatile QueryServicePool queryServices;
     	
     /**
      * @return the database connection or null if there is none.
@@ -384,16 +409,6 @@ public class StoreImpl extends BaseStoreImpl implements Store {
         if (! storeAlreadyExisted) {
             
             // Add the collection configuration (indexing information) if the store uses a new collection.
-            Collection configParentCollection = connection.getCollection("system/config");
-            Collection dataConfigCollection = null;
-            try {
-                dataConfigCollection = configParentCollection.getChildCollection(dataCollectionName); 
-            if (dataConfigCollection == null)
-                dataConfigCollection = connection.createCollection(dataCollectionName, configParentCollection);
-            } catch (XMLDBException e) {
-                throw new XBRLException("The data configuration collection could not be instantiated.",e);
-            }
-
             StringBuilder builder = new StringBuilder();
             InputStream is = getClass().getResourceAsStream("eXistIndexConfiguration.xml");
             try {
@@ -407,39 +422,126 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             } catch (IOException ignore) { 
                 logger.info("The exist index configuration file could not be loaded.");                    
             }
-            String dataXconf = builder.toString();
+            storeIndexConfiguration(builder.toString());
 
-            try {
-                
-                XMLResource dataXconfResource = (XMLResource) dataConfigCollection.createResource("collection.xconf", XMLResource.RESOURCE_TYPE);
-                dataXconfResource.setContent(dataXconf);
-                dataConfigCollection.storeResource(dataXconfResource);
-                
-            } catch (XMLDBException e) {
-                throw new XBRLException("The system index configuration resource could not be added.",e);
+        }
+
+        // Open the first pooled query service now so that problems show up straight away.
+        setQueryServicePoolSize(QueryServicePool.DEFAULT_SIZE);
+        queryServices.checkIn(queryServices.checkOut());
+
+        setPersistenceBatchSize(PERSISTENCE_BATCH_SIZE);
+        setFragmentCacheSize(FRAGMENT_CACHE_SIZE);
+	}
+    
+    /**
+     * Sets the maximum number of queries that can run against the 
+     * data collection at once.  Queries that are already running
+     * are not affected and their query services are closed when they finish.
+     * @param size The maximum number of pooled query services.
+     * @throws XBRLException if the size is not positive.
+     */
+    public void setQueryServicePoolSize(int size) throws XBRLException {
+        QueryServicePool previous = queryServices;
+        queryServices = new QueryServicePool(size, namespaceBindings) {
+            protected Collection openCollection() throws XBRLException {
+                Collection handle = connection.getCollection(dataCollectionName, connection.getCollection(storeParentPath));
+                if (handle == null) throw new XBRLException("Collection " + dataCollectionName + " could not be opened.");
+                return handle;
             }
+        };
+        if (previous != null) previous.close();
+    }
+
+    /**
+     * @return the maximum number of queries that can run against
+     * the data collection at once.
+     */
+    public int getQueryServicePoolSize() {
+        return queryServices.getSize();
+    }
+
+    /**
+     * @see Store#setNamespaceBinding(String,String)
+     */
+    public synchronized void setNamespaceBinding(String namespace, String prefix) throws XBRLException {
+        super.setNamespaceBinding(namespace, prefix);
+        queryServices.rebind();
+    }
+
+    /**
+     * @see Store#removeNamespaceBinding(String)
+     */
+    public synchronized void removeNamespaceBinding(String prefix) throws XBRLException {
+        super.removeNamespaceBinding(prefix);
+        queryServices.rebind();
+    }
 
+    /**
+     * @return the collection holding the index configuration of the data collection.
+     * @throws XBRLException if the collection cannot be obtained.
+     */
+    private Collection getConfigurationCollection() throws XBRLException {
+        Collection configParentCollection = connection.getCollection("system/config");
+        try {
+            Collection dataConfigCollection = configParentCollection.getChildCollection(dataCollectionName); 
+            if (dataConfigCollection == null)
+                dataConfigCollection = connection.createCollection(dataCollectionName, configParentCollection);
+            return dataConfigCollection;
+        } catch (XMLDBException e) {
+            throw new XBRLException("The data configuration collection could not be instantiated.",e);
         }
+    }
 
+    /**
+     * @param configuration The collection.xconf content to store.
+     * @throws XBRLException if the configuration cannot be stored.
+     */
+    private void storeIndexConfiguration(String configuration) throws XBRLException {
+        Collection dataConfigCollection = getConfigurationCollection();
         try {
-            xqueryService = (XQueryService) collection.getService("XQueryService","1.0");
-            xqueryService.setNamespace(Constants.XLinkPrefix, Constants.XLinkNamespace.toString());
-            xqueryService.setNamespace(Constants.XMLSchemaPrefix, Constants.XMLSchemaNamespace.toString());
-            xqueryService.setNamespace(Constants.XBRL21Prefix, Constants.XBRL21Namespace.toString());
-            xqueryService.setNamespace(Constants.XBRL21LinkPrefix, Constants.XBRL21LinkNamespace.toString());
-            xqueryService.setNamespace(Constants.XBRLAPIPrefix, Constants.XBRLAPINamespace.toString());
-            xqueryService.setNamespace(Constants.XBRLAPILanguagesPrefix, Constants.XBRLAPILanguagesNamespace.toString());
-            
+            XMLResource dataXconfResource = (XMLResource) dataConfigCollection.createResource("collection.xconf", XMLResource.RESOURCE_TYPE);
+            dataXconfResource.setContent(configuration);
+            dataConfigCollection.storeResource(dataXconfResource);
         } catch (XMLDBException e) {
-            throw new XBRLException("The XPath services could not be initialised.",e);
-        }        
-	}
-    
+            throw new XBRLException("The system index configuration resource could not be added.",e);
+        }
+    }
+
+    /**
+     * @see IndexedStore#getIndexConfiguration()
+     */
+    public synchronized String getIndexConfiguration() throws XBRLException {
+        try {
+            Resource resource = getConfigurationCollection().getResource("collection.xconf");
+            if (resource == null) return null;
+            return (String) resource.getContent();
+        } catch (XMLDBException e) {
+            throw new XBRLException("The index configuration could not be retrieved.",e);
+        }
+    }
+
+    /**
+     * @see IndexedStore#setIndexConfiguration(String)
+     */
+    public synchronized void setIndexConfiguration(String configuration) throws XBRLException {
+        flushPersistenceBuffer();
+        storeIndexConfiguration(configuration);
+        try {
+            IndexQueryService service = (IndexQueryService) collection.getService("IndexQueryService","1.0");
+            service.reindexCollection();
+        } catch (XMLDBException e) {
+            throw new XBRLException("The data collection could not be reindexed.",e);
+        }
+    }
+
 	/**
 	 * Close the data store.
 	 * Throws XBRLException if the data store cannot be closed. 
 	 */
 	public synchronized void close() throws XBRLException {
+	    flushPersistenceBuffer();
+	    queryServices.close();
 		try {
 			collection.close();
 			connection.close();
@@ -454,6 +556,9 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 */
 	public synchronized void delete() throws XBRLException {
 
+	    clearPersistenceBuffer();
+	    clearFragmentCache();
+	    queryServices.close();
 	    try {
 			if (connection.hasCollection(dataCollectionName)) {
 	            connection.deleteCollection(dataCollectionName,collection.getParentCollection());
@@ -478,6 +583,7 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * @see Store#persist(XML)
      */
     public synchronized int getSize() throws XBRLException {
+        flushPersistenceBuffer();
         try {
             return this.collection.getResourceCount();
         } catch (XMLDBException e) {
@@ -496,6 +602,7 @@ public class StoreImpl extends BaseStoreImpl implements Store {
     public synchronized void persist(XML xml) throws XBRLException {
         
 		if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+		flushPersistenceBuffer();
 		String index = xml.getIndex();
 		
         this.remove(index);
@@ -532,6 +639,54 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 
 	}
 	
+    /**
+     * Stores the fragments in a single query against the data collection.
+     * @see Store#persistAll(java.util.Collection)
+     */
+    public synchronized void persistAll(java.util.Collection<? extends XML> xmlResources) throws XBRLException {
+
+        if (xmlResources.isEmpty()) return;
+        flushPersistenceBuffer();
+
+        StringBuilder batch = new StringBuilder("<batch>");
+        List<Element> roots = new Vector<Element>();
+        for (XML xml: xmlResources) {
+            if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+            Element root = (xml.getStore() != null) ? xml.getMetadataRootElement() : xml.getBuilder().getMetadata();
+            roots.add(root);
+            batch.append(DOM2String(root).replaceAll("<\\?.+\\?>",""));// remove the prolog from each fragment in the batch.
+        }
+        batch.append("</batch>");
+
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("batch", batch.toString());
+        try {
+            parameters.put("collection", collection.getName());
+        } catch (XMLDBException e) {
+            throw new XBRLException("The data collection name could not be determined.", e);
+        }
+        QueryServicePool.Handle handle = queryServices.checkOut();
+        try {
+            runQuery(handle, BATCH_STORE_QUERY, parameters);
+        } finally {
+            handle.getPool().checkIn(handle);
+            // Uncached after the batch is stored so that readers cannot cache the replaced fragments.
+            for (XML xml: xmlResources) {
+                uncacheXMLResource(xml.getIndex());
+            }
+        }
+
+        // Finalise the fragments, ready for use
+        int i = 0;
+        for (XML xml: xmlResources) {
+            Element root = roots.get(i++);
+            if (xml.getStore() == null) {
+                if (xml.getBuilder() != null) xml.setResource(root);
+                xml.setStore(this);
+            }
+        }
+    }
+
     /**
      * Test if a store contains a specific fragment, as identified by
      * its index.
@@ -540,14 +695,18 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * fragment index.
      * @throws XBRLException If the test cannot be conducted.
      */
-	public synchronized boolean hasXMLResource(String index) throws XBRLException {
+	public boolean hasXMLResource(String index) throws XBRLException {
+	    flushPersistenceBuffer();
+	    QueryServicePool.Handle handle = queryServices.checkOut();
 	    try {
-	        Resource freshNode = collection.getResource(index);
+	        Resource freshNode = handle.getCollection().getResource(index);
 	        if (freshNode == null) return false;
 	        return true;
         }catch (XMLDBException e) {
 	        throw new XBRLException("The test for existence of XML resource "+ index +" failed.", e);
-        }	    
+        } finally {
+            handle.getPool().checkIn(handle);
+        }
     }
 	
     /**
@@ -559,15 +718,26 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * the fragment is not in the store.
      * @throws XBRLException if the fragment cannot be retrieved.
      */
-    public synchronized <F extends XML> F getXMLResource(String index) throws XBRLException {
+    public <F extends XML> F getXMLResource(String index) throws XBRLException {
+        flushPersistenceBuffer();
+        F xml = this.<F>getCachedXMLResource(index);
+        if (xml != null) return xml;
+        // The fragment is only cached if nothing was uncached while it was being 
+        // retrieved so that a fragment cannot be cached just after it has been replaced.
+        long version = getFragmentCacheVersion();
+        QueryServicePool.Handle handle = queryServices.checkOut();
     	try {
-    		XMLResource resource = (XMLResource) collection.getResource(index);
+    		XMLResource resource = (XMLResource) handle.getCollection().getResource(index);
     		if (resource == null) return null;
     		Element root = getResourceRootElement(resource);
-    		return FragmentFactory.<F>newFragment(this, root);
+    		xml = FragmentFactory.<F>newFragment(this, root);
     	} catch (XMLDBException e) {
     		throw new XBRLException("The fragment with index " + index + " could not be retrieved.",e);
+    	} finally {
+    	    handle.getPool().checkIn(handle);
     	}
+    	cacheXMLResource(xml, version);
+    	return xml;
     }
     
     /**
@@ -593,12 +763,16 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	 * @throws XBRLException if the fragment cannot be removed from the store.
 	 */
     public synchronized void remove(String index) throws XBRLException {
+        flushPersistenceBuffer();
         try {
             Resource freshNode = collection.getResource(index);
             if (freshNode == null) return;
             collection.removeResource(freshNode);
         } catch (XMLDBException e) {
             throw new XBRLException("The removal of XML resource " + index + " failed.", e);
+        } finally {
+            // Uncached after the removal so that a reader cannot cache the fragment again.
+            uncacheXMLResource(index);
         }
 	}
     
@@ -606,7 +780,8 @@ public class StoreImpl extends BaseStoreImpl implements Store {
      * @see Store#remove(XML)
      */
     @Override
-    public void remove(XML xml) throws XBRLException {
+    public synchronized void remove(XML xml) throws XBRLException {
+        flushPersistenceBuffer();
         Resource freshNode;
         try {
             if (xml.getBuilder() == null) {
@@ -616,6 +791,8 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             }
         } catch (XMLDBException e) {
             throw new XBRLException(e);
+        } finally {
+            uncacheXMLResource(xml.getIndex());
         }
     }
 
@@ -627,29 +804,126 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 	
 
 	
+    /**
+     * Runs a query against the data collection after substituting for
+     * the #roots# marker and binding the external variables.  Callers 
+     * flush the persistence buffer before checking out the query service
+     * so that no thread waits for the store's monitor while holding a
+     * pooled query service that a thread holding the monitor may need.
+     * @param handle The pooled query service to run the query with.
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @return the set of resources resulting from the query.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private ResourceSet runQuery(QueryServicePool.Handle handle, String query, Map<String,String> parameters) throws XBRLException {
+        return runQuery(handle,query,parameters,null,null);
+    }
+
+    /**
+     * Queries restricted to a set of fragments select them by their
+     * indices, which are range indexed, so the restriction does not 
+     * depend upon the documents that the fragments come from.
+     * @param handle The pooled query service to run the query with.
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query or null to use the namespace bindings of the 
+     * data store.
+     * @return the set of resources resulting from the query.
+     * @throws XBRLException if the query cannot be executed.
+     * @see #runQuery(QueryServicePool.Handle, String, Map)
+     */
+    private ResourceSet runQuery(QueryServicePool.Handle handle, String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        checkParameters(parameters);
+        String selection = "/*" + this.getURIFilteringPredicate();
+        if (roots != null) {
+            StringBuilder sequence = new StringBuilder();
+            for (String index: roots) {
+                if (sequence.length() > 0) sequence.append(",");
+                sequence.append("'").append(index).append("'");
+            }
+            selection = "/*[@index=(" + sequence + ")]";
+        }
+        return handle.query(query.replaceAll("#roots#",selection), parameters, bindings);
+    }
+
+    /**
+     * @see RestrictableStore#getFragmentIndicesFromDocuments(Set)
+     */
+    public Set<String> getFragmentIndicesFromDocuments(Set<URI> uris) throws XBRLException {
+        Set<String> indices = new LinkedHashSet<String>();
+        if (uris.isEmpty()) return indices;
+        flushPersistenceBuffer();
+        QueryServicePool.Handle handle = queryServices.checkOut();
+        try {
+            for (URI uri: uris) {
+                Map<String,String> parameters = new HashMap<String,String>();
+                parameters.put("uri",uri.toString());
+                ResourceSet resources = handle.query("for $index in /*[@uri=$uri]/@index return string($index)",parameters,null);
+                ResourceIterator iterator = resources.getIterator();
+                while (iterator.hasMoreResources()) {
+                    indices.add((String) iterator.nextResource().getContent());
+                }
+            }
+        } catch (XMLDBException e) {
+            throw new XBRLException("The fragments in the documents could not be identified.", e);
+        } finally {
+            handle.getPool().checkIn(handle);
+        }
+        return indices;
+    }
+
 	/**
 	 * @see Store#queryForXMLResources(String)
 	 */
+	public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+	    return this.<F>queryForXMLResources(query,null);
+	}
+
+    /**
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters) throws XBRLException {
+        return this.<F>runXMLResourceQuery(query,parameters,null,null);
+    }
+
+    /**
+     * @see RestrictableStore#queryForXMLResources(String, Map, Set, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return this.<F>runXMLResourceQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query or null to use the namespace bindings of the 
+     * data store.
+     * @return the matching fragments.
+     * @throws XBRLException if the query cannot be executed.
+     */
     @SuppressWarnings(value = "unchecked")
-	public synchronized <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
-		
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
-        
-		ResourceSet resources = null;
-		try {
-            for (String prefix: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(prefix,this.namespaceBindings.get(prefix));
-			resources = xqueryService.query(query);
-		} catch (NullPointerException r) {
-            r.printStackTrace();
-        } catch (XMLDBException e) {
-		    e.printStackTrace();
-			throw new XBRLException("The query service failed.", e);
-		}
+    private <F extends XML> List<F> runXMLResourceQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
 
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        flushPersistenceBuffer();
+        QueryServicePool.Handle handle = queryServices.checkOut();
 		List<F> fragments = new Vector<F>();
 		try {
+	        ResourceSet resources = runQuery(handle,query,parameters,roots,bindings);
 			ResourceIterator iterator = resources.getIterator();
 			while (iterator.hasMoreResources()) {
 				Element root = getResourceRootElement((XMLResource) iterator.nextResource());
@@ -657,85 +931,241 @@ public class StoreImpl extends BaseStoreImpl implements Store {
 			}
 		} catch (XMLDBException e) {
 			throw new XBRLException("The query failed.", e);
+		} finally {
+		    handle.getPool().checkIn(handle);
 		}
-		return fragments;
+		return timer.stop(fragments);
 	}
     
     /**
-     * @see Store#queryCount(String)
+     * The matching fragments are fetched from the database and built
+     * only as they are requested from the iterator.
+     * @see Store#queryForXMLResourceIterator(String, Map)
      */
-    public synchronized long queryCount(String query) throws XBRLException {
-        
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
-        
-        ResourceSet resources = null;
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(String query, Map<String,String> parameters) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        // The result set keeps its own reference to the query results so the 
+        // query service can go back to the pool before the results are read.
+        flushPersistenceBuffer();
+        QueryServicePool.Handle handle = queryServices.checkOut();
         try {
-            for (String prefix: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(prefix,this.namespaceBindings.get(prefix));
-            resources = xqueryService.query(query);
-            return resources.getSize();
+            ResourceSet resources = runQuery(handle,query,parameters);
+            timer.stop(resources.getSize());
+            return new ResourceSetIterator<F>(resources.getIterator());
         } catch (XMLDBException e) {
-            throw new XBRLException("The query service failed.", e);
+            throw new XBRLException("The query failed.", e);
+        } finally {
+            handle.getPool().checkIn(handle);
         }
+    }
 
-    }    
+    /**
+     * Iterates over the fragments in a query result set, retrieving
+     * and building each fragment only when it is requested.
+     */
+    private class ResourceSetIterator<F extends XML> implements Iterator<F> {
+
+        private ResourceIterator resources = null;
+
+        ResourceSetIterator(ResourceIterator resources) {
+            this.resources = resources;
+        }
+
+        /**
+         * @see Iterator#hasNext()
+         */
+        public boolean hasNext() {
+            try {
+                return resources.hasMoreResources();
+            } catch (XMLDBException e) {
+                throw new IllegalStateException("The query results could not be accessed.", e);
+            }
+        }
+
+        /**
+         * @see Iterator#next()
+         */
+        public F next() throws NoSuchElementException {
+            try {
+                if (! resources.hasMoreResources()) throw new NoSuchElementException("There are no more fragments in the query results.");
+                Element root = getResourceRootElement((XMLResource) resources.nextResource());
+                return FragmentFactory.<F>newFragment(StoreImpl.this, root);
+            } catch (XMLDBException e) {
+                NoSuchElementException failure = new NoSuchElementException("The next fragment could not be retrieved from the query results.");
+                failure.initCause(e);
+                throw failure;
+            } catch (XBRLException e) {
+                NoSuchElementException failure = new NoSuchElementException("The next fragment could not be built from the query results.");
+                failure.initCause(e);
+                throw failure;
+            }
+        }
+
+        /**
+         * This method is not supported by this implementation.
+         * @see Iterator#remove()
+         */
+        public void remove() throws UnsupportedOperationException {
+            throw new UnsupportedOperationException("The remove operation is not supported by this iterator implementation.");
+        }
+    }
     
     /**
-     * @see Store#queryForIndices(String)
+     * @see Store#queryCount(String)
      */
-    public synchronized Set<String> queryForIndices(String query) throws XBRLException {
+    public long queryCount(String query) throws XBRLException {
+        return queryCount(query,null);
+    }
 
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
-        
-        ResourceSet resources = null;
+    /**
+     * @see Store#queryCount(String, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters) throws XBRLException {
+        return runCountQuery(query,parameters,null,null);
+    }
+
+    /**
+     * @see RestrictableStore#queryCount(String, Map, Set, Map)
+     */
+    public long queryCount(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return runCountQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query or null to use the namespace bindings of the 
+     * data store.
+     * @return the number of query results.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private long runCountQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        // Only return the number of matches from the database, not the matches themselves.
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        flushPersistenceBuffer();
+        QueryServicePool.Handle handle = queryServices.checkOut();
         try {
-            for (String prefix: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(prefix,this.namespaceBindings.get(prefix));
-            resources = xqueryService.query(query);
+            ResourceSet resources = runQuery(handle,"count(" + query + ")",parameters,roots,bindings);
+            return timer.stop(Long.parseLong((String) resources.getResource(0).getContent()));
         } catch (XMLDBException e) {
-            throw new XBRLException("The XPath query service failed.", e);
+            throw new XBRLException("The query service failed.", e);
+        } catch (NumberFormatException e) {
+            throw new XBRLException("The query service did not return a count.", e);
+        } finally {
+            handle.getPool().checkIn(handle);
         }
+    }    
+    
+    /**
+     * @see Store#queryForIndices(String)
+     */
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        return queryForIndices(query,null);
+    }
+
+    /**
+     * @see Store#queryForIndices(String, Map)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters) throws XBRLException {
+        return runIndexQuery(query,parameters,null,null);
+    }
 
+    /**
+     * @see RestrictableStore#queryForIndices(String, Map, Set, Map)
+     */
+    public Set<String> queryForIndices(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return runIndexQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query or null to use the namespace bindings of the 
+     * data store.
+     * @return the indices of the matching fragments.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private Set<String> runIndexQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+
+        // Only return the index attribute values from the database, not the fragments.
+        query = "for $index in (" + query + ")/@index return string($index)";
+        flushPersistenceBuffer();
+        QueryServicePool.Handle handle = queryServices.checkOut();
         Set<String> indices = new TreeSet<String>();
         try {
+            ResourceSet resources = runQuery(handle,query,parameters,roots,bindings);
             ResourceIterator iterator = resources.getIterator();
-            String regex = "<xbrlapi:fragment.*? index=\"(\\w+)\".*?>";
-            Pattern pattern = Pattern.compile(regex,Pattern.DOTALL);
             while (iterator.hasMoreResources()) {
-                XMLResource resource = (XMLResource) iterator.nextResource();
-                String string = ((String) resource.getContent()).replaceAll("\n"," ");
-                Matcher matcher = pattern.matcher(string);
-                matcher.matches();
-                String index = matcher.group(1);
-                indices.add(index);
+                indices.add((String) iterator.nextResource().getContent());
             }
         } catch (XMLDBException e) {
             throw new XBRLException("The query failed.", e);
+        } finally {
+            handle.getPool().checkIn(handle);
         }
-        return indices;
+        return timer.stop(indices);
     }
     
     /**
      * @see Store#queryForStrings(String)
      */
-    public synchronized Set<String> queryForStrings(String query) throws XBRLException {
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        return queryForStrings(query,null);
+    }
 
-        String roots = "/*" + this.getURIFilteringPredicate();
-        query = query.replaceAll("#roots#",roots);
-        
-        ResourceSet resources = null;
-        try {
-            for (String prefix: this.namespaceBindings.keySet()) 
-                xqueryService.setNamespace(prefix,this.namespaceBindings.get(prefix));
-            resources = xqueryService.query(query);
-        } catch (XMLDBException e) {
-            throw new XBRLException("The XQuery service failed.", e);
-        }
+    /**
+     * @see Store#queryForStrings(String, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters) throws XBRLException {
+        return runStringQuery(query,parameters,null,null);
+    }
+
+    /**
+     * @see RestrictableStore#queryForStrings(String, Map, Set, Map)
+     */
+    public Set<String> queryForStrings(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return runStringQuery(query,parameters,roots,bindings);
+    }
+
+    /**
+     * @param query The query to run.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query or null to use the namespace bindings of the 
+     * data store.
+     * @return the set of strings that match the query.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private Set<String> runStringQuery(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
 
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        flushPersistenceBuffer();
+        QueryServicePool.Handle handle = queryServices.checkOut();
         Set<String> strings = new TreeSet<String>();
         try {
+            ResourceSet resources = runQuery(handle,query,parameters,roots,bindings);
             ResourceIterator iterator = resources.getIterator();
             while (iterator.hasMoreResources()) {
                 XMLResource resource = (XMLResource) iterator.nextResource();
@@ -743,8 +1173,10 @@ public class StoreImpl extends BaseStoreImpl implements Store {
             }
         } catch (XMLDBException e) {
             throw new XBRLException("The query failed.", e);
+        } finally {
+            handle.getPool().checkIn(handle);
         }
-        return strings;
+        return timer.stop(strings);
 
     }    
 	
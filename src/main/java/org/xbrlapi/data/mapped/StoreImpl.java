@@ -0,0 +1,1371 @@
+package org.xbrlapi.data.mapped;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+import org.xbrlapi.XML;
+import org.xbrlapi.data.AttributeIndex;
+import org.xbrlapi.data.BaseStoreImpl;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.data.RestrictableStore;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.XMLResourceIterator;
+import org.xbrlapi.impl.FragmentFactory;
+import org.xbrlapi.utilities.XBRLException;
+import org.xbrlapi.utilities.XMLDOMBuilder;
+
+/**
+ * A data store that keeps its fragments in log-structured segment files
+ * on disk and reads them back through memory-mapped buffers.
+ *
+ * Each persisted fragment is serialized and appended to the current
+ * segment file.  Segment files are rolled over once they reach the
+ * segment size.  The location of each fragment and the values of its
+ * index, uri, type and parentIndex attributes are recorded in an
+ * append-only index log that is replayed when the store is opened,
+ * rebuilding the hash indexes on those attributes.  Fragments are only
+ * parsed into an XML DOM when they are retrieved from the store.
+ *
+ * Queries of the form #roots#[@a='x' and @b=$y] on the indexed attributes
+ * are answered from the hash indexes.  Other queries are only evaluated 
+ * against the fragments that they can match, found using the comparisons of 
+ * indexed attributes in the predicates that follow their #roots# markers.
+ * For example, only the fragments with the given parent are read for the
+ * query #roots#[@parentIndex=$parent and xbrlapi:data/link:loc].
+ * A #roots# marker can also be narrowed down by comparing an indexed attribute
+ * to an attribute of the fragments bound to a variable by an earlier marker,
+ * as in for $locator in #roots#[@parentIndex='x'], $target in 
+ * #roots#[@uri=$locator/@targetDocumentURI] return $target.
+ *
+ * Queries that start with the #roots# marker, or that iterate over it in 
+ * their first for clause, and that neither use it again nor order their 
+ * results, only look at one fragment at a time.  They are evaluated against
+ * batches of the fragments that they can match, read from the segment 
+ * files, so only one batch of fragments is held in memory at a time.  Other
+ * queries are evaluated against all of the fragments that they can match, 
+ * held in memory together.
+ *
+ * Queries that relate fragments to each other using a #roots# marker that 
+ * cannot be narrowed down in this way need all of the fragments in memory
+ * at once.  The store is then no longer able to hold more data than will 
+ * fit in the heap so these queries are rejected unless in-memory queries 
+ * have been enabled.  Once enabled, all of the fragments are loaded into an
+ * XML DOM data store the first time that such a query is run and that store
+ * is kept up to date from then on.
+ *
+ * Space used by fragments that have been removed or replaced is not
+ * reclaimed.  Delete the store and reload the data to compact it.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StoreImpl extends BaseStoreImpl implements RestrictableStore {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -2350581632216946102L;
+
+    private static final Logger logger = Logger.getLogger(StoreImpl.class);
+
+    /**
+     * The default maximum size, in bytes, of a segment file.
+     */
+    public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The size, in bytes, that a segment file grows to when the
+     * first fragment is written to it.  Segment files double in 
+     * size as they fill up, until they reach the segment size.
+     */
+    private static final int INITIAL_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * The number of fragments held in memory at a time when evaluating
+     * queries that cannot be answered from the attribute indexes and 
+     * that only look at one fragment at a time.
+     */
+    public static final int QUERY_BATCH_SIZE = 1000;
+
+    /**
+     * The default number of fragments to keep in the fragment cache.
+     */
+    private static final int FRAGMENT_CACHE_SIZE = 1000;
+
+    /**
+     * The name of the index log file in the store directory.
+     */
+    private static final String LOG_NAME = "index.log";
+
+    /**
+     * The index log record types.
+     */
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * The fragment root element attributes, other than the fragment
+     * index, that are recorded in the index log.
+     */
+    private static final String[] LOGGED_ATTRIBUTES = {
+        "uri", "type", "parentIndex"
+    };
+
+    /**
+     * The fragment root element attributes that are indexed to
+     * answer simple queries without parsing fragments.
+     */
+    private static final String[] INDEXED_ATTRIBUTES = {
+        "index", "uri", "type", "parentIndex"
+    };
+
+    /**
+     * The directory containing the segment files and the index log.
+     */
+    private File directory = null;
+
+    /**
+     * The maximum size, in bytes, of a segment file.
+     */
+    private int segmentSize = SEGMENT_SIZE;
+
+    /**
+     * True if queries that relate fragments to each other can be 
+     * evaluated by loading all of the fragments into memory.
+     */
+    private boolean inMemoryQueries = false;
+
+    /**
+     * The position of a fragment in the segment files.
+     */
+    private static class Location {
+        private int segment;
+        private int offset;
+        private int length;
+        private Location(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The map from fragment indices to fragment locations, in the
+     * order in which the fragments were persisted.
+     */
+    transient private Map<String,Location> locations;
+
+    /**
+     * The indexes on the fragment root element attributes.
+     */
+    transient private AttributeIndex attributeIndex;
+
+    /**
+     * The open segment files and the buffers mapping them into memory.
+     */
+    transient private List<RandomAccessFile> segments;
+    transient private List<MappedByteBuffer> buffers;
+
+    /**
+     * The position in the last segment file at which the next
+     * fragment will be written.
+     */
+    transient private int writePosition;
+
+    /**
+     * The stream used to append records to the index log.
+     */
+    transient private DataOutputStream log;
+
+    /**
+     * The builder used to parse fragments retrieved from the segment files.
+     */
+    transient private XMLDOMBuilder builder;
+
+    /**
+     * The in-memory data store holding a batch of fragments at a time
+     * while a query is evaluated or null if no such query has been run.
+     */
+    transient private org.xbrlapi.data.dom.StoreImpl batchStore;
+
+    /**
+     * The in-memory data store holding a batch of fragments at a time
+     * while a restricted query is evaluated with namespace bindings that
+     * are not those of this store, or null if no such query has been run.
+     */
+    transient private org.xbrlapi.data.dom.StoreImpl restrictedBatchStore;
+
+    /**
+     * The namespace bindings of the restricted batch store.
+     */
+    transient private Map<String,String> restrictedBindings;
+
+    /**
+     * The in-memory data store holding all of the fragments, used to 
+     * evaluate queries that relate fragments to each other, or null 
+     * if no such query has been run.
+     */
+    transient private org.xbrlapi.data.dom.StoreImpl materializedStore;
+
+    /**
+     * Opens the data store in the given directory, creating the
+     * directory if it does not exist.
+     * @param directory The directory to hold the store's files.
+     * @throws XBRLException if the store cannot be opened.
+     */
+    public StoreImpl(File directory) throws XBRLException {
+        this(directory, SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the data store in the given directory, creating the
+     * directory if it does not exist.
+     * @param directory The directory to hold the store's files.
+     * @param segmentSize The maximum size, in bytes, of a segment file.
+     * @throws XBRLException if the store cannot be opened or the
+     * segment size is not positive.
+     */
+    public StoreImpl(File directory, int segmentSize) throws XBRLException {
+        super();
+        if (directory == null) throw new XBRLException("The store directory must not be null.");
+        if (segmentSize < 1) throw new XBRLException("The segment size must be positive.");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        open();
+        setFragmentCacheSize(FRAGMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Opens the segment files and replays the index log.
+     * @throws XBRLException if the store cannot be opened.
+     */
+    private void open() throws XBRLException {
+
+        if (! directory.exists() && ! directory.mkdirs()) {
+            throw new XBRLException("The store directory " + directory + " could not be created.");
+        }
+        if (! directory.isDirectory()) {
+            throw new XBRLException(directory + " is not a directory.");
+        }
+
+        locations = new LinkedHashMap<String,Location>();
+        attributeIndex = new AttributeIndex(INDEXED_ATTRIBUTES);
+        segments = new Vector<RandomAccessFile>();
+        buffers = new Vector<MappedByteBuffer>();
+        builder = new XMLDOMBuilder();
+        batchStore = null;
+        restrictedBatchStore = null;
+        materializedStore = null;
+
+        try {
+            while (getSegmentFile(segments.size()).exists()) {
+                openSegment(segments.size());
+            }
+            if (segments.isEmpty()) openSegment(0);
+            writePosition = 0;
+            replayLog();
+            log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getLogFile(),true)));
+        } catch (IOException e) {
+            throw new XBRLException("The data store in " + directory + " could not be opened.",e);
+        }
+        logger.info("Opened the data store in " + directory + " with " + locations.size() + " fragments.");
+    }
+
+    /**
+     * @param segment The segment number.
+     * @return the segment file.
+     */
+    private File getSegmentFile(int segment) {
+        return new File(directory, "segment-" + segment + ".dat");
+    }
+
+    /**
+     * @return the index log file.
+     */
+    private File getLogFile() {
+        return new File(directory, LOG_NAME);
+    }
+
+    /**
+     * Opens a segment file and maps the part of it that has been
+     * written into memory, creating it if necessary.
+     * @param segment The segment number.
+     * @throws IOException if the segment cannot be opened or mapped.
+     */
+    private void openSegment(int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment),"rw");
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        segments.add(file);
+        buffers.add(buffer);
+    }
+
+    /**
+     * Grows a segment file, doubling its size until it can hold the 
+     * required number of bytes, and maps it into memory again.
+     * @param segment The segment number.
+     * @param required The number of bytes that the segment must hold.
+     * @return the buffer mapping the grown segment file.
+     * @throws IOException if the segment cannot be grown or mapped.
+     */
+    private MappedByteBuffer growSegment(int segment, int required) throws IOException {
+        RandomAccessFile file = segments.get(segment);
+        long size = Math.max(file.length(), INITIAL_SEGMENT_SIZE);
+        while (size < required) size *= 2;
+        size = Math.min(size, segmentSize);
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffers.set(segment, buffer);
+        return buffer;
+    }
+
+    /**
+     * Rebuilds the fragment locations and attribute indexes from the
+     * index log.  A partially written record at the end of the log, left
+     * by a failure during an earlier write, is discarded.
+     * @throws IOException if the index log cannot be read.
+     */
+    private void replayLog() throws IOException {
+
+        File logFile = getLogFile();
+        if (! logFile.exists()) return;
+
+        RandomAccessFile file = new RandomAccessFile(logFile,"rw");
+        try {
+            long length = file.length();
+            int end = 0;
+            if (length > 0) {
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                try {
+                    while (buffer.hasRemaining()) {
+                        byte type = buffer.get();
+                        String index = readString(buffer);
+                        if (type == PUT) {
+                            int segment = buffer.getInt();
+                            int offset = buffer.getInt();
+                            int size = buffer.getInt();
+                            int count = buffer.get();
+                            Map<String,String> values = new HashMap<String,String>();
+                            for (int i=0; i<count; i++) {
+                                String attribute = readString(buffer);
+                                values.put(attribute, readString(buffer));
+                            }
+                            if (segment >= segments.size()) break;
+                            if (segment == segments.size() - 1) writePosition = Math.max(writePosition, offset + size);
+                            addLocation(index, new Location(segment, offset, size), values);
+                        } else if (type == REMOVE) {
+                            removeLocation(index);
+                        } else {
+                            break;
+                        }
+                        end = buffer.position();
+                    }
+                } catch (BufferUnderflowException e) {
+                    ;
+                }
+            }
+            if (end < length) {
+                logger.warn("Discarding " + (length - end) + " bytes from the end of the index log in " + directory);
+                file.setLength(end);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @param buffer The buffer to read from.
+     * @return the length-prefixed UTF-8 string read from the buffer.
+     * @throws UnsupportedEncodingException
+     */
+    private String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes,"UTF-8");
+    }
+
+    /**
+     * @param string The string to write to the index log, prefixed
+     * by its length.
+     * @throws IOException
+     */
+    private void writeString(String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        log.writeInt(bytes.length);
+        log.write(bytes);
+    }
+
+    /**
+     * Records the location and attribute values of a fragment in memory.
+     * @param index The fragment index.
+     * @param location The location of the fragment in the segment files.
+     * @param values The logged attribute values of the fragment.
+     */
+    private void addLocation(String index, Location location, Map<String,String> values) {
+        locations.remove(index);
+        locations.put(index, location);
+        Map<String,String> indexed = new HashMap<String,String>(values);
+        indexed.put("index", index);
+        attributeIndex.add(index, indexed);
+    }
+
+    /**
+     * Forgets the location and attribute values of a fragment.
+     * @param index The fragment index.
+     */
+    private void removeLocation(String index) {
+        locations.remove(index);
+        attributeIndex.remove(index);
+    }
+
+    /**
+     * Handles object inflation by reopening the store's files.
+     * @param in The input object stream used to access the object's serialization.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        try {
+            open();
+        } catch (XBRLException e) {
+            throw new IOException("The data store in " + directory + " could not be reopened.",e);
+        }
+    }
+
+    /**
+     * Handles object serialization, making sure that the store's files
+     * are up to date first.
+     * @param out The output object stream used to store the serialization of the object.
+     * @throws IOException
+     */
+    private synchronized void writeObject(java.io.ObjectOutputStream out) throws IOException {
+        try {
+            sync();
+        } catch (XBRLException e) {
+            throw new IOException("The data store could not be synchronised before serialization.",e);
+        }
+        out.defaultWriteObject();
+    }
+
+    /**
+     * @return the directory containing the store's files.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Forces the segment files and the index log out to disk.
+     * @see Store#sync()
+     */
+    public synchronized void sync() throws XBRLException {
+        super.sync();
+        if (log == null) return;
+        try {
+            for (MappedByteBuffer buffer: buffers) buffer.force();
+            log.flush();
+        } catch (IOException e) {
+            throw new XBRLException("The data store in " + directory + " could not be synchronised.",e);
+        }
+    }
+
+    /**
+     * @see Store#close()
+     */
+    public synchronized void close() throws XBRLException {
+        if (log == null) return;
+        sync();
+        release();
+    }
+
+    /**
+     * Closes the store's files and discards the in-memory state.
+     * @throws XBRLException if the files cannot be closed.
+     */
+    private void release() throws XBRLException {
+        try {
+            log.close();
+            for (RandomAccessFile segment: segments) segment.close();
+        } catch (IOException e) {
+            throw new XBRLException("The data store in " + directory + " could not be closed.",e);
+        } finally {
+            log = null;
+            segments.clear();
+            buffers.clear();
+            locations.clear();
+            batchStore = null;
+            restrictedBatchStore = null;
+            materializedStore = null;
+            clearFragmentCache();
+        }
+    }
+
+    /**
+     * Closes the store and deletes the segment files and the index log.
+     * @see Store#delete()
+     */
+    public synchronized void delete() throws XBRLException {
+        clearPersistenceBuffer();
+        if (log != null) release();
+        getLogFile().delete();
+        for (int i=0; getSegmentFile(i).exists(); i++) {
+            if (! getSegmentFile(i).delete()) logger.warn("Segment file " + getSegmentFile(i) + " could not be deleted.");
+        }
+        directory.delete();
+    }
+
+    /**
+     * @throws XBRLException if the store has been closed.
+     */
+    private void checkOpen() throws XBRLException {
+        if (log == null) throw new XBRLException("The data store in " + directory + " has been closed.");
+    }
+
+    /**
+     * @see Store#getSize()
+     */
+    public synchronized int getSize() throws XBRLException {
+        checkOpen();
+        return locations.size();
+    }
+
+    /**
+     * Appends the fragment to the segment files and records its location
+     * in the index log.
+     * @see Store#persist(XML)
+     */
+    public synchronized void persist(XML xml) throws XBRLException {
+
+        if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+        checkOpen();
+        String index = xml.getIndex();
+        logger.debug("Storing " + xml.getType() + " " + index);
+        uncacheXMLResource(index);
+
+        Element root = xml.getMetadataRootElement();
+        String content = serialize(root).replaceFirst("^<\\?.+?\\?>","");
+        Map<String,String> values = new HashMap<String,String>();
+        for (String attribute: LOGGED_ATTRIBUTES) {
+            if (root.hasAttribute(attribute)) values.put(attribute, root.getAttribute(attribute));
+        }
+
+        try {
+            byte[] bytes = content.getBytes("UTF-8");
+            Location location = append(bytes);
+            log.writeByte(PUT);
+            writeString(index);
+            log.writeInt(location.segment);
+            log.writeInt(location.offset);
+            log.writeInt(location.length);
+            log.writeByte(values.size());
+            for (String attribute: values.keySet()) {
+                writeString(attribute);
+                writeString(values.get(attribute));
+            }
+            addLocation(index, location, values);
+        } catch (IOException e) {
+            throw new XBRLException("Fragment " + index + " could not be written to the data store.",e);
+        }
+
+        if (materializedStore != null) {
+            materializedStore.persist(FragmentFactory.newFragment(this, root));
+        }
+
+        // Finalise the fragment, ready for use
+        if (xml.getBuilder() != null) xml.setResource(root);
+        if (xml.getStore() == null) xml.setStore(this);
+    }
+
+    /**
+     * Appending to a segment file is cheap so fragments are stored
+     * immediately rather than being buffered.
+     * @see Store#persistBuffered(XML)
+     */
+    public synchronized void persistBuffered(XML xml) throws XBRLException {
+        persist(xml);
+    }
+
+    /**
+     * Writes the fragment data at the end of the last segment file,
+     * starting a new segment file if the last one is full.
+     * @param bytes The fragment data.
+     * @return the location of the fragment data.
+     * @throws IOException if the data cannot be written.
+     * @throws XBRLException if the data is larger than a segment.
+     */
+    private Location append(byte[] bytes) throws IOException, XBRLException {
+        if (bytes.length > segmentSize) {
+            throw new XBRLException("The fragment is larger than the segment size of " + segmentSize + " bytes.");
+        }
+        int segment = segments.size() - 1;
+        MappedByteBuffer buffer = buffers.get(segment);
+        if (writePosition + bytes.length > buffer.capacity()) {
+            if (writePosition + bytes.length > segmentSize) {
+                segment++;
+                openSegment(segment);
+                writePosition = 0;
+            }
+            buffer = growSegment(segment, writePosition + bytes.length);
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(writePosition);
+        view.put(bytes);
+        Location location = new Location(segment, writePosition, bytes.length);
+        writePosition += bytes.length;
+        return location;
+    }
+
+    /**
+     * @param index The fragment index.
+     * @return the root element parsed from the fragment data or null
+     * if the store does not contain the fragment.
+     * @throws XBRLException if the fragment data cannot be parsed.
+     */
+    private Element inflate(String index) throws XBRLException {
+        Location location = locations.get(index);
+        if (location == null) return null;
+        ByteBuffer view = buffers.get(location.segment).duplicate();
+        view.position(location.offset);
+        byte[] bytes = new byte[location.length];
+        view.get(bytes);
+        try {
+            return builder.newDocument(new String(bytes,"UTF-8")).getDocumentElement();
+        } catch (UnsupportedEncodingException e) {
+            throw new XBRLException("Fragment " + index + " could not be decoded.",e);
+        }
+    }
+
+    /**
+     * @see Store#hasXMLResource(String)
+     */
+    public synchronized boolean hasXMLResource(String index) throws XBRLException {
+        checkOpen();
+        return locations.containsKey(index);
+    }
+
+    /**
+     * @see Store#getXMLResource(String)
+     */
+    public synchronized <F extends XML> F getXMLResource(String index) throws XBRLException {
+        checkOpen();
+        F xml = this.<F>getCachedXMLResource(index);
+        if (xml != null) return xml;
+        Element root = inflate(index);
+        if (root == null) return null;
+        xml = FragmentFactory.<F>newFragment(this, root);
+        cacheXMLResource(xml);
+        return xml;
+    }
+
+    /**
+     * Records the removal of the fragment in the index log.
+     * @see Store#remove(String)
+     */
+    public synchronized void remove(String index) throws XBRLException {
+        checkOpen();
+        uncacheXMLResource(index);
+        if (! locations.containsKey(index)) return;
+        try {
+            log.writeByte(REMOVE);
+            writeString(index);
+        } catch (IOException e) {
+            throw new XBRLException("The removal of fragment " + index + " could not be recorded.",e);
+        }
+        removeLocation(index);
+        if (materializedStore != null) materializedStore.remove(index);
+    }
+
+    /**
+     * @see Store#setNamespaceBinding(String, String)
+     */
+    public synchronized void setNamespaceBinding(String namespace, String prefix) throws XBRLException {
+        super.setNamespaceBinding(namespace, prefix);
+        if (batchStore != null) batchStore.setNamespaceBinding(namespace, prefix);
+        if (materializedStore != null) materializedStore.setNamespaceBinding(namespace, prefix);
+    }
+
+    /**
+     * @see Store#removeNamespaceBinding(String)
+     */
+    public synchronized void removeNamespaceBinding(String prefix) throws XBRLException {
+        super.removeNamespaceBinding(prefix);
+        if (batchStore != null) batchStore.removeNamespaceBinding(prefix);
+        if (materializedStore != null) materializedStore.removeNamespaceBinding(prefix);
+    }
+
+    /**
+     * @param enabled true if queries that relate fragments to each other
+     * are to be evaluated by loading all of the fragments into memory and 
+     * false if such queries are to fail.  In-memory queries are disabled 
+     * by default because the store can then hold more data than will fit 
+     * in the heap.
+     */
+    public synchronized void setInMemoryQueries(boolean enabled) {
+        inMemoryQueries = enabled;
+        if (! enabled) materializedStore = null;
+    }
+
+    /**
+     * @return true if queries that relate fragments to each other are
+     * evaluated by loading all of the fragments into memory.
+     */
+    public synchronized boolean getInMemoryQueries() {
+        return inMemoryQueries;
+    }
+
+    /**
+     * @param query The query.
+     * @return true if the query only looks at one fragment at a time, so
+     * that it can be evaluated against batches of fragments.  This is the case
+     * if the query only uses the #roots# marker once, either at the start of
+     * the query or as the sequence that the first for clause iterates over,
+     * and if it does not order its results.
+     */
+    private boolean isBatchable(String query) {
+        String trimmed = query.trim();
+        if (trimmed.indexOf("#roots#") != trimmed.lastIndexOf("#roots#")) return false;
+        if (trimmed.startsWith("#roots#")) return true;
+        return trimmed.matches("(?s)for\\s+\\$[\\w\\-\\.]+\\s+in\\s+#roots#.*") && ! trimmed.matches("(?s).*\\border\\s+by\\b.*");
+    }
+
+    /**
+     * Matches the end of a for clause, or quantified expression, that
+     * binds a variable to the fragments selected by a #roots# marker.
+     */
+    private static final Pattern BINDING = Pattern.compile("\\$([\\w\\-\\.]+)\\s+in\\s*$");
+
+    /**
+     * Matches comparisons of a fragment root element attribute to an
+     * attribute of the fragment root element bound to a variable, such
+     * as @uri=$locator/@targetDocumentURI, with the attributes in either order.
+     */
+    private static final Pattern CORRELATED_TERM = Pattern.compile("\\s*@([\\w\\-]+)\\s*=\\s*\\$([\\w\\-\\.]+)/@([\\w\\-]+)\\s*");
+    private static final Pattern REVERSED_CORRELATED_TERM = Pattern.compile("\\s*\\$([\\w\\-\\.]+)/@([\\w\\-]+)\\s*=\\s*@([\\w\\-]+)\\s*");
+
+    /**
+     * Finds the fragments that a query can possibly match using the 
+     * attribute indexes.  Each #roots# marker in the query must be followed
+     * by a predicate that compares an indexed attribute to a string literal
+     * or an external variable, such as #roots#[@parentIndex=$parent and ...],
+     * or to an attribute of the fragments bound to a variable by an earlier
+     * #roots# marker, such as $target in #roots#[@uri=$locator/@targetDocumentURI].
+     * Otherwise the marker can only be narrowed down by the filtering URIs
+     * or by the set of fragments that the query is restricted to.
+     * @param query The query.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @return the indices of the fragments that the #roots# markers in the
+     * query can select, in the order in which they were persisted, or null
+     * if any of the #roots# markers cannot be narrowed down.
+     * @throws XBRLException if a fragment cannot be read.
+     */
+    private List<String> getCandidates(String query, Map<String,String> parameters, Set<String> roots) throws XBRLException {
+
+        Set<String> filtered = null;
+        Set<URI> filteringURIs = getFilteringURIs();
+        if (roots != null) {
+            filtered = new HashSet<String>(roots);
+            filtered.retainAll(locations.keySet());
+        } else if (! filteringURIs.isEmpty()) {
+            filtered = new HashSet<String>();
+            for (URI uri: filteringURIs) filtered.addAll(attributeIndex.get("uri", uri.toString()));
+        }
+
+        Map<String,Set<String>> bindings = new HashMap<String,Set<String>>();
+        Set<String> candidates = new HashSet<String>();
+        int marker = query.indexOf("#roots#");
+        while (marker >= 0) {
+            int end = marker + "#roots#".length();
+            Set<String> selected = null;
+            if (end < query.length() && query.charAt(end) == '[') {
+                int close = getClosingBracket(query, end);
+                if (close < 0) return null;
+                selected = getCandidates(query.substring(end + 1, close), parameters, bindings);
+            }
+            if (filtered != null) {
+                if (selected == null) selected = new HashSet<String>(filtered);
+                else selected.retainAll(filtered);
+            }
+            if (selected == null) return null;
+            Matcher binding = BINDING.matcher(query.substring(0, marker));
+            if (binding.find()) bindings.put(binding.group(1), selected);
+            candidates.addAll(selected);
+            marker = query.indexOf("#roots#", end);
+        }
+
+        List<String> result = new Vector<String>(candidates);
+        Collections.sort(result, new Comparator<String>() {
+            public int compare(String first, String second) {
+                Location a = locations.get(first);
+                Location b = locations.get(second);
+                if (a.segment != b.segment) return (a.segment < b.segment) ? -1 : 1;
+                if (a.offset != b.offset) return (a.offset < b.offset) ? -1 : 1;
+                return 0;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param predicate The predicate following a #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * @param bindings The map from the variables bound by earlier #roots#
+     * markers to the fragments that those markers can select.
+     * @return the indices of the fragments that can satisfy the predicate or 
+     * null if none of the expressions in the predicate narrow them down.
+     * @throws XBRLException if a fragment cannot be read.
+     */
+    private Set<String> getCandidates(String predicate, Map<String,String> parameters, Map<String,Set<String>> bindings) throws XBRLException {
+        List<String> conjuncts = AttributeIndex.getConjuncts(predicate);
+        if (conjuncts == null) return null;
+        Set<String> candidates = null;
+        for (String conjunct: conjuncts) {
+            Set<String> matches = attributeIndex.getTermMatches(conjunct, parameters);
+            if (matches == null) matches = getCorrelatedMatches(conjunct, bindings);
+            if (matches == null) continue;
+            if (candidates == null) candidates = new HashSet<String>(matches);
+            else candidates.retainAll(matches);
+        }
+        return candidates;
+    }
+
+    /**
+     * @param term An expression from the predicate following a #roots# marker.
+     * @param bindings The map from the variables bound by earlier #roots#
+     * markers to the fragments that those markers can select.
+     * @return the indices of the fragments whose indexed attribute equals the
+     * attribute of one of the fragments bound to the variable or null if 
+     * the expression is not such a comparison.
+     * @throws XBRLException if a fragment cannot be read.
+     */
+    private Set<String> getCorrelatedMatches(String term, Map<String,Set<String>> bindings) throws XBRLException {
+        String attribute = null;
+        String variable = null;
+        String other = null;
+        Matcher matcher = CORRELATED_TERM.matcher(term);
+        if (matcher.matches()) {
+            attribute = matcher.group(1);
+            variable = matcher.group(2);
+            other = matcher.group(3);
+        } else {
+            matcher = REVERSED_CORRELATED_TERM.matcher(term);
+            if (! matcher.matches()) return null;
+            variable = matcher.group(1);
+            other = matcher.group(2);
+            attribute = matcher.group(3);
+        }
+        if (! attributeIndex.isIndexed(attribute)) return null;
+        Set<String> bound = bindings.get(variable);
+        if (bound == null) return null;
+
+        boolean indexed = attributeIndex.isIndexed(other);
+        Set<String> values = new HashSet<String>();
+        for (String index: bound) {
+            if (indexed) {
+                String value = attributeIndex.getValue(index, other);
+                if (value != null) values.add(value);
+            } else {
+                Element root = inflate(index);
+                if (root != null && root.hasAttribute(other)) values.add(root.getAttribute(other));
+            }
+        }
+        Set<String> matches = new HashSet<String>();
+        for (String value: values) {
+            matches.addAll(attributeIndex.get(attribute, value));
+        }
+        return matches;
+    }
+
+    /**
+     * @param query The query.
+     * @param open The position of an opening square bracket in the query.
+     * @return the position of the matching closing square bracket or -1 if
+     * there is none.
+     */
+    private static int getClosingBracket(String query, int open) {
+        int depth = 0;
+        char quote = 0;
+        for (int i=open; i<query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluates a query against an in-memory data store.
+     */
+    private interface StoreQuery {
+        /**
+         * @param store The in-memory store holding the fragments.
+         * @throws XBRLException if the query cannot be executed.
+         */
+        public void evaluate(org.xbrlapi.data.dom.StoreImpl store) throws XBRLException;
+    }
+
+    /**
+     * Evaluates a query that cannot be answered from the attribute indexes.
+     * 
+     * Queries that only look at one fragment at a time are evaluated against
+     * batches of the fragments that they can match, or of all fragments if 
+     * the attribute indexes cannot narrow them down, so only one batch of 
+     * fragments is in memory at a time.
+     * 
+     * Other queries are evaluated against all of the fragments that their 
+     * #roots# markers can select, loaded into memory together.  If the 
+     * attribute indexes cannot narrow down the fragments that one of the 
+     * markers can select then the query is evaluated against all of the 
+     * fragments in memory, if in-memory queries are enabled, and is
+     * rejected otherwise.
+     * 
+     * @param query The query.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @param evaluation The evaluation of the query against the fragments.
+     * @throws XBRLException if the query cannot be executed.
+     * @see #setInMemoryQueries(boolean)
+     */
+    private void evaluate(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings, StoreQuery evaluation) throws XBRLException {
+        List<String> candidates = getCandidates(query, parameters, roots);
+        Set<URI> filteringURIs = (roots == null) ? getFilteringURIs() : new HashSet<URI>();
+        if (isBatchable(query)) {
+            if (candidates == null) candidates = new Vector<String>(locations.keySet());
+            evaluateInBatches(candidates, QUERY_BATCH_SIZE, filteringURIs, getBatchStore(bindings), evaluation);
+        } else if (candidates != null) {
+            evaluateInBatches(candidates, candidates.size(), filteringURIs, getBatchStore(bindings), evaluation);
+        } else {
+            evaluation.evaluate(getMaterializedStore(query));
+        }
+    }
+
+    /**
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return an empty in-memory data store with the given namespace bindings.
+     * The store is kept so that the queries that it has compiled can be used 
+     * again by later queries with the same namespace bindings.
+     * @throws XBRLException if the data store cannot be created.
+     */
+    private org.xbrlapi.data.dom.StoreImpl getBatchStore(Map<String,String> bindings) throws XBRLException {
+        if (bindings == namespaceBindings) {
+            if (batchStore == null) batchStore = newBatchStore(bindings);
+            return batchStore;
+        }
+        if (restrictedBatchStore == null || ! restrictedBindings.equals(bindings)) {
+            restrictedBindings = new HashMap<String,String>(bindings);
+            restrictedBatchStore = newBatchStore(restrictedBindings);
+        }
+        return restrictedBatchStore;
+    }
+
+    /**
+     * @param bindings The namespace bindings, from prefix to namespace.
+     * @return a new in-memory data store with the given namespace bindings.
+     * @throws XBRLException if the data store cannot be created.
+     */
+    private org.xbrlapi.data.dom.StoreImpl newBatchStore(Map<String,String> bindings) throws XBRLException {
+        org.xbrlapi.data.dom.StoreImpl store = new org.xbrlapi.data.dom.StoreImpl();
+        for (String prefix: bindings.keySet()) {
+            store.setNamespaceBinding(bindings.get(prefix), prefix);
+        }
+        return store;
+    }
+
+    /**
+     * Reads the fragments from the segment files, one batch at a time, 
+     * into an in-memory data store and evaluates the query against each
+     * batch in turn.
+     * @param indices The indices of the fragments to evaluate the query 
+     * against, in the order in which they were persisted.
+     * @param size The maximum number of fragments in a batch.
+     * @param filteringURIs The URIs to filter the fragments in each batch by.
+     * @param batchStore The empty in-memory data store to hold each batch.
+     * @param evaluation The evaluation of the query against each batch.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private void evaluateInBatches(List<String> indices, int size, Set<URI> filteringURIs, org.xbrlapi.data.dom.StoreImpl batchStore, StoreQuery evaluation) throws XBRLException {
+        batchStore.setFilteringURIs(filteringURIs);
+        size = Math.max(size, 1);
+        for (int start=0; start<indices.size(); start += size) {
+            List<String> batch = indices.subList(start, Math.min(start + size, indices.size()));
+            try {
+                for (String index: batch) {
+                    batchStore.persist(FragmentFactory.newFragment(this, inflate(index)));
+                }
+                evaluation.evaluate(batchStore);
+            } finally {
+                for (String index: batch) {
+                    batchStore.remove(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param query The query that needs all of the fragments in memory.
+     * @return the in-memory data store holding all of the fragments, with 
+     * the same URI filtering as this store.
+     * @throws XBRLException if in-memory queries have not been enabled 
+     * or the in-memory store cannot be populated.
+     * @see #setInMemoryQueries(boolean)
+     */
+    private org.xbrlapi.data.dom.StoreImpl getMaterializedStore(String query) throws XBRLException {
+        checkOpen();
+        if (! inMemoryQueries) {
+            throw new XBRLException("The query " + query + " relates fragments to each other but the fragments selected by one of its #roots# markers cannot be narrowed down using the indexed attributes " + Arrays.asList(INDEXED_ATTRIBUTES) + " so it can only be evaluated by loading all of the fragments into memory.  In-memory queries must be enabled for this.");
+        }
+        if (materializedStore == null) {
+            logger.info("Loading " + locations.size() + " fragments into memory to evaluate queries.");
+            org.xbrlapi.data.dom.StoreImpl store = new org.xbrlapi.data.dom.StoreImpl();
+            for (String prefix: namespaceBindings.keySet()) {
+                store.setNamespaceBinding(namespaceBindings.get(prefix), prefix);
+            }
+            for (String index: locations.keySet()) {
+                store.persist(FragmentFactory.newFragment(this, inflate(index)));
+            }
+            materializedStore = store;
+        }
+        materializedStore.setFilteringURIs(getFilteringURIs());
+        return materializedStore;
+    }
+
+    /**
+     * @param query The query identifying the fragments.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the indices of the fragments matching the query, in the
+     * order in which the query returns them.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private List<String> getMatchingIndices(final String query, final Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        checkOpen();
+        checkParameters(parameters);
+        List<String> matches = getIndexedMatches(query, parameters, roots);
+        if (matches != null) return matches;
+        final List<String> found = new Vector<String>();
+        evaluate(query, parameters, roots, bindings, new StoreQuery() {
+            public void evaluate(org.xbrlapi.data.dom.StoreImpl store) throws XBRLException {
+                Iterator<XML> iterator = store.<XML>queryForXMLResourceIterator(query, parameters);
+                while (iterator.hasNext()) {
+                    found.add(iterator.next().getIndex());
+                }
+            }
+        });
+        return found;
+    }
+
+    /**
+     * @param query The query.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @return the indices of the matching fragments, in the order in which
+     * they were persisted, or null if the query cannot be answered from the
+     * attribute indexes.
+     * @see AttributeIndex#getMatches(String, Map, Set)
+     */
+    private List<String> getIndexedMatches(String query, Map<String,String> parameters, Set<String> roots) {
+        if (roots == null) return attributeIndex.getMatches(query, parameters, getFilteringURIs());
+        List<String> matches = attributeIndex.getMatches(query, parameters, new HashSet<URI>());
+        if (matches != null) matches.retainAll(roots);
+        return matches;
+    }
+
+    /**
+     * @see RestrictableStore#getFragmentIndicesFromDocuments(Set)
+     */
+    public synchronized Set<String> getFragmentIndicesFromDocuments(Set<URI> uris) throws XBRLException {
+        checkOpen();
+        Set<String> indices = new LinkedHashSet<String>();
+        for (URI uri: uris) {
+            indices.addAll(attributeIndex.get("uri", uri.toString()));
+        }
+        return indices;
+    }
+
+    /**
+     * @param indices The fragment indices.
+     * @return the fragments with the given indices.
+     * @throws XBRLException if a fragment cannot be retrieved.
+     */
+    @SuppressWarnings(value = "unchecked")
+    private <F extends XML> List<F> getXMLResources(List<String> indices) throws XBRLException {
+        List<F> fragments = new Vector<F>();
+        for (String index: indices) {
+            fragments.add((F) getXMLResource(index));
+        }
+        return fragments;
+    }
+
+    /**
+     * @see Store#queryForXMLResources(String)
+     */
+    public synchronized <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        return this.<F>queryForXMLResources(query, null);
+    }
+
+    /**
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public synchronized <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        return timer.stop(this.<F>getXMLResources(getMatchingIndices(query, parameters, null, namespaceBindings)));
+    }
+
+    /**
+     * @see RestrictableStore#queryForXMLResources(String, Map, Set, Map)
+     */
+    public synchronized <F extends XML> List<F> queryForXMLResources(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        return timer.stop(this.<F>getXMLResources(getMatchingIndices(query, parameters, roots, bindings)));
+    }
+
+    /**
+     * Fragments are only read from the segment files to find the
+     * matches or the sort keys that the attribute indexes do not hold.
+     * @see Store#queryForXMLResources(String, Map, String, int, int)
+     */
+    public synchronized <F extends XML> List<F> queryForXMLResources(final String query, final Map<String,String> parameters, final String sortKey, final int offset, final int limit) throws XBRLException {
+
+        checkPage(sortKey, offset, limit);
+        checkOpen();
+        checkParameters(parameters);
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+
+        List<String> matches = attributeIndex.getMatches(query, parameters, getFilteringURIs());
+        if (matches == null && ! isBatchable(query)) {
+            final List<String> page = new Vector<String>();
+            evaluate(query, parameters, null, namespaceBindings, new StoreQuery() {
+                public void evaluate(org.xbrlapi.data.dom.StoreImpl store) throws XBRLException {
+                    for (XML xml: store.<XML>queryForXMLResources(query, parameters, sortKey, offset, limit)) {
+                        page.add(xml.getIndex());
+                    }
+                }
+            });
+            return timer.stop(this.<F>getXMLResources(page));
+        }
+        if (matches == null) matches = getMatchingIndices(query, parameters, null, namespaceBindings);
+
+        if (sortKey != null) {
+            boolean indexed = attributeIndex.isIndexed(sortKey);
+            final Map<String,String> keys = new HashMap<String,String>();
+            for (String index: matches) {
+                String key = indexed ? attributeIndex.getValue(index, sortKey) : inflate(index).getAttribute(sortKey);
+                keys.put(index, (key == null) ? "" : key);
+            }
+            Collections.sort(matches,new Comparator<String>() {
+                public int compare(String first, String second) {
+                    int result = keys.get(first).compareTo(keys.get(second));
+                    if (result != 0) return result;
+                    return first.compareTo(second);
+                }
+            });
+        }
+
+        List<String> page = new Vector<String>();
+        for (int i=offset; i<matches.size() && i-offset<limit; i++) {
+            page.add(matches.get(i));
+        }
+        return timer.stop(this.<F>getXMLResources(page));
+    }
+
+    /**
+     * The query is run straight away but the matching fragments are only
+     * read from the segment files as they are requested from the iterator.
+     * @see Store#queryForXMLResourceIterator(String, Map)
+     */
+    public synchronized <F extends XML> Iterator<F> queryForXMLResourceIterator(String query, Map<String,String> parameters) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        return new XMLResourceIterator<F>(this, timer.stop(getMatchingIndices(query, parameters, null, namespaceBindings)));
+    }
+
+    /**
+     * @see Store#queryCount(String)
+     */
+    public synchronized long queryCount(String query) throws XBRLException {
+        return queryCount(query, null);
+    }
+
+    /**
+     * @see Store#queryCount(String, Map)
+     */
+    public synchronized long queryCount(final String query, final Map<String,String> parameters) throws XBRLException {
+        checkOpen();
+        checkParameters(parameters);
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        long count = attributeIndex.countMatches(query, parameters, getFilteringURIs());
+        if (count >= 0) return timer.stop(count);
+        return timer.stop(countMatches(query, parameters, null, namespaceBindings));
+    }
+
+    /**
+     * @see RestrictableStore#queryCount(String, Map, Set, Map)
+     */
+    public synchronized long queryCount(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        checkOpen();
+        checkParameters(parameters);
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        List<String> matches = getIndexedMatches(query, parameters, roots);
+        if (matches != null) return timer.stop((long) matches.size());
+        return timer.stop(countMatches(query, parameters, roots, bindings));
+    }
+
+    /**
+     * @param query The query.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the number of results of a query that cannot be answered
+     * from the attribute indexes.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private long countMatches(final String query, final Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        final long[] total = {0};
+        evaluate(query, parameters, roots, bindings, new StoreQuery() {
+            public void evaluate(org.xbrlapi.data.dom.StoreImpl store) throws XBRLException {
+                total[0] += store.queryCount(query, parameters);
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * @see Store#queryForIndices(String)
+     */
+    public synchronized Set<String> queryForIndices(String query) throws XBRLException {
+        return queryForIndices(query, null);
+    }
+
+    /**
+     * @see Store#queryForIndices(String, Map)
+     */
+    public synchronized Set<String> queryForIndices(String query, Map<String,String> parameters) throws XBRLException {
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        return timer.stop(new HashSet<String>(getMatchingIndices(query, parameters, null, namespaceBindings)));
+    }
+
+    /**
+     * @see RestrictableStore#queryForIndices(String, Map, Set, Map)
+     */
+    public synchronized Set<String> queryForIndices(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        return timer.stop(new HashSet<String>(getMatchingIndices(query, parameters, roots, bindings)));
+    }
+
+    /**
+     * @see Store#queryForStrings(String)
+     */
+    public synchronized Set<String> queryForStrings(String query) throws XBRLException {
+        return queryForStrings(query, null);
+    }
+
+    /**
+     * @see Store#queryForStrings(String, Map)
+     */
+    public synchronized Set<String> queryForStrings(String query, Map<String,String> parameters) throws XBRLException {
+        return getStrings(query, parameters, null, namespaceBindings);
+    }
+
+    /**
+     * @see RestrictableStore#queryForStrings(String, Map, Set, Map)
+     */
+    public synchronized Set<String> queryForStrings(String query, Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (bindings == null) throw new XBRLException("The namespace bindings must not be null.");
+        return getStrings(query, parameters, roots, bindings);
+    }
+
+    /**
+     * @param query The query.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param bindings The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the set of strings that match the query.
+     * @throws XBRLException if the query cannot be executed.
+     */
+    private Set<String> getStrings(final String query, final Map<String,String> parameters, Set<String> roots, Map<String,String> bindings) throws XBRLException {
+        checkOpen();
+        checkParameters(parameters);
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        final Set<String> strings = new HashSet<String>();
+        evaluate(query, parameters, roots, bindings, new StoreQuery() {
+            public void evaluate(org.xbrlapi.data.dom.StoreImpl store) throws XBRLException {
+                strings.addAll(store.queryForStrings(query, parameters));
+            }
+        });
+        return timer.stop(strings);
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString() {
+        return "Memory-mapped data store in " + directory;
+    }
+
+}
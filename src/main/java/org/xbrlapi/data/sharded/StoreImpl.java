@@ -0,0 +1,1042 @@
+package org.xbrlapi.data.sharded;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.XML;
+import org.xbrlapi.data.AttributeIndex;
+import org.xbrlapi.data.BaseStoreImpl;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.data.RestrictableStore;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.XMLResourceIterator;
+import org.xbrlapi.impl.FragmentFactory;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * A data store that partitions its fragments across a number of
+ * underlying data stores, called shards.
+ *
+ * Fragments are assigned to shards using the document identifier
+ * that prefixes their fragment index, so all of the fragments from
+ * a document end up in the same shard.  Queries are run on all of the
+ * shards in parallel and their results are merged.  Each query is run
+ * on each shard with the #roots# marker and the URI filtering of the
+ * shard so the namespace bindings and filtering URIs of this store are
+ * passed through to all of the shards.
+ *
+ * Queries that use the #roots# marker more than once can relate fragments
+ * in different documents, and so in different shards, to each other.  
+ * These are not run on each shard.  Instead the fragments that each of 
+ * their #roots# markers can select are gathered from all of the shards 
+ * into an in-memory data store and the query is run against that.  The
+ * fragments selected by a marker are narrowed down using the predicate
+ * following it, leaving out any expressions that refer to variables bound
+ * by the query itself, other than comparisons such as 
+ * @uri=$locator/@targetDocumentURI to fragment root element attributes
+ * of fragments selected by an earlier marker.
+ *
+ * Queries restricted to a set of fragments are passed to each shard 
+ * restricted to the fragments in that shard, so views can be made of 
+ * a sharded data store if all of its shards support restricted queries.
+ *
+ * Fragments retrieved from this store belong to this store rather than
+ * to the shard holding them so that navigation from one fragment to
+ * another can cross shards.  The results of queries that return
+ * fragments are ordered by shard and then in document order within
+ * each shard.
+ *
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StoreImpl extends BaseStoreImpl implements RestrictableStore {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 2978006617419337207L;
+
+    private static final Logger logger = Logger.getLogger(StoreImpl.class);
+
+    /**
+     * The underlying data stores.
+     */
+    private List<Store> shards = null;
+
+    /**
+     * The executor used to run operations on the shards in parallel.
+     */
+    transient private ExecutorService executor = null;
+
+    /**
+     * True if the executor was created by this store and so has
+     * to be shut down when this store is closed.
+     */
+    transient private boolean ownsExecutor = false;
+
+    /**
+     * An operation on a single shard.
+     */
+    private interface ShardOperation<T> {
+        /**
+         * @param shard The shard to run the operation on.
+         * @return the result of the operation.
+         * @throws XBRLException if the operation fails.
+         */
+        public T run(Store shard) throws XBRLException;
+    }
+
+    /**
+     * Creates a sharded data store that uses its own pool of threads
+     * to run operations on the shards.
+     * @param shards The underlying data stores.
+     * @throws XBRLException if no shards are supplied.
+     */
+    public StoreImpl(List<Store> shards) throws XBRLException {
+        this(shards, null);
+    }
+
+    /**
+     * @param shards The underlying data stores.
+     * @param executor The executor used to run operations on the shards
+     * in parallel or null if the store is to use its own pool of threads.
+     * An executor supplied by the caller is not shut down when the
+     * store is closed.
+     * @throws XBRLException if no shards are supplied.
+     */
+    public StoreImpl(List<Store> shards, ExecutorService executor) throws XBRLException {
+        super();
+        if (shards == null || shards.isEmpty()) throw new XBRLException("At least one shard must be supplied.");
+        for (Store shard: shards) {
+            if (shard == null) throw new XBRLException("The shards must not be null.");
+        }
+        this.shards = new Vector<Store>(shards);
+        if (executor == null) {
+            createExecutor();
+        } else {
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Creates the pool of threads used to run operations on the shards.
+     */
+    private void createExecutor() {
+        int threads = Math.min(shards.size(), Runtime.getRuntime().availableProcessors());
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "xbrlapi-shard-query");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ownsExecutor = true;
+    }
+
+    /**
+     * Handles object inflation.
+     * @param in The input object stream used to access the object's serialization.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        createExecutor();
+    }
+
+    /**
+     * @return an unmodifiable list of the underlying data stores.
+     */
+    public List<Store> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * @param index The index of a fragment.
+     * @return the shard that holds, or would hold, the fragment.  The
+     * shard is chosen using the part of the index before the first
+     * underscore, which identifies the document containing the fragment.
+     */
+    public Store getShard(String index) {
+        int separator = index.indexOf('_');
+        String documentId = (separator < 0) ? index : index.substring(0, separator);
+        return shards.get((documentId.hashCode() & 0x7fffffff) % shards.size());
+    }
+
+    /**
+     * Runs an operation on all of the shards in parallel.
+     * @param operation The operation to run.
+     * @return the results of the operation, in shard order.
+     * @throws XBRLException if the operation fails on any of the shards.
+     */
+    private <T> List<T> runOnShards(final ShardOperation<T> operation) throws XBRLException {
+
+        if (shards.size() == 1) {
+            List<T> results = new Vector<T>();
+            results.add(operation.run(shards.get(0)));
+            return results;
+        }
+
+        List<Future<T>> futures = new Vector<Future<T>>();
+        for (final Store shard: shards) {
+            futures.add(executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return operation.run(shard);
+                }
+            }));
+        }
+
+        List<T> results = new Vector<T>();
+        XBRLException failure = null;
+        for (Future<T> future: futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new XBRLException("Interrupted while waiting for the shards.",e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (failure == null) {
+                    if (cause instanceof XBRLException) failure = (XBRLException) cause;
+                    else failure = new XBRLException("An operation failed on one of the shards.",cause);
+                }
+            }
+        }
+        if (failure != null) throw failure;
+        return results;
+    }
+
+    /**
+     * Matches the end of a for clause, or quantified expression, that
+     * binds a variable to the fragments selected by a #roots# marker.
+     */
+    private static final Pattern BINDING = Pattern.compile("\\$([\\w\\-\\.]+)\\s+in\\s*$");
+
+    /**
+     * Matches comparisons of a fragment root element attribute to an
+     * attribute of the fragment root element bound to a variable, such
+     * as @uri=$locator/@targetDocumentURI, with the attributes in either order.
+     */
+    private static final Pattern CORRELATED_TERM = Pattern.compile("\\s*@([\\w\\-]+)\\s*=\\s*\\$([\\w\\-\\.]+)/@([\\w\\-]+)\\s*");
+    private static final Pattern REVERSED_CORRELATED_TERM = Pattern.compile("\\s*\\$([\\w\\-\\.]+)/@([\\w\\-]+)\\s*=\\s*@([\\w\\-]+)\\s*");
+
+    /**
+     * Matches variable references.
+     */
+    private static final Pattern VARIABLE = Pattern.compile("\\$([\\w\\-\\.]+)");
+
+    /**
+     * @param query The query.
+     * @return true if the query uses the #roots# marker more than once
+     * and so can relate fragments held by different shards to each other.
+     */
+    private static boolean isJoin(String query) {
+        int first = query.indexOf("#roots#");
+        return first >= 0 && query.indexOf("#roots#", first + 1) >= 0;
+    }
+
+    /**
+     * Gathers the fragments that the #roots# markers in a query can select
+     * from all of the shards into an in-memory data store with the
+     * namespace bindings that the query uses.  The fragments are selected by 
+     * each shard so the URI filtering of the shards applies to them 
+     * unless the query is restricted to a set of fragments.
+     * @param query The query, using the #roots# marker more than once.
+     * @param parameters The values of the external variables used in the query.
+     * This can be null if the query does not use external variables.
+     * @param roots The indices of the fragments that the #roots# marker
+     * selects or null if it selects all of the fragments allowed by the
+     * URI filtering.
+     * @param namespaces The namespace bindings, from prefix to namespace,
+     * to use in the query.
+     * @return the in-memory data store to run the query against.
+     * @throws XBRLException if the fragments cannot be gathered.
+     */
+    private org.xbrlapi.data.dom.StoreImpl getJoinStore(String query, final Map<String,String> parameters, Set<String> roots, final Map<String,String> namespaces) throws XBRLException {
+
+        final Map<Store,Set<String>> groups = (roots == null) ? null : groupByShard(roots);
+
+        Map<String,List<XML>> bindings = new HashMap<String,List<XML>>();
+        Map<String,XML> candidates = new LinkedHashMap<String,XML>();
+        int marker = query.indexOf("#roots#");
+        while (marker >= 0) {
+            int end = marker + "#roots#".length();
+            List<String> conjuncts = new Vector<String>();
+            if (end < query.length() && query.charAt(end) == '[') {
+                int close = getClosingBracket(query, end);
+                if (close < 0) throw new XBRLException("The predicate following a #roots# marker is not closed in " + query);
+                conjuncts = getNarrowingConjuncts(query.substring(end + 1, close), parameters, bindings);
+            }
+            List<XML> selected = new Vector<XML>();
+            if (conjuncts != null) {
+                StringBuffer narrowing = new StringBuffer("#roots#");
+                for (int i=0; i<conjuncts.size(); i++) {
+                    narrowing.append((i == 0) ? "[" : " and ").append(conjuncts.get(i));
+                }
+                if (! conjuncts.isEmpty()) narrowing.append("]");
+                final String narrowingQuery = narrowing.toString();
+                for (List<XML> shardFragments: runOnShards(new ShardOperation<List<XML>>() {
+                    public List<XML> run(Store shard) throws XBRLException {
+                        if (groups == null) return shard.<XML>queryForXMLResources(narrowingQuery, parameters);
+                        Set<String> group = groups.get(shard);
+                        if (group.isEmpty()) return new Vector<XML>();
+                        return getRestrictableShard(shard).<XML>queryForXMLResources(narrowingQuery, parameters, group, namespaces);
+                    }
+                })) {
+                    selected.addAll(shardFragments);
+                }
+            }
+            Matcher binding = BINDING.matcher(query.substring(0, marker));
+            if (binding.find()) bindings.put(binding.group(1), selected);
+            for (XML xml: selected) candidates.put(xml.getIndex(), xml);
+            marker = query.indexOf("#roots#", end);
+        }
+
+        logger.debug("Gathered " + candidates.size() + " fragments from the shards to run " + query);
+        org.xbrlapi.data.dom.StoreImpl store = new org.xbrlapi.data.dom.StoreImpl();
+        for (String prefix: namespaces.keySet()) {
+            store.setNamespaceBinding(namespaces.get(prefix), prefix);
+        }
+        for (XML xml: candidates.values()) {
+            store.persist(FragmentFactory.newFragment(this, xml.getMetadataRootElement()));
+        }
+        return store;
+    }
+
+    /**
+     * @param predicate The predicate following a #roots# marker.
+     * @param parameters The values of the external variables used in the query.
+     * @param bindings The map from the variables bound by earlier #roots#
+     * markers to the fragments that those markers selected.
+     * @return the expressions that the shards can use to select the fragments
+     * that can satisfy the predicate, which is empty if the fragments cannot
+     * be narrowed down, or null if no fragments can satisfy the predicate.
+     */
+    private List<String> getNarrowingConjuncts(String predicate, Map<String,String> parameters, Map<String,List<XML>> bindings) {
+        List<String> narrowing = new Vector<String>();
+        List<String> conjuncts = AttributeIndex.getConjuncts(predicate);
+        if (conjuncts == null) {
+            if (! usesQueryVariables(predicate, parameters)) narrowing.add("(" + predicate + ")");
+            return narrowing;
+        }
+        for (String conjunct: conjuncts) {
+            String attribute = null;
+            String variable = null;
+            String other = null;
+            Matcher matcher = CORRELATED_TERM.matcher(conjunct);
+            if (matcher.matches()) {
+                attribute = matcher.group(1);
+                variable = matcher.group(2);
+                other = matcher.group(3);
+            } else {
+                matcher = REVERSED_CORRELATED_TERM.matcher(conjunct);
+                if (matcher.matches()) {
+                    variable = matcher.group(1);
+                    other = matcher.group(2);
+                    attribute = matcher.group(3);
+                }
+            }
+            List<XML> bound = (variable == null) ? null : bindings.get(variable);
+            if (bound != null) {
+                Set<String> values = new TreeSet<String>();
+                for (XML xml: bound) {
+                    String value = xml.getMetaAttribute(other);
+                    if (value != null) values.add("'" + value.replaceAll("'", "''") + "'");
+                }
+                if (values.isEmpty()) return null;
+                StringBuffer comparison = new StringBuffer("@" + attribute + "=(");
+                for (String value: values) {
+                    if (comparison.charAt(comparison.length() - 1) != '(') comparison.append(",");
+                    comparison.append(value);
+                }
+                narrowing.add(comparison.append(")").toString());
+            } else if (! usesQueryVariables(conjunct, parameters)) {
+                narrowing.add(conjunct);
+            }
+        }
+        return narrowing;
+    }
+
+    /**
+     * @param expression An expression from a query.
+     * @param parameters The values of the external variables used in the query.
+     * @return true if the expression refers to a variable that is not
+     * one of the external variables and so is bound by the query itself.
+     */
+    private static boolean usesQueryVariables(String expression, Map<String,String> parameters) {
+        Matcher matcher = VARIABLE.matcher(expression);
+        while (matcher.find()) {
+            if (parameters == null || ! parameters.containsKey(matcher.group(1))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param query The query.
+     * @param open The position of an opening square bracket in the query.
+     * @return the position of the matching closing square bracket or -1 if
+     * there is none.
+     */
+    private static int getClosingBracket(String query, int open) {
+        int depth = 0;
+        char quote = 0;
+        for (int i=open; i<query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param xmlResources XML resources retrieved from the in-memory data
+     * store used to run a query relating fragments to each other.
+     * @return the same XML resources, retrieved from this store.
+     * @throws XBRLException
+     */
+    private <F extends XML> List<F> retrieveAll(List<XML> xmlResources) throws XBRLException {
+        List<F> fragments = new Vector<F>();
+        for (XML xml: xmlResources) {
+            fragments.add(this.<F>getXMLResource(xml.getIndex()));
+        }
+        return fragments;
+    }
+
+    /**
+     * @param xml An XML resource retrieved from a shard.
+     * @return the same XML resource, belonging to this store, or null
+     * if the XML resource is null.
+     * @throws XBRLException
+     */
+    @SuppressWarnings(value = "unchecked")
+    private <F extends XML> F adopt(XML xml) throws XBRLException {
+        if (xml == null) return null;
+        return FragmentFactory.<F>newFragment(this, xml.getMetadataRootElement());
+    }
+
+    /**
+     * @param shard One of the shards.
+     * @return the shard as a data store that supports restricted queries.
+     * @throws XBRLException if the shard does not support restricted queries.
+     */
+    private RestrictableStore getRestrictableShard(Store shard) throws XBRLException {
+        if (shard instanceof RestrictableStore) return (RestrictableStore) shard;
+        throw new XBRLException("Shard " + shards.indexOf(shard) + " does not support queries restricted to a set of fragments.");
+    }
+
+    /**
+     * @param roots The indices of fragments.
+     * @return the map from the shards to the indices of the fragments 
+     * that each of them holds or would hold.
+     */
+    private Map<Store,Set<String>> groupByShard(Set<String> roots) {
+        Map<Store,Set<String>> groups = new IdentityHashMap<Store,Set<String>>();
+        for (Store shard: shards) {
+            groups.put(shard, new LinkedHashSet<String>());
+        }
+        for (String index: roots) {
+            groups.get(getShard(index)).add(index);
+        }
+        return groups;
+    }
+
+    /**
+     * @see Store#close()
+     */
+    public synchronized void close() throws XBRLException {
+        flushPersistenceBuffer();
+        try {
+            runOnShards(new ShardOperation<Object>() {
+                public Object run(Store shard) throws XBRLException {
+                    shard.close();
+                    return null;
+                }
+            });
+        } finally {
+            if (ownsExecutor) executor.shutdown();
+        }
+    }
+
+    /**
+     * @see Store#delete()
+     */
+    public synchronized void delete() throws XBRLException {
+        clearPersistenceBuffer();
+        try {
+            runOnShards(new ShardOperation<Object>() {
+                public Object run(Store shard) throws XBRLException {
+                    shard.delete();
+                    return null;
+                }
+            });
+        } finally {
+            if (ownsExecutor) executor.shutdown();
+        }
+    }
+
+    /**
+     * @see Store#sync()
+     */
+    public synchronized void sync() throws XBRLException {
+        super.sync();
+        runOnShards(new ShardOperation<Object>() {
+            public Object run(Store shard) throws XBRLException {
+                shard.sync();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see Store#getSize()
+     */
+    public int getSize() throws XBRLException {
+        flushPersistenceBuffer();
+        int size = 0;
+        for (Integer shardSize: runOnShards(new ShardOperation<Integer>() {
+            public Integer run(Store shard) throws XBRLException {
+                return shard.getSize();
+            }
+        })) {
+            size += shardSize;
+        }
+        return size;
+    }
+
+    /**
+     * @see Store#persist(XML)
+     */
+    public void persist(XML xml) throws XBRLException {
+        if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+        flushPersistenceBuffer();
+        List<XML> resources = new Vector<XML>();
+        resources.add(xml);
+        persistInShard(getShard(xml.getIndex()), resources);
+    }
+
+    /**
+     * Groups the fragments by shard and stores each group in its shard,
+     * with the shards being updated in parallel.
+     * @see Store#persistAll(Collection)
+     */
+    public void persistAll(Collection<? extends XML> xmlResources) throws XBRLException {
+
+        final Map<Store,List<XML>> groups = new IdentityHashMap<Store,List<XML>>();
+        for (XML xml: xmlResources) {
+            if (xml == null) throw new XBRLException("The fragment is null so it cannot be added.");
+            Store shard = getShard(xml.getIndex());
+            List<XML> group = groups.get(shard);
+            if (group == null) {
+                group = new Vector<XML>();
+                groups.put(shard, group);
+            }
+            group.add(xml);
+        }
+
+        runOnShards(new ShardOperation<Object>() {
+            public Object run(Store shard) throws XBRLException {
+                List<XML> group = groups.get(shard);
+                if (group != null) persistInShard(shard, group);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stores XML resources in a shard, making sure that they belong to
+     * this store rather than to the shard once they have been stored.
+     * @param shard The shard to store the XML resources in.
+     * @param xmlResources The XML resources to store.
+     * @throws XBRLException if the XML resources cannot be stored.
+     */
+    private void persistInShard(Store shard, List<XML> xmlResources) throws XBRLException {
+        logger.debug("Storing " + xmlResources.size() + " fragments in shard " + shards.indexOf(shard));
+        for (XML xml: xmlResources) {
+            if (xml.getStore() == null) xml.setStore(this);
+        }
+        if (xmlResources.size() == 1) shard.persist(xmlResources.get(0));
+        else shard.persistAll(xmlResources);
+        for (XML xml: xmlResources) {
+            if (xml.getBuilder() != null) xml.setResource(xml.getBuilder().getMetadata());
+        }
+    }
+
+    /**
+     * @see Store#hasXMLResource(String)
+     */
+    public boolean hasXMLResource(String index) throws XBRLException {
+        flushPersistenceBuffer();
+        return getShard(index).hasXMLResource(index);
+    }
+
+    /**
+     * @see Store#getXMLResource(String)
+     */
+    public <F extends XML> F getXMLResource(String index) throws XBRLException {
+        flushPersistenceBuffer();
+        return this.<F>adopt(getShard(index).getXMLResource(index));
+    }
+
+    /**
+     * @see Store#remove(String)
+     */
+    public void remove(String index) throws XBRLException {
+        flushPersistenceBuffer();
+        getShard(index).remove(index);
+    }
+
+    /**
+     * @see Store#remove(XML)
+     */
+    public void remove(XML xml) throws XBRLException {
+        flushPersistenceBuffer();
+        getShard(xml.getIndex()).remove(xml);
+    }
+
+    /**
+     * @see Store#setNamespaceBinding(String, String)
+     */
+    public synchronized void setNamespaceBinding(String namespace, String prefix) throws XBRLException {
+        super.setNamespaceBinding(namespace, prefix);
+        for (Store shard: shards) shard.setNamespaceBinding(namespace, prefix);
+    }
+
+    /**
+     * @see Store#removeNamespaceBinding(String)
+     */
+    public synchronized void removeNamespaceBinding(String prefix) throws XBRLException {
+        super.removeNamespaceBinding(prefix);
+        for (Store shard: shards) shard.removeNamespaceBinding(prefix);
+    }
+
+    /**
+     * @see Store#setFilteringURIs(Set)
+     */
+    public synchronized void setFilteringURIs(Set<URI> uris) {
+        super.setFilteringURIs(uris);
+        for (Store shard: shards) shard.setFilteringURIs(getFilteringURIs());
+    }
+
+    /**
+     * @see Store#clearFilteringURIs()
+     */
+    public synchronized void clearFilteringURIs() {
+        super.clearFilteringURIs();
+        for (Store shard: shards) shard.clearFilteringURIs();
+    }
+
+    /**
+     * Sets the size of the fragment cache in each of the shards.
+     * @see Store#setFragmentCacheSize(int)
+     */
+    public void setFragmentCacheSize(int size) throws XBRLException {
+        super.setFragmentCacheSize(size);
+        for (Store shard: shards) shard.setFragmentCacheSize(size);
+    }
+
+    /**
+     * @return the total fragment cache hits across the shards.
+     * @see Store#getFragmentCacheHits()
+     */
+    public long getFragmentCacheHits() {
+        long hits = 0;
+        for (Store shard: shards) hits += shard.getFragmentCacheHits();
+        return hits;
+    }
+
+    /**
+     * @return the total fragment cache misses across the shards.
+     * @see Store#getFragmentCacheMisses()
+     */
+    public long getFragmentCacheMisses() {
+        long misses = 0;
+        for (Store shard: shards) misses += shard.getFragmentCacheMisses();
+        return misses;
+    }
+
+    /**
+     * @return the total fragment cache evictions across the shards.
+     * @see Store#getFragmentCacheEvictions()
+     */
+    public long getFragmentCacheEvictions() {
+        long evictions = 0;
+        for (Store shard: shards) evictions += shard.getFragmentCacheEvictions();
+        return evictions;
+    }
+
+    /**
+     * @see Store#queryForXMLResources(String)
+     */
+    public <F extends XML> List<F> queryForXMLResources(String query) throws XBRLException {
+        return this.<F>queryForXMLResources(query, null);
+    }
+
+    /**
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(final String query, final Map<String,String> parameters) throws XBRLException {
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) {
+            return timer.stop(this.<F>retrieveAll(getJoinStore(query, parameters, null, namespaceBindings).<XML>queryForXMLResources(query, parameters)));
+        }
+        List<F> fragments = new Vector<F>();
+        for (List<XML> shardFragments: runOnShards(new ShardOperation<List<XML>>() {
+            public List<XML> run(Store shard) throws XBRLException {
+                return shard.<XML>queryForXMLResources(query, parameters);
+            }
+        })) {
+            for (XML xml: shardFragments) {
+                fragments.add(this.<F>adopt(xml));
+            }
+        }
+        return timer.stop(fragments);
+    }
+
+    /**
+     * Each shard returns the first offset + limit matching fragments
+     * and the page is then taken from the merged results.
+     * @see Store#queryForXMLResources(String, Map, String, int, int)
+     */
+    public <F extends XML> List<F> queryForXMLResources(final String query, final Map<String,String> parameters, final String sortKey, int offset, int limit) throws XBRLException {
+
+        checkPage(sortKey, offset, limit);
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) {
+            return timer.stop(this.<F>retrieveAll(getJoinStore(query, parameters, null, namespaceBindings).<XML>queryForXMLResources(query, parameters, sortKey, offset, limit)));
+        }
+
+        final int shardLimit = (int) Math.min((long) offset + (long) limit, Integer.MAX_VALUE);
+        List<XML> matches = new Vector<XML>();
+        for (List<XML> shardFragments: runOnShards(new ShardOperation<List<XML>>() {
+            public List<XML> run(Store shard) throws XBRLException {
+                return shard.<XML>queryForXMLResources(query, parameters, sortKey, 0, shardLimit);
+            }
+        })) {
+            matches.addAll(shardFragments);
+        }
+
+        if (sortKey != null) {
+            Collections.sort(matches, new Comparator<XML>() {
+                public int compare(XML first, XML second) {
+                    String firstKey = first.getMetaAttribute(sortKey);
+                    String secondKey = second.getMetaAttribute(sortKey);
+                    int result = ((firstKey == null) ? "" : firstKey).compareTo((secondKey == null) ? "" : secondKey);
+                    if (result != 0) return result;
+                    return first.getIndex().compareTo(second.getIndex());
+                }
+            });
+        }
+
+        List<F> fragments = new Vector<F>();
+        for (int i=offset; i<matches.size() && i-offset<limit; i++) {
+            fragments.add(this.<F>adopt(matches.get(i)));
+        }
+        return timer.stop(fragments);
+    }
+
+    /**
+     * The query is run on all of the shards straight away but the
+     * matching fragments are only retrieved from each shard as they
+     * are requested from the iterator.
+     * @see Store#queryForXMLResourceIterator(String, Map)
+     */
+    public <F extends XML> Iterator<F> queryForXMLResourceIterator(final String query, final Map<String,String> parameters) throws XBRLException {
+        flushPersistenceBuffer();
+        if (isJoin(query)) {
+            List<String> indices = new Vector<String>();
+            Iterator<XML> iterator = getJoinStore(query, parameters, null, namespaceBindings).<XML>queryForXMLResourceIterator(query, parameters);
+            while (iterator.hasNext()) indices.add(iterator.next().getIndex());
+            return new XMLResourceIterator<F>(this, indices);
+        }
+        return new ShardIterator<F>(runOnShards(new ShardOperation<Iterator<XML>>() {
+            public Iterator<XML> run(Store shard) throws XBRLException {
+                return shard.<XML>queryForXMLResourceIterator(query, parameters);
+            }
+        }));
+    }
+
+    /**
+     * Iterates over the results from each shard in turn.
+     */
+    private class ShardIterator<F extends XML> implements Iterator<F> {
+
+        private Iterator<Iterator<XML>> shardIterators = null;
+        private Iterator<XML> current = null;
+        private F next = null;
+
+        /**
+         * @param iterators The iterators over the results from each shard.
+         */
+        private ShardIterator(List<Iterator<XML>> iterators) {
+            this.shardIterators = iterators.iterator();
+        }
+
+        /**
+         * @see Iterator#hasNext()
+         */
+        public boolean hasNext() {
+            while (next == null) {
+                while (current == null || ! current.hasNext()) {
+                    if (! shardIterators.hasNext()) return false;
+                    current = shardIterators.next();
+                }
+                XML xml = current.next();
+                try {
+                    next = StoreImpl.this.<F>adopt(xml);
+                } catch (XBRLException e) {
+                    NoSuchElementException failure = new NoSuchElementException("XML resource " + xml.getIndex() + " could not be retrieved from the data store.");
+                    failure.initCause(e);
+                    throw failure;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @see Iterator#next()
+         */
+        public F next() throws NoSuchElementException {
+            if (! hasNext()) throw new NoSuchElementException("There are no more matching XML resources.");
+            F xml = next;
+            next = null;
+            return xml;
+        }
+
+        /**
+         * This method is not supported by this implementation.
+         * @see Iterator#remove()
+         */
+        public void remove() throws UnsupportedOperationException {
+            throw new UnsupportedOperationException("The remove operation is not supported by this iterator implementation.");
+        }
+    }
+
+    /**
+     * @see Store#queryCount(String)
+     */
+    public long queryCount(String query) throws XBRLException {
+        return queryCount(query, null);
+    }
+
+    /**
+     * @see Store#queryCount(String, Map)
+     */
+    public long queryCount(final String query, final Map<String,String> parameters) throws XBRLException {
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) return timer.stop(getJoinStore(query, parameters, null, namespaceBindings).queryCount(query, parameters));
+        long count = 0;
+        for (Long shardCount: runOnShards(new ShardOperation<Long>() {
+            public Long run(Store shard) throws XBRLException {
+                return shard.queryCount(query, parameters);
+            }
+        })) {
+            count += shardCount;
+        }
+        return timer.stop(count);
+    }
+
+    /**
+     * @see Store#queryForIndices(String)
+     */
+    public Set<String> queryForIndices(String query) throws XBRLException {
+        return queryForIndices(query, null);
+    }
+
+    /**
+     * @see Store#queryForIndices(String, Map)
+     */
+    public Set<String> queryForIndices(final String query, final Map<String,String> parameters) throws XBRLException {
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) return timer.stop(getJoinStore(query, parameters, null, namespaceBindings).queryForIndices(query, parameters));
+        Set<String> indices = new HashSet<String>();
+        for (Set<String> shardIndices: runOnShards(new ShardOperation<Set<String>>() {
+            public Set<String> run(Store shard) throws XBRLException {
+                return shard.queryForIndices(query, parameters);
+            }
+        })) {
+            indices.addAll(shardIndices);
+        }
+        return timer.stop(indices);
+    }
+
+    /**
+     * @see Store#queryForStrings(String)
+     */
+    public Set<String> queryForStrings(String query) throws XBRLException {
+        return queryForStrings(query, null);
+    }
+
+    /**
+     * @see Store#queryForStrings(String, Map)
+     */
+    public Set<String> queryForStrings(final String query, final Map<String,String> parameters) throws XBRLException {
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) return timer.stop(getJoinStore(query, parameters, null, namespaceBindings).queryForStrings(query, parameters));
+        Set<String> strings = new TreeSet<String>();
+        for (Set<String> shardStrings: runOnShards(new ShardOperation<Set<String>>() {
+            public Set<String> run(Store shard) throws XBRLException {
+                return shard.queryForStrings(query, parameters);
+            }
+        })) {
+            strings.addAll(shardStrings);
+        }
+        return timer.stop(strings);
+    }
+
+    /**
+     * @see RestrictableStore#getFragmentIndicesFromDocuments(Set)
+     */
+    public Set<String> getFragmentIndicesFromDocuments(final Set<URI> uris) throws XBRLException {
+        flushPersistenceBuffer();
+        Set<String> indices = new LinkedHashSet<String>();
+        for (Set<String> shardIndices: runOnShards(new ShardOperation<Set<String>>() {
+            public Set<String> run(Store shard) throws XBRLException {
+                return getRestrictableShard(shard).getFragmentIndicesFromDocuments(uris);
+            }
+        })) {
+            indices.addAll(shardIndices);
+        }
+        return indices;
+    }
+
+    /**
+     * @see RestrictableStore#queryForXMLResources(String, Map, Set, Map)
+     */
+    public <F extends XML> List<F> queryForXMLResources(final String query, final Map<String,String> parameters, Set<String> roots, final Map<String,String> namespaces) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (namespaces == null) throw new XBRLException("The namespace bindings must not be null.");
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) {
+            return timer.stop(this.<F>retrieveAll(getJoinStore(query, parameters, roots, namespaces).<XML>queryForXMLResources(query, parameters)));
+        }
+        final Map<Store,Set<String>> groups = groupByShard(roots);
+        List<F> fragments = new Vector<F>();
+        for (List<XML> shardFragments: runOnShards(new ShardOperation<List<XML>>() {
+            public List<XML> run(Store shard) throws XBRLException {
+                Set<String> group = groups.get(shard);
+                if (group.isEmpty()) return new Vector<XML>();
+                return getRestrictableShard(shard).<XML>queryForXMLResources(query, parameters, group, namespaces);
+            }
+        })) {
+            for (XML xml: shardFragments) {
+                fragments.add(this.<F>adopt(xml));
+            }
+        }
+        return timer.stop(fragments);
+    }
+
+    /**
+     * @see RestrictableStore#queryCount(String, Map, Set, Map)
+     */
+    public long queryCount(final String query, final Map<String,String> parameters, Set<String> roots, final Map<String,String> namespaces) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (namespaces == null) throw new XBRLException("The namespace bindings must not be null.");
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) return timer.stop(getJoinStore(query, parameters, roots, namespaces).queryCount(query, parameters));
+        final Map<Store,Set<String>> groups = groupByShard(roots);
+        long count = 0;
+        for (Long shardCount: runOnShards(new ShardOperation<Long>() {
+            public Long run(Store shard) throws XBRLException {
+                Set<String> group = groups.get(shard);
+                if (group.isEmpty()) return 0L;
+                return getRestrictableShard(shard).queryCount(query, parameters, group, namespaces);
+            }
+        })) {
+            count += shardCount;
+        }
+        return timer.stop(count);
+    }
+
+    /**
+     * @see RestrictableStore#queryForIndices(String, Map, Set, Map)
+     */
+    public Set<String> queryForIndices(final String query, final Map<String,String> parameters, Set<String> roots, final Map<String,String> namespaces) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (namespaces == null) throw new XBRLException("The namespace bindings must not be null.");
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) return timer.stop(getJoinStore(query, parameters, roots, namespaces).queryForIndices(query, parameters));
+        final Map<Store,Set<String>> groups = groupByShard(roots);
+        Set<String> indices = new HashSet<String>();
+        for (Set<String> shardIndices: runOnShards(new ShardOperation<Set<String>>() {
+            public Set<String> run(Store shard) throws XBRLException {
+                Set<String> group = groups.get(shard);
+                if (group.isEmpty()) return new HashSet<String>();
+                return getRestrictableShard(shard).queryForIndices(query, parameters, group, namespaces);
+            }
+        })) {
+            indices.addAll(shardIndices);
+        }
+        return timer.stop(indices);
+    }
+
+    /**
+     * @see RestrictableStore#queryForStrings(String, Map, Set, Map)
+     */
+    public Set<String> queryForStrings(final String query, final Map<String,String> parameters, Set<String> roots, final Map<String,String> namespaces) throws XBRLException {
+        if (roots == null) throw new XBRLException("The set of fragment indices must not be null.");
+        if (namespaces == null) throw new XBRLException("The namespace bindings must not be null.");
+        flushPersistenceBuffer();
+        QueryStatistics.Timer timer = startQuery(query, parameters);
+        if (isJoin(query)) return timer.stop(getJoinStore(query, parameters, roots, namespaces).queryForStrings(query, parameters));
+        final Map<Store,Set<String>> groups = groupByShard(roots);
+        Set<String> strings = new TreeSet<String>();
+        for (Set<String> shardStrings: runOnShards(new ShardOperation<Set<String>>() {
+            public Set<String> run(Store shard) throws XBRLException {
+                Set<String> group = groups.get(shard);
+                if (group.isEmpty()) return new HashSet<String>();
+                return getRestrictableShard(shard).queryForStrings(query, parameters, group, namespaces);
+            }
+        })) {
+            strings.addAll(shardStrings);
+        }
+        return timer.stop(strings);
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString() {
+        return "Sharded data store with " + shards.size() + " shards";
+    }
+
+}
@@ -1,6 +1,8 @@
 package org.xbrlapi.impl;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Vector;
@@ -31,6 +33,12 @@ public class ArcImpl extends ExtendedLinkContentImpl implements Arc {
      */
     private static final long serialVersionUID = -5826492379826212317L;
 
+    /**
+     * The query used to get the fragments at either end of an arc, given
+     * the index of the containing extended link and the XLink label.
+     */
+    private static final String ARC_END_QUERY = "#roots#[@parentIndex=$parentIndex and */*/@xlink:label=$label]";
+
     /**
      * @see Arc#getAttribute(String,String)
      */
@@ -163,8 +171,10 @@ public class ArcImpl extends ExtendedLinkContentImpl implements Arc {
      */
     public <E extends ArcEnd> List<E> getSourceFragments() throws XBRLException {
         long start = System.currentTimeMillis();
-        String query = "#roots#[@parentIndex='" + this.getParentIndex() + "' and */*/@xlink:label='" + this.getFrom() + "']";
-        List<E> result = this.getStore().<E>queryForXMLResources(query);
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("parentIndex",this.getParentIndex());
+        parameters.put("label",this.getFrom());
+        List<E> result = this.getStore().<E>queryForXMLResources(ARC_END_QUERY,parameters);
         logger.debug("MS to get source fragments = " + (System.currentTimeMillis()-start));
         return result;
     }
@@ -174,8 +184,10 @@ public class ArcImpl extends ExtendedLinkContentImpl implements Arc {
      */
     public <E extends ArcEnd> List<E> getTargetFragments() throws XBRLException {
         long start = System.currentTimeMillis();
-        String query = "#roots#[@parentIndex='" + this.getParentIndex() + "' and */*/@xlink:label='" + this.getTo() + "']";
-        List<E> result = this.getStore().<E>queryForXMLResources(query);
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("parentIndex",this.getParentIndex());
+        parameters.put("label",this.getTo());
+        List<E> result = this.getStore().<E>queryForXMLResources(ARC_END_QUERY,parameters);
         logger.debug("MS to get target fragments = " + (System.currentTimeMillis()-start));
         return result;
     }
@@ -72,7 +72,7 @@ public class ConceptImpl extends ElementDeclarationImpl implements Concept {
      */
      public List<Fact> getRootFacts() throws XBRLException {
          getStore().setNamespaceBinding(this.getTargetNamespace(),"xbrlapi_concept");
-         String query = "for $instance in #roots#[@type='"+InstanceImpl.class.getName()+"'], $root in #roots#[xbrlapi:data/xbrlapi_concept:"+ this.getName() + "] where ($instance/@index = $root/@parentIndex) return $root";
+         String query = "for $instance in #roots#[@type='"+InstanceImpl.class.getName()+"'], $root in #roots#[@parentIndex=$instance/@index and xbrlapi:data/xbrlapi_concept:"+ this.getName() + "] return $root";
  		return getStore().queryForXMLResources(query); 
 	}    
     
@@ -2,6 +2,9 @@ package org.xbrlapi.impl;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Element;
@@ -12,13 +15,146 @@ import org.xbrlapi.utilities.XBRLException;
 /**
  * Fragment instantiation factory used to create new fragments
  * of the correct fragment type from data in the data store.
+ * 
+ * The fragment type names are resolved to instantiators that are
+ * kept in a registry so that each type name is only resolved once.
+ * The fragment classes in the org.xbrlapi.impl and org.xbrlapi.xdt 
+ * packages are registered in advance with instantiators that call their
+ * constructors directly.  Other fragment classes are loaded the first 
+ * time that they are needed and are then instantiated using their 
+ * cached no-argument constructor.
+ * 
  * @author Geoffrey Shuetrim (geoff@galexy.net)
  */
 
 public class FragmentFactory<F> {
 
 	private static final Logger logger = Logger.getLogger(FragmentFactory.class);
-	
+
+	/**
+	 * Creates new instances of a fragment class.
+	 */
+	public static abstract class Instantiator {
+
+	    private String className = null;
+
+	    /**
+	     * @param className The full name of the class that is instantiated.
+	     */
+	    public Instantiator(String className) {
+	        this.className = className;
+	    }
+
+	    /**
+	     * @return the full name of the class that is instantiated.
+	     */
+	    public String getClassName() {
+	        return className;
+	    }
+
+	    /**
+	     * @return a new instance of the fragment class.
+	     * @throws XBRLException if the instance cannot be created.
+	     */
+	    public abstract XML newInstance() throws XBRLException;
+	}
+
+	/**
+	 * The map from fragment type names to instantiators.
+	 */
+	private static final Map<String,Instantiator> instantiators = new ConcurrentHashMap<String,Instantiator>();
+
+	/**
+	 * The map from class names to the classes that have been loaded.
+	 */
+	private static final Map<String,Class<?>> classes = new ConcurrentHashMap<String,Class<?>>();
+
+	static {
+        register(new Instantiator("org.xbrlapi.impl.ArcEndImpl") { public XML newInstance() throws XBRLException { return new ArcEndImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ArcImpl") { public XML newInstance() throws XBRLException { return new ArcImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ArcroleTypeImpl") { public XML newInstance() throws XBRLException { return new ArcroleTypeImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.AspectValueLabelImpl") { public XML newInstance() throws XBRLException { return new AspectValueLabelImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.AspectValuePairImpl") { public XML newInstance() throws XBRLException { return new AspectValuePairImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.AttributeDeclarationImpl") { public XML newInstance() throws XBRLException { return new AttributeDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.AttributeGroupDeclarationImpl") { public XML newInstance() throws XBRLException { return new AttributeGroupDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ComplexTypeDeclarationImpl") { public XML newInstance() throws XBRLException { return new ComplexTypeDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ConceptImpl") { public XML newInstance() throws XBRLException { return new ConceptImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ContextComponentImpl") { public XML newInstance() throws XBRLException { return new ContextComponentImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ContextImpl") { public XML newInstance() throws XBRLException { return new ContextImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.CustomTypeImpl") { public XML newInstance() throws XBRLException { return new CustomTypeImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ElementDeclarationImpl") { public XML newInstance() throws XBRLException { return new ElementDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.EntityImpl") { public XML newInstance() throws XBRLException { return new EntityImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.EntityResourceImpl") { public XML newInstance() throws XBRLException { return new EntityResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ErrorImpl") { public XML newInstance() throws XBRLException { return new ErrorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ExtendedLinkContentImpl") { public XML newInstance() throws XBRLException { return new ExtendedLinkContentImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ExtendedLinkImpl") { public XML newInstance() throws XBRLException { return new ExtendedLinkImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.FactDimensionContainerImpl") { public XML newInstance() throws XBRLException { return new FactDimensionContainerImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.FactImpl") { public XML newInstance() throws XBRLException { return new FactImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.FootnoteResourceImpl") { public XML newInstance() throws XBRLException { return new FootnoteResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.FractionItemImpl") { public XML newInstance() throws XBRLException { return new FractionItemImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.FragmentImpl") { public XML newInstance() throws XBRLException { return new FragmentImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.IdCounterImpl") { public XML newInstance() throws XBRLException { return new IdCounterImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.InstanceImpl") { public XML newInstance() throws XBRLException { return new InstanceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ItemImpl") { public XML newInstance() throws XBRLException { return new ItemImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.LabelResourceImpl") { public XML newInstance() throws XBRLException { return new LabelResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.LanguageImpl") { public XML newInstance() throws XBRLException { return new LanguageImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.LinkImpl") { public XML newInstance() throws XBRLException { return new LinkImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.LinkbaseImpl") { public XML newInstance() throws XBRLException { return new LinkbaseImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.LocatorImpl") { public XML newInstance() throws XBRLException { return new LocatorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.MatchImpl") { public XML newInstance() throws XBRLException { return new MatchImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.MeasureResourceImpl") { public XML newInstance() throws XBRLException { return new MeasureResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.MixedContentResourceImpl") { public XML newInstance() throws XBRLException { return new MixedContentResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.MockImpl") { public XML newInstance() throws XBRLException { return new MockImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.NetworkGraphImpl") { public XML newInstance() throws XBRLException { return new NetworkGraphImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.NonFragmentXMLImpl") { public XML newInstance() throws XBRLException { return new NonFragmentXMLImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.NonNumericItemImpl") { public XML newInstance() throws XBRLException { return new NonNumericItemImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.NumericItemImpl") { public XML newInstance() throws XBRLException { return new NumericItemImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.OpenContextComponentImpl") { public XML newInstance() throws XBRLException { return new OpenContextComponentImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.PeriodImpl") { public XML newInstance() throws XBRLException { return new PeriodImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ReferencePartDeclarationImpl") { public XML newInstance() throws XBRLException { return new ReferencePartDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ReferencePartImpl") { public XML newInstance() throws XBRLException { return new ReferencePartImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ReferenceResourceImpl") { public XML newInstance() throws XBRLException { return new ReferenceResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.RelationshipImpl") { public XML newInstance() throws XBRLException { return new RelationshipImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ResourceImpl") { public XML newInstance() throws XBRLException { return new ResourceImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.RoleTypeImpl") { public XML newInstance() throws XBRLException { return new RoleTypeImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.ScenarioImpl") { public XML newInstance() throws XBRLException { return new ScenarioImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaAllCompositorImpl") { public XML newInstance() throws XBRLException { return new SchemaAllCompositorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaChoiceCompositorImpl") { public XML newInstance() throws XBRLException { return new SchemaChoiceCompositorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaCompositorImpl") { public XML newInstance() throws XBRLException { return new SchemaCompositorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaContentDeclarationImpl") { public XML newInstance() throws XBRLException { return new SchemaContentDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaContentImpl") { public XML newInstance() throws XBRLException { return new SchemaContentImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaDeclarationImpl") { public XML newInstance() throws XBRLException { return new SchemaDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaGroupCompositorImpl") { public XML newInstance() throws XBRLException { return new SchemaGroupCompositorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaImpl") { public XML newInstance() throws XBRLException { return new SchemaImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SchemaSequenceCompositorImpl") { public XML newInstance() throws XBRLException { return new SchemaSequenceCompositorImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SegmentImpl") { public XML newInstance() throws XBRLException { return new SegmentImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SimpleLinkImpl") { public XML newInstance() throws XBRLException { return new SimpleLinkImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SimpleNumericItemImpl") { public XML newInstance() throws XBRLException { return new SimpleNumericItemImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.SimpleTypeDeclarationImpl") { public XML newInstance() throws XBRLException { return new SimpleTypeDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.StubImpl") { public XML newInstance() throws XBRLException { return new StubImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.TitleImpl") { public XML newInstance() throws XBRLException { return new TitleImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.TupleImpl") { public XML newInstance() throws XBRLException { return new TupleImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.TypeDeclarationImpl") { public XML newInstance() throws XBRLException { return new TypeDeclarationImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.UnitImpl") { public XML newInstance() throws XBRLException { return new UnitImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.UsedOnImpl") { public XML newInstance() throws XBRLException { return new UsedOnImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.XMLImpl") { public XML newInstance() throws XBRLException { return new XMLImpl(); } });
+        register(new Instantiator("org.xbrlapi.impl.XlinkDocumentationImpl") { public XML newInstance() throws XBRLException { return new XlinkDocumentationImpl(); } });
+        register(new Instantiator("org.xbrlapi.xdt.DimensionImpl") { public XML newInstance() throws XBRLException { return new org.xbrlapi.xdt.DimensionImpl(); } });
+        register(new Instantiator("org.xbrlapi.xdt.ExplicitDimensionImpl") { public XML newInstance() throws XBRLException { return new org.xbrlapi.xdt.ExplicitDimensionImpl(); } });
+        register(new Instantiator("org.xbrlapi.xdt.HypercubeImpl") { public XML newInstance() throws XBRLException { return new org.xbrlapi.xdt.HypercubeImpl(); } });
+        register(new Instantiator("org.xbrlapi.xdt.TypedDimensionImpl") { public XML newInstance() throws XBRLException { return new org.xbrlapi.xdt.TypedDimensionImpl(); } });
+        register(new Instantiator("org.xbrlapi.xdt.XDTConceptImpl") { public XML newInstance() throws XBRLException { return new org.xbrlapi.xdt.XDTConceptImpl(); } });
+	}
+
+	/**
+	 * Registers an instantiator, replacing any instantiator already
+	 * registered for the same class.
+	 * @param instantiator The instantiator to register.
+	 */
+	public static void register(Instantiator instantiator) {
+	    instantiators.put(instantiator.getClassName(), instantiator);
+	}
+
 	/**
 	 * Get the class for the specified class name.
 	 * @param className The full name of the class to get.
@@ -27,22 +163,66 @@ public class FragmentFactory<F> {
 	 */
 	@SuppressWarnings("rawtypes")
 	public static Class getClass(String className) throws XBRLException {
+	    Class<?> result = classes.get(className);
+	    if (result != null) return result;
         try {
             ClassLoader loader = Thread.currentThread().getContextClassLoader();
             if (loader != null) {
                 try {
-                    return loader.loadClass(className);
+                    result = loader.loadClass(className);
                 } catch (Exception e) {
-                    return Class.forName(className);
+                    result = Class.forName(className);
                 }
+            } else {
+                result = Class.forName(className);
             }
-            return Class.forName(className);
+            classes.put(className, result);
+            return result;
         }
         catch (Exception e) {
             throw new XBRLException("Failed to load fragment class " + className,e);
         }
 	}
 
+	/**
+	 * @param className The full name of the fragment class.
+	 * @return the instantiator for the fragment class, resolving it 
+	 * and adding it to the registry if necessary.
+	 * @throws XBRLException if the class cannot be loaded or does not
+	 * have a public no-argument constructor.
+	 */
+	public static Instantiator getInstantiator(String className) throws XBRLException {
+	    Instantiator instantiator = instantiators.get(className);
+	    if (instantiator != null) return instantiator;
+
+	    Class<?> fragmentClass = getClass(className);
+	    if (! XML.class.isAssignableFrom(fragmentClass) || Modifier.isAbstract(fragmentClass.getModifiers())) {
+	        throw new XBRLException(className + " is not a concrete XML resource class.");
+	    }
+	    final Constructor<?> constructor;
+	    try {
+	        constructor = fragmentClass.getConstructor();
+	    } catch (NoSuchMethodException e) {
+            throw new XBRLException("Attempted to access a constructor that does not exist.  There was no such method.",e);
+	    }
+	    logger.debug("Registering the fragment class " + className);
+	    instantiator = new Instantiator(className) {
+	        public XML newInstance() throws XBRLException {
+	            try {
+	                return (XML) constructor.newInstance();
+	            } catch (InvocationTargetException e) {
+	                throw new XBRLException("Failed to instantiate the correct type of fragment because the constructor could not be invoked.",e);
+	            } catch (IllegalAccessException e) {
+	                throw new XBRLException("Attempted to access an inaccessible fragment constructor.",e);
+	            } catch (InstantiationException e) {
+	                throw new XBRLException("Attempted to access a constructor that does not exist.Instantiation failed.",e);
+	            }
+	        }
+	    };
+	    register(instantiator);
+	    return instantiator;
+	}
+
 	  /**
 	    * Instantiate a fragment using its type.
 	    * @param <F> The subclass of XML being returned.
@@ -53,30 +233,16 @@ public class FragmentFactory<F> {
 	    */
 		@SuppressWarnings("unchecked")
 	    public static <F extends XML> F newFragment(Store store, Element root) throws XBRLException {
-			try {
-			    
-				if (root == null) throw new XBRLException("The data XML is null.");
-				if (! root.hasAttribute("type")) {
-					throw new XBRLException("The data does not identify the fragment type.");
-				}
-
-				String className = root.getAttribute("type");
-		    	Class<?> fragmentClass = getClass(className);
-
-				Constructor<?> constructor = fragmentClass.getConstructor();
-		    	XML xml = (XML) constructor.newInstance();
-	            xml.setStore(store);
-	            xml.setResource(root);
-	            return (F) xml;
-	            
-	        } catch (InvocationTargetException e) {
-	            throw new XBRLException("Failed to instantiate the correct type of fragment because the constructor could not be invoked.",e);
-	        } catch (IllegalAccessException e) {
-	            throw new XBRLException("Attempted to access an inaccessible fragment constructor.",e);
-	        } catch (NoSuchMethodException e) {
-	            throw new XBRLException("Attempted to access a constructor that does not exist.  There was no such method.",e);
-	        } catch (InstantiationException e) {
-	            throw new XBRLException("Attempted to access a constructor that does not exist.Instantiation failed.",e);
-	        }
+
+			if (root == null) throw new XBRLException("The data XML is null.");
+			String className = root.getAttribute("type");
+			if (className.length() == 0) {
+				throw new XBRLException("The data does not identify the fragment type.");
+			}
+
+	    	XML xml = getInstantiator(className).newInstance();
+            xml.setStore(store);
+            xml.setResource(root);
+            return (F) xml;
 	    }
 }
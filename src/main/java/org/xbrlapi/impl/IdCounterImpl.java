@@ -0,0 +1,55 @@
+package org.xbrlapi.impl;
+
+import org.xbrlapi.IdCounter;
+import org.xbrlapi.builder.BuilderImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * An implementation of the document identifier counter XML resource.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class IdCounterImpl extends NonFragmentXMLImpl implements IdCounter {
+
+    /**
+     * 
+     */
+    private static final long serialVersionUID = -2907826165346325711L;
+
+    /**
+     * No argument constructor.
+     * @throws XBRLException
+     */
+    public IdCounterImpl() throws XBRLException {
+        super();
+    }
+
+    /**
+     * @param id The unique id of the XML resource being created,
+     * within the scope of the containing data store.
+     * @param value The first counter value that has not yet been
+     * reserved for document identifiers.
+     * @throws XBRLException
+     */
+    public IdCounterImpl(String id, long value) throws XBRLException {
+        this();
+        if (value < 0) throw new XBRLException("The counter value must not be negative.");
+        setBuilder(new BuilderImpl());
+        this.setIndex(id);
+        this.setMetaAttribute("value",Long.toString(value));
+        this.finalizeBuilder();
+    }
+
+    /**
+     * @see IdCounter#getValue()
+     */
+    public long getValue() throws XBRLException {
+        String value = getMetaAttribute("value");
+        if (value == null) throw new XBRLException("The identifier counter has no value.");
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new XBRLException("The identifier counter value " + value + " is not a number.",e);
+        }
+    }
+
+}
@@ -258,7 +258,21 @@ public interface Loader extends Serializable {
 	 * in XML Schema instance schemaLocation attributes and false otherwise.
 	 */
 	public void setSchemaLocationAttributeUsage(boolean useThem);
-	
+
+    /**
+     * @param threads The number of worker threads that discover documents
+     * in parallel, each with its own parser and fragment stack.  With a
+     * single thread, the default, documents are discovered one at a time
+     * by the thread that starts the discovery.
+     * @throws XBRLException if the number of threads is less than one.
+     */
+    public void setDiscoveryThreads(int threads) throws XBRLException;
+
+    /**
+     * @return the number of worker threads used for document discovery.
+     */
+    public int getDiscoveryThreads();
+
     /**
      * Interrupts the loading process once the current 
      * document discovery has been completed.
@@ -5,6 +5,7 @@ import java.io.ObjectInputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.EmptyStackException;
 import java.util.HashMap;
 import java.util.List;
@@ -14,6 +15,13 @@ import java.util.Stack;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -22,6 +30,7 @@ import org.apache.xerces.impl.Constants;
 import org.apache.xerces.parsers.SAXParser;
 import org.apache.xerces.parsers.XMLGrammarPreparser;
 import org.apache.xerces.util.SymbolTable;
+import org.apache.xerces.util.SynchronizedSymbolTable;
 import org.apache.xerces.util.XMLGrammarPoolImpl;
 import org.apache.xerces.xni.grammars.XMLGrammarDescription;
 import org.w3c.dom.Document;
@@ -37,6 +46,8 @@ import org.xbrlapi.utilities.XBRLException;
 import org.xbrlapi.utilities.XMLDOMBuilder;
 import org.xbrlapi.xlink.ElementState;
 import org.xbrlapi.xlink.XLinkProcessor;
+import org.xbrlapi.xlink.XLinkProcessorImpl;
+import org.xbrlapi.xlink.handler.XBRLXLinkHandlerImpl;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
@@ -143,6 +154,30 @@ public class LoaderImpl implements Loader {
      * This is initialised on creation of the loader.
      */
     transient private Document dom = null;
+
+    /**
+     * The number of worker threads used for document discovery.
+     */
+    private int discoveryThreads = 1;
+
+    /**
+     * The loader that owns the document queue when this loader is
+     * one of its discovery workers, or null if this loader owns
+     * its own document queue.
+     */
+    transient private LoaderImpl owner = null;
+
+    /**
+     * The documents that discovery workers are currently analysing.
+     * These remain in the document queue until they have been explored
+     * but are not handed out to any other worker.
+     */
+    transient private Set<URI> documentsInProgress = new TreeSet<URI>();
+
+    /**
+     * The number of documents parsed in the current discovery.
+     */
+    transient private int discoveries = 0;
     
     /**
      * @param store The data store to hold the DTS
@@ -173,25 +208,103 @@ public class LoaderImpl implements Loader {
         setStartingURIs(uris);
     }
 
+    /**
+     * Creates a discovery worker that shares the document queue, data store,
+     * entity resolver, cache, history and schema grammars of the given loader
+     * but has its own XLink processor, builder DOM and fragment stacks so
+     * that it can parse a document while other workers parse others.
+     * @param owner The loader that owns the document queue.
+     * @throws XBRLException if the worker cannot be instantiated.
+     */
+    protected LoaderImpl(LoaderImpl owner) throws XBRLException {
+        super();
+        this.owner = owner;
+        setStore(owner.getStore());
+        setEntityResolver(owner.getEntityResolver());
+        setCache(owner.cache);
+        setHistory(owner.getHistory());
+        setSchemaLocationAttributeUsage(owner.useSchemaLocationAttributes());
+        setXlinkProcessor(owner.createWorkerXLinkProcessor(this));
+        this.dom = (new XMLDOMBuilder()).newDocument();
+        this.grammarPool = owner.grammarPool;
+        this.symbolTable = owner.symbolTable;
+    }
+
+    /**
+     * Subclasses that parse documents with their own content handlers
+     * must override this so that their workers are of the same class.
+     * @return a new discovery worker for this loader.
+     * @throws XBRLException if the worker cannot be instantiated.
+     * @see #LoaderImpl(LoaderImpl)
+     */
+    protected LoaderImpl createWorker() throws XBRLException {
+        return new LoaderImpl(this);
+    }
+
+    /**
+     * @param worker The discovery worker that will use the XLink processor.
+     * @return a new XLink processor, with a new XLink handler of the same
+     * class as that used by this loader and the same custom link recogniser.
+     * @throws XBRLException if this loader's XLink processor cannot be copied.
+     */
+    private XLinkProcessor createWorkerXLinkProcessor(Loader worker) throws XBRLException {
+        XLinkProcessor processor = getXlinkProcessor();
+        if (! (processor instanceof XLinkProcessorImpl) || ! (processor.getXLinkHandler() instanceof XBRLXLinkHandlerImpl)) {
+            throw new XBRLException("Parallel discovery needs an XLinkProcessorImpl with an XBRL XLink handler.");
+        }
+        try {
+            XBRLXLinkHandlerImpl handler = (XBRLXLinkHandlerImpl) processor.getXLinkHandler().getClass().newInstance();
+            handler.setLoader(worker);
+            return new XLinkProcessorImpl(handler, ((XLinkProcessorImpl) processor).getCustomLinkRecogniser());
+        } catch (InstantiationException e) {
+            throw new XBRLException("The XLink handler could not be copied for a discovery worker.", e);
+        } catch (IllegalAccessException e) {
+            throw new XBRLException("The XLink handler could not be copied for a discovery worker.", e);
+        }
+    }
+
+    /**
+     * @return the loader that owns the document queue that this loader works from.
+     */
+    private LoaderImpl getQueueOwner() {
+        return (owner == null) ? this : owner;
+    }
+
+    /**
+     * @see Loader#setDiscoveryThreads(int)
+     */
+    public void setDiscoveryThreads(int threads) throws XBRLException {
+        if (threads < 1) throw new XBRLException("Discovery needs at least one thread.");
+        this.discoveryThreads = threads;
+    }
+
+    /**
+     * @see Loader#getDiscoveryThreads()
+     */
+    public int getDiscoveryThreads() {
+        return discoveryThreads;
+    }
+
     /**
      * @see Loader#requestInterrupt()
      */
-    public void requestInterrupt() {
+    public synchronized void requestInterrupt() {
         interrupt = true;
+        notifyAll();
     }
     
     /**
      * @return true if an interrupt to the loading process 
      * has been requested and false otherwise.
      */
-    private boolean interruptRequested() {
+    private synchronized boolean interruptRequested() {
         return interrupt;
     }
 
     /**
      * @see Loader#cancelInterrupt()
      */
-    public void cancelInterrupt() {
+    public synchronized void cancelInterrupt() {
         interrupt = false;
     }
     
@@ -410,7 +523,7 @@ public class LoaderImpl implements Loader {
             getStates().pop();
 //            getChildrenStack().pop();
             Fragment f = fragments.pop();
-            getStore().persist(f);
+            getStore().persistBuffered(f);
             return f;
         } catch (EmptyStackException e) {
             throw new XBRLException(this.getDocumentURI() + " There are no fragments being built.  The stack of fragments is empty.",e);
@@ -449,7 +562,9 @@ public class LoaderImpl implements Loader {
      */
     public List<URI> getDocumentsStillToAnalyse() {
         List<URI> documents = new Vector<URI>();
-        documents.addAll(documentQueue);
+        synchronized (this) {
+            documents.addAll(documentQueue);
+        }
         return documents;
     }
 
@@ -460,61 +575,43 @@ public class LoaderImpl implements Loader {
     public void discover() throws XBRLException {
         getStore().startLoading(this);
         
-        Set<URI> newDocuments = new TreeSet<URI>();
+        Set<URI> newDocuments = Collections.synchronizedSet(new TreeSet<URI>());
         
-        int discoveryCount = 1;
-
         if (isDiscovering()) {
             logger.warn("The loader is already doing discovery so starting discovery achieves nothing.");
             return;
         }
         setDiscovering(true);
+        synchronized (this) {
+            discoveries = 0;
+        }
 
         for (URI uri: getStore().getDocumentsToDiscover()) {
             logger.info(uri + " stashed for discovery.");
             this.stashURI(uri);
         }
 
-        URI uri = getNextDocumentToExplore();
-        DOCUMENTS: while (uri != null) {
-            boolean documentClaimedByThisLoader = store.requestLoadingRightsFor(this,uri);
-            if (! documentClaimedByThisLoader) {
-                markDocumentAsExplored(uri);
-                uri = getNextDocumentToExplore();
-                continue DOCUMENTS;
-            }
-            
-            long start = System.currentTimeMillis();
-
-            if (!getStore().hasDocument(uri)) {
-                setDocumentURI(uri);
-                this.setNextFragmentId("1");
-                try {
-                    parse(uri);
-                    long duration = (System.currentTimeMillis() - start) / 1000;
-                    logger.info("#" + discoveryCount + " took " + duration + " seconds. " + (fragmentId-1) + " fragments in " + uri);
-                    discoveryCount++;
+        if (getDiscoveryThreads() > 1) {
+            discoverInParallel(newDocuments);
+        } else {
+            URI uri = getNextDocumentToExplore();
+            DOCUMENTS: while (uri != null) {
+                boolean documentClaimedByThisLoader = store.requestLoadingRightsFor(this,uri);
+                if (! documentClaimedByThisLoader) {
                     markDocumentAsExplored(uri);
-                    newDocuments.add(uri);
-                    getStore().sync();
-                } catch (XBRLException e) {
-                    this.cleanupFailedLoad(uri,"XBRL-API related problems occurred: " + e.getMessage(),e);
-                } catch (SAXException e) {
-                    this.cleanupFailedLoad(uri,"The document could not be parsed.",e);
-                } catch (IOException e) {
-                    this.cleanupFailedLoad(uri,"The document could not be accessed.",e);
+                    uri = getNextDocumentToExplore();
+                    continue DOCUMENTS;
                 }
-            } else {
-                logger.debug(uri + " is already in the data store.");
-                markDocumentAsExplored(uri);
-            }
 
-            if (interruptRequested()) {
-                cancelInterrupt();
-                break DOCUMENTS;
-            }
+                if (discoverDocument(uri)) newDocuments.add(uri);
 
-            uri = getNextDocumentToExplore();
+                if (interruptRequested()) {
+                    cancelInterrupt();
+                    break DOCUMENTS;
+                }
+
+                uri = getNextDocumentToExplore();
+            }
         }
 
         storeDocumentsToAnalyse();
@@ -537,10 +634,7 @@ public class LoaderImpl implements Loader {
             if (getStore().isPersistingRelationships() && (newDocuments.size() > 0)) {
                 
                 // Wait till other loaders using the store have finished with their loading activities.
-                while (getStore().isLoading()) {
-                    logger.debug("Still doing some loading into the store ... ");
-                    Thread.sleep(10000);
-                }
+                getStore().awaitLoadingCompletion();
                 Storer storer = new StorerImpl(getStore());
                 storer.storeRelationships(newDocuments);
             }
@@ -558,6 +652,180 @@ public class LoaderImpl implements Loader {
         
     }
 
+    /**
+     * Parses a document that this loader holds the loading rights for,
+     * unless it is already in the data store, recording the outcome.
+     * @param uri The URI of the document to discover.
+     * @return true if the document was parsed into the data store
+     * and false if it was already there or it failed to load.
+     * @throws XBRLException if the document identifier cannot be obtained.
+     */
+    private boolean discoverDocument(URI uri) throws XBRLException {
+
+        long start = System.currentTimeMillis();
+
+        if (getStore().hasDocument(uri)) {
+            logger.debug(uri + " is already in the data store.");
+            markDocumentAsExplored(uri);
+            return false;
+        }
+
+        setDocumentURI(uri);
+        this.setNextFragmentId("1");
+        try {
+            parse(uri);
+            long duration = (System.currentTimeMillis() - start) / 1000;
+            logger.info("#" + getQueueOwner().countDiscovery() + " took " + duration + " seconds. " + (fragmentId-1) + " fragments in " + uri);
+            markDocumentAsExplored(uri);
+            getStore().sync();
+            return true;
+        } catch (XBRLException e) {
+            this.cleanupFailedLoad(uri,"XBRL-API related problems occurred: " + e.getMessage(),e);
+        } catch (SAXException e) {
+            this.cleanupFailedLoad(uri,"The document could not be parsed.",e);
+        } catch (IOException e) {
+            this.cleanupFailedLoad(uri,"The document could not be accessed.",e);
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of documents parsed so far in the current
+     * discovery, including the one just parsed.
+     */
+    private synchronized int countDiscovery() {
+        return ++discoveries;
+    }
+
+    /**
+     * Works through the document queue with a pool of discovery workers,
+     * each parsing a different document at the same time.  Documents found
+     * by one worker are stashed in the shared queue for any worker to
+     * pick up. This returns once the queue has been exhausted or, following
+     * an interrupt request, once the workers have finished the documents
+     * that they were parsing.
+     * @param newDocuments The set to add the URIs of newly parsed documents to.
+     * It must be safe for use by several threads at once.
+     * @throws XBRLException if a worker cannot be created or fails
+     * for a reason other than the failure of a document to load.
+     */
+    private void discoverInParallel(final Set<URI> newDocuments) throws XBRLException {
+
+        SymbolTable sequentialSymbolTable = symbolTable;
+        symbolTable = new SynchronizedSymbolTable(sequentialSymbolTable);
+
+        final int threads = getDiscoveryThreads();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "xbrlapi-discovery-" + count.incrementAndGet());
+            }
+        });
+
+        XBRLException failure = null;
+        boolean interrupted = false;
+        try {
+            List<Future<Void>> results = new Vector<Future<Void>>();
+            for (int i=0; i<threads; i++) {
+                final LoaderImpl worker = createWorker();
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        worker.discoverAsWorker(newDocuments);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result: results) {
+                while (true) {
+                    try {
+                        result.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // Let the workers finish the documents they are parsing.
+                        interrupted = true;
+                        requestInterrupt();
+                    } catch (ExecutionException e) {
+                        logger.error("A discovery worker failed: " + e.getCause().getMessage());
+                        if (failure == null) failure = new XBRLException("A discovery worker failed.", e.getCause());
+                        break;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            symbolTable = sequentialSymbolTable;
+            synchronized (this) {
+                documentsInProgress.clear();
+            }
+        }
+
+        if (interruptRequested()) cancelInterrupt();
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Discovers documents from the owning loader's queue until
+     * there are none left for this worker to claim.
+     * @param newDocuments The set to add the URIs of newly parsed documents to.
+     * @throws XBRLException if a document identifier cannot be obtained.
+     */
+    private void discoverAsWorker(Set<URI> newDocuments) throws XBRLException {
+        setDiscovering(true);
+        try {
+            URI uri = owner.claimNextDocument();
+            while (uri != null) {
+                try {
+                    if (getStore().requestLoadingRightsFor(this,uri)) {
+                        if (discoverDocument(uri)) newDocuments.add(uri);
+                    } else {
+                        markDocumentAsExplored(uri);
+                    }
+                } finally {
+                    owner.releaseDocument(uri);
+                }
+                uri = owner.claimNextDocument();
+            }
+        } finally {
+            setDiscovering(false);
+        }
+    }
+
+    /**
+     * Hands out the next queued document that no worker is analysing,
+     * waiting while the queue only holds documents being analysed
+     * because the workers analysing them may stash further documents.
+     * @return the URI of the document claimed or null if there are no
+     * more documents to claim or an interrupt has been requested.
+     * @throws XBRLException if the thread is interrupted while waiting.
+     */
+    private synchronized URI claimNextDocument() throws XBRLException {
+        while (! interrupt) {
+            for (URI uri: documentQueue) {
+                if (! documentsInProgress.contains(uri)) {
+                    documentsInProgress.add(uri);
+                    return uri;
+                }
+            }
+            if (documentsInProgress.isEmpty()) return null;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XBRLException("The discovery worker was interrupted while waiting for a document.", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param uri The URI of a document that a worker has finished analysing.
+     */
+    private synchronized void releaseDocument(URI uri) {
+        documentsInProgress.remove(uri);
+        notifyAll();
+    }
+
     /**
      * @see Loader#discoverNext()
      */
@@ -650,7 +918,7 @@ public class LoaderImpl implements Loader {
      * @return the URI of the next document to explore or null if there are none.
      * @throws XBRLException
      */
-    private URI getNextDocumentToExplore() throws XBRLException {
+    private synchronized URI getNextDocumentToExplore() throws XBRLException {
         if (documentQueue.isEmpty()) return null;
         return documentQueue.first();
     }
@@ -662,8 +930,11 @@ public class LoaderImpl implements Loader {
      * @throws XBRLException
      */
     protected void markDocumentAsExplored(URI uri) {
-        documentQueue.remove(uri);
-        successes.add(uri);
+        LoaderImpl queueOwner = getQueueOwner();
+        synchronized (queueOwner) {
+            queueOwner.documentQueue.remove(uri);
+            queueOwner.successes.add(uri);
+        }
         getStore().recindLoadingRightsFor(this,uri);
     }
 
@@ -712,6 +983,11 @@ public class LoaderImpl implements Loader {
      */
     public synchronized void stashURI(URI uri) throws XBRLException {
 
+        if (owner != null) {
+            owner.stashURI(uri);
+            return;
+        }
+
         // Validate the URI
         if (!uri.isAbsolute()) {
             throw new XBRLException("The URI: " + uri + " must be absolute.");                
@@ -730,7 +1006,7 @@ public class LoaderImpl implements Loader {
         // Stash the URI if it has not already been stashed
         if (!successes.contains(dereferencedURI)) {
             // Queue up the original URI - ignoring issues of whether it matches another document.
-            documentQueue.add(dereferencedURI);
+            if (documentQueue.add(dereferencedURI)) notifyAll();
         }
 
     }
@@ -811,7 +1087,8 @@ public class LoaderImpl implements Loader {
      */
     public void storeDocumentsToAnalyse() throws XBRLException {
         Map<URI,String> map = new HashMap<URI,String>();
-        for (URI document : documentQueue) {
+        List<URI> queued = getDocumentsStillToAnalyse();
+        for (URI document : queued) {
             if (document.equals(getStore().getMatcher().getMatch(document))) {
                 map.put(document,"Document has not yet been analysed");
             }
@@ -827,8 +1104,11 @@ public class LoaderImpl implements Loader {
     
     private void cleanupFailedLoad(URI uri, String reason, Exception e) {
         logger.error(getDocumentURI() + " encountered a loading problem: " + e.getMessage());
-        failures.put(uri,reason);
-        documentQueue.remove(uri);
+        LoaderImpl queueOwner = getQueueOwner();
+        synchronized (queueOwner) {
+            queueOwner.failures.put(uri,reason);
+            queueOwner.documentQueue.remove(uri);
+        }
         getStore().recindLoadingRightsFor(this,getDocumentURI());
         try {
             getStore().deleteDocument(getDocumentURI());
@@ -906,6 +1186,7 @@ public class LoaderImpl implements Loader {
      */
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject( );
+        documentsInProgress = new TreeSet<URI>();
         try {
             this.dom = (new XMLDOMBuilder()).newDocument();
             this.initialize();
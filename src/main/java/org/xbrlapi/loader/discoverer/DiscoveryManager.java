@@ -3,6 +3,7 @@ package org.xbrlapi.loader.discoverer;
 import java.net.URI;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.log4j.Logger;
 import org.xbrlapi.loader.Loader;
@@ -14,9 +15,11 @@ import org.xbrlapi.utilities.XBRLException;
  * discovery thread every so often (based upon a default
  * or user specified time interval before the interrupt is
  * sent to the loader).  If this kind of interruption is not
- * useful, then the Discoverer may be more useful.
+ * useful, then the Discoverer may be more useful.  Services that
+ * submit documents over time should use a DiscoveryScheduler directly.
  * @author Geoff Shuetrim (geoff@galexy.net)
  * @see Discoverer
+ * @see DiscoveryScheduler
  */
 public class DiscoveryManager implements Runnable {
 
@@ -60,49 +63,35 @@ public class DiscoveryManager implements Runnable {
         }
     }    
     
+    /**
+     * Discovers the resources with a discovery scheduler, waiting for the
+     * discovery to complete.  Interrupting the thread running the discovery
+     * manager cancels the discovery.
+     * @see DiscoveryScheduler
+     */
     public void run() {
+        DiscoveryScheduler scheduler = null;
         try {
             logger.info(Thread.currentThread().getName() + ": Successfully began.");            
             if (loader == null) {
                 logger.error(Thread.currentThread().getName() + ": Discovery failed because the discoverer does not have a loader.");
             } else {
-                
-                for (URI resource: resources) {
-                    loader.stashURI(resource);
-                }
-
-                Discoverer discoverer = new Discoverer(loader);
-                Thread thread = new Thread(discoverer);
-                thread.start();
-                
-                while (thread.isAlive()) {
-                    
-                    int sleptTime = 0;
-                    while (sleptTime < interval) {
-                        Thread.sleep(1000);
-                        sleptTime = sleptTime + 1000;
-                        if (! thread.isAlive()) {
-                            break;
-                        }
-                    }
-                    
-                    if (thread.isAlive()) {
-                        loader.requestInterrupt();
-                        while (thread.isAlive()) {
-                            Thread.sleep(2000);
-                        }
-                        discoverer = new Discoverer(loader);
-                        thread = new Thread(discoverer);
-                        thread.start();
-                    }
+                scheduler = new DiscoveryScheduler(loader, loader.getDiscoveryThreads(), DiscoveryScheduler.DEFAULT_CAPACITY, interval);
+                CompletableFuture<Void> discovery = scheduler.submit(resources);
+                try {
+                    discovery.get();
+                } catch (InterruptedException e) {
+                    discovery.cancel(true);
+                    Thread.currentThread().interrupt();
                 }
-                
             }
             logger.info(Thread.currentThread().getName() + ": Successfully exited."); 
             
         } catch (Exception e) {
             e.printStackTrace();
             logger.error(Thread.currentThread().getName() + ": The discovery manager experienced an Exception.");
+        } finally {
+            if (scheduler != null) scheduler.shutdown();
         }
     }
 
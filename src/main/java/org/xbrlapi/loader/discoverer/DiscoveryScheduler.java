@@ -0,0 +1,359 @@
+package org.xbrlapi.loader.discoverer;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * The discovery scheduler runs document discovery for a loader on
+ * its own thread, one batch of submitted documents after another.
+ * Each submission returns a future that completes when the batch has been
+ * discovered and that can be cancelled, in which case the loader stops
+ * once it has finished the documents that it is parsing.
+ *
+ * The number of submitted documents whose discovery has not completed
+ * is bounded so that submissions block, or time out, rather than letting
+ * the backlog of submissions grow without limit.  Only submissions are
+ * throttled.  The documents that the loader discovers by following
+ * references from the submitted documents do not count towards the
+ * capacity, and the capacity claimed by a batch is only released when
+ * the discovery of the whole batch completes.  A batch with more 
+ * documents than the capacity claims all of it, so that it can still be
+ * submitted.  Long discoveries are interrupted after a time interval
+ * so that the loader stores its progress in the data store, and they are
+ * then resumed straight away.  Nothing runs while no discovery is under way.
+ *
+ * @author Geoff Shuetrim (geoff@galexy.net)
+ * @see Loader#setDiscoveryThreads(int)
+ */
+public class DiscoveryScheduler {
+
+    private static final Logger logger = Logger.getLogger(DiscoveryScheduler.class);
+
+    /**
+     * The default time, in milliseconds, after which a discovery is
+     * interrupted so that the loader stores its progress.
+     */
+    public static final long DEFAULT_INTERVAL = 600000;
+
+    /**
+     * The default maximum number of submitted documents 
+     * whose discovery has not completed.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final Loader loader;
+
+    private final long interval;
+
+    private final int capacity;
+
+    /**
+     * One permit for each submitted document whose discovery has not
+     * completed, capped at the capacity for each batch.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Runs the discoveries, one at a time, because a loader
+     * only does one discovery at a time.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Interrupts discoveries that run for longer than the interval.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The discoveries that have been submitted and not yet completed.
+     */
+    private final Set<Discovery> discoveries = new HashSet<Discovery>();
+
+    /**
+     * The discovery that the loader is working on or null if none.
+     */
+    private Discovery current = null;
+
+    /**
+     * True if the time interval for the current discovery round
+     * expired and the loader was asked to stop.
+     */
+    private boolean checkpointed = false;
+
+    /**
+     * @param loader The loader to do the discovery with.
+     * @throws XBRLException if the loader is null.
+     */
+    public DiscoveryScheduler(Loader loader) throws XBRLException {
+        this(loader, loader == null ? 1 : loader.getDiscoveryThreads(), DEFAULT_CAPACITY, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param loader The loader to do the discovery with.
+     * @param concurrency The number of documents that the loader can
+     * parse at the same time.
+     * @param capacity The maximum number of submitted documents whose
+     * discovery has not completed.  Documents found by the loader while
+     * discovering the submitted documents are not counted.
+     * @param interval The time, in milliseconds, after which a discovery
+     * is interrupted, so that the loader stores its progress, and resumed.
+     * @throws XBRLException if the loader is null or any of the numbers
+     * is not positive.
+     */
+    public DiscoveryScheduler(Loader loader, int concurrency, int capacity, long interval) throws XBRLException {
+        if (loader == null) throw new XBRLException("The loader is null.");
+        if (capacity < 1) throw new XBRLException("The discovery capacity must be positive.");
+        if (interval < 1) throw new XBRLException("The discovery interval must be positive.");
+        loader.setDiscoveryThreads(concurrency);
+        this.loader = loader;
+        this.capacity = capacity;
+        this.interval = interval;
+        this.permits = new Semaphore(capacity, true);
+        this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("xbrlapi-discovery-scheduler"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("xbrlapi-discovery-timer"));
+    }
+
+    /**
+     * Creates daemon threads with a given name.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The future result of discovering a batch of documents.
+     */
+    private class Discovery extends CompletableFuture<Void> implements Runnable {
+
+        private final List<URI> uris;
+
+        private final int claimed;
+
+        Discovery(List<URI> uris, int claimed) {
+            this.uris = uris;
+            this.claimed = claimed;
+        }
+
+        /**
+         * Cancelling a discovery that is under way asks the loader
+         * to stop once it has finished the documents it is parsing.
+         * @see CompletableFuture#cancel(boolean)
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (DiscoveryScheduler.this) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled && current == this) loader.requestInterrupt();
+                return cancelled;
+            }
+        }
+
+        public void run() {
+            Throwable failure = null;
+            try {
+                if (! isDone()) loader.stashURIs(uris);
+                while (startRound(this)) {
+                    ScheduledFuture<?> checkpoint = timer.schedule(new Runnable() {
+                        public void run() {
+                            checkpoint();
+                        }
+                    }, interval, TimeUnit.MILLISECONDS);
+                    try {
+                        loader.discover();
+                    } finally {
+                        checkpoint.cancel(false);
+                    }
+                }
+            } catch (Throwable t) {
+                logger.error("The discovery of " + uris.size() + " documents failed: " + t.getMessage());
+                failure = t;
+            }
+            finish(this);
+            if (failure == null) complete(null);
+            else completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * @param discovery The discovery that is about to start a round.
+     * @return true if the loader should run a round of discovery
+     * and false if the discovery has been cancelled or the previous
+     * round finished without being interrupted.
+     */
+    private synchronized boolean startRound(Discovery discovery) {
+        if (discovery.isDone()) return false;
+        if (current == discovery && ! checkpointed) return false;
+        if (current == discovery) logger.info("Resuming discovery after storing the loader's progress.");
+        current = discovery;
+        checkpointed = false;
+        loader.cancelInterrupt();
+        return true;
+    }
+
+    /**
+     * Asks the loader to stop so that it stores its progress.
+     */
+    private synchronized void checkpoint() {
+        if (current == null) return;
+        checkpointed = true;
+        loader.requestInterrupt();
+    }
+
+    /**
+     * @param discovery The discovery that has completed.
+     */
+    private synchronized void finish(Discovery discovery) {
+        if (current == discovery) current = null;
+        discoveries.remove(discovery);
+        permits.release(discovery.claimed);
+    }
+
+    /**
+     * Submits documents for discovery, waiting while the scheduler
+     * does not have the capacity for them.
+     * @param uris The URIs of the documents to discover.
+     * @return the future completion of the discovery.
+     * @throws XBRLException if the scheduler has been shut down or the
+     * thread is interrupted while waiting.
+     */
+    public CompletableFuture<Void> submit(List<URI> uris) throws XBRLException {
+        int claimed = claimFor(uris);
+        try {
+            permits.acquire(claimed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XBRLException("The thread was interrupted while waiting to submit documents for discovery.", e);
+        }
+        return schedule(uris, claimed);
+    }
+
+    /**
+     * Submits documents for discovery, if the scheduler has the
+     * capacity for them within the time allowed.
+     * @param uris The URIs of the documents to discover.
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return the future completion of the discovery or null if the
+     * scheduler did not have the capacity for the documents in time.
+     * @throws XBRLException if the scheduler has been shut down or the
+     * thread is interrupted while waiting.
+     */
+    public CompletableFuture<Void> trySubmit(List<URI> uris, long timeout, TimeUnit unit) throws XBRLException {
+        int claimed = claimFor(uris);
+        try {
+            if (! permits.tryAcquire(claimed, timeout, unit)) return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XBRLException("The thread was interrupted while waiting to submit documents for discovery.", e);
+        }
+        return schedule(uris, claimed);
+    }
+
+    /**
+     * @param uris The URIs of the documents to discover.
+     * @return the number of permits to claim for the documents.  A batch that
+     * is larger than the capacity claims all of it rather than waiting forever.
+     * @throws XBRLException if the list of URIs is null.
+     */
+    private int claimFor(List<URI> uris) throws XBRLException {
+        if (uris == null) throw new XBRLException("The list of URIs to discover is null.");
+        return Math.min(Math.max(uris.size(), 1), capacity);
+    }
+
+    /**
+     * @param uris The URIs of the documents to discover.
+     * @param claimed The number of permits claimed for the documents.
+     * @return the future completion of the discovery.
+     * @throws XBRLException if the scheduler has been shut down.
+     */
+    private CompletableFuture<Void> schedule(List<URI> uris, int claimed) throws XBRLException {
+        Discovery discovery = new Discovery(new Vector<URI>(uris), claimed);
+        synchronized (this) {
+            try {
+                executor.execute(discovery);
+            } catch (RejectedExecutionException e) {
+                permits.release(claimed);
+                throw new XBRLException("The discovery scheduler has been shut down.", e);
+            }
+            discoveries.add(discovery);
+        }
+        return discovery;
+    }
+
+    /**
+     * @return the number of further documents that can be submitted
+     * without waiting.  This says nothing about the number of documents
+     * still to be discovered by the loader.
+     * @see Loader#getDocumentsStillToAnalyse()
+     */
+    public int getAvailableCapacity() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return true if a discovery has been submitted and not yet completed.
+     */
+    public synchronized boolean isBusy() {
+        return ! discoveries.isEmpty();
+    }
+
+    /**
+     * Stops accepting submissions.  Discoveries that have been
+     * submitted already are still carried out.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        timer.shutdown();
+    }
+
+    /**
+     * Stops accepting submissions and cancels the discoveries that
+     * have been submitted and not yet completed.
+     */
+    public void shutdownNow() {
+        shutdown();
+        List<Discovery> outstanding = new Vector<Discovery>();
+        synchronized (this) {
+            outstanding.addAll(discoveries);
+        }
+        for (Discovery discovery: outstanding) {
+            discovery.cancel(true);
+        }
+    }
+
+    /**
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return true if the scheduler has shut down and finished
+     * all of its discoveries and false if the time ran out first.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+}
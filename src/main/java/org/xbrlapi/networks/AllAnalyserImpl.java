@@ -1,6 +1,7 @@
 package org.xbrlapi.networks;
 
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.xbrlapi.Relationship;
@@ -35,11 +36,12 @@ public final class AllAnalyserImpl extends AnalyserImpl implements Analyser {
     /**
      * This method does not filter out any relationships.
      * @param query The query to run to get the relationships.
+     * @param parameters The values of the external variables used in the query.
      * @return the list of relationships returned by the query.
      * @throws XBRLException
      */
     @Override
-    protected List<Relationship> queryForRelationships(String query) throws XBRLException {
-        return getStore().<Relationship>queryForXMLResources(query);
+    protected List<Relationship> queryForRelationships(String query, Map<String,String> parameters) throws XBRLException {
+        return getStore().<Relationship>queryForXMLResources(query,parameters);
     }
 }
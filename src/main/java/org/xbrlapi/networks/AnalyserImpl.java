@@ -1,7 +1,10 @@
 package org.xbrlapi.networks;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -64,11 +67,54 @@ public class AnalyserImpl implements Analyser {
      * @throws XBRLException
      */
     protected List<Relationship> queryForRelationships(String query) throws XBRLException {
-        List<Relationship> relationships = getStore().<Relationship>queryForXMLResources(query);
+        return queryForRelationships(query,null);
+    }
+
+    /**
+     * This method provides a place to filter relationships after retrieving them
+     * to eliminate overridden and prohibited relationships as desired.
+     * @param query The query to run to get the relationships.
+     * @param parameters The values of the external variables used in the query.
+     * @return the list of relationships returned by the query.
+     * @throws XBRLException
+     * @see Store#queryForXMLResources(String, Map)
+     */
+    protected List<Relationship> queryForRelationships(String query, Map<String,String> parameters) throws XBRLException {
+        Iterator<Relationship> relationships = getStore().<Relationship>queryForXMLResourceIterator(query,parameters);
         Networks networks = new NetworksImpl(getStore());
-        networks.addRelationships(relationships);
+        while (relationships.hasNext()) {
+            networks.addRelationship(relationships.next());
+        }
         return networks.getActiveRelationships();
     }
+
+    /**
+     * @param attribute The name of the relationship attribute identifying the 
+     * fragment at one end of the relationships.
+     * @param index The index of the fragment at that end of the relationships.
+     * @param linkRole The link role of the relationships or null if any link role will do.
+     * @param arcrole The arcrole of the relationships or null if any arcrole will do.
+     * @return the sorted set of relationships matching the selection criteria.
+     * @throws XBRLException
+     */
+    private SortedSet<Relationship> getRelationshipsWith(String attribute, String index, String linkRole, String arcrole) throws XBRLException {
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("index",index);
+        String query = "#roots#[@" + attribute + "=$index";
+        if (arcrole != null) {
+            query += " and @arcRole=$arcrole";
+            parameters.put("arcrole",arcrole);
+        }
+        if (linkRole != null) {
+            query += " and @linkRole=$linkRole";
+            parameters.put("linkRole",linkRole);
+        }
+        query += "]";
+        List<Relationship> list = queryForRelationships(query,parameters);
+        SortedSet<Relationship> sortedSet = new TreeSet<Relationship>(new RelationshipOrderComparator());
+        sortedSet.addAll(list);
+        return sortedSet;
+    }
     
     /**
      * @see Analyser#getAllRelationships()
@@ -201,19 +247,7 @@ public class AnalyserImpl implements Analyser {
      * @see Analyser#getRelationshipsFrom(String, String, String)
      */
     public SortedSet<Relationship> getRelationshipsFrom(String sourceIndex, String linkRole, String arcrole) throws XBRLException {
-        String lr = "";
-        String ar = "";
-        if (linkRole != null) {
-            lr = " and @linkRole='"+ linkRole +"'";            
-        }
-        if (arcrole != null) {
-            ar = " and @arcRole='"+ arcrole +"'";            
-        }
-        String query = "#roots#[@sourceIndex='"+ sourceIndex +"'" + ar + lr + "]";
-        List<Relationship> list = queryForRelationships(query);
-        SortedSet<Relationship> sortedSet = new TreeSet<Relationship>(new RelationshipOrderComparator());
-        sortedSet.addAll(list);
-        return sortedSet;
+        return getRelationshipsWith("sourceIndex",sourceIndex,linkRole,arcrole);
     }    
 
     /**
@@ -255,19 +289,7 @@ public class AnalyserImpl implements Analyser {
      * @see Analyser#getRelationshipsTo(String, String, String)
      */
     public SortedSet<Relationship> getRelationshipsTo(String targetIndex, String linkRole, String arcrole) throws XBRLException {
-        String lr = "";
-        String ar = "";
-        if (linkRole != null) {
-            lr = " and @linkRole='"+ linkRole +"'";            
-        }
-        if (arcrole != null) {
-            ar = " and @arcRole='"+ arcrole +"'";            
-        }
-        String query = "#roots#[@targetIndex='"+ targetIndex +"'" + ar + lr + "]";
-        List<Relationship> list = queryForRelationships(query);
-        SortedSet<Relationship> sortedSet = new TreeSet<Relationship>(new RelationshipOrderComparator());
-        sortedSet.addAll(list);
-        return sortedSet;
+        return getRelationshipsWith("targetIndex",targetIndex,linkRole,arcrole);
     }
 
     /**
@@ -1,6 +1,8 @@
 package org.xbrlapi.networks;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.xbrlapi.Relationship;
@@ -41,15 +43,17 @@ public class NonProhibitedAnalyserImpl extends AnalyserImpl implements Analyser
      * those relationships without a notUse attribute.  Note that this attribute is omitted
      * on persisted relationships unless the associated arc has a use=prohibited attribute value.
      * @param query The query to run to get the relationships.
+     * @param parameters The values of the external variables used in the query.
      * @return the list of relationships returned by the query.
      * @throws XBRLException
      */
     @Override
-    protected List<Relationship> queryForRelationships(String query) throws XBRLException {
-        List<Relationship> relationships = getStore().<Relationship>queryForXMLResources(query);
-        query = query + "[not(@arcUse)]";
+    protected List<Relationship> queryForRelationships(String query, Map<String,String> parameters) throws XBRLException {
+        Iterator<Relationship> relationships = getStore().<Relationship>queryForXMLResourceIterator(query,parameters);
         Networks networks = new NetworksImpl(getStore());
-        networks.addRelationships(relationships);
+        while (relationships.hasNext()) {
+            networks.addRelationship(relationships.next());
+        }
         return networks.getActiveRelationships();
     }
     
@@ -189,7 +189,7 @@ public class StorerImpl implements Storer {
                 // Get indices of locator target fragments
                 Map<String,String> locatorTargets = new HashMap<String,String>();
                 //query = "for $locator in #roots#[@uri='" + document + "' and */*/@xlink:type='locator'] return concat($locator/@index,' ',#roots#[@uri=$locator/@targetDocumentURI and xbrlapi:xptr/@value=$locator/@targetPointerValue]/@index)";
-                query = "for $locator in #roots#[@uri='" + document + "' and xbrlapi:data/*/@xlink:type='locator'], $target in #roots# let $uri := $locator/@targetDocumentURI let $pointer := $locator/@targetPointerValue where $target/@uri=$uri and $target/xbrlapi:xptr/@value=$pointer return concat($locator/@index,' ',$target/@index)";                
+                query = "for $locator in #roots#[@uri='" + document + "' and xbrlapi:data/*/@xlink:type='locator'], $target in #roots#[@uri=$locator/@targetDocumentURI and xbrlapi:xptr/@value=$locator/@targetPointerValue] return concat($locator/@index,' ',$target/@index)";
                 pairs = getStore().queryForStrings(query);
                 for (String pair: pairs) {
                     int split = pair.indexOf(" ");
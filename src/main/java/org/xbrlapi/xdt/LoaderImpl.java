@@ -44,6 +44,21 @@ public class LoaderImpl extends org.xbrlapi.loader.LoaderImpl implements Loader,
         super(store,xlinkProcessor,entityResolver, uris);
     }
 
+    /**
+     * @see org.xbrlapi.loader.LoaderImpl#LoaderImpl(org.xbrlapi.loader.LoaderImpl)
+     */
+    protected LoaderImpl(LoaderImpl owner) throws XBRLException {
+        super(owner);
+    }
+
+    /**
+     * @see org.xbrlapi.loader.LoaderImpl#createWorker()
+     */
+    @Override
+    protected org.xbrlapi.loader.LoaderImpl createWorker() throws XBRLException {
+        return new LoaderImpl(this);
+    }
+
     private static final Logger logger = Logger.getLogger(LoaderImpl.class);
     
     /**
@@ -114,6 +114,13 @@ public class XLinkProcessorImpl implements XLinkProcessor, Serializable {
         this.customLinkRecogniser = customLinkRecogniser;
     }
 
+    /**
+     * @return the custom link recogniser or null if none has been set.
+     */
+    public CustomLinkRecogniser getCustomLinkRecogniser() {
+        return customLinkRecogniser;
+    }
+
     /**
      * @see XLinkProcessor#startElement(String, String, String, Attributes)
      */
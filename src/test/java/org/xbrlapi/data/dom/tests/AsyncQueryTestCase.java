@@ -0,0 +1,139 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.LabelResource;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Tests the asynchronous query methods of the data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class AsyncQueryTestCase extends BaseTestCase {
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i=0; i<5; i++) {
+            MockImpl mock = new MockImpl("mock" + i);
+            store.persist(mock);
+            mock.setMetaAttribute("parentIndex","parent" + (i % 2));
+        }
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        store.setQueryExecutor(null);
+        super.tearDown();
+	}
+
+    @Test
+    public void testAsyncResultsMatchSynchronousResults() {
+        try {
+            String query = "#roots#[@parentIndex='parent0']";
+            List<Fragment> fragments = store.<Fragment>queryForXMLResourcesAsync(query).get();
+            AssertJUnit.assertEquals(store.<Fragment>queryForXMLResources(query).size(), fragments.size());
+            Set<String> indices = store.queryForIndicesAsync(query).get();
+            AssertJUnit.assertEquals(store.queryForIndices(query), indices);
+            AssertJUnit.assertEquals(3L, store.queryCountAsync(query).get().longValue());
+            Set<String> strings = store.queryForStringsAsync("for $root in #roots# return string($root/@index)").get();
+            AssertJUnit.assertEquals(5, strings.size());
+            Fragment fragment = store.<Fragment>getXMLResourceAsync("mock1").get();
+            AssertJUnit.assertEquals("mock1", fragment.getIndex());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCustomExecutorIsUsed() {
+        try {
+            final AtomicInteger tasks = new AtomicInteger(0);
+            store.setQueryExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    tasks.incrementAndGet();
+                    command.run();
+                }
+            });
+            AssertJUnit.assertEquals(2L, store.queryCountAsync("#roots#[@parentIndex='parent1']").get().longValue());
+            AssertJUnit.assertEquals(1, tasks.get());
+            store.setQueryExecutor(null);
+            AssertJUnit.assertNotNull(store.getQueryExecutor());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFailuresCompleteTheFutureExceptionally() {
+        try {
+            store.<Fragment>getXMLResourceAsync("missing").get();
+            Assert.fail("The missing fragment should not have been found.");
+        } catch (ExecutionException e) {
+            AssertJUnit.assertTrue(e.getCause() instanceof XBRLException);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchLookupsAreKeyedByFragment() {
+        try {
+            List<String> indices = new Vector<String>();
+            indices.add("mock0");
+            indices.add("mock1");
+            indices.add("mock0");
+            Map<String,List<LabelResource>> labels = store.getLabelsAsync(indices).get();
+            AssertJUnit.assertEquals(2, labels.size());
+            AssertJUnit.assertTrue(labels.get("mock0").isEmpty());
+            AssertJUnit.assertTrue(labels.containsKey("mock1"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchLookupsRunAtMostOneTaskPerProcessor() {
+        try {
+            final AtomicInteger tasks = new AtomicInteger(0);
+            store.setQueryExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    tasks.incrementAndGet();
+                    command.run();
+                }
+            });
+            List<String> indices = new Vector<String>();
+            for (int i=0; i<5; i++) indices.add("mock" + i);
+            for (int i=0; i<100; i++) {
+                store.persist(new MockImpl("extra" + i));
+                indices.add("extra" + i);
+            }
+            Map<String,List<LabelResource>> labels = store.getLabelsAsync(indices).get();
+            AssertJUnit.assertEquals(indices.size(), labels.size());
+            AssertJUnit.assertEquals(indices.get(0), labels.keySet().iterator().next());
+            int processors = Runtime.getRuntime().availableProcessors();
+            AssertJUnit.assertEquals(Math.min(processors, indices.size()), tasks.get());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.impl.MockImpl;
+
+/**
+ * Test the answering of simple queries from the attribute indexes
+ * of the XML DOM data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+*/
+public class AttributeIndexTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+	@Test
+    public void testIndexedQueriesMatchSaxonQueries() {
+		try {
+		    StoreImpl domStore = (StoreImpl) store;
+		    Fragment schema = domStore.<Fragment>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.SchemaImpl']").get(0);
+
+		    // The trailing comparison to itself forces evaluation by Saxon.
+		    String indexed = "#roots#[@parentIndex='" + schema.getIndex() + "']";
+		    String unindexed = "#roots#[@parentIndex='" + schema.getIndex() + "' and @index=@index]";
+
+		    long misses = domStore.getQueryPlanCacheMisses();
+		    long hits = domStore.getQueryPlanCacheHits();
+		    List<Fragment> fast = domStore.<Fragment>queryForXMLResources(indexed);
+            AssertJUnit.assertEquals(misses,domStore.getQueryPlanCacheMisses());
+            AssertJUnit.assertEquals(hits,domStore.getQueryPlanCacheHits());
+
+            List<Fragment> slow = domStore.<Fragment>queryForXMLResources(unindexed);
+            AssertJUnit.assertTrue(fast.size() > 0);
+            AssertJUnit.assertEquals(slow.size(),fast.size());
+            for (int i=0; i<fast.size(); i++) {
+                AssertJUnit.assertEquals(slow.get(i).getIndex(),fast.get(i).getIndex());
+            }
+            AssertJUnit.assertEquals(domStore.queryCount(unindexed),domStore.queryCount(indexed));
+            AssertJUnit.assertEquals(domStore.queryForIndices(unindexed),domStore.queryForIndices(indexed));
+		} catch (Exception e) {
+		    e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+    @Test
+    public void testIndexedQueriesUseBoundVariables() {
+        try {
+            Map<String,String> parameters = new HashMap<String,String>();
+            parameters.put("type","org.xbrlapi.impl.SchemaImpl");
+            long count = store.queryCount("#roots#[@type='org.xbrlapi.impl.SchemaImpl']");
+            AssertJUnit.assertTrue(count > 0);
+            AssertJUnit.assertEquals(count,store.queryCount("#roots#[@type=$type]",parameters));
+            AssertJUnit.assertEquals(count,store.queryCount("#roots#[ @type = \"org.xbrlapi.impl.SchemaImpl\" ]"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIndexesFollowChangedAttributes() {
+        try {
+            MockImpl mock = new MockImpl("mock1");
+            store.persist(mock);
+            AssertJUnit.assertEquals(1,store.queryCount("#roots#[@type='org.xbrlapi.impl.MockImpl']"));
+            mock.setMetaAttribute("parentIndex","parent1");
+            AssertJUnit.assertEquals(1,store.queryCount("#roots#[@parentIndex='parent1']"));
+            mock.setMetaAttribute("parentIndex","parent2");
+            AssertJUnit.assertEquals(0,store.queryCount("#roots#[@parentIndex='parent1']"));
+            AssertJUnit.assertEquals(1,store.queryCount("#roots#[@type='org.xbrlapi.impl.MockImpl' and @parentIndex='parent2']"));
+            store.remove("mock1");
+            AssertJUnit.assertEquals(0,store.queryCount("#roots#[@parentIndex='parent2']"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCountsAreAnsweredWithoutEvaluatingQueries() {
+        try {
+            StoreImpl domStore = (StoreImpl) store;
+            String type = "org.xbrlapi.impl.ElementDeclarationImpl";
+            long expected = domStore.queryForIndices("#roots#[@type='" + type + "' and @index=@index]").size();
+            AssertJUnit.assertTrue(expected > 0);
+
+            long misses = domStore.getQueryPlanCacheMisses();
+            AssertJUnit.assertEquals(expected,domStore.queryCount("#roots#[@type='" + type + "']"));
+            AssertJUnit.assertEquals(expected,domStore.queryCount("for $root in #roots#[@type='" + type + "'] return $root"));
+            AssertJUnit.assertEquals(misses,domStore.getQueryPlanCacheMisses());
+
+            AssertJUnit.assertEquals(expected,domStore.queryCount("for $root in #roots#[@type='" + type + "' and @index=@index] return $root"));
+            AssertJUnit.assertEquals(0,domStore.queryCount("#roots#[@type='" + type + "' and @index='none']"));
+            AssertJUnit.assertEquals(0,domStore.queryCount("#roots#[@type='none' and @index=@index]"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
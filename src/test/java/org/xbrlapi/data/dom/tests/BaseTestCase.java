@@ -60,10 +60,12 @@ public abstract class BaseTestCase extends org.xbrlapi.utilities.BaseTestCase {
 	}
 	
 	/**
+	 * Subclasses override this to run the tests against
+	 * other data store implementations.
 	 * @return the new store.
 	 * @throws XBRLException
 	 */
-	public StoreImpl createStore() throws XBRLException {
+	public Store createStore() throws XBRLException {
 	    StoreImpl store = new StoreImpl();
 	    store.setMatcher(new InStoreMatcherImpl(store,cacheImpl));
 	    return store;
@@ -5,7 +5,13 @@ import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 import org.testng.Assert;
 import org.testng.AssertJUnit;
+import java.net.URI;
+
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.utilities.Constants;
 import org.xbrlapi.utilities.XBRLException;
 
 /**
@@ -40,4 +46,49 @@ public class ComposeTestCase extends BaseTestCase {
 		}
 	}
 
+	/**
+	 * Test that documents assembled from all of their fragments at once 
+	 * match documents assembled fragment by fragment.
+	 */
+	@Test
+    public final void testDocumentAssemblyMatchesSubtrees() {
+		try {
+		    URI uri = this.getURI(STARTING_POINT);
+		    Fragment root = store.getRootFragmentForDocument(uri);
+		    String expected = store.serialize(store.getSubtree(root));
+		    AssertJUnit.assertEquals(expected,store.serialize(store.getDocumentAsDOM(uri)));
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test that every fragment in the composite document is annotated with its index.
+	 */
+	@Test
+    public final void testCompositeDocumentAnnotatesEveryFragment() {
+		try {
+		    URI uri = this.getURI(STARTING_POINT);
+		    long fragments = store.getFragmentIndicesFromDocument(uri).size();
+			Document d = store.getCompositeDocument();
+			NodeList files = d.getElementsByTagNameNS(Constants.CompNamespace.toString(),"file");
+			Element file = null;
+			for (int i=0; i<files.getLength(); i++) {
+			    Element candidate = (Element) files.item(i);
+			    if (candidate.getAttributeNS(Constants.CompNamespace.toString(),"uri").equals(uri.toString())) file = candidate;
+			}
+			AssertJUnit.assertNotNull(file);
+			NodeList elements = file.getElementsByTagName("*");
+			long annotated = 0;
+			for (int i=0; i<elements.getLength(); i++) {
+			    if (((Element) elements.item(i)).hasAttributeNS(Constants.CompNamespace.toString(),"index")) annotated++;
+			}
+			AssertJUnit.assertEquals(fragments,annotated);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
 }
@@ -0,0 +1,133 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.impl.MockImpl;
+
+/**
+ * Test the concurrent querying of the XML DOM data store and
+ * check that the query throughput grows with the number of threads.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+*/
+public class ConcurrentQueryTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+    private final String QUERY = "#roots#[@type='org.xbrlapi.impl.SchemaImpl' or */*/@name]";
+
+    private final int QUERIES_PER_THREAD = 50;
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+    /**
+     * Runs the query repeatedly, recording the first failure or a result 
+     * size that differs from the expected size.
+     */
+    private class QueryRunner implements Runnable {
+        private long expected;
+        private Exception failure = null;
+        QueryRunner(long expected) {
+            this.expected = expected;
+        }
+        public void run() {
+            try {
+                for (int i=0; i<QUERIES_PER_THREAD; i++) {
+                    List<Fragment> fragments = store.<Fragment>queryForXMLResources(QUERY);
+                    if (fragments.size() != expected) {
+                        throw new Exception("Expected " + expected + " fragments but got " + fragments.size());
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * @param threadCount The number of query threads to run.
+     * @param expected The expected number of fragments returned by each query.
+     * @return the number of queries per second achieved.
+     * @throws Exception if any of the queries failed.
+     */
+    private double measureThroughput(int threadCount, long expected) throws Exception {
+        List<QueryRunner> runners = new Vector<QueryRunner>();
+        List<Thread> threads = new Vector<Thread>();
+        for (int i=0; i<threadCount; i++) {
+            QueryRunner runner = new QueryRunner(expected);
+            runners.add(runner);
+            threads.add(new Thread(runner));
+        }
+        long start = System.nanoTime();
+        for (Thread thread: threads) thread.start();
+        for (Thread thread: threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+        for (QueryRunner runner: runners) {
+            if (runner.failure != null) throw runner.failure;
+        }
+        return (threadCount * QUERIES_PER_THREAD) / (elapsed / 1.0e9);
+    }
+
+	@Test
+    public void testQueryThroughputWithConcurrentReaders() {
+		try {
+		    long expected = store.queryCount(QUERY);
+		    AssertJUnit.assertTrue(expected > 0);
+
+		    // Warm up the query plan cache and the JIT.
+		    measureThroughput(1,expected);
+
+		    int processors = Runtime.getRuntime().availableProcessors();
+		    double single = measureThroughput(1,expected);
+		    logger.info("1 thread: " + Math.round(single) + " queries per second.");
+		    for (int threads = 2; threads <= Math.max(2, processors); threads *= 2) {
+		        double multiple = measureThroughput(threads,expected);
+		        logger.info(threads + " threads: " + Math.round(multiple) + " queries per second (" + Math.round(100 * multiple / single) + "% of single threaded throughput).");
+		    }
+		} catch (Exception e) {
+		    e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+    @Test
+    public void testQueriesRunWhileFragmentsAreBeingPersisted() {
+        try {
+            final long expected = store.queryCount(QUERY);
+            Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        for (int i=0; i<QUERIES_PER_THREAD; i++) {
+                            store.persist(new MockImpl("mock" + i));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            writer.start();
+            measureThroughput(4,expected);
+            writer.join();
+            AssertJUnit.assertEquals(QUERIES_PER_THREAD,store.queryCount("#roots#[@type='org.xbrlapi.impl.MockImpl']"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.io.File;
+import java.net.URI;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xbrlapi.cache.CacheImpl;
+
+/**
+ * Tests the streaming export of documents from the data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class ExportTestCase extends BaseTestCase {
+
+    private final String START = "test.data.multi.concept.schema";
+
+    private File destination = null;
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(START));
+        destination = File.createTempFile("xbrlapi-export","");
+        destination.delete();
+        destination.mkdirs();
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        delete(destination);
+	}
+
+    @Test
+    public void testSavedDocumentsMatchTheStore() {
+        try {
+            store.saveDocuments(destination,"",3);
+            AssertJUnit.assertTrue(store.getDocumentURIs().size() > 0);
+            for (URI uri: store.getDocumentURIs()) {
+                File file = new CacheImpl(destination).getCacheFile(uri);
+                AssertJUnit.assertTrue(file.exists());
+                assertSameContent(store.getDocumentAsDOM(uri),parse(file));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testStoreIsSavedAsSingleDocument() {
+        try {
+            File file = new File(destination,"store.xml");
+            store.saveStoreAsSingleDocument(file);
+            Element root = parse(file);
+            AssertJUnit.assertEquals("dts",root.getLocalName());
+            int documents = 0;
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) documents++;
+            }
+            AssertJUnit.assertEquals(store.getDocumentURIs().size(),documents);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testThreadCountMustBePositive() {
+        try {
+            store.saveDocuments(destination,"",0);
+            Assert.fail("Documents were saved without any threads.");
+        } catch (Exception e) {
+            ;
+        }
+    }
+
+    private Element parse(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(file).getDocumentElement();
+    }
+
+    private void assertSameContent(Element expected, Element actual) {
+        NodeList expectedElements = expected.getElementsByTagName("*");
+        NodeList actualElements = actual.getElementsByTagName("*");
+        AssertJUnit.assertEquals(expectedElements.getLength(),actualElements.getLength());
+        for (int i=0; i<expectedElements.getLength(); i++) {
+            Element e = (Element) expectedElements.item(i);
+            Element a = (Element) actualElements.item(i);
+            AssertJUnit.assertEquals(e.getNamespaceURI(),a.getNamespaceURI());
+            AssertJUnit.assertEquals(e.getLocalName(),a.getLocalName());
+        }
+        AssertJUnit.assertEquals(expected.getTextContent().trim(),actual.getTextContent().trim());
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) delete(child);
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.xbrlapi.data.dom.tests;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.Mock;
+import org.xbrlapi.impl.MockImpl;
+
+/**
+ * Tests the fragment cache in the data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class FragmentCacheTestCase extends BaseTestCase {
+
+    private final String START = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(START));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        super.tearDown();
+	}
+
+    @Test
+    public void testCacheIsDisabledByDefault() {
+        try {
+            AssertJUnit.assertEquals(0,store.getFragmentCacheSize());
+            String index = store.queryForIndices("#roots#").iterator().next();
+            Fragment first = store.getXMLResource(index);
+            Fragment second = store.getXMLResource(index);
+            AssertJUnit.assertNotSame(first,second);
+            AssertJUnit.assertEquals(0,store.getFragmentCacheHits());
+            AssertJUnit.assertEquals(0,store.getFragmentCacheMisses());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRepeatedRetrievalsUseTheCache() {
+        try {
+            store.setFragmentCacheSize(10);
+            String index = store.queryForIndices("#roots#").iterator().next();
+            Fragment first = store.getXMLResource(index);
+            Fragment second = store.getXMLResource(index);
+            AssertJUnit.assertSame(first,second);
+            AssertJUnit.assertEquals(1,store.getFragmentCacheHits());
+            AssertJUnit.assertEquals(1,store.getFragmentCacheMisses());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFragmentsAreEvicted() {
+        try {
+            store.setFragmentCacheSize(2);
+            for (int i=0; i<3; i++) {
+                store.persist(new MockImpl("mock" + i));
+            }
+            Mock first = store.getXMLResource("mock0");
+            store.getXMLResource("mock1");
+            AssertJUnit.assertSame(first,store.getXMLResource("mock0"));
+            store.getXMLResource("mock2");
+            AssertJUnit.assertEquals(1,store.getFragmentCacheEvictions());
+            AssertJUnit.assertSame(first,store.getXMLResource("mock0"));
+            store.getXMLResource("mock1");
+            AssertJUnit.assertEquals(2,store.getFragmentCacheEvictions());
+            AssertJUnit.assertEquals(2,store.getFragmentCacheHits());
+            AssertJUnit.assertEquals(4,store.getFragmentCacheMisses());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCachedFragmentsAreInvalidated() {
+        try {
+            store.setFragmentCacheSize(10);
+            store.persist(new MockImpl("mock"));
+            Mock cached = store.getXMLResource("mock");
+
+            store.persist(new MockImpl("mock"));
+            AssertJUnit.assertNotSame(cached,store.getXMLResource("mock"));
+
+            store.remove("mock");
+            AssertJUnit.assertFalse(store.hasXMLResource("mock"));
+
+            String index = store.getFragmentIndicesFromDocument(this.getURI(START)).iterator().next();
+            Fragment fragment = store.getXMLResource(index);
+            AssertJUnit.assertSame(fragment,store.getXMLResource(index));
+            store.deleteDocument(this.getURI(START));
+            AssertJUnit.assertFalse(store.hasXMLResource(index));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
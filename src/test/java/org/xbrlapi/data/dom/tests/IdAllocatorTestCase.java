@@ -0,0 +1,105 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.IdCounter;
+import org.xbrlapi.data.dom.StoreImpl;
+
+/**
+ * Tests the allocation of document identifiers by the data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class IdAllocatorTestCase extends BaseTestCase {
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        super.tearDown();
+	}
+
+    @Test
+    public void testIdsAreUniqueAndReservedInBlocks() {
+        try {
+            Set<String> ids = new HashSet<String>();
+            for (int i=0; i<2500; i++) {
+                String id = store.getId("input");
+                AssertJUnit.assertEquals(8,id.length());
+                AssertJUnit.assertTrue(id,ids.add(id));
+            }
+            IdCounter counter = store.getXMLResource("idcounter");
+            AssertJUnit.assertEquals(3000,counter.getValue());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossThreads() {
+        try {
+            final List<String> ids = Collections.synchronizedList(new Vector<String>());
+            final List<Exception> failures = Collections.synchronizedList(new Vector<Exception>());
+            List<Thread> threads = new Vector<Thread>();
+            for (int t=0; t<8; t++) {
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            for (int i=0; i<1000; i++) ids.add(store.getId("input"));
+                        } catch (Exception e) {
+                            failures.add(e);
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread: threads) thread.join();
+            AssertJUnit.assertTrue(failures.isEmpty());
+            AssertJUnit.assertEquals(8000,ids.size());
+            AssertJUnit.assertEquals(8000,new HashSet<String>(ids).size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossRestarts() {
+        File snapshot = null;
+        try {
+            Set<String> ids = new HashSet<String>();
+            ids.add(store.getId("input"));
+            ids.add(store.getId("input"));
+
+            snapshot = File.createTempFile("xbrlapi-snapshot",".bin");
+            ((StoreImpl) store).writeSnapshot(snapshot);
+            StoreImpl restarted = StoreImpl.readSnapshot(snapshot);
+            stores.add(restarted);
+
+            for (int i=0; i<10; i++) {
+                AssertJUnit.assertTrue(ids.add(restarted.getId("input")));
+                AssertJUnit.assertTrue(ids.add(store.getId("input")));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        } finally {
+            if (snapshot != null) snapshot.delete();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+
+/**
+ * Tests the paging of query results.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class PagedQueryTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+    /**
+     * @param query The query to page through.
+     * @param sortKey The sort key.
+     * @param pageSize The page size.
+     * @return the indices of the fragments in all of the pages, in order.
+     * @throws Exception
+     */
+    private List<String> getAllPages(String query, String sortKey, int pageSize) throws Exception {
+        List<String> indices = new Vector<String>();
+        int offset = 0;
+        while (true) {
+            List<Fragment> page = store.<Fragment>queryForXMLResources(query,null,sortKey,offset,pageSize);
+            AssertJUnit.assertTrue(page.size() <= pageSize);
+            for (Fragment fragment: page) indices.add(fragment.getIndex());
+            if (page.size() < pageSize) return indices;
+            offset += pageSize;
+        }
+    }
+
+	@Test
+    public void testPagesInDocumentOrderCoverAllMatches() {
+		try {
+		    String schemaIndex = store.<Fragment>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.SchemaImpl']").get(0).getIndex();
+		    
+		    // The first query is answered from the attribute indexes and the second by Saxon.
+		    for (String query: new String[] {"#roots#[@parentIndex='" + schemaIndex + "']","#roots#[*/*/@name]"}) {
+		        List<Fragment> all = store.<Fragment>queryForXMLResources(query);
+		        AssertJUnit.assertTrue(all.size() > 0);
+		        List<String> paged = getAllPages(query,null,2);
+		        AssertJUnit.assertEquals(all.size(),paged.size());
+		        for (int i=0; i<all.size(); i++) {
+		            AssertJUnit.assertEquals(all.get(i).getIndex(),paged.get(i));
+		        }
+		    }
+		} catch (Exception e) {
+		    e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+    @Test
+    public void testSortedPagesAreOrderedByTheSortKey() {
+        try {
+            String query = "#roots#";
+            List<String> paged = getAllPages(query,"index",5);
+            AssertJUnit.assertEquals(store.queryCount(query),paged.size());
+            for (int i=1; i<paged.size(); i++) {
+                AssertJUnit.assertTrue(paged.get(i-1).compareTo(paged.get(i)) < 0);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInvalidPagesAreRejected() {
+        try {
+            store.<Fragment>queryForXMLResources("#roots#",null,"index",-1,10);
+            Assert.fail("A negative offset should be rejected.");
+        } catch (Exception expected) {
+            ; // Expected
+        }
+        try {
+            store.<Fragment>queryForXMLResources("#roots#",null,"@index",0,10);
+            Assert.fail("An illegal sort key should be rejected.");
+        } catch (Exception expected) {
+            ; // Expected
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+
+/**
+ * Tests the queries that bind values to external variables.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class ParameterizedQueryTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+	@Test
+    public void testParameterizedQueryMatchesLiteralQuery() {
+		try {
+		    String type = "org.xbrlapi.impl.SchemaImpl";
+		    List<Fragment> literal = store.<Fragment>queryForXMLResources("#roots#[@type='" + type + "']");
+		    Map<String,String> parameters = new HashMap<String,String>();
+		    parameters.put("type",type);
+		    List<Fragment> bound = store.<Fragment>queryForXMLResources("#roots#[@type=$type]",parameters);
+		    AssertJUnit.assertTrue(literal.size() > 0);
+		    AssertJUnit.assertEquals(literal.size(),bound.size());
+		    AssertJUnit.assertEquals(literal.size(),store.queryCount("#roots#[@type=$type]",parameters));
+		    AssertJUnit.assertEquals(literal.size(),store.queryForIndices("#roots#[@type=$type]",parameters).size());
+		} catch (Exception e) {
+		    e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+    @Test
+    public void testParameterValuesAreNotParsedAsQueryText() {
+        try {
+            Map<String,String> parameters = new HashMap<String,String>();
+            parameters.put("type","x' or '1'='1");
+            AssertJUnit.assertEquals(0,store.queryCount("#roots#[@type=$type]",parameters));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInvalidParameterNamesAreRejected() {
+        try {
+            Map<String,String> parameters = new HashMap<String,String>();
+            parameters.put("not a name","value");
+            store.queryCount("#roots#",parameters);
+            Assert.fail("An invalid variable name should be rejected.");
+        } catch (Exception e) {
+            ; // Expected.
+        }
+    }
+
+}
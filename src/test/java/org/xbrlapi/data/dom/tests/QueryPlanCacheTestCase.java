@@ -0,0 +1,82 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.impl.MockImpl;
+
+/**
+ * Test the caching of compiled queries by the XML DOM data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+*/
+public class QueryPlanCacheTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+	@Test
+    public void testRepeatedQueriesAreOnlyCompiledOnce() {
+		try {
+		    StoreImpl domStore = (StoreImpl) store;
+		    String query = "#roots#[@type='org.xbrlapi.impl.SchemaImpl']";
+		    List<Fragment> first = domStore.<Fragment>queryForXMLResources(query);
+		    long misses = domStore.getQueryPlanCacheMisses();
+		    long hits = domStore.getQueryPlanCacheHits();
+            List<Fragment> second = domStore.<Fragment>queryForXMLResources(query);
+            AssertJUnit.assertEquals(first.size(),second.size());
+            AssertJUnit.assertEquals(misses,domStore.getQueryPlanCacheMisses());
+            AssertJUnit.assertEquals(hits + 1,domStore.getQueryPlanCacheHits());
+		} catch (Exception e) {
+		    e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+    @Test
+    public void testCachedQueriesSeeNewlyPersistedFragments() {
+        try {
+            String query = "#roots#[@type='org.xbrlapi.impl.MockImpl']";
+            AssertJUnit.assertEquals(0,store.<Fragment>queryForXMLResources(query).size());
+            store.persist(new MockImpl("mock1"));
+            AssertJUnit.assertEquals(1,store.<Fragment>queryForXMLResources(query).size());
+            store.remove("mock1");
+            AssertJUnit.assertEquals(0,store.<Fragment>queryForXMLResources(query).size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCacheCanBeDisabled() {
+        try {
+            StoreImpl domStore = (StoreImpl) store;
+            domStore.setQueryPlanCacheSize(0);
+            String query = "#roots#[@type='org.xbrlapi.impl.SchemaImpl']";
+            domStore.<Fragment>queryForXMLResources(query);
+            long misses = domStore.getQueryPlanCacheMisses();
+            domStore.<Fragment>queryForXMLResources(query);
+            AssertJUnit.assertEquals(misses + 1,domStore.getQueryPlanCacheMisses());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.impl.MockImpl;
+
+/**
+ * Tests the gathering of query statistics by the data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class QueryStatisticsTestCase extends BaseTestCase {
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i=0; i<5; i++) {
+            MockImpl mock = new MockImpl("mock" + i);
+            store.persist(mock);
+            mock.setMetaAttribute("parentIndex","parent" + (i % 2));
+        }
+        store.getQueryStatistics().reset();
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        store.getQueryStatistics().unregister();
+        super.tearDown();
+	}
+
+    @Test
+    public void testQueryShapesIgnoreLiterals() {
+        AssertJUnit.assertEquals("#roots#[@parentIndex='?' and @index=\"?\"]", QueryStatistics.getShape("#roots#[@parentIndex='a_1'  and\n@index=\"b\"]"));
+        AssertJUnit.assertEquals("#roots#[position() < ?]", QueryStatistics.getShape("#roots#[position() < 10]"));
+        AssertJUnit.assertEquals("string($root/@h2)", QueryStatistics.getShape("string($root/@h2)"));
+        AssertJUnit.assertEquals("'?'", QueryStatistics.getShape("'it''s'"));
+    }
+
+    @Test
+    public void testQueriesAreRecordedByShape() {
+        try {
+            AssertJUnit.assertEquals(3,store.queryForXMLResources("#roots#[@parentIndex='parent0']").size());
+            AssertJUnit.assertEquals(2,store.queryForXMLResources("#roots#[@parentIndex='parent1']").size());
+            AssertJUnit.assertEquals(1,store.queryCount("#roots#[@index='mock1']"));
+            store.queryForStrings("for $root in #roots# return string($root/@index)");
+
+            QueryStatistics statistics = store.getQueryStatistics();
+            AssertJUnit.assertEquals(4,statistics.getQueryCount());
+            AssertJUnit.assertEquals(3,statistics.getShapeCount());
+
+            Map<String,QueryStatistics.ShapeStatistics> shapes = statistics.getShapes();
+            QueryStatistics.ShapeStatistics parents = shapes.get("#roots#[@parentIndex='?']");
+            AssertJUnit.assertEquals(2,parents.getCalls());
+            AssertJUnit.assertEquals(5,parents.getResults());
+            long histogramTotal = 0;
+            for (int i=0; i<QueryStatistics.BUCKETS; i++) histogramTotal += parents.getHistogramCount(i);
+            AssertJUnit.assertEquals(2,histogramTotal);
+            AssertJUnit.assertEquals(1,shapes.get("#roots#[@index='?']").getResults());
+            AssertJUnit.assertEquals(3,statistics.getSummaries().length);
+
+            statistics.reset();
+            AssertJUnit.assertEquals(0,statistics.getQueryCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSuspendedQueriesAreNotRecorded() {
+        try {
+            QueryStatistics statistics = store.getQueryStatistics();
+            statistics.suspend();
+            try {
+                store.queryForXMLResources("#roots#[@parentIndex='parent0']");
+                store.queryCount("#roots#[@index='mock1']");
+            } finally {
+                statistics.resume();
+            }
+            AssertJUnit.assertEquals(0,statistics.getQueryCount());
+            store.queryCount("#roots#[@index='mock1']");
+            AssertJUnit.assertEquals(1,statistics.getQueryCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testParameterizedQueriesKeepTheirExampleParameters() {
+        try {
+            Map<String,String> parameters = new HashMap<String,String>();
+            parameters.put("parent","parent0");
+            AssertJUnit.assertEquals(3,store.queryCount("#roots#[@parentIndex=$parent]",parameters));
+            parameters.put("parent","parent1");
+            AssertJUnit.assertEquals(2,store.queryCount("#roots#[@parentIndex=$parent]",parameters));
+
+            QueryStatistics.ShapeStatistics shape = store.getQueryStatistics().getShapes().get("#roots#[@parentIndex=$parent]");
+            AssertJUnit.assertEquals(2,shape.getCalls());
+            AssertJUnit.assertEquals("parent0",shape.getExampleParameters().get("parent"));
+            AssertJUnit.assertEquals(3,store.queryCount(shape.getExample(),shape.getExampleParameters()));
+
+            store.queryCount("#roots#");
+            AssertJUnit.assertNull(store.getQueryStatistics().getShapes().get("#roots#").getExampleParameters());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testStatisticsArePublishedThroughJMX() {
+        try {
+            QueryStatistics statistics = store.getQueryStatistics();
+            statistics.register("test");
+            store.queryCount("#roots#");
+            statistics.setSlowQueryThreshold(0);
+            store.queryCount("#roots#");
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.xbrlapi:type=QueryStatistics,name=" + ObjectName.quote("test"));
+            AssertJUnit.assertEquals(2L,server.getAttribute(name,"QueryCount"));
+            AssertJUnit.assertEquals(0L,server.getAttribute(name,"SlowQueryThreshold"));
+
+            statistics.unregister();
+            AssertJUnit.assertFalse(server.isRegistered(name));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
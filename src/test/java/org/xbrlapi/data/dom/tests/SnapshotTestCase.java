@@ -0,0 +1,101 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.dom.StoreImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.utilities.Constants;
+
+/**
+ * Tests the binary snapshots of the XML DOM data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class SnapshotTestCase extends BaseTestCase {
+
+    private final String START = "test.data.small.schema";
+
+    private File snapshot = null;
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(START));
+        snapshot = File.createTempFile("xbrlapi-snapshot",".bin");
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        snapshot.delete();
+	}
+
+    @Test
+    public void testSnapshotRestoresTheFragments() {
+        try {
+            StoreImpl original = (StoreImpl) store;
+            original.writeSnapshot(snapshot);
+
+            StoreImpl restored = StoreImpl.readSnapshot(snapshot,4);
+            restored.setMatcher(new InStoreMatcherImpl(restored,cacheImpl));
+            stores.add(restored);
+
+            AssertJUnit.assertEquals(original.getSize(),restored.getSize());
+            AssertJUnit.assertEquals(original.queryForIndices("#roots#"),restored.queryForIndices("#roots#"));
+            AssertJUnit.assertEquals(original.getDocumentURIs(),restored.getDocumentURIs());
+
+            URI uri = getURI(START);
+            String expected = original.serialize(original.getDocumentAsDOM(uri));
+            String actual = restored.serialize(restored.getDocumentAsDOM(uri));
+            AssertJUnit.assertEquals(expected,actual);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRestoredStoreCanBeQueriedAndUpdated() {
+        try {
+            ((StoreImpl) store).writeSnapshot(snapshot);
+            StoreImpl restored = StoreImpl.readSnapshot(snapshot);
+            stores.add(restored);
+
+            String query = "#roots#[*/" + Constants.XMLSchemaPrefix + ":element]";
+            List<Fragment> fragments = restored.<Fragment>queryForXMLResources(query);
+            AssertJUnit.assertEquals(store.queryCount(query),fragments.size());
+            AssertJUnit.assertEquals("element",fragments.get(0).getDataRootElement().getLocalName());
+
+            Fragment fragment = fragments.get(0);
+            AssertJUnit.assertEquals(1,restored.queryCount("#roots#[@parentIndex='" + fragment.getParentIndex() + "' and @index='" + fragment.getIndex() + "']"));
+            restored.remove(fragment.getIndex());
+            AssertJUnit.assertEquals(fragments.size() - 1,restored.queryCount(query));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSnapshotOfEmptyStore() {
+        try {
+            StoreImpl empty = (StoreImpl) createStore();
+            stores.add(empty);
+            empty.writeSnapshot(snapshot);
+            StoreImpl restored = StoreImpl.readSnapshot(snapshot);
+            stores.add(restored);
+            AssertJUnit.assertEquals(0,restored.getSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
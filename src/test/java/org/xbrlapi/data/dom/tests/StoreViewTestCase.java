@@ -0,0 +1,199 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.utilities.Constants;
+
+/**
+ * Tests the read-only views of the documents in a data store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class StoreViewTestCase extends BaseTestCase {
+
+    private final String START = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(START));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        super.tearDown();
+	}
+
+    @Test
+    public void testViewMatchesURIFiltering() {
+        try {
+            URI uri = getURI(START);
+            Set<URI> uris = new HashSet<URI>();
+            uris.add(uri);
+            Store view = store.view(uris);
+            stores.add(view);
+
+            String query = "#roots#[@type='org.xbrlapi.impl.ElementDeclarationImpl']";
+            store.setFilteringURIs(uris);
+            long filteredCount = store.queryCount(query);
+            Set<String> filteredIndices = store.queryForIndices(query);
+            store.clearFilteringURIs();
+
+            AssertJUnit.assertTrue(filteredCount > 0);
+            AssertJUnit.assertEquals(filteredCount,view.queryCount(query));
+            AssertJUnit.assertEquals(filteredIndices,view.queryForIndices(query));
+            AssertJUnit.assertEquals(uris,view.getDocumentURIs());
+            AssertJUnit.assertEquals(store.getFragmentIndicesFromDocument(uri).size(),view.getSize());
+
+            Fragment fragment = view.getXMLResource(filteredIndices.iterator().next());
+            AssertJUnit.assertSame(view,fragment.getStore());
+            AssertJUnit.assertEquals(uri,fragment.getURI());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testViewsAreReadOnlySnapshots() {
+        try {
+            Set<URI> uris = new HashSet<URI>();
+            uris.add(getURI(START));
+            Store view = store.view(uris);
+            stores.add(view);
+            int size = view.getSize();
+            try {
+                view.persist(new MockImpl("mock"));
+                Assert.fail("A fragment was added to a view.");
+            } catch (Exception expected) {
+                ;
+            }
+            try {
+                view.remove(view.queryForIndices("#roots#").iterator().next());
+                Assert.fail("A fragment was removed from a view.");
+            } catch (Exception expected) {
+                ;
+            }
+            store.deleteDocument(getURI(START));
+            AssertJUnit.assertEquals(size,view.getSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testViewsIgnoreURIFilteringOfTheStore() {
+        try {
+            URI uri = getURI(START);
+            Set<URI> uris = new HashSet<URI>();
+            uris.add(uri);
+            long expected = store.queryCount("#roots#[@uri='" + uri + "']");
+
+            Set<URI> otherURIs = new HashSet<URI>();
+            otherURIs.add(new URI("http://example.com/not/in/the/store.xsd"));
+            store.setFilteringURIs(otherURIs);
+            Store view = store.view(uris);
+            stores.add(view);
+            AssertJUnit.assertEquals(0,store.queryCount("#roots#"));
+            AssertJUnit.assertEquals(expected,view.getSize());
+            AssertJUnit.assertEquals(expected,view.queryCount("#roots#"));
+            AssertJUnit.assertEquals(expected,view.queryForIndices("#roots#").size());
+            AssertJUnit.assertEquals(otherURIs,store.getFilteringURIs());
+            store.clearFilteringURIs();
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testViewsUseTheNamespaceBindingsOfTheStore() {
+        try {
+            Set<URI> uris = new HashSet<URI>();
+            uris.add(getURI(START));
+            String query = "#roots#[xbrlapi:data/viewtest:element]";
+            store.setNamespaceBinding(Constants.XMLSchemaNamespace,"viewtest");
+            store.setFilteringURIs(uris);
+            long expected = store.queryCount(query);
+            store.clearFilteringURIs();
+            AssertJUnit.assertTrue(expected > 0);
+
+            Store view = store.view(uris);
+            stores.add(view);
+            AssertJUnit.assertEquals(expected,view.queryCount(query));
+            AssertJUnit.assertEquals(expected,view.queryForXMLResources(query).size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNamespaceBindingsOfViewsDoNotChangeTheStore() {
+        try {
+            Set<URI> uris = new HashSet<URI>();
+            uris.add(getURI(START));
+            String query = "#roots#[xbrlapi:data/viewonly:element]";
+            Store view = store.view(uris);
+            stores.add(view);
+            view.setNamespaceBinding(Constants.XMLSchemaNamespace,"viewonly");
+            AssertJUnit.assertTrue(view.queryCount(query) > 0);
+            try {
+                store.queryCount(query);
+                Assert.fail("The namespace binding of the view was used by the store.");
+            } catch (Exception expected) {
+                ;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testViewsCanBeQueriedConcurrently() {
+        try {
+            final List<Exception> failures = Collections.synchronizedList(new Vector<Exception>());
+            final long expected = store.queryCount("#roots#[@uri='" + getURI(START) + "']");
+            List<Thread> threads = new Vector<Thread>();
+            for (int t=0; t<4; t++) {
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            Set<URI> uris = new HashSet<URI>();
+                            uris.add(getURI(START));
+                            Store view = store.view(uris);
+                            for (int i=0; i<10; i++) {
+                                if (view.queryCount("#roots#") != expected) throw new Exception("The view has the wrong number of fragments.");
+                            }
+                            view.delete();
+                        } catch (Exception e) {
+                            failures.add(e);
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread: threads) thread.join();
+            AssertJUnit.assertTrue(failures.isEmpty());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
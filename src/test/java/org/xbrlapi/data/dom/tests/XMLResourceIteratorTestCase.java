@@ -0,0 +1,82 @@
+package org.xbrlapi.data.dom.tests;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+
+/**
+ * Tests the lazy iteration over query results.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class XMLResourceIteratorTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+	@Test
+    public void testIteratorMatchesList() {
+		try {
+		    String query = "#roots#[*/*/@name]";
+		    List<Fragment> list = store.<Fragment>queryForXMLResources(query);
+		    Iterator<Fragment> iterator = store.<Fragment>queryForXMLResourceIterator(query);
+		    AssertJUnit.assertTrue(list.size() > 0);
+		    for (Fragment fragment: list) {
+		        AssertJUnit.assertTrue(iterator.hasNext());
+		        AssertJUnit.assertEquals(fragment.getIndex(),iterator.next().getIndex());
+		    }
+		    AssertJUnit.assertFalse(iterator.hasNext());
+		} catch (Exception e) {
+		    e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+    @Test
+    public void testFragmentsRemovedDuringIterationAreSkipped() {
+        try {
+            String query = "#roots#[*/*/@name]";
+            List<Fragment> list = store.<Fragment>queryForXMLResources(query);
+            AssertJUnit.assertTrue(list.size() > 1);
+            Iterator<Fragment> iterator = store.<Fragment>queryForXMLResourceIterator(query);
+            String removed = list.get(1).getIndex();
+            store.remove(removed);
+            List<String> expected = new Vector<String>();
+            for (Fragment fragment: list) {
+                if (! fragment.getIndex().equals(removed)) expected.add(fragment.getIndex());
+            }
+            List<String> actual = new Vector<String>();
+            while (iterator.hasNext()) {
+                actual.add(iterator.next().getIndex());
+            }
+            AssertJUnit.assertEquals(expected,actual);
+            try {
+                iterator.next();
+                Assert.fail("The iterator should be exhausted.");
+            } catch (NoSuchElementException expectedException) {
+                ; // Expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.xbrlapi.data.exist.tests;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.data.exist.StoreImpl;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.utilities.Constants;
+
+/**
+ * Tests queries run from several threads at once through the
+ * pool of query services.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class ConcurrentQueryTestCase extends BaseTestCase {
+	private final String START = "test.data.small.schema";
+	
+	@BeforeMethod
+    protected void setUp() throws Exception {
+	    super.setUp();
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+	    super.tearDown();
+	}	
+
+	@Test
+    public void testConcurrentQueriesShareThePool() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testConcurrentQueriesShareThePool");
+            Loader loader = this.createLoader(store);
+            loader.discover(getURI(START));
+            store.setQueryServicePoolSize(2);
+            AssertJUnit.assertEquals(2,store.getQueryServicePoolSize());
+
+            final StoreImpl target = store;
+            final long expected = store.queryCount("#roots#");
+            final List<Exception> failures = new Vector<Exception>();
+            final List<Long> counts = new Vector<Long>();
+            List<Thread> threads = new Vector<Thread>();
+            for (int i=0; i<8; i++) {
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j=0; j<5; j++) {
+                                counts.add(target.queryCount("#roots#"));
+                                target.queryForIndices("#roots#[@parentIndex='']");
+                            }
+                        } catch (Exception e) {
+                            failures.add(e);
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread: threads) thread.join();
+
+            AssertJUnit.assertTrue(failures.isEmpty());
+            AssertJUnit.assertEquals(40,counts.size());
+            for (Long count: counts) AssertJUnit.assertEquals(expected,count.longValue());
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }
+	}
+
+	@Test
+    public void testThePoolCanBeResizedWhileQueriesRun() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testThePoolCanBeResizedWhileQueriesRun");
+            Loader loader = this.createLoader(store);
+            loader.discover(getURI(START));
+            store.setQueryServicePoolSize(2);
+
+            final StoreImpl target = store;
+            final long expected = store.queryCount("#roots#");
+            final List<Exception> failures = new Vector<Exception>();
+            final List<Long> counts = new Vector<Long>();
+            List<Thread> threads = new Vector<Thread>();
+            for (int i=0; i<4; i++) {
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j=0; j<10; j++) {
+                                counts.add(target.queryCount("#roots#"));
+                            }
+                        } catch (Exception e) {
+                            failures.add(e);
+                        }
+                    }
+                };
+                threads.add(thread);
+                thread.start();
+            }
+            for (int size=1; size<=4; size++) {
+                store.setQueryServicePoolSize(size);
+            }
+            for (Thread thread: threads) thread.join();
+
+            AssertJUnit.assertTrue(failures.isEmpty());
+            AssertJUnit.assertEquals(40,counts.size());
+            for (Long count: counts) AssertJUnit.assertEquals(expected,count.longValue());
+            AssertJUnit.assertEquals(4,store.getQueryServicePoolSize());
+            AssertJUnit.assertEquals(expected,store.queryCount("#roots#"));
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }
+	}
+
+	@Test
+    public void testPooledServicesSeeNewNamespaceBindings() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testPooledServicesSeeNewNamespaceBindings");
+            Loader loader = this.createLoader(store);
+            loader.discover(getURI(START));
+            long expected = store.queryCount("#roots#[*/" + Constants.XMLSchemaPrefix + ":element]");
+            store.setNamespaceBinding(Constants.XMLSchemaNamespace,"schema");
+            AssertJUnit.assertEquals(expected,store.queryCount("#roots#[*/schema:element]"));
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }
+	}
+}
@@ -0,0 +1,110 @@
+package org.xbrlapi.data.exist.tests;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.data.QueryStatistics;
+import org.xbrlapi.data.exist.IndexAdvisor;
+import org.xbrlapi.data.exist.StoreImpl;
+import org.xbrlapi.loader.Loader;
+
+/**
+ * Tests the index advisor.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class IndexAdvisorTestCase extends BaseTestCase {
+	private final String START = "test.data.small.schema";
+	
+	@BeforeMethod
+    protected void setUp() throws Exception {
+	    super.setUp();
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+	    super.tearDown();
+	}	
+
+	@Test
+    public void testIndexesAreTracedToTheFragmentRoot() {
+        String query = "for $root in #roots#[@type='org.xbrlapi.impl.EntityResourceImpl' and */xsd:element/@name='a'] let $data:=$root/xbrlapi:data/* where $data/@scheme='s' and $root/*/xsd:schema/@targetNamespace='ns' return string($root/@uri)";
+        Set<String> indexes = IndexAdvisor.getIndexes(QueryStatistics.getShape(query));
+        AssertJUnit.assertEquals(5,indexes.size());
+        AssertJUnit.assertTrue(indexes.contains("path=\"/xbrlapi:fragment/@type\""));
+        AssertJUnit.assertTrue(indexes.contains("path=\"/xbrlapi:fragment/@uri\""));
+        AssertJUnit.assertTrue(indexes.contains("path=\"/xbrlapi:fragment/xbrlapi:data/xsd:element/@name\""));
+        AssertJUnit.assertTrue(indexes.contains("path=\"/xbrlapi:fragment/xbrlapi:data/xsd:schema/@targetNamespace\""));
+        AssertJUnit.assertTrue(indexes.contains("qname=\"@scheme\""));
+	}
+
+	@Test
+    public void testRecommendedIndexesAreApplied() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testRecommendedIndexesAreApplied");
+            Loader loader = this.createLoader(store);
+            loader.discover(getURI(START));
+
+            store.getQueryStatistics().reset();
+            store.queryCount("#roots#[@type='org.xbrlapi.impl.ConceptImpl']");
+            store.queryCount("#roots#[@benchmarkAttribute='value']");
+
+            IndexAdvisor advisor = new IndexAdvisor(store);
+            Map<String,Long> recommendations = advisor.getRecommendations();
+            AssertJUnit.assertEquals(1,recommendations.size());
+            String index = "path=\"/xbrlapi:fragment/@benchmarkAttribute\"";
+            AssertJUnit.assertTrue(recommendations.containsKey(index));
+            AssertJUnit.assertTrue(advisor.getRecommendedConfiguration().contains(index));
+
+            long calls = store.getQueryStatistics().getQueryCount();
+            List<IndexAdvisor.Timing> timings = advisor.apply();
+            AssertJUnit.assertEquals(2,timings.size());
+            AssertJUnit.assertEquals(calls,store.getQueryStatistics().getQueryCount());
+            AssertJUnit.assertTrue(store.getIndexConfiguration().contains(index));
+            AssertJUnit.assertEquals(0,advisor.getRecommendations().size());
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }
+	}
+
+	@Test
+    public void testParameterizedQueriesAreTimedWithTheirParameters() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testParameterizedQueriesAreTimedWithTheirParameters");
+            Loader loader = this.createLoader(store);
+            loader.discover(getURI(START));
+
+            store.getQueryStatistics().reset();
+            Map<String,String> parameters = new HashMap<String,String>();
+            parameters.put("value","value");
+            store.queryCount("#roots#[@benchmarkAttribute=$value]",parameters);
+
+            IndexAdvisor advisor = new IndexAdvisor(store);
+            AssertJUnit.assertTrue(advisor.getRecommendations().containsKey("path=\"/xbrlapi:fragment/@benchmarkAttribute\""));
+            List<IndexAdvisor.Timing> timings = advisor.apply();
+            AssertJUnit.assertEquals(1,timings.size());
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }
+	}
+}
@@ -2,6 +2,7 @@ package org.xbrlapi.data.exist.tests;
 
 import java.util.List;
 import java.util.Set;
+import java.util.Vector;
 
 import org.testng.Assert;
 import org.testng.AssertJUnit;
@@ -54,6 +55,51 @@ public class StoreImplTestCase extends BaseTestCase {
         }       
 	}
 
+    @Test
+    public void testPersistAllFragments() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testPersistAllFragments");
+            List<XML> batch = new Vector<XML>();
+            for (int i=1; i<=10; i++) batch.add(new MockImpl("" + i));
+            store.persistAll(batch);
+            AssertJUnit.assertEquals(10,store.getSize());
+            AssertJUnit.assertEquals("7",store.<XML>getXMLResource("7").getIndex());
+            AssertJUnit.assertEquals(store,batch.get(0).getStore());
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                if (store!= null) store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }       
+    }
+
+    @Test
+    public void testBufferedFragmentsAreVisibleToQueries() {
+        StoreImpl store = null;
+        try {
+            store = createStore("testBufferedFragments");
+            store.setPersistenceBatchSize(100);
+            store.persistBuffered(new MockImpl("1"));
+            store.persistBuffered(new MockImpl("2"));
+            AssertJUnit.assertEquals(2,store.queryCount("#roots#[@type='org.xbrlapi.impl.MockImpl']"));
+            store.persistBuffered(new MockImpl("3"));
+            store.sync();
+            AssertJUnit.assertEquals(3,store.getSize());
+        } catch (Exception e) {
+            Assert.fail("Unexpected: " + e.getMessage());
+        } finally {
+            try {
+                if (store!= null) store.delete();
+            } catch (Exception x) {
+                Assert.fail("The store could not be deleted.");
+            }
+        }       
+    }
+
 	@Test
     public void testRemoveFragmentUsingIndex() {
         StoreImpl store = null;
@@ -0,0 +1,19 @@
+package org.xbrlapi.data.mapped.tests;
+
+import org.xbrlapi.data.Store;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Runs the XML DOM store tests of the asynchronous query methods against the memory-mapped store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class AsyncQueryTestCase extends org.xbrlapi.data.dom.tests.AsyncQueryTestCase {
+
+	/**
+	 * @see org.xbrlapi.data.dom.tests.BaseTestCase#createStore()
+	 */
+	public Store createStore() throws XBRLException {
+	    return StoreImplTestCase.createStore(cacheImpl,false);
+	}
+
+}
@@ -0,0 +1,264 @@
+package org.xbrlapi.data.mapped.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.Mock;
+import org.xbrlapi.cache.Cache;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.mapped.StoreImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.networks.Analyser;
+import org.xbrlapi.networks.AnalyserImpl;
+import org.xbrlapi.networks.Storer;
+import org.xbrlapi.networks.StorerImpl;
+import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Test the memory-mapped XBRLAPI Store implementation.  The tests of the 
+ * XML DOM store are run against the memory-mapped store by the test cases 
+ * in this package, which override the creation of the store.
+ * @author Geoffrey Shuetrim (geoff@galexy.net) 
+*/
+public class StoreImplTestCase extends org.xbrlapi.data.dom.tests.StoreImplTestCase {
+	private final String STARTING_POINT = "test.data.small.schema";
+
+	/**
+	 * @see org.xbrlapi.data.dom.tests.BaseTestCase#createStore()
+	 */
+	public Store createStore() throws XBRLException {
+	    return createStore(cacheImpl,false);
+	}
+
+	/**
+	 * @param cache The cache used by the store's matcher.
+	 * @param inMemoryQueries true if the store is to evaluate queries that 
+	 * relate fragments to each other by loading all of the fragments into 
+	 * memory when the attribute indexes cannot narrow them down.
+	 * @return a new memory-mapped store in a new directory.
+	 * @throws XBRLException
+	 */
+	public static StoreImpl createStore(Cache cache, boolean inMemoryQueries) throws XBRLException {
+	    StoreImpl store = new StoreImpl(createDirectory());
+	    store.setMatcher(new InStoreMatcherImpl(store,cache));
+	    store.setInMemoryQueries(inMemoryQueries);
+	    return store;
+	}
+
+	/**
+	 * @return a new, empty directory to hold a store's files.
+	 * @throws XBRLException if the directory cannot be created.
+	 */
+	public static File createDirectory() throws XBRLException {
+	    try {
+	        File directory = File.createTempFile("xbrlapi-mapped-store",".tmp");
+	        directory.delete();
+	        return directory;
+	    } catch (IOException e) {
+	        throw new XBRLException("The store directory could not be created.",e);
+	    }
+	}
+
+    @Test
+    public void testFragmentsSurviveReopeningTheStore() {
+        try {
+            File directory = ((StoreImpl) store).getDirectory();
+            long size = store.getSize();
+            Set<String> schemas = store.queryForIndices("#roots#[@type='org.xbrlapi.impl.SchemaImpl']");
+            AssertJUnit.assertTrue(schemas.size() > 0);
+            store.persist(new MockImpl("reopened"));
+            store.remove("reopened");
+            store.close();
+
+            Store reopened = new StoreImpl(directory);
+            stores.add(reopened);
+            AssertJUnit.assertEquals(size, reopened.getSize());
+            AssertJUnit.assertFalse(reopened.hasXMLResource("reopened"));
+            AssertJUnit.assertEquals(schemas, reopened.queryForIndices("#roots#[@type='org.xbrlapi.impl.SchemaImpl']"));
+            AssertJUnit.assertTrue(reopened.hasDocument(getURI(STARTING_POINT)));
+            for (String index: schemas) {
+                Fragment fragment = reopened.getXMLResource(index);
+                AssertJUnit.assertEquals("schema",fragment.getDataRootElement().getLocalName());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testChangedFragmentsAreStoredAgain() {
+        try {
+            store.persist(new MockImpl("changed"));
+            Mock fragment = store.getXMLResource("changed");
+            fragment.setMetaAttribute("parentIndex","parent");
+            AssertJUnit.assertEquals(1,store.queryCount("#roots#[@parentIndex='parent']"));
+            Mock changed = store.getXMLResource("changed");
+            AssertJUnit.assertEquals("parent",changed.getMetaAttribute("parentIndex"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testQueriesAreEvaluatedOneBatchAtATime() {
+        try {
+            int count = StoreImpl.QUERY_BATCH_SIZE + 10;
+            for (int i=0; i<count; i++) {
+                Mock fragment = new MockImpl("mock" + i);
+                if (i % 2 == 0) fragment.appendDataElement(Constants.XBRLAPINamespace,"info",Constants.XBRLAPIPrefix + ":info");
+                store.persist(fragment);
+            }
+            String query = "#roots#[@type='org.xbrlapi.impl.MockImpl' and */xbrlapi:info]";
+            AssertJUnit.assertEquals((count + 1) / 2,store.queryCount(query));
+            List<Fragment> fragments = store.<Fragment>queryForXMLResources(query);
+            AssertJUnit.assertEquals((count + 1) / 2,fragments.size());
+            for (int i=0; i<fragments.size(); i++) {
+                AssertJUnit.assertEquals("mock" + (2 * i),fragments.get(i).getIndex());
+            }
+            Set<String> types = store.queryForStrings("#roots#[*/xbrlapi:info]/@type");
+            AssertJUnit.assertEquals(1,types.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testQueriesRelatingFragmentsAreEvaluatedAgainstTheirCandidates() {
+        try {
+            String query = "for $schema in #roots#[@type='org.xbrlapi.impl.SchemaImpl'], $child in #roots#[@parentIndex=$schema/@index] return $child";
+            long count = store.queryCount(query);
+            AssertJUnit.assertTrue(count > 0);
+            AssertJUnit.assertEquals(count,store.queryForIndices(query).size());
+            String reversed = "for $schema in #roots#[@type='org.xbrlapi.impl.SchemaImpl'] return #roots#[$schema/@index=@parentIndex]";
+            AssertJUnit.assertEquals(count,store.queryCount(reversed));
+            String ordered = "for $root in #roots#[@type='org.xbrlapi.impl.SchemaImpl'] order by $root/@index return $root";
+            AssertJUnit.assertEquals(store.queryCount("#roots#[@type='org.xbrlapi.impl.SchemaImpl']"),store.queryCount(ordered));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRelationshipsCanBeStoredAndAnalysed() {
+        try {
+            loader.discover(getURI("test.data.xlink.titles"));
+            Storer storer = new StorerImpl(store);
+            storer.storeRelationships(store.getDocumentURIs());
+            AssertJUnit.assertTrue(store.queryCount("#roots#[@type='org.xbrlapi.impl.RelationshipImpl']") > 0);
+            AssertJUnit.assertEquals(0,store.queryCount("#roots#[@type='org.xbrlapi.impl.ErrorImpl']"));
+            Analyser analyser = new AnalyserImpl(store);
+            for (URI document: store.getDocumentURIs()) {
+                AssertJUnit.assertTrue(analyser.hasAllRelationships(document));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testQueriesRelatingFragmentsNeedInMemoryQueries() {
+        String query = "for $schema in #roots#[@type='org.xbrlapi.impl.SchemaImpl'], $child in #roots# where $child/@parentIndex = $schema/@index return $child";
+        try {
+            store.queryCount(query);
+            Assert.fail("The query should need in-memory queries to be enabled.");
+        } catch (XBRLException e) {
+            ;
+        }
+        try {
+            ((StoreImpl) store).setInMemoryQueries(true);
+            AssertJUnit.assertTrue(store.queryCount(query) > 0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSegmentRollover() {
+        try {
+            File directory = createDirectory();
+            StoreImpl small = new StoreImpl(directory,1024);
+            stores.add(small);
+            for (int i=0; i<20; i++) {
+                small.persist(new MockImpl("mock" + i));
+            }
+            AssertJUnit.assertTrue(new File(directory,"segment-1.dat").exists());
+            small.close();
+
+            StoreImpl reopened = new StoreImpl(directory,1024);
+            stores.add(reopened);
+            AssertJUnit.assertEquals(20,reopened.getSize());
+            for (int i=0; i<20; i++) {
+                Mock fragment = reopened.getXMLResource("mock" + i);
+                AssertJUnit.assertEquals("mock" + i,fragment.getIndex());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSegmentFilesGrowAsTheyFill() {
+        try {
+            File directory = createDirectory();
+            StoreImpl grown = new StoreImpl(directory);
+            stores.add(grown);
+            File segment = new File(directory,"segment-0.dat");
+            AssertJUnit.assertEquals(0,segment.length());
+            grown.persist(new MockImpl("mock"));
+            AssertJUnit.assertTrue(segment.length() > 0);
+            AssertJUnit.assertTrue(segment.length() < StoreImpl.SEGMENT_SIZE);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPartialIndexLogRecordIsDiscarded() {
+        try {
+            File directory = createDirectory();
+            StoreImpl damaged = new StoreImpl(directory);
+            stores.add(damaged);
+            damaged.persist(new MockImpl("first"));
+            damaged.persist(new MockImpl("second"));
+            damaged.close();
+
+            File log = new File(directory,"index.log");
+            RandomAccessFile file = new RandomAccessFile(log,"rw");
+            file.setLength(file.length() - 3);
+            file.close();
+
+            StoreImpl reopened = new StoreImpl(directory);
+            stores.add(reopened);
+            AssertJUnit.assertEquals(1,reopened.getSize());
+            AssertJUnit.assertTrue(reopened.hasXMLResource("first"));
+            reopened.persist(new MockImpl("third"));
+            reopened.close();
+
+            reopened = new StoreImpl(directory);
+            stores.add(reopened);
+            AssertJUnit.assertEquals(2,reopened.getSize());
+            AssertJUnit.assertTrue(reopened.hasXMLResource("third"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+}
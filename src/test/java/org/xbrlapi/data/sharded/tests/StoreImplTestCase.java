@@ -0,0 +1,301 @@
+package org.xbrlapi.data.sharded.tests;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.xbrlapi.Fragment;
+import java.util.List;
+import org.xbrlapi.Mock;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.sharded.StoreImpl;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.data.resource.InStoreMatcherImpl;
+import org.xbrlapi.networks.Analyser;
+import org.xbrlapi.networks.AnalyserImpl;
+import org.xbrlapi.networks.Storer;
+import org.xbrlapi.networks.StorerImpl;
+import org.xbrlapi.utilities.Constants;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Test the sharded XBRLAPI Store implementation.
+ * @author Geoffrey Shuetrim (geoff@galexy.net) 
+*/
+public class StoreImplTestCase extends BaseTestCase {
+	private final String STARTING_POINT = "test.data.small.schema";
+	
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+		loader.discover(this.getURI(STARTING_POINT));		
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}
+
+	@Test
+    public void testAddFragment() {
+		try {
+			String index = loader.getNextFragmentId();
+			MockImpl d = null;
+			d = new MockImpl(index);
+			store.persist(d);
+			Fragment f = null;
+			f = store.getXMLResource(index);
+			AssertJUnit.assertNotNull(f);
+			AssertJUnit.assertEquals(index,f.getIndex());
+		} catch (XBRLException e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Test
+    public void testRemoveFragmentUsingIndex() {
+		try {
+			String index = "1";
+			store.persist(new MockImpl(index));
+			AssertJUnit.assertTrue(store.hasXMLResource(index));
+			store.remove(index);
+			AssertJUnit.assertFalse(store.hasXMLResource(index));
+		} catch (XBRLException e) {
+			Assert.fail("Unexpected exception. " + e.getMessage());
+		}
+	}
+
+	@Test
+    public void testRemoveFragmentUsingFragment() {
+		try {
+			String index = "1";
+			store.persist(new MockImpl(index));
+			AssertJUnit.assertTrue(store.hasXMLResource(index));
+			MockImpl document = (MockImpl) store.getXMLResource(index);
+			AssertJUnit.assertNotNull(document);
+			store.remove(index);
+			AssertJUnit.assertFalse(store.hasXMLResource(index));
+		} catch (XBRLException e) {
+			Assert.fail("Unexpected exception. " + e.getMessage());
+		}
+	}
+	
+	@Test
+    public void testQueryData() throws Exception {
+	    Mock fragment = new MockImpl("WooHoo");
+	    fragment.appendDataElement(Constants.XBRLAPINamespace,"info",Constants.XBRLAPIPrefix + ":info");
+	    store.persist(fragment);
+		String index = "1";
+		//store.serialize(fragment);
+		List<Fragment> fragments = null;
+		try {
+	        String query = "#roots#[@type='org.xbrlapi.impl.MockImpl' and */xbrlapi:info]";
+	        logger.debug(query);
+	        fragments = store.<Fragment>queryForXMLResources(query);
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+		
+		try {
+			AssertJUnit.assertEquals("1",(new Integer(fragments.size())).toString());
+	        AssertJUnit.assertEquals("info",fragments.get(0).getDataRootElement().getLocalName());
+			store.remove(index);
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+	
+    @Test
+    public void testQueryForIndices() {
+        try {
+            String xpathQuery = "#roots#";
+            Set<String> indices = store.queryForIndices(xpathQuery);
+            AssertJUnit.assertTrue(! indices.isEmpty());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+    
+	@Test
+    public void testQueryLoadedFragments() {
+		try {
+			loader.discover();			
+		} catch (XBRLException e) {
+			Assert.fail(e.getMessage());
+		} 
+		
+		try {
+	        String query = "#roots#[*/" + Constants.XMLSchemaPrefix + ":element]";
+	        List<Fragment> fragments = store.<Fragment>queryForXMLResources(query);
+	        Fragment fragment = fragments.get(0);
+	        AssertJUnit.assertEquals("element",fragment.getDataRootElement().getLocalName());
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}	
+	
+    @Test
+    public void testGetFragments() {
+        try {
+            List<Fragment> fragments = store.<Fragment>getXMLResources("Schema");
+            List<Fragment> sameFragments = store.<Fragment>getXMLResources("org.xbrlapi.impl.SchemaImpl");
+            AssertJUnit.assertTrue(sameFragments.size() > 0);
+            AssertJUnit.assertTrue(fragments.size() == sameFragments.size());
+        } catch (XBRLException e) {
+            e.printStackTrace();
+            Assert.fail("Unexpected " + e.getMessage());
+        }
+    }
+
+	@Test
+    public void testHasDocument() {
+		try {
+			AssertJUnit.assertTrue(store.hasDocument(getURI(STARTING_POINT)));
+			AssertJUnit.assertFalse(store.hasDocument(new URI("http://www.rubbish.gcs/crazy.xyz")));
+		} catch (Exception e) {
+			Assert.fail("Unexpected " + e.getMessage());
+		}
+	}
+
+    @Test
+    public void testDocumentsAreKeptInSingleShards() {
+        try {
+            StoreImpl sharded = (StoreImpl) store;
+            URI uri = getURI(STARTING_POINT);
+            Set<String> indices = store.getFragmentIndicesFromDocument(uri);
+            AssertJUnit.assertTrue(indices.size() > 1);
+            Store shard = sharded.getShard(indices.iterator().next());
+            for (String index: indices) {
+                AssertJUnit.assertSame(shard, sharded.getShard(index));
+                AssertJUnit.assertTrue(shard.hasXMLResource(index));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testQueriesMergeTheShardResults() {
+        try {
+            StoreImpl sharded = (StoreImpl) store;
+            for (int i=0; i<30; i++) {
+                store.persist(new MockImpl("mock" + i));
+            }
+
+            int size = 0;
+            Set<String> indices = new HashSet<String>();
+            for (Store shard: sharded.getShards()) {
+                size += shard.getSize();
+                indices.addAll(shard.queryForIndices("#roots#"));
+            }
+            AssertJUnit.assertEquals(size, store.getSize());
+            AssertJUnit.assertEquals(indices, store.queryForIndices("#roots#"));
+            AssertJUnit.assertEquals(30, store.queryCount("#roots#[@type='org.xbrlapi.impl.MockImpl']"));
+
+            List<Mock> mocks = store.<Mock>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.MockImpl']");
+            AssertJUnit.assertEquals(30, mocks.size());
+            for (Mock mock: mocks) {
+                AssertJUnit.assertSame(store, mock.getStore());
+            }
+
+            List<Mock> page = store.<Mock>queryForXMLResources("#roots#[@type='org.xbrlapi.impl.MockImpl']", null, "index", 5, 10);
+            AssertJUnit.assertEquals(10, page.size());
+            for (int i=1; i<page.size(); i++) {
+                AssertJUnit.assertTrue(page.get(i-1).getIndex().compareTo(page.get(i).getIndex()) < 0);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testURIFilteringAppliesToAllShards() {
+        try {
+            URI uri = getURI(STARTING_POINT);
+            Set<URI> uris = new HashSet<URI>();
+            uris.add(uri);
+            store.persist(new MockImpl("unfiltered"));
+            store.setFilteringURIs(uris);
+            Set<String> indices = store.queryForIndices("#roots#");
+            AssertJUnit.assertTrue(indices.size() > 0);
+            AssertJUnit.assertFalse(indices.contains("unfiltered"));
+            for (String index: indices) {
+                Fragment fragment = store.getXMLResource(index);
+                AssertJUnit.assertEquals(uri, fragment.getURI());
+            }
+            store.clearFilteringURIs();
+            AssertJUnit.assertTrue(store.queryForIndices("#roots#").contains("unfiltered"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testQueriesRelatingFragmentsSpanTheShards() {
+        try {
+            StoreImpl sharded = (StoreImpl) store;
+            MockImpl parent = new MockImpl("parent");
+            store.persist(parent);
+            Set<String> children = new HashSet<String>();
+            boolean crossesShards = false;
+            for (int i=0; i<10; i++) {
+                MockImpl child = new MockImpl("child" + i);
+                child.setMetaAttribute("parentIndex", "parent");
+                store.persist(child);
+                children.add(child.getIndex());
+                if (sharded.getShard(child.getIndex()) != sharded.getShard("parent")) crossesShards = true;
+            }
+            AssertJUnit.assertTrue(crossesShards);
+
+            String query = "for $parent in #roots#[@index='parent'], $child in #roots#[@parentIndex=$parent/@index] return $child";
+            AssertJUnit.assertEquals(children, store.queryForIndices(query));
+            AssertJUnit.assertEquals(children.size(), store.queryCount(query));
+            List<Mock> mocks = store.<Mock>queryForXMLResources(query);
+            AssertJUnit.assertEquals(children.size(), mocks.size());
+            for (Mock mock: mocks) {
+                AssertJUnit.assertSame(store, mock.getStore());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRelationshipsCanBeStoredAcrossShards() {
+        try {
+            URI uri = getURI("test.data.xlink.titles");
+            loader.discover(uri);
+            Storer storer = new StorerImpl(store);
+            storer.storeRelationships(store.getDocumentURIs());
+            AssertJUnit.assertEquals(0,store.queryCount("#roots#[@type='org.xbrlapi.impl.ErrorImpl']"));
+            Analyser analyser = new AnalyserImpl(store);
+            for (URI document: store.getDocumentURIs()) {
+                AssertJUnit.assertTrue(analyser.hasAllRelationships(document));
+            }
+
+            // The same documents in a single store give the same relationships.
+            Store single = new org.xbrlapi.data.dom.StoreImpl();
+            stores.add(single);
+            single.setMatcher(new InStoreMatcherImpl(single,cacheImpl));
+            createLoader(single).discover(getURI(STARTING_POINT));
+            createLoader(single).discover(uri);
+            new StorerImpl(single).storeRelationships(single.getDocumentURIs());
+            String relationships = "#roots#[@type='org.xbrlapi.impl.RelationshipImpl']";
+            AssertJUnit.assertTrue(store.queryCount(relationships) > 0);
+            AssertJUnit.assertEquals(single.queryCount(relationships), store.queryCount(relationships));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.xbrlapi.fragment.tests;
+
+/**
+ * Tests the instantiation of fragments by the fragment factory.
+ * Uses the DOM-based data store to ensure rapid testing.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+
+import org.w3c.dom.Element;
+import org.xbrlapi.DOMLoadingTestCase;
+import org.xbrlapi.Fragment;
+import org.xbrlapi.XML;
+import org.xbrlapi.impl.FragmentFactory;
+import org.xbrlapi.impl.MockImpl;
+import org.xbrlapi.utilities.XBRLException;
+
+public class FragmentFactoryTestCase extends DOMLoadingTestCase {
+
+	private final String STARTING_POINT = "test.data.small.schema";
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        loader.discover(this.getURI(STARTING_POINT));
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+       super.tearDown();
+	}	
+
+	/**
+	 * Test that retrieved fragments have the type recorded in the data store.
+	 */
+	@Test
+    public void testFragmentsHaveTheirRecordedType() {	
+		try {
+		    for (String index: store.queryForIndices("#roots#")) {
+		        Fragment fragment = store.getXMLResource(index);
+		        Element root = fragment.getMetadataRootElement();
+		        AssertJUnit.assertEquals(root.getAttribute("type"),fragment.getClass().getName());
+		        XML copy = FragmentFactory.newFragment(store,root);
+		        AssertJUnit.assertEquals(fragment.getClass(),copy.getClass());
+		        AssertJUnit.assertEquals(index,copy.getIndex());
+		    }
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test that registered instantiators are used to create fragments.
+	 */
+	@Test
+    public void testRegisteredInstantiatorIsUsed() {	
+		try {
+		    final int[] calls = {0};
+		    FragmentFactory.register(new FragmentFactory.Instantiator(CountedMockImpl.class.getName()) {
+		        public XML newInstance() throws XBRLException {
+		            calls[0]++;
+		            return new CountedMockImpl();
+		        }
+		    });
+		    MockImpl mock = new MockImpl("counted");
+		    mock.setMetaAttribute("type",CountedMockImpl.class.getName());
+		    XML xml = FragmentFactory.newFragment(store,mock.getMetadataRootElement());
+		    AssertJUnit.assertTrue(xml instanceof CountedMockImpl);
+		    AssertJUnit.assertEquals(1,calls[0]);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Test that unknown fragment types are reported.
+	 */
+	@Test
+    public void testUnknownTypeIsReported() {	
+		try {
+		    MockImpl mock = new MockImpl("unknown");
+		    mock.setMetaAttribute("type","org.xbrlapi.impl.NoSuchFragmentImpl");
+		    FragmentFactory.newFragment(store,mock.getMetadataRootElement());
+		    Assert.fail("An unknown fragment type was instantiated.");
+		} catch (XBRLException expected) {
+		    ;
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * A mock fragment class that is only known to the factory by registration.
+	 */
+	public static class CountedMockImpl extends MockImpl {
+	    private static final long serialVersionUID = 1L;
+	    public CountedMockImpl() throws XBRLException {
+	        super();
+	    }
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.xbrlapi.loader.discoverer.tests;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.data.dom.tests.BaseTestCase;
+import org.xbrlapi.loader.discoverer.DiscoveryScheduler;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Tests the scheduling of document discovery.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class DiscoverySchedulerTestCase extends BaseTestCase {
+
+    private List<URI> uris = null;
+    private DiscoveryScheduler scheduler = null;
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        uris = new Vector<URI>();
+        uris.add(getURI("test.data.small.instance"));
+        scheduler = new DiscoveryScheduler(loader, 2, 4, DiscoveryScheduler.DEFAULT_INTERVAL);
+	}
+
+	@AfterMethod
+    protected void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        super.tearDown();
+	}
+
+    @Test
+    public void testSubmittedDiscoveryCompletes() {
+        try {
+            CompletableFuture<Void> discovery = scheduler.submit(uris);
+            discovery.get(5, TimeUnit.MINUTES);
+            AssertJUnit.assertTrue(store.getDocumentURIs().size() > 14);
+            AssertJUnit.assertFalse(scheduler.isBusy());
+            AssertJUnit.assertEquals(4, scheduler.getAvailableCapacity());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail("Unexpected " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSubmissionsWaitForCapacity() {
+        try {
+            List<URI> batch = new Vector<URI>();
+            for (int i=0; i<4; i++) batch.add(uris.get(0));
+            CompletableFuture<Void> first = scheduler.submit(batch);
+            if (! first.isDone()) {
+                AssertJUnit.assertEquals(0, scheduler.getAvailableCapacity());
+                AssertJUnit.assertNull(scheduler.trySubmit(uris, 0, TimeUnit.MILLISECONDS));
+            }
+            first.get(5, TimeUnit.MINUTES);
+            CompletableFuture<Void> second = scheduler.trySubmit(uris, 1, TimeUnit.SECONDS);
+            AssertJUnit.assertNotNull(second);
+            second.get(5, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail("Unexpected " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCancelledDiscoveryCanBeResubmitted() {
+        try {
+            CompletableFuture<Void> cancelled = scheduler.submit(uris);
+            cancelled.cancel(true);
+            try {
+                cancelled.get();
+                Assert.fail("The discovery should have been cancelled.");
+            } catch (CancellationException expected) {
+                ;
+            }
+            scheduler.submit(uris).get(5, TimeUnit.MINUTES);
+            AssertJUnit.assertTrue(store.getDocumentURIs().size() > 14);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail("Unexpected " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testShutdownRejectsSubmissions() {
+        try {
+            scheduler.shutdown();
+            scheduler.submit(uris);
+            Assert.fail("A scheduler that has been shut down should reject submissions.");
+        } catch (XBRLException expected) {
+            ;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.xbrlapi.loader.tests;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.Assert;
+import org.testng.AssertJUnit;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xbrlapi.data.Store;
+import org.xbrlapi.data.dom.tests.BaseTestCase;
+import org.xbrlapi.loader.Loader;
+import org.xbrlapi.utilities.XBRLException;
+
+/**
+ * Tests document discovery by several worker threads at once.
+ * @author Geoffrey Shuetrim (geoff@galexy.net)
+ */
+public class ParallelLoaderImplTestCase extends BaseTestCase {
+
+    private final String STARTING_POINT = "test.data.small.instance";
+    private URI uri = null;
+
+	@BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        uri = getURI(this.STARTING_POINT);
+	}
+
+    @Test
+    public void testDiscoveryThreadsMustBePositive() {
+        try {
+            AssertJUnit.assertEquals(1, loader.getDiscoveryThreads());
+            loader.setDiscoveryThreads(0);
+            Assert.fail("A loader cannot discover documents without any threads.");
+        } catch (XBRLException expected) {
+            ;
+        }
+    }
+
+    @Test
+    public void testParallelDiscoveryLoadsTheSameDocuments() {
+        try {
+            loader.setDiscoveryThreads(4);
+            loader.discover(uri);
+            AssertJUnit.assertTrue(loader.getDocumentsStillToAnalyse().isEmpty());
+            Set<URI> parallelURIs = store.getDocumentURIs();
+            AssertJUnit.assertTrue(parallelURIs.size() > 14);
+
+            Store sequentialStore = createStore();
+            stores.add(sequentialStore);
+            Loader sequentialLoader = createLoader(sequentialStore);
+            sequentialLoader.discover(uri);
+            Set<URI> expected = new TreeSet<URI>(sequentialStore.getDocumentURIs());
+            AssertJUnit.assertEquals(expected, new TreeSet<URI>(parallelURIs));
+            AssertJUnit.assertEquals(sequentialStore.getSize(), store.getSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail("Unexpected " + e.getMessage());
+        }
+    }
+
+}